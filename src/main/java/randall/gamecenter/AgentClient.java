@@ -0,0 +1,311 @@
+package randall.gamecenter;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 远程代理的客户端。
+ * <p>
+ * 控制台为每个远程节点创建一个客户端，在一个后台线程中连接代理并接收状态和日志，在本地保存节点的游戏状态
+ * 和所有程序状态的副本，供图形界面和控制接口查询。连接断开后按固定间隔重新连接，重新连接时代理会重新发送
+ * 完整的状态。命令通过 {@link #send(AgentProtocol.Command, String)} 发出，代理回复后完成。
+ *
+ * @author mrzhqiang
+ */
+public final class AgentClient implements AutoCloseable {
+  private static final Logger LOGGER = LoggerFactory.getLogger("randall");
+
+  /** 连接失败或者断开后重新连接的间隔，单位：毫秒。 */
+  static final long RECONNECT_PERIOD = 5000;
+  private static final int CONNECT_TIMEOUT = 3000;
+
+  public final String name;
+  public final String host;
+  public final int port;
+  private final String token;
+  private final Listener listener;
+  private final Thread thread;
+  private final AtomicInteger requests = new AtomicInteger();
+  private final Map<Integer, CompletableFuture<String>> pending = new ConcurrentHashMap<>();
+  /** 节点上所有程序的状态，按代理发送的先后排列。 */
+  private final Map<String, AgentProtocol.ProgramStatus> programs = Maps.newLinkedHashMap();
+
+  private volatile AgentProtocol.GameStatus game;
+  private volatile String gameName = "";
+  private volatile Socket socket;
+  private OutputStream output;
+  private volatile boolean closed;
+
+  public AgentClient(String name, String host, int port, String token, Listener listener) {
+    Preconditions.checkArgument(!Strings.isNullOrEmpty(name), "name is empty");
+    Preconditions.checkArgument(port > 0 && port <= 65535, "invalid port: %s", port);
+    this.name = name;
+    this.host = Preconditions.checkNotNull(host, "host == null");
+    this.port = port;
+    this.token = Strings.nullToEmpty(token);
+    this.listener = Preconditions.checkNotNull(listener, "listener == null");
+    this.thread = new Thread(this::loop, "agent-client-" + name);
+    thread.setDaemon(true);
+  }
+
+  /**
+   * 解析 host:port 格式的地址。
+   */
+  public static AgentClient of(String name, String address, String token, Listener listener) {
+    String value = Strings.nullToEmpty(address).trim();
+    int colon = value.lastIndexOf(':');
+    Preconditions.checkArgument(colon > 0, "无效的代理地址：%s", address);
+    int port;
+    try {
+      port = Integer.parseInt(value.substring(colon + 1).trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("无效的代理地址：" + address);
+    }
+    return new AgentClient(name, value.substring(0, colon).trim(), port, token, listener);
+  }
+
+  /**
+   * 开始连接，断开后自动重新连接。
+   */
+  public void open() {
+    thread.start();
+  }
+
+  public boolean isConnected() {
+    return socket != null;
+  }
+
+  /**
+   * 节点的游戏状态，还没有连接过时返回 null。
+   */
+  public AgentProtocol.GameStatus game() {
+    return game;
+  }
+
+  /**
+   * 节点配置的游戏名称。
+   */
+  public String gameName() {
+    return gameName;
+  }
+
+  /**
+   * 节点上所有程序最近一次收到的状态。
+   */
+  public List<AgentProtocol.ProgramStatus> programs() {
+    synchronized (programs) {
+      return Lists.newArrayList(programs.values());
+    }
+  }
+
+  /**
+   * 发送命令。
+   *
+   * @param target 程序命令的目标程序，例如 RunGate3，其他命令为空。
+   * @return 代理执行后完成，失败或者连接断开时异常完成，异常信息为失败原因。
+   */
+  public CompletableFuture<String> send(AgentProtocol.Command command, String target) {
+    CompletableFuture<String> future = new CompletableFuture<>();
+    int request = requests.incrementAndGet();
+    pending.put(request, future);
+    try {
+      write(AgentProtocol.COMMAND, new AgentProtocol.Writer().writeInt(request)
+          .writeByte(command.code).writeUtf(target).toByteArray());
+    } catch (IOException e) {
+      pending.remove(request);
+      future.completeExceptionally(new IllegalStateException("代理没有连接：" + name));
+    }
+    return future;
+  }
+
+  @Override public void close() {
+    closed = true;
+    disconnect();
+    thread.interrupt();
+  }
+
+  private void loop() {
+    while (!closed) {
+      String reason;
+      try {
+        session();
+        reason = "连接已关闭";
+      } catch (IOException e) {
+        reason = e.getMessage();
+      }
+      boolean wasConnected = disconnect();
+      if (closed) {
+        return;
+      }
+      if (wasConnected) {
+        listener.onDisconnected(this, reason);
+      }
+      try {
+        TimeUnit.MILLISECONDS.sleep(RECONNECT_PERIOD);
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  private void session() throws IOException {
+    Socket current = new Socket();
+    try {
+      current.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+      current.setTcpNoDelay(true);
+      current.setSoTimeout(AgentProtocol.PING_PERIOD);
+      InputStream input = new BufferedInputStream(current.getInputStream());
+      synchronized (this) {
+        output = new BufferedOutputStream(current.getOutputStream());
+        AgentProtocol.writeFrame(output, AgentProtocol.HELLO, new AgentProtocol.Writer()
+            .writeShort(AgentProtocol.VERSION).writeUtf(token).toByteArray());
+      }
+      AgentProtocol.Frame welcome = AgentProtocol.readFrame(input);
+      if (welcome.type == AgentProtocol.DENIED) {
+        throw new IOException("代理拒绝连接：" + welcome.payload.readUTF());
+      }
+      if (welcome.type != AgentProtocol.WELCOME
+          || welcome.payload.readShort() != AgentProtocol.VERSION) {
+        throw new IOException("协议版本不一致");
+      }
+      gameName = welcome.payload.readUTF();
+      synchronized (programs) {
+        programs.clear();
+      }
+      socket = current;
+      listener.onConnected(this);
+      int idle = 0;
+      while (!closed) {
+        AgentProtocol.Frame frame;
+        try {
+          frame = AgentProtocol.readFrame(input);
+        } catch (SocketTimeoutException e) {
+          if (++idle >= 3) {
+            throw new IOException("代理长时间没有响应");
+          }
+          write(AgentProtocol.PING, new byte[0]);
+          continue;
+        }
+        idle = 0;
+        handle(frame);
+      }
+    } finally {
+      if (socket != current) {
+        current.close();
+      }
+    }
+  }
+
+  private void handle(AgentProtocol.Frame frame) throws IOException {
+    DataInputStream payload = frame.payload;
+    switch (frame.type) {
+      case AgentProtocol.GAME:
+        game = AgentProtocol.GameStatus.read(payload);
+        listener.onGameChanged(this, game);
+        break;
+      case AgentProtocol.PROGRAMS:
+        int count = payload.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+          AgentProtocol.ProgramStatus status = AgentProtocol.ProgramStatus.read(payload);
+          synchronized (programs) {
+            programs.put(status.id, status);
+          }
+          listener.onProgramChanged(this, status);
+        }
+        break;
+      case AgentProtocol.LOGS:
+        listener.onLogs(this, AgentProtocol.LogLine.readBatch(payload));
+        break;
+      case AgentProtocol.RESULT:
+        CompletableFuture<String> future = pending.remove(payload.readInt());
+        boolean ok = payload.readBoolean();
+        String message = payload.readUTF();
+        if (future != null && ok) {
+          future.complete(message);
+        } else if (future != null) {
+          future.completeExceptionally(new IllegalStateException(message));
+        }
+        break;
+      case AgentProtocol.PING:
+        break;
+      default:
+        LOGGER.warn(String.format("代理 %s 发送了未知的帧：%d", name, frame.type));
+        break;
+    }
+  }
+
+  private synchronized void write(byte type, byte[] payload) throws IOException {
+    if (socket == null || output == null) {
+      throw new IOException("not connected");
+    }
+    AgentProtocol.writeFrame(output, type, payload);
+  }
+
+  /**
+   * @return 断开之前是否已经连接。
+   */
+  private boolean disconnect() {
+    Socket current;
+    synchronized (this) {
+      current = socket;
+      socket = null;
+      output = null;
+    }
+    if (current != null) {
+      try {
+        current.close();
+      } catch (IOException ignore) {
+      }
+    }
+    Iterator<CompletableFuture<String>> iterator = pending.values().iterator();
+    while (iterator.hasNext()) {
+      iterator.next().completeExceptionally(new IllegalStateException("与代理的连接已断开：" + name));
+      iterator.remove();
+    }
+    return current != null;
+  }
+
+  @Override public String toString() {
+    return String.format("%s(%s:%d)", name, host, port);
+  }
+
+  /**
+   * 节点状态和日志，在客户端的后台线程中回调。
+   */
+  public interface Listener {
+    default void onConnected(AgentClient client) {
+    }
+
+    default void onDisconnected(AgentClient client, String reason) {
+    }
+
+    default void onGameChanged(AgentClient client, AgentProtocol.GameStatus game) {
+    }
+
+    default void onProgramChanged(AgentClient client, AgentProtocol.ProgramStatus status) {
+    }
+
+    default void onLogs(AgentClient client, List<AgentProtocol.LogLine> lines) {
+    }
+  }
+}
@@ -0,0 +1,406 @@
+package randall.gamecenter;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 远程代理协议。
+ * <p>
+ * 控制台与每台主机上的代理之间的二进制 TCP 协议。每一帧由 4 字节的长度、1 字节的类型和内容组成，
+ * 字符串使用 {@link DataOutputStream#writeUTF(String)} 的格式：
+ * <pre>
+ * HELLO    控制台 → 代理  版本(short) 令牌(utf)
+ * WELCOME  代理 → 控制台  版本(short) 游戏名称(utf)，随后发送完整的游戏和程序状态
+ * DENIED   代理 → 控制台  原因(utf)，随后关闭连接
+ * GAME     代理 → 控制台  状态(utf) 滚动重启(boolean) 数据备份(boolean)
+ * PROGRAMS 代理 → 控制台  数量(short) 程序状态...，只包含发生变化的程序
+ * LOGS     代理 → 控制台  数量(short) (时间(long) 来源(utf) 内容(utf))...，来源为空表示引擎消息
+ * COMMAND  控制台 → 代理  请求编号(int) 命令(byte) 目标(utf)
+ * RESULT   代理 → 控制台  请求编号(int) 成功(boolean) 消息(utf)
+ * PING     双向           没有内容，空闲时发送，连续三个周期没有收到任何帧视为断开
+ * </pre>
+ *
+ * @author mrzhqiang
+ */
+public final class AgentProtocol {
+  public static final short VERSION = 1;
+
+  public static final byte HELLO = 1;
+  public static final byte WELCOME = 2;
+  public static final byte DENIED = 3;
+  public static final byte GAME = 4;
+  public static final byte PROGRAMS = 5;
+  public static final byte LOGS = 6;
+  public static final byte COMMAND = 7;
+  public static final byte RESULT = 8;
+  public static final byte PING = 9;
+
+  /** 单帧的最大长度，超过时视为协议错误。 */
+  static final int MAX_FRAME = 1 << 20;
+  /** 一批日志的最大行数，编码后的长度同样不能超过 {@link #MAX_FRAME}。 */
+  static final int MAX_LOG_BATCH = 500;
+  /** 单行日志的最大长度，writeUTF 最多只能写入 65535 字节。 */
+  static final int MAX_LOG_LENGTH = 4096;
+  /** 空闲时发送 PING 的间隔，单位：毫秒。 */
+  static final int PING_PERIOD = 10000;
+
+  private AgentProtocol() {
+    throw new AssertionError("no instance");
+  }
+
+  /**
+   * 写入一帧并刷新。
+   */
+  public static void writeFrame(OutputStream output, byte type, byte[] payload)
+      throws IOException {
+    DataOutputStream data = new DataOutputStream(output);
+    data.writeInt(payload.length + 1);
+    data.writeByte(type);
+    data.write(payload);
+    data.flush();
+  }
+
+  /**
+   * 读取一帧，连接已经关闭时抛出 {@link EOFException}。
+   */
+  public static Frame readFrame(InputStream input) throws IOException {
+    DataInputStream data = new DataInputStream(input);
+    int length = data.readInt();
+    if (length < 1 || length > MAX_FRAME) {
+      throw new IOException("无效的帧长度：" + length);
+    }
+    byte type = data.readByte();
+    byte[] payload = new byte[length - 1];
+    data.readFully(payload);
+    return new Frame(type, payload);
+  }
+
+  /**
+   * 帧内容的写入工具。
+   */
+  public static final class Writer {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream data = new DataOutputStream(bytes);
+
+    public Writer writeShort(int value) throws IOException {
+      data.writeShort(value);
+      return this;
+    }
+
+    public Writer writeInt(int value) throws IOException {
+      data.writeInt(value);
+      return this;
+    }
+
+    public Writer writeLong(long value) throws IOException {
+      data.writeLong(value);
+      return this;
+    }
+
+    public Writer writeByte(int value) throws IOException {
+      data.writeByte(value);
+      return this;
+    }
+
+    public Writer writeBoolean(boolean value) throws IOException {
+      data.writeBoolean(value);
+      return this;
+    }
+
+    public Writer writeUtf(String value) throws IOException {
+      data.writeUTF(Strings.nullToEmpty(value));
+      return this;
+    }
+
+    public byte[] toByteArray() {
+      return bytes.toByteArray();
+    }
+  }
+
+  /**
+   * 一帧。
+   */
+  public static final class Frame {
+    public final byte type;
+    public final DataInputStream payload;
+
+    Frame(byte type, byte[] payload) {
+      this.type = type;
+      this.payload = new DataInputStream(new ByteArrayInputStream(payload));
+    }
+  }
+
+  /**
+   * 控制台发给代理的命令。
+   */
+  public enum Command {
+    GAME_START(1, "game/start"),
+    GAME_STOP(2, "game/stop"),
+    ROLLING_RESTART(3, "game/rolling-restart"),
+    PROGRAM_START(4, "start"),
+    PROGRAM_STOP(5, "stop"),
+    PROGRAM_RESTART(6, "restart"),
+    BACKUP_START(7, "backup/start"),
+    BACKUP_STOP(8, "backup/stop"),
+    GENERATE(9, "config/generate"),
+    ;
+
+    public final byte code;
+    /** 与控制接口一致的路径，程序命令只有最后一段。 */
+    public final String id;
+
+    Command(int code, String id) {
+      this.code = (byte) code;
+      this.id = id;
+    }
+
+    public boolean isProgram() {
+      return this == PROGRAM_START || this == PROGRAM_STOP || this == PROGRAM_RESTART;
+    }
+
+    public static Command of(byte code) {
+      for (Command command : values()) {
+        if (command.code == code) {
+          return command;
+        }
+      }
+      return null;
+    }
+
+    /**
+     * 按控制接口的路径查找，程序命令传入最后一段，找不到时返回 null。
+     */
+    public static Command of(String id, boolean program) {
+      for (Command command : values()) {
+        if (command.isProgram() == program && command.id.equals(id)) {
+          return command;
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * 游戏状态。
+   */
+  public static final class GameStatus {
+    public final String state;
+    public final boolean rollingRestart;
+    public final boolean backup;
+
+    public GameStatus(String state, boolean rollingRestart, boolean backup) {
+      this.state = Preconditions.checkNotNull(state, "state == null");
+      this.rollingRestart = rollingRestart;
+      this.backup = backup;
+    }
+
+    static GameStatus of(GameEngine engine) {
+      return new GameStatus(engine.state().id, engine.isRollingRestarting(),
+          engine.isBackupRunning());
+    }
+
+    void write(Writer writer) throws IOException {
+      writer.writeUtf(state).writeBoolean(rollingRestart).writeBoolean(backup);
+    }
+
+    static GameStatus read(DataInputStream input) throws IOException {
+      return new GameStatus(input.readUTF(), input.readBoolean(), input.readBoolean());
+    }
+
+    @Override public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof GameStatus)) {
+        return false;
+      }
+      GameStatus that = (GameStatus) o;
+      return state.equals(that.state) && rollingRestart == that.rollingRestart
+          && backup == that.backup;
+    }
+
+    @Override public int hashCode() {
+      return Objects.hash(state, rollingRestart, backup);
+    }
+  }
+
+  /**
+   * 单个程序的状态，字段与控制接口的程序状态一致。
+   */
+  public static final class ProgramStatus {
+    public final String id;
+    public final String name;
+    public final String status;
+    public final boolean enabled;
+    public final boolean alive;
+    public final long pid;
+    public final int restartCount;
+    public final int lastExitCode;
+    public final boolean parked;
+    public final boolean maintenance;
+    public final boolean scaled;
+    /** CPU 占用，单位：千分比，没有采样时为 -1。 */
+    public final long cpu;
+    /** 常驻内存，单位：KB，没有采样时为 -1。 */
+    public final long rss;
+
+    ProgramStatus(String id, String name, String status, boolean enabled, boolean alive, long pid,
+        int restartCount, int lastExitCode, boolean parked, boolean maintenance, boolean scaled,
+        long cpu, long rss) {
+      this.id = id;
+      this.name = name;
+      this.status = status;
+      this.enabled = enabled;
+      this.alive = alive;
+      this.pid = pid;
+      this.restartCount = restartCount;
+      this.lastExitCode = lastExitCode;
+      this.parked = parked;
+      this.maintenance = maintenance;
+      this.scaled = scaled;
+      this.cpu = cpu;
+      this.rss = rss;
+    }
+
+    static ProgramStatus of(ProgramDescriptor descriptor) {
+      Share.Program program = descriptor.program;
+      Process process = program.process;
+      boolean alive = process != null && process.isAlive();
+      ResourceStats resources = program.resources;
+      return new ProgramStatus(descriptor.id, descriptor.name, program.state().id,
+          program.getStart, alive, alive ? ProcessSampler.pid(process) : -1, program.restartCount,
+          program.lastExitCode, program.restartPolicy.isParked(), program.maintenance,
+          program.scaled, alive ? resources.cpu.latest(-1) : -1,
+          alive ? resources.rss.latest(-1) : -1);
+    }
+
+    void write(Writer writer) throws IOException {
+      writer.writeUtf(id).writeUtf(name).writeUtf(status).writeBoolean(enabled)
+          .writeBoolean(alive).writeLong(pid).writeInt(restartCount).writeInt(lastExitCode)
+          .writeBoolean(parked).writeBoolean(maintenance).writeBoolean(scaled).writeLong(cpu)
+          .writeLong(rss);
+    }
+
+    static ProgramStatus read(DataInputStream input) throws IOException {
+      return new ProgramStatus(input.readUTF(), input.readUTF(), input.readUTF(),
+          input.readBoolean(), input.readBoolean(), input.readLong(), input.readInt(),
+          input.readInt(), input.readBoolean(), input.readBoolean(), input.readBoolean(),
+          input.readLong(), input.readLong());
+    }
+
+    @Override public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof ProgramStatus)) {
+        return false;
+      }
+      ProgramStatus that = (ProgramStatus) o;
+      return id.equals(that.id) && name.equals(that.name) && status.equals(that.status)
+          && enabled == that.enabled && alive == that.alive && pid == that.pid
+          && restartCount == that.restartCount && lastExitCode == that.lastExitCode
+          && parked == that.parked && maintenance == that.maintenance && scaled == that.scaled
+          && cpu == that.cpu && rss == that.rss;
+    }
+
+    @Override public int hashCode() {
+      return Objects.hash(id, status, alive, pid, restartCount, cpu, rss);
+    }
+  }
+
+  /**
+   * 一行日志。
+   */
+  public static final class LogLine {
+    /** 产生的时刻，System.currentTimeMillis()。 */
+    public final long time;
+    /** 输出这一行的程序，为空表示引擎消息。 */
+    public final String source;
+    public final String text;
+
+    public LogLine(long time, String source, String text) {
+      this.time = time;
+      this.source = Strings.nullToEmpty(source);
+      String value = Strings.nullToEmpty(text);
+      this.text = value.length() > MAX_LOG_LENGTH ? value.substring(0, MAX_LOG_LENGTH) : value;
+    }
+
+    static byte[] writeBatch(List<LogLine> lines) throws IOException {
+      Writer writer = new Writer().writeShort(lines.size());
+      for (LogLine line : lines) {
+        writer.writeLong(line.time).writeUtf(line.source).writeUtf(line.text);
+      }
+      return writer.toByteArray();
+    }
+
+    /**
+     * 按行数和编码后的长度分批，每一批不超过 {@link #MAX_LOG_BATCH} 行，写成一帧也不超过
+     * {@link #MAX_FRAME} 字节。
+     */
+    static List<byte[]> writeBatches(List<LogLine> lines) throws IOException {
+      List<byte[]> batches = Lists.newArrayList();
+      int from = 0;
+      // 帧类型 1 字节，行数 2 字节
+      int size = 3;
+      for (int i = 0; i < lines.size(); i++) {
+        int length = lines.get(i).encodedLength();
+        if (i > from && (i - from >= MAX_LOG_BATCH || size + length > MAX_FRAME)) {
+          batches.add(writeBatch(lines.subList(from, i)));
+          from = i;
+          size = 3;
+        }
+        size += length;
+      }
+      if (from < lines.size()) {
+        batches.add(writeBatch(lines.subList(from, lines.size())));
+      }
+      return batches;
+    }
+
+    /**
+     * 写入批次后占用的字节数：时间 8 字节，来源和内容按 writeUTF 的编码计算。
+     */
+    int encodedLength() {
+      return 8 + utfLength(source) + utfLength(text);
+    }
+
+    private static int utfLength(String value) {
+      int length = 2;
+      for (int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+        if (c >= 0x0001 && c <= 0x007F) {
+          length += 1;
+        } else if (c <= 0x07FF) {
+          length += 2;
+        } else {
+          length += 3;
+        }
+      }
+      return length;
+    }
+
+    static List<LogLine> readBatch(DataInputStream input) throws IOException {
+      int count = input.readUnsignedShort();
+      if (count == 0) {
+        return Collections.emptyList();
+      }
+      List<LogLine> lines = Lists.newArrayListWithCapacity(count);
+      for (int i = 0; i < count; i++) {
+        lines.add(new LogLine(input.readLong(), input.readUTF(), input.readUTF()));
+      }
+      return lines;
+    }
+  }
+}
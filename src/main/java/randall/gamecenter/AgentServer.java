@@ -0,0 +1,438 @@
+package randall.gamecenter;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 远程代理。
+ * <p>
+ * 在每台主机上与守护进程一起运行，把本机引擎的启动、停止、运行检测和数据备份交给远程控制台操作，
+ * 协议见 {@link AgentProtocol}。每个控制台连接使用一个读取线程和一个发送线程：发送线程定期比较游戏和
+ * 程序的状态，只发送变化的部分，程序输出和引擎消息攒成一批后一起发送，控制台断开后不影响本机的程序。
+ * <p>
+ * 引擎消息由读取程序输出的线程转发，只放入每个连接的有界队列，不会因为控制台接收过慢而阻塞；
+ * 连接数量在创建读取线程之前检查，未握手的连接也占用名额，并且必须在超时时间内完成握手。
+ *
+ * @author mrzhqiang
+ */
+public final class AgentServer implements AutoCloseable {
+  private static final Logger LOGGER = LoggerFactory.getLogger("randall");
+
+  /** 检查状态变化和发送日志的间隔，单位：毫秒。 */
+  static final long FLUSH_PERIOD = 200;
+  /** 同时连接的控制台数量上限。 */
+  static final int MAX_SESSIONS = 8;
+  /** 每个连接缓存的引擎消息数量，控制台来不及接收时丢弃新的消息。 */
+  private static final int MESSAGE_QUEUE = 1000;
+  /** 握手的超时时间，单位：毫秒。 */
+  private static final int HELLO_TIMEOUT = 5000;
+
+  private final GameEngine engine;
+  private final byte[] token;
+  private final ServerSocket serverSocket;
+  private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger count = new AtomicInteger();
+  /** 占用名额的连接数量，包括尚未握手的连接。 */
+  private final AtomicInteger connections = new AtomicInteger();
+  private volatile boolean closed;
+
+  /**
+   * 创建并开始监听。
+   *
+   * @param port  为 0 时由系统分配，通过 {@link #address()} 获取实际端口。
+   * @param token 访问令牌，为空表示不校验，此时只能监听本机地址。
+   */
+  public AgentServer(GameEngine engine, String host, int port, String token) throws IOException {
+    this.engine = Preconditions.checkNotNull(engine, "engine == null");
+    InetAddress address = InetAddress.getByName(host);
+    // 控制台可以启动和停止所有程序，只有本机可以访问时才允许不校验令牌
+    Preconditions.checkArgument(!Strings.isNullOrEmpty(token) || address.isLoopbackAddress(),
+        "监听本机以外的地址 %s 时必须配置访问令牌 AgentToken", host);
+    this.token = Strings.nullToEmpty(token).getBytes(StandardCharsets.UTF_8);
+    this.serverSocket = new ServerSocket();
+    serverSocket.bind(new InetSocketAddress(address, port));
+    Thread thread = new Thread(this::accept, "agent-accept");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public InetSocketAddress address() {
+    return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+  }
+
+  /**
+   * 引擎消息，转发给所有已经连接的控制台。
+   */
+  public void message(String message) {
+    AgentProtocol.LogLine line =
+        new AgentProtocol.LogLine(System.currentTimeMillis(), "", message);
+    for (Session session : sessions) {
+      session.offer(line);
+    }
+  }
+
+  @Override public void close() {
+    closed = true;
+    try {
+      serverSocket.close();
+    } catch (IOException ignore) {
+    }
+    for (Session session : sessions) {
+      session.close();
+    }
+  }
+
+  private void accept() {
+    while (!closed) {
+      Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (IOException e) {
+        if (!closed) {
+          LOGGER.warn("代理接受连接出错：" + e.getMessage());
+        }
+        continue;
+      }
+      if (connections.incrementAndGet() > MAX_SESSIONS) {
+        connections.decrementAndGet();
+        deny(socket, "连接数量已满");
+        continue;
+      }
+      try {
+        socket.setSoTimeout(HELLO_TIMEOUT);
+      } catch (IOException e) {
+        connections.decrementAndGet();
+        closeQuietly(socket);
+        continue;
+      }
+      Session session = new Session(socket, count.incrementAndGet());
+      Thread thread = new Thread(session::read, "agent-session-" + session.number);
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /**
+   * 在接受连接的线程中直接拒绝，新连接的发送缓冲区是空的，写入一帧不会阻塞。
+   */
+  private static void deny(Socket socket, String reason) {
+    LOGGER.warn(String.format("拒绝控制台连接 %s：%s", socket.getRemoteSocketAddress(), reason));
+    try {
+      AgentProtocol.writeFrame(socket.getOutputStream(), AgentProtocol.DENIED,
+          new AgentProtocol.Writer().writeUtf(reason).toByteArray());
+    } catch (IOException ignore) {
+    } finally {
+      closeQuietly(socket);
+    }
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException ignore) {
+    }
+  }
+
+  private boolean isAuthorized(String value) {
+    // 固定时间比较，避免通过响应时间猜测令牌
+    return token.length == 0
+        || MessageDigest.isEqual(token, value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * 执行一条命令，耗时的操作立即返回，结果通过状态变化体现。
+   */
+  private CompletableFuture<String> execute(AgentProtocol.Command command, String target) {
+    ProgramDescriptor descriptor = null;
+    if (command.isProgram()) {
+      descriptor = engine.findProgram(target);
+      if (descriptor == null) {
+        return failed("未知的程序：" + target);
+      }
+    }
+    switch (command) {
+      case GAME_START:
+        return engine.start(0) ? accepted() : failed("游戏服务器没有处于停止状态");
+      case GAME_STOP:
+        engine.stop();
+        return accepted();
+      case ROLLING_RESTART:
+        return engine.rollingRestart() ? accepted() : failed("游戏服务器没有运行，或者正在滚动重启");
+      case PROGRAM_START:
+        return engine.startProgram(descriptor)
+            ? accepted() : failed(descriptor.name + "正在运行或者没有启用");
+      case PROGRAM_STOP:
+        engine.stopProgram(descriptor);
+        return accepted();
+      case PROGRAM_RESTART:
+        engine.restartProgram(descriptor);
+        return accepted();
+      case BACKUP_START:
+      case BACKUP_STOP:
+        engine.setBackupRunning(command == AgentProtocol.Command.BACKUP_START);
+        return accepted();
+      case GENERATE:
+        engine.generateGameConfig();
+        return accepted();
+      default:
+        throw new AssertionError(command);
+    }
+  }
+
+  private static CompletableFuture<String> accepted() {
+    return CompletableFuture.completedFuture("");
+  }
+
+  private static CompletableFuture<String> failed(String message) {
+    CompletableFuture<String> future = new CompletableFuture<>();
+    future.completeExceptionally(new IllegalStateException(message));
+    return future;
+  }
+
+  /**
+   * 一个控制台连接。
+   */
+  private final class Session {
+    final Socket socket;
+    final int number;
+    /** 待发送的引擎消息，数量由 queued 限制，写入时不加锁。 */
+    private final Queue<AgentProtocol.LogLine> messages = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger dropped = new AtomicInteger();
+    /** 发送一帧时持有，与写入消息队列互不影响。 */
+    private final Object writeLock = new Object();
+    /** 已经发送给控制台的状态，只发送变化的部分。 */
+    private AgentProtocol.GameStatus sentGame;
+    private final Map<String, AgentProtocol.ProgramStatus> sentPrograms = Maps.newHashMap();
+    /** 每个程序已经发送的输出位置，程序重新启动后输出对象会更换。 */
+    private final Map<String, OutputTail> tails = Maps.newHashMap();
+    private final Map<String, Long> cursors = Maps.newHashMap();
+    private OutputStream output;
+    private volatile long lastWrite;
+    private volatile boolean open = true;
+
+    Session(Socket socket, int number) {
+      this.socket = socket;
+      this.number = number;
+    }
+
+    void read() {
+      String remote = String.valueOf(socket.getRemoteSocketAddress());
+      try {
+        socket.setTcpNoDelay(true);
+        InputStream input = new BufferedInputStream(socket.getInputStream());
+        output = new BufferedOutputStream(socket.getOutputStream());
+        if (!handshake(input)) {
+          return;
+        }
+        LOGGER.info("控制台已连接：" + remote);
+        Thread writer = new Thread(this::write, "agent-writer-" + number);
+        writer.setDaemon(true);
+        writer.start();
+        socket.setSoTimeout(AgentProtocol.PING_PERIOD * 3);
+        while (open) {
+          AgentProtocol.Frame frame = AgentProtocol.readFrame(input);
+          if (frame.type == AgentProtocol.COMMAND) {
+            command(frame.payload);
+          }
+        }
+      } catch (SocketTimeoutException e) {
+        LOGGER.warn("控制台长时间没有响应，断开连接：" + remote);
+      } catch (IOException e) {
+        if (open && !closed) {
+          LOGGER.info("控制台已断开：" + remote);
+        }
+      } finally {
+        close();
+        connections.decrementAndGet();
+      }
+    }
+
+    private boolean handshake(InputStream input) throws IOException {
+      AgentProtocol.Frame frame = AgentProtocol.readFrame(input);
+      String reason = null;
+      if (frame.type != AgentProtocol.HELLO) {
+        reason = "需要先发送 HELLO";
+      } else if (frame.payload.readShort() != AgentProtocol.VERSION) {
+        reason = "协议版本不一致";
+      } else if (!isAuthorized(frame.payload.readUTF())) {
+        reason = "令牌错误";
+      } else if (closed) {
+        reason = "代理已经关闭";
+      }
+      if (reason != null) {
+        LOGGER.warn(String.format("拒绝控制台连接 %s：%s", socket.getRemoteSocketAddress(), reason));
+        send(AgentProtocol.DENIED, new AgentProtocol.Writer().writeUtf(reason).toByteArray());
+        return false;
+      }
+      sessions.add(this);
+      send(AgentProtocol.WELCOME, new AgentProtocol.Writer()
+          .writeShort(AgentProtocol.VERSION).writeUtf(engine.share().gameName).toByteArray());
+      // 从当前输出开始转发，不补发连接之前的输出
+      for (ProgramDescriptor descriptor : engine.share().registry.all()) {
+        OutputTail tail = descriptor.program.output;
+        tails.put(descriptor.id, tail);
+        cursors.put(descriptor.id, tail.count());
+      }
+      return true;
+    }
+
+    private void command(DataInputStream payload) throws IOException {
+      int request = payload.readInt();
+      AgentProtocol.Command command = AgentProtocol.Command.of(payload.readByte());
+      String target = payload.readUTF();
+      if (command == null) {
+        result(request, false, "未知的命令");
+        return;
+      }
+      LOGGER.info(String.format("控制台命令：%s %s", command.id, target));
+      try {
+        execute(command, target).whenComplete((message, throwable) -> {
+          if (throwable == null) {
+            result(request, true, message);
+          } else {
+            result(request, false, throwable.getMessage());
+          }
+        });
+      } catch (RuntimeException e) {
+        LOGGER.error("执行控制台命令出错：" + command.id, e);
+        result(request, false, e.toString());
+      }
+    }
+
+    private void result(int request, boolean ok, String message) {
+      try {
+        send(AgentProtocol.RESULT, new AgentProtocol.Writer().writeInt(request).writeBoolean(ok)
+            .writeUtf(message).toByteArray());
+      } catch (IOException e) {
+        close();
+      }
+    }
+
+    private void write() {
+      try {
+        while (open) {
+          flush();
+          TimeUnit.MILLISECONDS.sleep(FLUSH_PERIOD);
+        }
+      } catch (IOException e) {
+        close();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        close();
+      }
+    }
+
+    /**
+     * 发送变化的状态和新的日志，没有任何内容时按间隔发送 PING。
+     */
+    private void flush() throws IOException {
+      AgentProtocol.GameStatus game = AgentProtocol.GameStatus.of(engine);
+      if (!game.equals(sentGame)) {
+        AgentProtocol.Writer writer = new AgentProtocol.Writer();
+        game.write(writer);
+        send(AgentProtocol.GAME, writer.toByteArray());
+        sentGame = game;
+      }
+      List<AgentProtocol.ProgramStatus> changed = Lists.newArrayList();
+      List<AgentProtocol.LogLine> lines = Lists.newArrayList();
+      for (ProgramDescriptor descriptor : engine.share().registry.all()) {
+        AgentProtocol.ProgramStatus status = AgentProtocol.ProgramStatus.of(descriptor);
+        if (!status.equals(sentPrograms.get(descriptor.id))) {
+          changed.add(status);
+          sentPrograms.put(descriptor.id, status);
+        }
+        collectOutput(descriptor, lines);
+      }
+      if (!changed.isEmpty()) {
+        AgentProtocol.Writer writer = new AgentProtocol.Writer().writeShort(changed.size());
+        for (AgentProtocol.ProgramStatus status : changed) {
+          status.write(writer);
+        }
+        send(AgentProtocol.PROGRAMS, writer.toByteArray());
+      }
+      List<AgentProtocol.LogLine> pending = Lists.newArrayList();
+      int lost = dropped.getAndSet(0);
+      if (lost > 0) {
+        pending.add(new AgentProtocol.LogLine(System.currentTimeMillis(), "",
+            String.format("控制台接收过慢，丢弃了 %d 条消息。", lost)));
+      }
+      AgentProtocol.LogLine message;
+      while ((message = messages.poll()) != null) {
+        queued.decrementAndGet();
+        pending.add(message);
+      }
+      lines.addAll(0, pending);
+      for (byte[] batch : AgentProtocol.LogLine.writeBatches(lines)) {
+        send(AgentProtocol.LOGS, batch);
+      }
+      if (System.nanoTime() - lastWrite
+          >= TimeUnit.MILLISECONDS.toNanos(AgentProtocol.PING_PERIOD)) {
+        send(AgentProtocol.PING, new byte[0]);
+      }
+    }
+
+    private void collectOutput(ProgramDescriptor descriptor, List<AgentProtocol.LogLine> lines) {
+      OutputTail tail = descriptor.program.output;
+      long from = tail == tails.get(descriptor.id) ? cursors.get(descriptor.id) : 0;
+      List<String> next = Lists.newArrayList();
+      cursors.put(descriptor.id, tail.linesSince(from, next));
+      tails.put(descriptor.id, tail);
+      long now = System.currentTimeMillis();
+      for (String line : next) {
+        lines.add(new AgentProtocol.LogLine(now, descriptor.id, line));
+      }
+    }
+
+    /**
+     * 放入待发送的队列，队列已满时丢弃，不会阻塞调用的线程。
+     */
+    void offer(AgentProtocol.LogLine line) {
+      if (queued.incrementAndGet() > MESSAGE_QUEUE) {
+        queued.decrementAndGet();
+        dropped.incrementAndGet();
+        return;
+      }
+      messages.add(line);
+    }
+
+    private void send(byte type, byte[] payload) throws IOException {
+      synchronized (writeLock) {
+        AgentProtocol.writeFrame(output, type, payload);
+        lastWrite = System.nanoTime();
+      }
+    }
+
+    void close() {
+      open = false;
+      sessions.remove(this);
+      closeQuietly(socket);
+    }
+  }
+}
@@ -0,0 +1,224 @@
+package randall.gamecenter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 重新接管的进程。
+ * <p>
+ * 控制器重启后，上一次启动的程序仍在运行，只剩下进程号。在 Java 9 及以上版本通过反射使用
+ * {@code ProcessHandle.of(pid)}，Linux 上也可以直接读取 /proc/[pid]，包装为 {@link Process}
+ * 交给原有的检测和停止流程。
+ * <p>
+ * 进程号可能被系统复用，因此同时比较进程的启动时间。原来的标准输入输出管道已经随控制器一起关闭，
+ * 无法再接收握手信息和退出指令，停止时直接结束进程，退出码未知时为 -1。
+ *
+ * @author mrzhqiang
+ */
+public final class AttachedProcess extends Process {
+  private static final Logger LOGGER = LoggerFactory.getLogger("randall");
+
+  private static final Path PROC = Paths.get("/proc");
+  private static final long POLL_INTERVAL = 200;
+
+  private static final Method OF = findMethod("java.lang.ProcessHandle", "of", long.class);
+  private static final Method INFO = findMethod("java.lang.ProcessHandle", "info");
+  private static final Method IS_ALIVE = findMethod("java.lang.ProcessHandle", "isAlive");
+  private static final Method DESTROY = findMethod("java.lang.ProcessHandle", "destroy");
+  private static final Method DESTROY_FORCIBLY =
+      findMethod("java.lang.ProcessHandle", "destroyForcibly");
+  private static final Method START_INSTANT =
+      findMethod("java.lang.ProcessHandle$Info", "startInstant");
+
+  private final long pid;
+  private final long startTime;
+  /** ProcessHandle，不支持时为 null。 */
+  private final Object handle;
+
+  private AttachedProcess(long pid, long startTime, Object handle) {
+    this.pid = pid;
+    this.startTime = startTime;
+    this.handle = handle;
+  }
+
+  /**
+   * 接管仍在运行的进程。
+   *
+   * @param startTime 记录的启动时间，由 {@link #startTime(long)} 获取。
+   * @return 进程已经退出、进程号已被复用或者当前平台不支持时返回 null。
+   */
+  public static AttachedProcess attach(long pid, long startTime) {
+    if (pid <= 0) {
+      return null;
+    }
+    Object handle = handle(pid);
+    AttachedProcess process = new AttachedProcess(pid, startTime, handle);
+    if (handle == null && !Files.isDirectory(PROC)) {
+      return null;
+    }
+    if (!process.isAlive()) {
+      return null;
+    }
+    long current = startTime(pid);
+    if (startTime > 0 && current > 0 && current != startTime) {
+      LOGGER.info(String.format("进程号 %d 已被其他程序复用，放弃接管。", pid));
+      return null;
+    }
+    return process;
+  }
+
+  /**
+   * 进程的启动时间，用于识别进程号是否被复用。
+   * <p>
+   * Linux 上为 /proc/[pid]/stat 中自系统启动以来的时钟周期数，其他系统为启动时刻的毫秒数，
+   * 同一台机器上的取值方式固定不变。无法获取时返回 -1。
+   */
+  public static long startTime(long pid) {
+    if (Files.isDirectory(PROC)) {
+      try {
+        String stat = new String(Files.readAllBytes(PROC.resolve(pid + "/stat")),
+            StandardCharsets.US_ASCII);
+        // 第 22 项 starttime，进程名之后从第 3 项开始
+        String[] fields = stat.substring(stat.lastIndexOf(')') + 2).trim().split("\\s+");
+        return Long.parseLong(fields[19]);
+      } catch (IOException | RuntimeException e) {
+        return -1;
+      }
+    }
+    Object handle = handle(pid);
+    if (handle == null || INFO == null || START_INSTANT == null) {
+      return -1;
+    }
+    try {
+      Optional<?> instant = (Optional<?>) START_INSTANT.invoke(INFO.invoke(handle));
+      return instant.map(value -> ((Instant) value).toEpochMilli()).orElse(-1L);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return -1;
+    }
+  }
+
+  public long pid() {
+    return pid;
+  }
+
+  @Override public OutputStream getOutputStream() {
+    return new OutputStream() {
+      @Override public void write(int b) throws IOException {
+        throw new IOException("重新接管的进程无法写入标准输入");
+      }
+    };
+  }
+
+  @Override public InputStream getInputStream() {
+    return new ByteArrayInputStream(new byte[0]);
+  }
+
+  @Override public InputStream getErrorStream() {
+    return new ByteArrayInputStream(new byte[0]);
+  }
+
+  @Override public int waitFor() throws InterruptedException {
+    while (isAlive()) {
+      TimeUnit.MILLISECONDS.sleep(POLL_INTERVAL);
+    }
+    return exitValue();
+  }
+
+  @Override public boolean waitFor(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (isAlive()) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        return false;
+      }
+      TimeUnit.NANOSECONDS.sleep(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(POLL_INTERVAL)));
+    }
+    return true;
+  }
+
+  @Override public int exitValue() {
+    if (isAlive()) {
+      throw new IllegalThreadStateException("process hasn't exited");
+    }
+    return -1;
+  }
+
+  @Override public boolean isAlive() {
+    if (handle != null && IS_ALIVE != null) {
+      try {
+        return (Boolean) IS_ALIVE.invoke(handle);
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        return false;
+      }
+    }
+    if (!Files.isDirectory(PROC.resolve(String.valueOf(pid)))) {
+      return false;
+    }
+    // 僵尸进程的目录仍然存在
+    long current = startTime(pid);
+    return current < 0 || startTime <= 0 || current == startTime;
+  }
+
+  @Override public void destroy() {
+    signal(DESTROY, "-TERM");
+  }
+
+  @Override public Process destroyForcibly() {
+    signal(DESTROY_FORCIBLY, "-KILL");
+    return this;
+  }
+
+  private void signal(Method method, String signal) {
+    if (handle != null && method != null) {
+      try {
+        method.invoke(handle);
+        return;
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        LOGGER.warn("结束进程 " + pid + " 失败：" + e.getMessage());
+      }
+    }
+    if (!isAlive()) {
+      return;
+    }
+    try {
+      new ProcessBuilder("kill", signal, String.valueOf(pid)).start();
+    } catch (IOException e) {
+      LOGGER.warn("结束进程 " + pid + " 失败：" + e.getMessage());
+    }
+  }
+
+  @Override public String toString() {
+    return "AttachedProcess[pid=" + pid + "]";
+  }
+
+  private static Object handle(long pid) {
+    if (OF == null) {
+      return null;
+    }
+    try {
+      return ((Optional<?>) OF.invoke(null, pid)).orElse(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  private static Method findMethod(String className, String name, Class<?>... parameterTypes) {
+    try {
+      return Processes.findMethod(Class.forName(className), name, parameterTypes);
+    } catch (ClassNotFoundException e) {
+      return null;
+    }
+  }
+}
@@ -1,25 +1,30 @@
 package randall.gamecenter;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.TimeUnit;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import org.ini4j.Ini;
+import org.ini4j.Profile;
+import org.ini4j.Wini;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import randall.common.util.Compressor;
@@ -34,21 +39,22 @@ public final class BackupManager {
   private static final Logger LOGGER = LoggerFactory.getLogger("randall");
 
   public final ObservableList<BackupObject> backupList = FXCollections.observableArrayList();
-  public Timer startTimer = new Timer();
-  private Boolean started = false;
+  private final Supervisor supervisor;
+  private Supervisor.Task startTask;
+  private volatile boolean started = false;
   private final Object lock = new Object();
 
+  public BackupManager(Supervisor supervisor) {
+    this.supervisor = supervisor;
+  }
+
   public void start() {
     clearStack();
-    if (startTimer == null) {
-      startTimer = new Timer();
-    }
-    startTimer.schedule(new TimerTask() {
-      @Override public void run() {
-        BackupManager.this.run();
-        if (!started) {
-          started = true;
-        }
+    supervisor.cancel(startTask);
+    startTask = supervisor.schedule("backup", () -> {
+      BackupManager.this.run();
+      if (!started) {
+        started = true;
       }
     }, 1000, 100);
   }
@@ -62,10 +68,8 @@ public final class BackupManager {
   }
 
   public void stop() {
-    if (startTimer != null) {
-      startTimer.cancel();
-    }
-    startTimer = null;
+    supervisor.cancel(startTask);
+    startTask = null;
     started = false;
   }
 
@@ -81,6 +85,36 @@ public final class BackupManager {
     }
   }
 
+  /**
+   * 读取备份列表文件，文件不存在时创建一个空文件。每个小节为一个备份对象，缺少数据目录或者备份目录的小节会被忽略。
+   */
+  public void load(Path path) throws IOException {
+    if (Files.notExists(path)) {
+      IOHelper.create(path);
+    }
+    Ini ini = new Wini(path.toFile());
+    Collection<Profile.Section> sections = ini.values();
+    int index = 0;
+    for (Profile.Section section : sections) {
+      String source = section.get("Source", "");
+      String destination = section.get("Save", "");
+      if (Strings.isNullOrEmpty(source) || Strings.isNullOrEmpty(destination)) {
+        continue;
+      }
+      BackupObject object = new BackupObject();
+      object.index = index;
+      index++;
+      object.sourceDir.set(source);
+      object.destinationDir.set(destination);
+      object.hours = section.get("Hour", Integer.class, 0);
+      object.minutes = section.get("Min", Integer.class, 0);
+      object.backupMode = section.get("BackMode", Integer.class, 0);
+      object.backupEnabled = section.get("GetBack", Boolean.class, true);
+      object.compressEnabled = section.get("Zip", Boolean.class, true);
+      addToList(object);
+    }
+  }
+
   public void clearStack() {
     synchronized (lock) {
       backupList.forEach(object -> object.startBackupTick = System.currentTimeMillis());
@@ -109,6 +143,23 @@ public final class BackupManager {
     }
   }
 
+  /**
+   * 不论备份时间，立即备份所有启用的对象，用于停服维护。
+   */
+  public void backupNow() {
+    synchronized (lock) {
+      for (BackupObject object : backupList) {
+        if (object.backupEnabled) {
+          try {
+            object.backup();
+          } catch (RuntimeException e) {
+            LOGGER.error("备份 " + object.sourceDir.get() + " 出错！", e);
+          }
+        }
+      }
+    }
+  }
+
   public static class BackupObject implements Runnable {
     public Integer index = -1;
     public StringProperty sourceDir = new SimpleStringProperty("", "数据目录");
@@ -167,6 +218,49 @@ public final class BackupManager {
       }
     }
 
+    /**
+     * 立即备份一次：压缩成 ZIP 文件，或者复制到以当前时间命名的目录中。
+     */
+    public void backup() {
+      if (!sourceDir.get().endsWith(File.separator)) {
+        sourceDir.set(sourceDir.get() + File.separator);
+      }
+      if (!destinationDir.get().endsWith(File.separator)) {
+        destinationDir.set(destinationDir.get() + File.separator);
+      }
+      backupFileList.clear();
+      if (compressEnabled) {
+        if (errorCount < 2) {
+          String destination = destinationDir.get();
+          IOHelper.mkdir(Paths.get(destination));
+          destination = destination + lastDirName() + "-" + formatDate() + ".zip";
+          try {
+            Compressor.zipCompress(sourceDir.get(), destination);
+          } catch (Exception e) {
+            LOGGER.error("ZIP 压缩 " + sourceDir.get() + " 目录出错！", e);
+            errorCount++;
+          }
+        }
+        return;
+      }
+
+      searchFile(sourceDir.get());
+      String destination = destinationDir.get() + formatDate() + File.separator;
+      for (String filename : backupFileList) {
+        if (stopSearchEnabled) {
+          return;
+        }
+        String newFilename = filename.replace(sourceDir.get(), destination);
+        //String dirName = getDirName(newFilename);
+        //Files.mkdir(new File(dirName));
+        try {
+          java.nio.file.Files.copy(Paths.get(filename), Paths.get(newFilename),
+              StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+        } catch (IOException ignore) {
+        }
+      }
+    }
+
     @Override public void run() {
       try {
         if (!backupEnabled) {
@@ -179,45 +273,7 @@ public final class BackupManager {
               case 0:
                 if (canBackup()) {
                   status = 1;
-                  if (!sourceDir.get().endsWith(File.separator)) {
-                    sourceDir.set(sourceDir.get() + File.separator);
-                  }
-                  if (!destinationDir.get().endsWith(File.separator)) {
-                    destinationDir.set(destinationDir.get() + File.separator);
-                  }
-                  backupFileList.clear();
-
-                  if (compressEnabled) {
-                    if (errorCount < 2) {
-                      String destination = destinationDir.get();
-                      IOHelper.mkdir(Paths.get(destination));
-                      destination = destination + lastDirName() + "-" + formatDate() + ".zip";
-                      try {
-                        Compressor.zipCompress(sourceDir.get(), destination);
-                      } catch (Exception e) {
-                        LOGGER.error("ZIP 压缩 " + sourceDir.get() + " 目录出错！", e);
-                        errorCount++;
-                      }
-                    }
-                    status = 2;
-                    return;
-                  }
-
-                  searchFile(sourceDir.get());
-                  String destination = destinationDir.get() + formatDate() + File.separator;
-                  for (String filename : backupFileList) {
-                    if (stopSearchEnabled) {
-                      return;
-                    }
-                    String newFilename = filename.replace(sourceDir.get(), destination);
-                    //String dirName = getDirName(newFilename);
-                    //Files.mkdir(new File(dirName));
-                    try {
-                      java.nio.file.Files.copy(Paths.get(filename), Paths.get(newFilename),
-                          StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
-                    } catch (IOException ignore) {
-                    }
-                  }
+                  backup();
                 }
                 status = 2;
                 break;
@@ -236,44 +292,7 @@ public final class BackupManager {
                 if ((System.currentTimeMillis() - startBackupTick) > duration) {
                   startBackupTick = System.currentTimeMillis();
                   status = 1;
-                  if (!sourceDir.get().endsWith(File.separator)) {
-                    sourceDir.set(sourceDir.get() + File.separator);
-                  }
-                  if (!destinationDir.get().endsWith(File.separator)) {
-                    destinationDir.set(destinationDir.get() + File.separator);
-                  }
-                  backupFileList.clear();
-                  if (compressEnabled) {
-                    if (errorCount < 2) {
-                      String destination = destinationDir.get();
-                      IOHelper.mkdir(Paths.get(destination));
-                      destination = destination + lastDirName() + "-" + formatDate() + ".zip";
-                      try {
-                        Compressor.zipCompress(sourceDir.get(), destination);
-                      } catch (Exception e) {
-                        LOGGER.error("ZIP 压缩 " + sourceDir.get() + " 目录出错！", e);
-                        errorCount++;
-                      }
-                    }
-                    status = 2;
-                    return;
-                  }
-
-                  searchFile(sourceDir.get());
-                  String destination = destinationDir.get() + formatDate() + File.separator;
-                  for (String filename : backupFileList) {
-                    if (stopSearchEnabled) {
-                      return;
-                    }
-                    String newFilename = filename.replace(sourceDir.get(), destination);
-                    //String dirName = getDirName(newFilename);
-                    //Files.mkdir(new File(dirName));
-                    try {
-                      java.nio.file.Files.copy(Paths.get(filename), Paths.get(newFilename),
-                          StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
-                    } catch (IOException ignore) {
-                    }
-                  }
+                  backup();
                 }
                 status = 2;
                 break;
@@ -0,0 +1,283 @@
+package randall.gamecenter;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * cgroup v2 资源限制。
+ * <p>
+ * 每个角色一个控制组，限制最大内存（memory.max），并按权重分配 CPU（cpu.weight）和磁盘 IO（io.weight），
+ * 日志服务器、排行榜插件等辅助程序失控时不会挤占游戏引擎服务器需要的资源。同时读取控制组的压力停滞信息
+ * （PSI），即因为等待 CPU、内存或 IO 而停滞的时间占比，作为资源是否紧张的指标。
+ * <p>
+ * 控制组建立在控制器自己所在的控制组之下，也可以通过配置指定；控制器自己会被移到其中的 controller 子组，
+ * 以满足 cgroup v2 中有子组启用控制器的组不能直接包含进程的要求，需要 root 权限或者 systemd 的 Delegate=yes。
+ * 与 {@link Placement} 一样通过 sh 先把自己加入控制组再 exec 目标程序，进程号不变，并且在程序创建任何线程
+ * 之前生效。不是 cgroup v2 或者没有权限时记录警告，程序照常启动，Windows 上不做处理。
+ *
+ * @author mrzhqiang
+ */
+public final class ControlGroup {
+  private static final Logger LOGGER = LoggerFactory.getLogger("randall");
+
+  private static final Path ROOT = Paths.get("/sys/fs/cgroup");
+  private static final String[] CONTROLLERS = {"cpu", "memory", "io"};
+  /** 控制器自己所在的子组。 */
+  private static final String SELF_GROUP = "controller";
+  /** 加入控制组后 exec 目标程序，写入失败时仍然启动程序。 */
+  private static final String JOIN_SCRIPT = "{ echo $$ > \"$0\"; } 2>/dev/null; exec \"$@\"";
+
+  public final String name;
+  /** 最大内存，单位：字节，为 0 表示不限制。 */
+  public final long memoryMax;
+  /** CPU 和 IO 权重，1 到 10000，内核默认 100；为 0 表示不调整。 */
+  public final int cpuWeight;
+  public final int ioWeight;
+
+  /** 已经建立的控制组目录，没有建立时为 null。 */
+  private volatile Path path;
+  /** 已经提示过压力过高，压力恢复后重置。 */
+  public volatile boolean pressureWarned;
+
+  public ControlGroup(String name, long memoryMax, int cpuWeight, int ioWeight) {
+    Preconditions.checkArgument(!Strings.isNullOrEmpty(name), "name is empty");
+    Preconditions.checkArgument(memoryMax >= 0, "invalid memory max: %s", memoryMax);
+    Preconditions.checkArgument(cpuWeight == 0 || (cpuWeight >= 1 && cpuWeight <= 10000),
+        "invalid cpu weight: %s", cpuWeight);
+    Preconditions.checkArgument(ioWeight == 0 || (ioWeight >= 1 && ioWeight <= 10000),
+        "invalid io weight: %s", ioWeight);
+    this.name = name;
+    this.memoryMax = memoryMax;
+    this.cpuWeight = cpuWeight;
+    this.ioWeight = ioWeight;
+  }
+
+  /**
+   * 解析内存大小，支持 K、M、G 后缀，空白或者 max 表示不限制。
+   */
+  public static long parseSize(String text) {
+    String value = Strings.nullToEmpty(text).trim().toUpperCase(Locale.ROOT);
+    if (value.isEmpty() || "MAX".equals(value)) {
+      return 0;
+    }
+    long unit = 1;
+    char suffix = value.charAt(value.length() - 1);
+    int shift = "KMG".indexOf(suffix);
+    if (shift >= 0) {
+      unit = 1L << (10 * (shift + 1));
+      value = value.substring(0, value.length() - 1).trim();
+    }
+    try {
+      return Long.parseLong(value) * unit;
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("无效的内存大小：" + text);
+    }
+  }
+
+  public boolean isEmpty() {
+    return memoryMax == 0 && cpuWeight == 0 && ioWeight == 0;
+  }
+
+  /**
+   * 已经建立的控制组目录，没有建立时返回 null。
+   */
+  public Path path() {
+    return path;
+  }
+
+  /**
+   * 准备所有控制组的上级目录：移出控制器自己并启用 cpu、memory 和 io 控制器。
+   *
+   * @param configured 相对于 /sys/fs/cgroup 的路径，为空表示控制器自己所在的控制组。
+   * @return 上级目录，不支持或者没有权限时返回 null。
+   */
+  public static Path delegate(String configured) {
+    if (Processes.isWindows() || Files.notExists(ROOT.resolve("cgroup.controllers"))) {
+      LOGGER.warn("系统没有使用 cgroup v2，资源限制不会生效。");
+      return null;
+    }
+    try {
+      String self = selfGroup();
+      String relative = Strings.isNullOrEmpty(configured) ? self : configured.trim();
+      if (relative == null) {
+        LOGGER.warn("无法确定控制器所在的 cgroup，资源限制不会生效。");
+        return null;
+      }
+      Path base = ROOT.resolve(trimSlash(relative)).normalize();
+      if (self != null && base.equals(ROOT.resolve(trimSlash(self)).normalize())) {
+        // 有进程的控制组不能给子组启用控制器，先把自己移到子组中
+        Path leaf = base.resolve(SELF_GROUP);
+        Files.createDirectories(leaf);
+        write(leaf.resolve("cgroup.procs"), Files.readSymbolicLink(Paths.get("/proc/self"))
+            .getFileName().toString());
+      }
+      List<String> available = Splitter.on(' ').omitEmptyStrings().trimResults()
+          .splitToList(read(base.resolve("cgroup.controllers")));
+      StringBuilder enable = new StringBuilder();
+      for (String controller : CONTROLLERS) {
+        if (available.contains(controller)) {
+          enable.append(enable.length() == 0 ? "" : " ").append('+').append(controller);
+        }
+      }
+      if (enable.length() > 0) {
+        write(base.resolve("cgroup.subtree_control"), enable.toString());
+      }
+      return base;
+    } catch (IOException | RuntimeException e) {
+      LOGGER.warn("准备 cgroup 失败，资源限制不会生效：" + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * 在上级目录中建立控制组并写入限制，已经存在时只更新限制。
+   *
+   * @return 建立成功返回 true。
+   */
+  public boolean open(Path base) {
+    Path group = base.resolve(name);
+    try {
+      Files.createDirectories(group);
+      write(group.resolve("memory.max"), memoryMax == 0 ? "max" : String.valueOf(memoryMax));
+      if (cpuWeight > 0) {
+        write(group.resolve("cpu.weight"), String.valueOf(cpuWeight));
+      }
+      if (ioWeight > 0) {
+        write(group.resolve("io.weight"), "default " + ioWeight);
+      }
+      path = group;
+      return true;
+    } catch (IOException | RuntimeException e) {
+      LOGGER.warn(String.format("建立 cgroup %s 失败，资源限制不会生效：%s", group, e.getMessage()));
+      return false;
+    }
+  }
+
+  /**
+   * 生成实际执行的命令，控制组已经建立时先加入控制组再 exec 原命令。
+   */
+  public List<String> wrap(List<String> command) {
+    Path group = path;
+    if (group == null || Processes.isWindows()) {
+      return command;
+    }
+    List<String> result = Lists.newArrayList("sh", "-c", JOIN_SCRIPT,
+        group.resolve("cgroup.procs").toString());
+    result.addAll(command);
+    return result;
+  }
+
+  /**
+   * 读取压力停滞信息，控制组没有建立或者内核不支持时返回 null。
+   */
+  public Pressure pressure() {
+    Path group = path;
+    if (group == null) {
+      return null;
+    }
+    double cpu = parseSome(read(group.resolve("cpu.pressure")));
+    double memory = parseSome(read(group.resolve("memory.pressure")));
+    double io = parseSome(read(group.resolve("io.pressure")));
+    if (cpu < 0 && memory < 0 && io < 0) {
+      return null;
+    }
+    return new Pressure(cpu, memory, io);
+  }
+
+  /**
+   * 解析 *.pressure 中 some 一行的 avg10，即最近 10 秒内至少有一个任务停滞的时间百分比，没有时返回 -1。
+   */
+  static double parseSome(String text) {
+    for (String line : Splitter.on('\n').omitEmptyStrings().split(text)) {
+      if (!line.startsWith("some ")) {
+        continue;
+      }
+      for (String field : Splitter.on(' ').omitEmptyStrings().split(line)) {
+        if (field.startsWith("avg10=")) {
+          try {
+            return Double.parseDouble(field.substring(6));
+          } catch (NumberFormatException e) {
+            return -1;
+          }
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * 控制器自己所在的控制组，/proc/self/cgroup 中 0:: 开头的一行。
+   */
+  private static String selfGroup() {
+    for (String line : Splitter.on('\n').split(read(Paths.get("/proc/self/cgroup")))) {
+      if (line.startsWith("0::")) {
+        return line.substring(3).trim();
+      }
+    }
+    return null;
+  }
+
+  private static String trimSlash(String path) {
+    String result = path;
+    while (result.startsWith("/")) {
+      result = result.substring(1);
+    }
+    return result;
+  }
+
+  private static void write(Path path, String value) throws IOException {
+    Files.write(path, value.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  private static String read(Path path) {
+    try {
+      return new String(Files.readAllBytes(path), StandardCharsets.US_ASCII);
+    } catch (IOException | SecurityException e) {
+      return "";
+    }
+  }
+
+  @Override public String toString() {
+    StringBuilder builder = new StringBuilder(name);
+    if (memoryMax > 0) {
+      builder.append(" memory.max=").append(memoryMax);
+    }
+    if (cpuWeight > 0) {
+      builder.append(" cpu.weight=").append(cpuWeight);
+    }
+    if (ioWeight > 0) {
+      builder.append(" io.weight=").append(ioWeight);
+    }
+    return builder.toString();
+  }
+
+  /**
+   * 压力停滞信息，最近 10 秒内停滞时间的百分比，无法获取的为 -1。
+   */
+  public static final class Pressure {
+    public final double cpu;
+    public final double memory;
+    public final double io;
+
+    Pressure(double cpu, double memory, double io) {
+      this.cpu = cpu;
+      this.memory = memory;
+      this.io = io;
+    }
+
+    public double max() {
+      return Math.max(cpu, Math.max(memory, io));
+    }
+  }
+}
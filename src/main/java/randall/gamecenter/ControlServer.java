@@ -0,0 +1,590 @@
+package randall.gamecenter;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 控制接口。
+ * <p>
+ * 使用 JDK 自带的 HTTP 服务器，在固定大小的线程池上提供 JSON 接口，供运维脚本查询状态和控制游戏，
+ * 不需要操作图形界面：
+ * <pre>
+ * GET  /status                          游戏状态、所有程序的状态、控制器的线程数和输出泵的统计
+ * GET  /programs/{id}                   单个程序的状态，例如 /programs/RunGate1
+ * GET  /timeline/start | stop           最近一次启动或者停止的时间线，?format=csv 输出 CSV
+ * GET  /schedule                        维护计划以及下一次执行时间
+ * POST /game/start | stop | rolling-restart
+ * POST /programs/{id}/start | stop | restart
+ * POST /backup/start | stop
+ * POST /config/generate
+ * GET  /agents                          远程节点的连接状态、游戏状态和所有程序的状态
+ * POST /agents/{name}/...               转发给远程节点，路径与以上的 POST 接口一致，例如
+ *                                       /agents/Gate1/programs/RunGate1/restart
+ * </pre>
+ * 管理多个分区时，以上接口都加上分区前缀，例如 /shards/World1/status，另外提供：
+ * <pre>
+ * GET  /shards                          每个分区的状态和程序运行数量
+ * POST /shards/start | stop | rolling-restart
+ * POST /shards/backup/start | stop
+ * </pre>
+ * 停止和重启等耗时的操作立即返回 202，通过状态接口查询结果。默认只监听本机地址，
+ * 配置了令牌时请求需要携带 {@code Authorization: Bearer <令牌>}；监听其他地址时必须配置令牌。
+ *
+ * @author mrzhqiang
+ */
+public final class ControlServer implements AutoCloseable {
+  private static final Logger LOGGER = LoggerFactory.getLogger("randall");
+
+  private static final int OK = 200;
+  private static final int ACCEPTED = 202;
+  private static final int UNAUTHORIZED = 401;
+  private static final int NOT_FOUND = 404;
+  private static final int METHOD_NOT_ALLOWED = 405;
+  private static final int CONFLICT = 409;
+  private static final int INTERNAL_ERROR = 500;
+  private static final int SERVICE_UNAVAILABLE = 503;
+  private static final int GATEWAY_TIMEOUT = 504;
+  /** 等待远程节点回复的时间，单位：毫秒。 */
+  private static final long AGENT_TIMEOUT = 5000;
+
+  /** 单独管理一个游戏目录时的引擎，管理多个分区时为 null。 */
+  private final GameEngine engine;
+  /** 管理多个分区时的分区管理，否则为 null。 */
+  private final ShardManager shards;
+  private final byte[] token;
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  /**
+   * 创建并开始监听。
+   *
+   * @param port  为 0 时由系统分配，通过 {@link #address()} 获取实际端口。
+   * @param token 访问令牌，为空表示不校验，只允许在监听本机地址时为空。
+   * @throws IllegalArgumentException 监听本机以外的地址却没有配置令牌。
+   */
+  public ControlServer(GameEngine engine, String host, int port, int threads, String token)
+      throws IOException {
+    this(Preconditions.checkNotNull(engine, "engine == null"), null, host, port, threads, token);
+  }
+
+  /**
+   * 管理多个分区，接口见类说明。
+   */
+  public ControlServer(ShardManager shards, String host, int port, int threads, String token)
+      throws IOException {
+    this(null, Preconditions.checkNotNull(shards, "shards == null"), host, port, threads, token);
+  }
+
+  private ControlServer(GameEngine engine, ShardManager shards, String host, int port,
+      int threads, String token) throws IOException {
+    Preconditions.checkArgument(threads > 0, "invalid threads: %s", threads);
+    InetSocketAddress address = new InetSocketAddress(host, port);
+    // 任何人都可以通过控制接口停止游戏，只有本机可以访问时才允许不校验令牌
+    Preconditions.checkArgument(!Strings.isNullOrEmpty(token)
+            || (address.getAddress() != null && address.getAddress().isLoopbackAddress()),
+        "监听本机以外的地址 %s 时必须配置访问令牌 ControlToken", host);
+    this.engine = engine;
+    this.shards = shards;
+    this.token = Strings.nullToEmpty(token).getBytes(StandardCharsets.UTF_8);
+    AtomicInteger count = new AtomicInteger();
+    this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "control-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.server = HttpServer.create(address, 0);
+    server.setExecutor(executor);
+    server.createContext("/", this::handle);
+    server.start();
+  }
+
+  public InetSocketAddress address() {
+    return server.getAddress();
+  }
+
+  @Override public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      if (!isAuthorized(exchange)) {
+        respond(exchange, UNAUTHORIZED, error("未授权的请求"));
+        return;
+      }
+      List<String> path = Splitter.on('/').omitEmptyStrings()
+          .splitToList(exchange.getRequestURI().getPath());
+      String method = exchange.getRequestMethod();
+      if (!"GET".equals(method) && !"POST".equals(method)) {
+        respond(exchange, METHOD_NOT_ALLOWED, error("不支持的请求方法：" + method));
+      } else if (shards == null) {
+        route(exchange, engine, method, path);
+      } else if (path.isEmpty() || !"shards".equals(path.get(0))) {
+        respond(exchange, NOT_FOUND, error("未知的接口，管理多个分区时使用 /shards/{名称}/..."));
+      } else if (isShardBulk(path)) {
+        routeShards(exchange, method, path);
+      } else {
+        ShardManager.Shard shard = shards.shard(path.get(1));
+        if (shard == null) {
+          respond(exchange, NOT_FOUND, error("未知的分区：" + path.get(1)));
+          return;
+        }
+        route(exchange, shard.engine, method, path.subList(2, path.size()));
+      }
+    } catch (RuntimeException e) {
+      LOGGER.error("处理控制请求出错：" + exchange.getRequestURI(), e);
+      respond(exchange, INTERNAL_ERROR, error(e.toString()));
+    } finally {
+      // 同时关闭请求体和响应
+      exchange.close();
+    }
+  }
+
+  private void route(HttpExchange exchange, GameEngine engine, String method, List<String> path)
+      throws IOException {
+    if (path.isEmpty()) {
+      respond(exchange, NOT_FOUND, error("未知的接口"));
+    } else if ("GET".equals(method)) {
+      get(exchange, engine, path);
+    } else {
+      post(exchange, engine, path);
+    }
+  }
+
+  /** 分区列表和批量操作，操作名称不能作为分区名称，见 {@link ShardManager#isReserved(String)}。 */
+  private static boolean isShardBulk(List<String> path) {
+    return path.size() == 1
+        || (path.size() == 2 && ShardManager.isReserved(path.get(1)))
+        || (path.size() == 3 && "backup".equals(path.get(1)));
+  }
+
+  private void routeShards(HttpExchange exchange, String method, List<String> path)
+      throws IOException {
+    if (path.size() == 1) {
+      if ("GET".equals(method)) {
+        respond(exchange, OK, shardStatus());
+      } else {
+        respond(exchange, METHOD_NOT_ALLOWED, error("未知的接口"));
+      }
+      return;
+    }
+    if (!"POST".equals(method)) {
+      respond(exchange, METHOD_NOT_ALLOWED, error("未知的接口"));
+      return;
+    }
+    switch (path.get(1)) {
+      case "start":
+        respond(exchange, ACCEPTED, shardResult(shards.startAll()));
+        return;
+      case "stop":
+        shards.stopAll();
+        respond(exchange, ACCEPTED, shardResult(shardNames()));
+        return;
+      case "rolling-restart":
+        respond(exchange, ACCEPTED, shardResult(shards.rollingRestartAll()));
+        return;
+      case "backup":
+        if (!"start".equals(path.get(2)) && !"stop".equals(path.get(2))) {
+          respond(exchange, NOT_FOUND, error("未知的操作：" + path.get(2)));
+          return;
+        }
+        shards.setBackupRunning("start".equals(path.get(2)));
+        respond(exchange, OK, shardResult(shardNames()));
+        return;
+      default:
+        respond(exchange, NOT_FOUND, error("未知的操作：" + path.get(1)));
+    }
+  }
+
+  private void get(HttpExchange exchange, GameEngine engine, List<String> path)
+      throws IOException {
+    String resource = path.get(0);
+    if ("status".equals(resource) && path.size() == 1) {
+      respond(exchange, OK, status(engine));
+      return;
+    }
+    if ("programs".equals(resource) && path.size() == 2) {
+      ProgramDescriptor descriptor = engine.findProgram(path.get(1));
+      if (descriptor == null) {
+        respond(exchange, NOT_FOUND, error("未知的程序：" + path.get(1)));
+        return;
+      }
+      JsonWriter writer = new JsonWriter();
+      writeProgram(writer, descriptor);
+      respond(exchange, OK, writer.toString());
+      return;
+    }
+    if ("schedule".equals(resource) && path.size() == 1) {
+      respond(exchange, OK, schedule(engine));
+      return;
+    }
+    if ("agents".equals(resource) && path.size() == 1) {
+      respond(exchange, OK, agents(engine));
+      return;
+    }
+    if ("timeline".equals(resource) && path.size() == 2) {
+      Timeline.Kind kind = Timeline.Kind.of(path.get(1));
+      Timeline timeline = kind == null ? null : engine.timeline(kind);
+      if (timeline == null) {
+        respond(exchange, NOT_FOUND, error("没有时间线：" + path.get(1)));
+        return;
+      }
+      if ("format=csv".equals(exchange.getRequestURI().getQuery())) {
+        respond(exchange, OK, "text/csv; charset=utf-8", timeline.toCsv());
+      } else {
+        respond(exchange, OK, timeline.toJson());
+      }
+      return;
+    }
+    respond(exchange, isPostOnly(path) ? METHOD_NOT_ALLOWED : NOT_FOUND, error("未知的接口"));
+  }
+
+  private void post(HttpExchange exchange, GameEngine engine, List<String> path)
+      throws IOException {
+    String resource = path.get(0);
+    String action = path.size() > 1 ? path.get(path.size() - 1) : "";
+    if ("game".equals(resource) && path.size() == 2) {
+      postGame(exchange, engine, action);
+    } else if ("programs".equals(resource) && path.size() == 3) {
+      postProgram(exchange, engine, path.get(1), action);
+    } else if ("backup".equals(resource) && path.size() == 2
+        && ("start".equals(action) || "stop".equals(action))) {
+      engine.setBackupRunning("start".equals(action));
+      respond(exchange, OK, result(engine));
+    } else if ("config".equals(resource) && "generate".equals(action) && path.size() == 2) {
+      engine.generateGameConfig();
+      respond(exchange, OK, result(engine));
+    } else if ("agents".equals(resource) && path.size() >= 3) {
+      postAgent(exchange, engine, path.get(1), path.subList(2, path.size()));
+    } else {
+      respond(exchange, isPostOnly(path) ? NOT_FOUND : METHOD_NOT_ALLOWED, error("未知的接口"));
+    }
+  }
+
+  private void postGame(HttpExchange exchange, GameEngine engine, String action)
+      throws IOException {
+    switch (action) {
+      case "start":
+        if (!engine.start(0)) {
+          respond(exchange, CONFLICT, error("游戏服务器没有处于停止状态"));
+          return;
+        }
+        respond(exchange, ACCEPTED, result(engine));
+        return;
+      case "stop":
+        engine.stop();
+        respond(exchange, ACCEPTED, result(engine));
+        return;
+      case "rolling-restart":
+        if (!engine.rollingRestart()) {
+          respond(exchange, CONFLICT, error("游戏服务器没有运行，或者正在滚动重启"));
+          return;
+        }
+        respond(exchange, ACCEPTED, result(engine));
+        return;
+      default:
+        respond(exchange, NOT_FOUND, error("未知的操作：" + action));
+    }
+  }
+
+  private void postProgram(HttpExchange exchange, GameEngine engine, String id, String action)
+      throws IOException {
+    ProgramDescriptor descriptor = engine.findProgram(id);
+    if (descriptor == null) {
+      respond(exchange, NOT_FOUND, error("未知的程序：" + id));
+      return;
+    }
+    switch (action) {
+      case "start":
+        if (!engine.startProgram(descriptor)) {
+          respond(exchange, CONFLICT, error(descriptor.name + "正在运行或者没有启用"));
+          return;
+        }
+        respond(exchange, OK, result(engine));
+        return;
+      case "stop":
+        engine.stopProgram(descriptor);
+        respond(exchange, ACCEPTED, result(engine));
+        return;
+      case "restart":
+        engine.restartProgram(descriptor);
+        respond(exchange, ACCEPTED, result(engine));
+        return;
+      default:
+        respond(exchange, NOT_FOUND, error("未知的操作：" + action));
+    }
+  }
+
+  /**
+   * 把命令转发给远程节点，等待代理回复。
+   */
+  private void postAgent(HttpExchange exchange, GameEngine engine, String name,
+      List<String> path) throws IOException {
+    AgentClient agent = engine.findAgent(name);
+    if (agent == null) {
+      respond(exchange, NOT_FOUND, error("未知的远程节点：" + name));
+      return;
+    }
+    boolean program = "programs".equals(path.get(0)) && path.size() == 3;
+    AgentProtocol.Command command = program
+        ? AgentProtocol.Command.of(path.get(2), true)
+        : AgentProtocol.Command.of(Joiner.on('/').join(path), false);
+    if (command == null) {
+      respond(exchange, NOT_FOUND, error("未知的操作：" + Joiner.on('/').join(path)));
+      return;
+    }
+    if (!agent.isConnected()) {
+      respond(exchange, SERVICE_UNAVAILABLE, error("远程节点没有连接：" + name));
+      return;
+    }
+    try {
+      String message = agent.send(command, program ? path.get(1) : "")
+          .get(AGENT_TIMEOUT, TimeUnit.MILLISECONDS);
+      respond(exchange, OK, new JsonWriter().beginObject().name("ok").value(true)
+          .name("message").value(message).endObject().toString());
+    } catch (ExecutionException e) {
+      respond(exchange, CONFLICT, error(e.getCause().getMessage()));
+    } catch (TimeoutException e) {
+      respond(exchange, GATEWAY_TIMEOUT, error("远程节点没有及时回复：" + name));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      respond(exchange, SERVICE_UNAVAILABLE, error("请求被中断"));
+    }
+  }
+
+  /** 只支持 POST 的接口，用于区分 404 和 405。 */
+  private static boolean isPostOnly(List<String> path) {
+    String resource = path.get(0);
+    return "game".equals(resource) || "backup".equals(resource) || "config".equals(resource)
+        || ("programs".equals(resource) && path.size() == 3)
+        || ("agents".equals(resource) && path.size() >= 3);
+  }
+
+  private boolean isAuthorized(HttpExchange exchange) {
+    if (token.length == 0) {
+      return true;
+    }
+    String header = Strings.nullToEmpty(exchange.getRequestHeaders().getFirst("Authorization"));
+    String prefix = "Bearer ";
+    if (!header.startsWith(prefix)) {
+      return false;
+    }
+    // 固定时间比较，避免通过响应时间猜测令牌
+    return MessageDigest.isEqual(token,
+        header.substring(prefix.length()).trim().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String status(GameEngine engine) {
+    JsonWriter writer = new JsonWriter().beginObject();
+    writeState(writer, engine);
+    writer.name("programs").beginArray();
+    for (ProgramDescriptor descriptor : engine.share().registry.all()) {
+      writeProgram(writer, descriptor);
+    }
+    writer.endArray();
+    writePump(writer);
+    return writer.endObject().toString();
+  }
+
+  private static String schedule(GameEngine engine) {
+    JsonWriter writer = new JsonWriter().beginObject().name("entries").beginArray();
+    for (MaintenanceScheduler.Entry entry : engine.schedules()) {
+      writer.beginObject()
+          .name("id").value(entry.id)
+          .name("cron").value(entry.cron.toString())
+          .name("zone").value(entry.zone.getId())
+          .name("policy").value(entry.policy.id)
+          .name("next").value(entry.nextTime())
+          .name("last").value(entry.lastRun())
+          .name("runs").value(entry.runCount())
+          .endObject();
+    }
+    return writer.endArray().endObject().toString();
+  }
+
+  private static String agents(GameEngine engine) {
+    JsonWriter writer = new JsonWriter().beginObject().name("agents").beginArray();
+    for (AgentClient agent : engine.agents()) {
+      writer.beginObject()
+          .name("name").value(agent.name)
+          .name("address").value(agent.host + ":" + agent.port)
+          .name("connected").value(agent.isConnected())
+          .name("gameName").value(agent.gameName());
+      AgentProtocol.GameStatus game = agent.game();
+      if (game != null) {
+        writer.name("state").value(game.state)
+            .name("rollingRestart").value(game.rollingRestart)
+            .name("backup").value(game.backup);
+      }
+      writer.name("programs").beginArray();
+      for (AgentProtocol.ProgramStatus status : agent.programs()) {
+        writer.beginObject()
+            .name("id").value(status.id)
+            .name("name").value(status.name)
+            .name("enabled").value(status.enabled)
+            .name("status").value(status.status)
+            .name("alive").value(status.alive)
+            .name("pid").value(status.pid)
+            .name("restartCount").value(status.restartCount)
+            .name("lastExitCode").value(status.lastExitCode)
+            .name("parked").value(status.parked)
+            .name("maintenance").value(status.maintenance)
+            .name("scaled").value(status.scaled)
+            .name("cpu").value(status.cpu)
+            .name("rss").value(status.rss)
+            .endObject();
+      }
+      writer.endArray().endObject();
+    }
+    return writer.endArray().endObject().toString();
+  }
+
+  private String shardStatus() {
+    JsonWriter writer = new JsonWriter().beginObject().name("shards").beginArray();
+    for (ShardManager.Shard shard : shards.shards()) {
+      int running = 0;
+      int enabled = 0;
+      for (ProgramDescriptor descriptor : shard.share.registry.all()) {
+        Share.Program program = descriptor.program;
+        if (program.getStart) {
+          enabled++;
+        }
+        if (program.state() == Lifecycle.State.RUNNING) {
+          running++;
+        }
+      }
+      writer.beginObject().name("name").value(shard.name)
+          .name("gameName").value(shard.share.gameName)
+          .name("directory").value(shard.share.gameDirectory);
+      writeState(writer, shard.engine);
+      writer.name("running").value(running).name("enabled").value(enabled).endObject();
+    }
+    return writer.endArray().endObject().toString();
+  }
+
+  private List<String> shardNames() {
+    List<String> names = Lists.newArrayList();
+    for (ShardManager.Shard shard : shards.shards()) {
+      names.add(shard.name);
+    }
+    return names;
+  }
+
+  /** 批量操作的结果，列出实际执行了操作的分区。 */
+  private static String shardResult(List<String> names) {
+    JsonWriter writer = new JsonWriter().beginObject().name("ok").value(true)
+        .name("shards").beginArray();
+    for (String name : names) {
+      writer.value(name);
+    }
+    return writer.endArray().endObject().toString();
+  }
+
+  private static String result(GameEngine engine) {
+    JsonWriter writer = new JsonWriter().beginObject().name("ok").value(true);
+    writeState(writer, engine);
+    return writer.endObject().toString();
+  }
+
+  private static String error(String message) {
+    return new JsonWriter().beginObject().name("error").value(message).endObject().toString();
+  }
+
+  private static void writeState(JsonWriter writer, GameEngine engine) {
+    Lifecycle.Snapshot snapshot = engine.snapshot();
+    writer.name("state").value(snapshot.state.id)
+        .name("rollingRestart").value(engine.isRollingRestarting())
+        .name("backup").value(engine.isBackupRunning())
+        .name("stateMillis").value(elapsedMillis(snapshot));
+  }
+
+  /** 所有程序共用的输出泵，以及控制器进程的线程数，用于发现线程泄漏。 */
+  private static void writePump(JsonWriter writer) {
+    OutputPump.Stats stats = Processes.outputPump().stats();
+    writer.name("threads").value(ManagementFactory.getThreadMXBean().getThreadCount())
+        .name("pump").beginObject()
+        .name("threads").value(stats.threads)
+        .name("streams").value(stats.streams)
+        .name("bufferBytes").value(stats.bufferBytes)
+        .name("bytes").value(stats.bytes)
+        .name("lines").value(stats.lines)
+        .name("truncated").value(stats.truncated)
+        .name("polls").value(stats.polls)
+        .endObject();
+  }
+
+  private static void writeProgram(JsonWriter writer, ProgramDescriptor descriptor) {
+    Share.Program program = descriptor.program;
+    Process process = program.process;
+    boolean alive = process != null && process.isAlive();
+    ResourceStats resources = program.resources;
+    Lifecycle.Snapshot snapshot = program.lifecycle.snapshot();
+    writer.beginObject()
+        .name("id").value(descriptor.id)
+        .name("name").value(descriptor.name)
+        .name("role").value(descriptor.role.id)
+        .name("enabled").value(program.getStart)
+        .name("status").value(snapshot.state.id)
+        .name("statusMillis").value(elapsedMillis(snapshot))
+        .name("alive").value(alive)
+        .name("pid").value(alive ? ProcessSampler.pid(process) : -1)
+        .name("ports").value(program.ports)
+        .name("restartCount").value(program.restartCount)
+        .name("lastExitCode").value(program.lastExitCode)
+        .name("parked").value(program.restartPolicy.isParked())
+        .name("maintenance").value(program.maintenance)
+        .name("scaled").value(program.scaled)
+        .name("cpu").value(alive ? resources.cpu.latest(-1) : -1)
+        .name("rss").value(alive ? resources.rss.latest(-1) : -1);
+    ControlGroup group = program.controlGroup;
+    ControlGroup.Pressure pressure = group == null ? null : group.pressure();
+    if (pressure != null) {
+      writer.name("pressure").beginObject()
+          .name("cpu").value(pressure.cpu)
+          .name("memory").value(pressure.memory)
+          .name("io").value(pressure.io)
+          .endObject();
+    }
+    writer.endObject();
+  }
+
+  /** 进入当前状态至今的时长，单位：毫秒。 */
+  private static long elapsedMillis(Lifecycle.Snapshot snapshot) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - snapshot.since);
+  }
+
+  private static void respond(HttpExchange exchange, int code, String body) throws IOException {
+    respond(exchange, code, "application/json; charset=utf-8", body);
+  }
+
+  private static void respond(HttpExchange exchange, int code, String contentType, String body)
+      throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", contentType);
+    exchange.sendResponseHeaders(code, bytes.length);
+    try (OutputStream output = exchange.getResponseBody()) {
+      output.write(bytes);
+    }
+  }
+}
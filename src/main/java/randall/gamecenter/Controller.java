@@ -1,8 +1,8 @@
 package randall.gamecenter;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
 import helper.DateTimeHelper;
-import io.reactivex.rxjavafx.schedulers.JavaFxScheduler;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -10,15 +10,11 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.Instant;
-import java.time.LocalDateTime;
 import java.time.LocalTime;
-import java.time.ZoneOffset;
-import java.util.Collection;
+import java.time.ZonedDateTime;
 import java.util.Date;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.UUID;
+import java.util.Map;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.fxml.FXML;
@@ -36,10 +32,10 @@ import javafx.scene.control.TableView;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
 import javafx.scene.control.ToggleGroup;
+import javafx.scene.control.Tooltip;
 import javafx.scene.paint.Color;
 import javafx.stage.DirectoryChooser;
 import org.ini4j.Ini;
-import org.ini4j.Profile;
 import org.ini4j.Wini;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,42 +43,18 @@ import randall.common.ui.Dialogs;
 import randall.common.util.IOHelper;
 import randall.common.util.Networks;
 
-import static randall.gamecenter.Share.ALL_IP_ADDRESS;
+import static randall.gamecenter.Lifecycle.State.RUNNING;
+import static randall.gamecenter.Lifecycle.State.STOPPED;
 import static randall.gamecenter.Share.BASIC_SECTION_NAME;
-import static randall.gamecenter.Share.DB_SERVER_PROCESS_CODE;
-import static randall.gamecenter.Share.DB_SERVER_SECTION_NAME_2;
 import static randall.gamecenter.Share.DEFAULT_AUTO_RUN_BACKUP;
 import static randall.gamecenter.Share.DEFAULT_CLOSE_WUXING_ENABLED;
 import static randall.gamecenter.Share.DEFAULT_DB_NAME;
 import static randall.gamecenter.Share.DEFAULT_GAME_DIRECTORY;
 import static randall.gamecenter.Share.DEFAULT_GAME_NAME;
 import static randall.gamecenter.Share.DEFAULT_IP_2_ENABLED;
-import static randall.gamecenter.Share.ERROR_STATE;
-import static randall.gamecenter.Share.LOGIN_GATE_PROCESS_CODE;
-import static randall.gamecenter.Share.LOGIN_GATE_SECTION_NAME_2;
-import static randall.gamecenter.Share.LOGIN_SERVER_PROCESS_CODE;
-import static randall.gamecenter.Share.LOGIN_SRV_SECTION_NAME_2;
-import static randall.gamecenter.Share.LOG_SERVER_PROCESS_CODE;
-import static randall.gamecenter.Share.LOG_SERVER_SECTION_2;
-import static randall.gamecenter.Share.M2_SERVER_CONFIG_FILE;
-import static randall.gamecenter.Share.M2_SERVER_PROCESS_CODE;
-import static randall.gamecenter.Share.M2_SERVER_SECTION_NAME_1;
-import static randall.gamecenter.Share.M2_SERVER_SECTION_NAME_2;
-import static randall.gamecenter.Share.MAX_RUN_GATE_COUNT;
-import static randall.gamecenter.Share.ONLINE_USER_LIMIT;
-import static randall.gamecenter.Share.PLUG_TOP_PROCESS_CODE;
 import static randall.gamecenter.Share.PRIMARY_IP_ADDRESS;
 import static randall.gamecenter.Share.QUIT_CODE;
-import static randall.gamecenter.Share.RUNNING_STATE;
-import static randall.gamecenter.Share.RUN_GATE_PROCESS_CODE;
-import static randall.gamecenter.Share.RUN_GATE_SECTION_NAME_2;
 import static randall.gamecenter.Share.SECOND_IP_ADDRESS;
-import static randall.gamecenter.Share.SEL_GATE_PROCESS_CODE;
-import static randall.gamecenter.Share.SEL_GATE_SECTION_NAME_2;
-import static randall.gamecenter.Share.SERVER_CONFIG_FILE;
-import static randall.gamecenter.Share.STARTING_STATE;
-import static randall.gamecenter.Share.STOPPED_STATE;
-import static randall.gamecenter.Share.STOPPING_STATE;
 
 /**
  * 控制器。
@@ -115,7 +87,9 @@ public final class Controller {
   public Spinner<Integer> hoursSpinner;
   public Spinner<Integer> minutesSpinner;
   public TextArea gameInfoTextArea;
+  public TextArea resourceTextArea;
   public Button startGameButton;
+  public Button rollingRestartButton;
   /* 配置向导 */
   public TabPane configTabPane;
   public TextField primaryAddressTextField;
@@ -217,32 +191,25 @@ public final class Controller {
   public Button startClearDataButton;
 
   private boolean opened = false;
-  private boolean gateStopped;
-  private long gateStopTick;
-  // 0 -- default; 1 -- starting; 2 -- running; 3 -- stopping; 9 -- error
-  public int startState = 0;
   // 0 -- disabled; 1 -- enabled;
   private int backupState = 0;
 
   private long refTick;
   private long showTick;
-  private long runTick;
-  private long runTime;
 
-  private Timer startGameTimer = new Timer();
-  private Timer stopGameTimer = new Timer();
-  private Timer checkRunTimer = new Timer();
 
   private final Share share = new Share();
+  private final Map<Share.Program, CheckBox> consoleCheckBoxes = Maps.newHashMap();
+  private GameEngine engine;
 
   @FXML
   public void initialize() {
     // 额外添加的监听器
     addListener();
+    bindConsoleCheckBoxes();
     opened = false;
     mainTabPane.getSelectionModel().select(0);
     configTabPane.getSelectionModel().select(0);
-    startState = 0;
     backupState = 0;
     gameInfoTextArea.clear();
     refTick = System.currentTimeMillis();
@@ -252,6 +219,8 @@ public final class Controller {
     if (!startService()) {
       return;
     }
+    engine = new GameEngine(share, new ConsoleListener());
+    engine.open();
     refGameConsole();
     autoRunBackupCheckBox.setSelected(share.autoRunBakEnabled);
     opened = true;
@@ -271,28 +240,6 @@ public final class Controller {
     minutesSpinner.setValueFactory(new SpinnerValueFactory.IntegerSpinnerValueFactory(0, 59, 0));
     allPortPlusSpinner.setValueFactory(
         new SpinnerValueFactory.IntegerSpinnerValueFactory(0, 65535, 0));
-    startModeComboBox.valueProperty().addListener((observable, oldValue, newValue) -> {
-      if (StartMode.NORMAL.equals(newValue)) {
-        runTime = 0;
-      } else if (StartMode.DELAY.equals(newValue)) {
-        Integer hours = hoursSpinner.getValue();
-        Integer minutes = minutesSpinner.getValue();
-        runTime = Duration.ofHours(hours)
-            .plus(Duration.ofMinutes(minutes))
-            .toMillis();
-      } else if (StartMode.TIMING.equals(newValue)) {
-        Integer hours = hoursSpinner.getValue();
-        Integer minutes = minutesSpinner.getValue();
-        LocalDateTime now = LocalDateTime.now();
-        LocalDateTime dateTime = LocalDateTime.of(now.toLocalDate(), LocalTime.of(hours, minutes));
-        // 如果指定时间在现在之前，那么就认为是第二天的时刻，所以时间要加一天
-        if (dateTime.isBefore(now)) {
-          dateTime = dateTime.plusDays(1);
-        }
-        // System.currentTimeMillis() 方法获取的本来就是 UTC 时间戳
-        runTime = dateTime.toInstant(ZoneOffset.UTC).toEpochMilli();
-      }
-    });
     doubleAddressCheckBox.selectedProperty().addListener((observable, oldValue, newValue) ->
         secondAddressTextField.setDisable(!newValue));
     dynamicAddressCheckBox.selectedProperty().addListener((observable, oldValue, newValue) -> {
@@ -368,6 +315,24 @@ public final class Controller {
     //backupModeToggleGroup.selectToggle(dayBackupModeRadioButton);
   }
 
+  private void bindConsoleCheckBoxes() {
+    consoleCheckBoxes.put(share.dbServer, dbServerCheckBox);
+    consoleCheckBoxes.put(share.loginServer, loginSrvCheckBox);
+    consoleCheckBoxes.put(share.logServer, logServerCheckBox);
+    consoleCheckBoxes.put(share.m2Server, m2ServerCheckBox);
+    CheckBox[] gateCheckBoxes = {gameGateCheckBox1, gameGateCheckBox2, gameGateCheckBox3,
+        gameGateCheckBox4, gameGateCheckBox5, gameGateCheckBox6, gameGateCheckBox7,
+        gameGateCheckBox8};
+    for (int i = 0; i < gateCheckBoxes.length && i < share.runGate.size(); i++) {
+      consoleCheckBoxes.put(share.runGate.get(i), gateCheckBoxes[i]);
+    }
+    consoleCheckBoxes.put(share.selGate, selGateCheckBox1);
+    consoleCheckBoxes.put(share.selGate1, selGateCheckBox2);
+    consoleCheckBoxes.put(share.loginGate, loginGateCheckBox);
+    consoleCheckBoxes.put(share.loginGate2, loginGateCheckBox2);
+    consoleCheckBoxes.put(share.plugTop, plugTopCheckBox);
+  }
+
   private void refGameConsole() {
     opened = false;
 
@@ -543,135 +508,55 @@ public final class Controller {
   }
 
   public void onStartGameClicked() {
-    switch (startState) {
-      case STOPPED_STATE:
+    switch (engine.state()) {
+      case STOPPED:
         Dialogs.confirm("是否确认启动游戏服务器？")
             .ifPresent(buttonType -> startGame());
         break;
-      case STARTING_STATE:
+      case STARTING:
         Dialogs.confirm("是否确认中止启动游戏服务器？")
-            .ifPresent(buttonType -> cancelStartGame());
+            .ifPresent(buttonType -> engine.cancelStart());
         break;
-      case RUNNING_STATE:
+      case RUNNING:
         Dialogs.confirm("是否确认停止游戏服务器？")
-            .ifPresent(buttonType -> stopGame());
+            .ifPresent(buttonType -> engine.stop());
         break;
-      case STOPPING_STATE:
+      case STOPPING:
         Dialogs.confirm("是否确认中止停止游戏服务器？")
-            .ifPresent(buttonType -> cancelStopGame());
+            .ifPresent(buttonType -> engine.cancelStop());
         break;
-      case ERROR_STATE:
+      case ERROR:
         break;
     }
   }
 
-  private void cancelStopGame() {
-    stopGameTimer.cancel();
-    stopGameTimer = new Timer();
-    startState = RUNNING_STATE;
-    startGameButton.setText(share.textStopGame);
-  }
-
-  private void stopGame() {
-    startGameButton.setText(share.textCancelStopGame);
-    mainOutMessage("正在开始停止服务器...");
-    // todo cancel task and do not new Timer
-    checkRunTimer.cancel();
-    checkRunTimer = new Timer();
-    stopGameTimer.schedule(new StopGameTask(), 1000, 1000);
-    gateStopped = false;
-    startState = STOPPING_STATE;
+  public void onRollingRestartClicked() {
+    if (engine.state() != RUNNING) {
+      Dialogs.warn("游戏服务器没有运行，无法滚动重启！").show();
+      return;
+    }
+    if (engine.isRollingRestarting()) {
+      Dialogs.warn("正在滚动重启网关，请等待完成！").show();
+      return;
+    }
+    Dialogs.confirm("是否确认逐个重启角色网关和游戏网关？")
+        .ifPresent(buttonType -> engine.rollingRestart());
   }
 
-  private void cancelStartGame() {
-    startGameTimer.cancel();
-    startGameTimer = new Timer();
-    startState = RUNNING_STATE;
-    startGameButton.setText(share.textStopGame);
+  /**
+   * 游戏服务器是否正在运行，关闭窗口前用于提示。
+   */
+  public boolean isGameRunning() {
+    return engine != null && engine.state() == RUNNING;
   }
 
   private void startGame() {
-    runTick = System.currentTimeMillis();
-    share.dbServer.getStart = share.config.dbServer.getStart;
-    share.dbServer.reStart = true;
-    share.dbServer.directory = share.gameDirectory + "DBServer\\";
-    share.dbServer.programFile = share.config.dbServer.programFile;
-    share.dbServer.mainFormX = share.config.dbServer.mainFormX;
-    share.dbServer.mainFormY = share.config.dbServer.mainFormY;
-
-    share.loginServer.getStart = share.config.loginSrv.getStart;
-    share.loginServer.reStart = true;
-    share.loginServer.directory = share.gameDirectory + "LoginSrv\\";
-    share.loginServer.programFile = share.config.loginSrv.programFile;
-    share.loginServer.mainFormX = share.config.loginSrv.mainFormX;
-    share.loginServer.mainFormY = share.config.loginSrv.mainFormY;
-
-    share.logServer.getStart = share.config.logServer.getStart;
-    share.logServer.reStart = true;
-    share.logServer.directory = share.gameDirectory + "LogServer\\";
-    share.logServer.programFile = share.config.logServer.programFile;
-    share.logServer.mainFormX = share.config.logServer.mainFormX;
-    share.logServer.mainFormY = share.config.logServer.mainFormY;
-
-    share.m2Server.getStart = share.config.m2Server.getStart;
-    share.m2Server.reStart = true;
-    share.m2Server.directory = share.gameDirectory + "Mir200\\";
-    share.m2Server.programFile = share.config.m2Server.programFile;
-    share.m2Server.mainFormX = share.config.m2Server.mainFormX;
-    share.m2Server.mainFormY = share.config.m2Server.mainFormY;
-
-    for (int i = 0; i < share.runGate.size(); i++) {
-      share.runGate.get(i).startStatus = 0;
-      share.runGate.get(i).getStart = share.config.runGate.getStart[i];
-      share.runGate.get(i).reStart = true;
-      share.runGate.get(i).directory = share.gameDirectory + "RunGate\\";
-      share.runGate.get(i).programFile = share.config.runGate.programFile;
-      if ((i + 1) % 2 == 0) {
-        share.runGate.get(i).mainFormX = share.config.runGate.mainFormX + 276;
-      } else {
-        share.runGate.get(i).mainFormX = share.config.runGate.mainFormX;
-      }
-      if (i == 2 || i == 3 || i == 6 || i == 7) {
-        share.runGate.get(i).mainFormY = share.config.runGate.mainFormY + 187;
-      } else {
-        share.runGate.get(i).mainFormY = share.config.runGate.mainFormY;
-      }
+    for (CheckBox checkBox : consoleCheckBoxes.values()) {
+      checkBox.setTextFill(Color.BLACK);
+      checkBox.setTooltip(null);
     }
-
-    share.selGate.getStart = share.config.selGate.getStart1;
-    share.selGate.reStart = true;
-    share.selGate.directory = share.gameDirectory + "SelGate\\";
-    share.selGate.programFile = share.config.selGate.programFile;
-    share.selGate.mainFormX = share.config.selGate.mainFormX;
-    share.selGate.mainFormY = share.config.selGate.mainFormY;
-
-    share.selGate1.getStart = share.config.selGate.getStart2;
-    share.selGate1.reStart = true;
-    share.selGate1.directory = share.gameDirectory + "SelGate\\";
-    share.selGate1.programFile = share.config.selGate.programFile;
-    share.selGate1.mainFormX = share.config.selGate.mainFormX;
-    share.selGate1.mainFormY = share.config.selGate.mainFormY;
-
-    share.loginGate.getStart = share.config.loginGate.getStart;
-    share.loginGate.reStart = true;
-    share.loginGate.directory = share.gameDirectory + "LoginGate\\";
-    share.loginGate.programFile = share.config.loginGate.programFile;
-    share.loginGate.mainFormX = share.config.loginGate.mainFormX;
-    share.loginGate.mainFormY = share.config.loginGate.mainFormY;
-
-    share.loginGate2.getStart = share.config.loginGate.getStart && share.ip2Enabled;
-    share.loginGate2.reStart = true;
-    share.loginGate2.directory = share.gameDirectory + "M2Server\\";
-    share.loginGate2.programFile = share.config.loginGate.programFile;
-    share.loginGate2.mainFormX = share.config.loginGate.mainFormX;
-    share.loginGate2.mainFormY = share.config.loginGate.mainFormY;
-
-    share.plugTop.getStart = share.config.plugTop.getStart;
-    share.plugTop.reStart = true;
-    share.plugTop.directory = share.gameDirectory + "Mir200\\";
-    share.plugTop.programFile = share.config.plugTop.programFile;
-    share.plugTop.mainFormX = share.config.plugTop.mainFormX;
-    share.plugTop.mainFormY = share.config.plugTop.mainFormY;
+    engine.start(openTime(startModeComboBox.getValue(), hoursSpinner.getValue(),
+        minutesSpinner.getValue(), ZonedDateTime.now()));
 
     dbServerCheckBox.setSelected(share.config.dbServer.getStart);
     loginSrvCheckBox.setSelected(share.config.loginSrv.getStart);
@@ -688,42 +573,13 @@ public final class Controller {
     gameGateCheckBox6.setSelected(share.config.runGate.getStart[5]);
     gameGateCheckBox7.setSelected(share.config.runGate.getStart[6]);
     gameGateCheckBox8.setSelected(share.config.runGate.getStart[7]);
-
-    startGameButton.setText(share.textCancelStartGame);
-    startState = STARTING_STATE;
-
-    startGameTimer.schedule(new StartGameTask(), 1000, 1000);
   }
 
   private void loadBackupList() {
     deleteBackupButton.setDisable(true);
     modifyBackupButton.setDisable(true);
     try {
-      Path path = Paths.get(share.gameDirectory, share.backupListFile);
-      if (Files.notExists(path)) {
-        IOHelper.create(path);
-      }
-      Ini ini = new Wini(path.toFile());
-      Collection<Profile.Section> sections = ini.values();
-      int index = 0;
-      for (Profile.Section section : sections) {
-        String source = section.get("Source", "");
-        String destination = section.get("Save", "");
-        if (Strings.isNullOrEmpty(source) || Strings.isNullOrEmpty(destination)) {
-          continue;
-        }
-        BackupManager.BackupObject object = new BackupManager.BackupObject();
-        object.index = index;
-        index++;
-        object.sourceDir.set(source);
-        object.destinationDir.set(destination);
-        object.hours = section.get("Hour", Integer.class, 0);
-        object.minutes = section.get("Min", Integer.class, 0);
-        object.backupMode = section.get("BackMode", Integer.class, 0);
-        object.backupEnabled = section.get("GetBack", Boolean.class, true);
-        object.compressEnabled = section.get("Zip", Boolean.class, true);
-        share.backupManager.addToList(object);
-      }
+      share.backupManager.load(Paths.get(share.gameDirectory, share.backupListFile));
     } catch (IOException e) {
       Dialogs.error("读取备份文件列表出错！", e).show();
     }
@@ -734,11 +590,9 @@ public final class Controller {
   }
 
   public void onDestroy() {
-    startGameTimer.cancel();
-    stopGameTimer.cancel();
-    checkRunTimer.cancel();
-    if (share.backupManager != null) {
-      share.backupManager.stop();
+    if (engine != null) {
+      // 程序不会随控制器一起退出，下次打开控制器时继续接管
+      engine.close();
     }
   }
 
@@ -1128,7 +982,12 @@ public final class Controller {
   }
 
   public void onSaveConfigClicked() {
-    share.saveConfig();
+    try {
+      share.saveConfig();
+    } catch (IOException e) {
+      Dialogs.error("保存配置文件时出错！", e).show();
+      return;
+    }
     Dialogs.alert("配置文件已经保存完毕...")
         .showAndWait()
         .filter(ButtonType.OK::equals)
@@ -1141,330 +1000,11 @@ public final class Controller {
   }
 
   public void onGenerateConfigClicked() {
-    generateGameConfig();
+    engine.generateGameConfig();
     refGameConsole();
     Dialogs.alert("引擎配置文件已经生成完毕...").show();
   }
 
-  private void generateGameConfig() {
-    IOHelper.mkdir(Paths.get(share.gameDirectory));
-    generateDBServerConfig();
-    generateLoginServerConfig();
-    generateM2ServerConfig();
-    generateLogServerConfig();
-    generateRunGateConfig();
-    generateSelGateConfig();
-    generateLoginGateConfig();
-  }
-
-  private void generateMultiRunGateConfig(int index) {
-    if (index > 0 && index < MAX_RUN_GATE_COUNT) {
-      Path runGateDir = Paths.get(share.gameDirectory, "RunGate\\");
-      IOHelper.mkdir(runGateDir);
-
-      try {
-        Path runGateConfigPath = Paths.get(runGateDir.toString(), SERVER_CONFIG_FILE);
-        IOHelper.create(runGateConfigPath);
-        Ini ini = new Wini(runGateConfigPath.toFile());
-        ini.put(RUN_GATE_SECTION_NAME_2, "Title", share.gameName);
-        ini.put(RUN_GATE_SECTION_NAME_2, "GateAddr", ALL_IP_ADDRESS);
-        ini.put(RUN_GATE_SECTION_NAME_2, "GatePort", share.config.runGate.gatePort[index]);
-        ini.store();
-      } catch (IOException e) {
-        Dialogs.error("生成游戏网关[" + (index + 1) + "]配置出错！！", e).show();
-      }
-    }
-  }
-
-  private void generateMultiSelGateConfig(int index) {
-    if (index != 0 && index != 1) {
-      return;
-    }
-    Path selGateDir = Paths.get(share.gameDirectory, "SelGate\\");
-    IOHelper.mkdir(selGateDir);
-
-    try {
-      Path selGateConfigPath = Paths.get(selGateDir.toString(), SERVER_CONFIG_FILE);
-      IOHelper.create(selGateConfigPath);
-      Ini ini = new Wini(selGateConfigPath.toFile());
-      ini.put(SEL_GATE_SECTION_NAME_2, "Title", share.gameName);
-      ini.put(SEL_GATE_SECTION_NAME_2, "GateAddr", ALL_IP_ADDRESS);
-      ini.put(SEL_GATE_SECTION_NAME_2, "GatePort", share.config.selGate.gatePort[index]);
-      if (share.ip2Enabled) {
-        if (index == 0) {
-          ini.put(SEL_GATE_SECTION_NAME_2, "ServerAddr", PRIMARY_IP_ADDRESS);
-        } else {
-          ini.put(SEL_GATE_SECTION_NAME_2, "ServerAddr", SECOND_IP_ADDRESS);
-        }
-      }
-      ini.store();
-    } catch (IOException e) {
-      Dialogs.error("生成角色网关[" + index + "]出错！！", e).show();
-    }
-  }
-
-  private void generateMultiLoginGateConfig(int index) {
-    if (index != 0 && index != 1) {
-      return;
-    }
-    Path loginGateDir = Paths.get(share.gameDirectory, "LoginGate\\");
-    IOHelper.mkdir(loginGateDir);
-
-    try {
-      Path loginGateConfigPath = Paths.get(loginGateDir.toString(), SERVER_CONFIG_FILE);
-      IOHelper.create(loginGateConfigPath);
-      Ini ini = new Wini(loginGateConfigPath.toFile());
-      ini.put(LOGIN_SRV_SECTION_NAME_2, "Title", share.gameName);
-      ini.put(LOGIN_SRV_SECTION_NAME_2, "GatePort", share.config.loginGate.gatePort);
-      if (share.ip2Enabled) {
-        if (index == 0) {
-          ini.put(LOGIN_SRV_SECTION_NAME_2, "GateAddr", share.extIPAddr);
-          ini.put(LOGIN_SRV_SECTION_NAME_2, "ServerAddr", PRIMARY_IP_ADDRESS);
-        } else {
-          ini.put(LOGIN_SRV_SECTION_NAME_2, "GateAddr", share.extIPAddr2);
-          ini.put(LOGIN_SRV_SECTION_NAME_2, "ServerAddr", SECOND_IP_ADDRESS);
-        }
-      } else {
-        ini.put(LOGIN_SRV_SECTION_NAME_2, "GateAddr", ALL_IP_ADDRESS);
-      }
-      ini.store();
-    } catch (IOException e) {
-      Dialogs.error("生成角色网关[" + index + "]出错！！", e).show();
-    }
-  }
-
-  private void generateLoginGateConfig() {
-    Path loginGateDir = Paths.get(share.gameDirectory, "LoginGate\\");
-    IOHelper.mkdir(loginGateDir);
-
-    try {
-      Path configPath = Paths.get(loginGateDir.toString(), SERVER_CONFIG_FILE);
-      IOHelper.create(configPath);
-      Ini ini = new Wini(configPath.toFile());
-      ini.put(LOGIN_GATE_SECTION_NAME_2, "Title", share.gameName);
-      ini.put(LOGIN_GATE_SECTION_NAME_2, "ServerAddr", PRIMARY_IP_ADDRESS);
-      ini.put(LOGIN_GATE_SECTION_NAME_2, "ServerPort", share.config.loginSrv.gatePort);
-      ini.put(LOGIN_GATE_SECTION_NAME_2, "GateAddr", ALL_IP_ADDRESS);
-      ini.put(LOGIN_GATE_SECTION_NAME_2, "GatePort", share.config.loginGate.gatePort);
-      ini.store();
-    } catch (IOException e) {
-      Dialogs.error("生成登陆网关配置文件出错！！", e).show();
-    }
-  }
-
-  private void generateSelGateConfig() {
-    Path selGateDir = Paths.get(share.gameDirectory, "SelGate\\");
-    IOHelper.mkdir(selGateDir);
-
-    try {
-      Path configPath = Paths.get(selGateDir.toString(), SERVER_CONFIG_FILE);
-      IOHelper.create(configPath);
-      Ini ini = new Wini(configPath.toFile());
-      ini.put(SEL_GATE_SECTION_NAME_2, "Title", share.gameName);
-      ini.put(SEL_GATE_SECTION_NAME_2, "ServerAddr", PRIMARY_IP_ADDRESS);
-      ini.put(SEL_GATE_SECTION_NAME_2, "ServerPort", share.config.dbServer.gatePort);
-      ini.put(SEL_GATE_SECTION_NAME_2, "GateAddr", ALL_IP_ADDRESS);
-      ini.put(SEL_GATE_SECTION_NAME_2, "GatePort", share.config.selGate.gatePort[0]);
-      ini.store();
-    } catch (IOException e) {
-      Dialogs.error("生成角色网关配置文件出错！！", e).show();
-    }
-  }
-
-  private void generateRunGateConfig() {
-    Path runGateDir = Paths.get(share.gameDirectory, "RunGate\\");
-    IOHelper.mkdir(runGateDir);
-
-    try {
-      Path configPath = Paths.get(runGateDir.toString(), SERVER_CONFIG_FILE);
-      IOHelper.create(configPath);
-      Ini ini = new Wini(configPath.toFile());
-      ini.put(RUN_GATE_SECTION_NAME_2, "Title", share.gameName);
-      ini.put(RUN_GATE_SECTION_NAME_2, "ServerAddr", PRIMARY_IP_ADDRESS);
-      ini.put(RUN_GATE_SECTION_NAME_2, "ServerPort", share.config.m2Server.gatePort);
-      ini.put(RUN_GATE_SECTION_NAME_2, "GateAddr", ALL_IP_ADDRESS);
-      ini.put(RUN_GATE_SECTION_NAME_2, "GatePort", share.config.runGate.gatePort[0]);
-      ini.put(RUN_GATE_SECTION_NAME_2, "CenterAddr", PRIMARY_IP_ADDRESS);
-      ini.put(RUN_GATE_SECTION_NAME_2, "CenterPort", share.config.loginSrv.serverPort);
-      ini.store();
-    } catch (IOException e) {
-      Dialogs.error("生成游戏网关配置文件出错！！", e).show();
-    }
-  }
-
-  private void generateLogServerConfig() {
-    Path logSrvDir = Paths.get(share.gameDirectory, "LogServer\\");
-    IOHelper.mkdir(logSrvDir);
-
-    try {
-      Path logSrvPath = Paths.get(logSrvDir.toString(), "LogData.ini");
-      IOHelper.create(logSrvPath);
-      Ini ini = new Wini(logSrvPath.toFile());
-      ini.put(LOG_SERVER_SECTION_2, "ServerName", share.gameName);
-      ini.put(LOG_SERVER_SECTION_2, "Port", share.config.logServer.port);
-      ini.put(LOG_SERVER_SECTION_2, "BaseDir", "BaseDir\\");
-      ini.store();
-    } catch (IOException e) {
-      Dialogs.error("生成日志服务器配置文件出错！！", e).show();
-    }
-
-    IOHelper.mkdir(Paths.get(logSrvDir.toString(), "BaseDir\\"));
-  }
-
-  private void generateM2ServerConfig() {
-    Path m2SrvDir = Paths.get(share.gameDirectory, "Mir200\\");
-    IOHelper.mkdir(m2SrvDir);
-
-    try {
-      Path m2SrvPath = Paths.get(m2SrvDir.toString(), M2_SERVER_CONFIG_FILE);
-      IOHelper.create(m2SrvPath);
-      Ini ini = new Wini(m2SrvPath.toFile());
-      ini.put(M2_SERVER_SECTION_NAME_1, "ServerName", share.gameName);
-      ini.put(M2_SERVER_SECTION_NAME_1, "DBName", share.heroDBName);
-      ini.put(M2_SERVER_SECTION_NAME_1, "GateAddr", ALL_IP_ADDRESS);
-      ini.put(M2_SERVER_SECTION_NAME_1, "GatePort", share.config.m2Server.gatePort);
-      ini.put(M2_SERVER_SECTION_NAME_1, "DBAddr", PRIMARY_IP_ADDRESS);
-      ini.put(M2_SERVER_SECTION_NAME_1, "DBPort", share.config.dbServer.serverPort);
-      ini.put(M2_SERVER_SECTION_NAME_1, "IDSAddr", PRIMARY_IP_ADDRESS);
-      ini.put(M2_SERVER_SECTION_NAME_1, "IDSPort", share.config.loginSrv.serverPort);
-      ini.put(M2_SERVER_SECTION_NAME_1, "MsgSrvAddr", ALL_IP_ADDRESS);
-      ini.put(M2_SERVER_SECTION_NAME_1, "MsgSrvPort", share.config.m2Server.msgSrvPort);
-      ini.put(M2_SERVER_SECTION_NAME_1, "LogServerAddr", PRIMARY_IP_ADDRESS);
-      ini.put(M2_SERVER_SECTION_NAME_1, "LogServerPort", share.config.logServer.port);
-      ini.put(M2_SERVER_SECTION_NAME_1, "CloseWuXin", share.closeWuXinEnabled);
-
-      ini.put(M2_SERVER_SECTION_NAME_2, "GuildDir", "GuildBase\\Guilds\\");
-      ini.put(M2_SERVER_SECTION_NAME_2, "GuildFile", "GuildBase\\GuildList.txt");
-      ini.put(M2_SERVER_SECTION_NAME_2, "ConLogDir", "ConLog\\");
-      ini.put(M2_SERVER_SECTION_NAME_2, "CastleDir", "Castle\\");
-      ini.put(M2_SERVER_SECTION_NAME_2, "CastleFile", "Castle\\List.txt");
-      ini.put(M2_SERVER_SECTION_NAME_2, "GameDataDir", "Envir\\");
-      ini.put(M2_SERVER_SECTION_NAME_2, "EnvirDir", "Envir\\");
-      ini.put(M2_SERVER_SECTION_NAME_2, "MapDir", "Map\\");
-      ini.put(M2_SERVER_SECTION_NAME_2, "NoticeDir", "Notice\\");
-      ini.put(M2_SERVER_SECTION_NAME_2, "LogDir", "Log\\");
-      ini.put(M2_SERVER_SECTION_NAME_2, "EMailDir", "EMail\\");
-      ini.store();
-    } catch (IOException e) {
-      Dialogs.error("生成服务端核心配置出错！！", e).show();
-    }
-
-    // todo 批量创建文件
-    IOHelper.mkdir(Paths.get(m2SrvDir.toString(), "GuildBase\\"));
-    IOHelper.mkdir(Paths.get(m2SrvDir.toString(), "GuildBase\\Guilds\\"));
-    IOHelper.mkdir(Paths.get(m2SrvDir.toString(), "ConLog\\"));
-    IOHelper.mkdir(Paths.get(m2SrvDir.toString(), "Castle\\"));
-    IOHelper.mkdir(Paths.get(m2SrvDir.toString(), "Envir\\"));
-    IOHelper.mkdir(Paths.get(m2SrvDir.toString(), "Map\\"));
-    IOHelper.mkdir(Paths.get(m2SrvDir.toString(), "Notice\\"));
-    IOHelper.mkdir(Paths.get(m2SrvDir.toString(), "Log\\"));
-    IOHelper.mkdir(Paths.get(m2SrvDir.toString(), "EMail\\"));
-
-    IOHelper.write(Paths.get(m2SrvDir.toString(), "!servertable.txt"), PRIMARY_IP_ADDRESS);
-  }
-
-  private void generateLoginServerConfig() {
-    Path loginSrvDir = Paths.get(share.gameDirectory, "LoginSrv\\");
-    IOHelper.mkdir(loginSrvDir);
-
-    try {
-      Path loginSrvPath = Paths.get(loginSrvDir.toString(), "Logsrv.ini");
-      IOHelper.create(loginSrvPath);
-      Ini ini = new Wini(loginSrvPath.toFile());
-      ini.put(LOGIN_SRV_SECTION_NAME_2, "ServerAddr", ALL_IP_ADDRESS);
-      ini.put(LOGIN_SRV_SECTION_NAME_2, "ServerPort", share.config.loginSrv.serverPort);
-      ini.put(LOGIN_SRV_SECTION_NAME_2, "GateAddr", ALL_IP_ADDRESS);
-      ini.put(LOGIN_SRV_SECTION_NAME_2, "GatePort", share.config.loginSrv.gatePort);
-      ini.put(LOGIN_SRV_SECTION_NAME_2, "MonAddr", ALL_IP_ADDRESS);
-      ini.put(LOGIN_SRV_SECTION_NAME_2, "MonPort", share.config.loginSrv.monPort);
-      ini.put(LOGIN_SRV_SECTION_NAME_2, "CloseWuXin", share.closeWuXinEnabled);
-      ini.put(LOGIN_SRV_SECTION_NAME_2, "IDDir", "DB\\");
-      ini.put(LOGIN_SRV_SECTION_NAME_2, "CountLogDir", "ChrLog\\");
-      ini.store();
-    } catch (IOException e) {
-      Dialogs.error("生成登陆服务器配置文件出错", e).show();
-    }
-
-    StringBuilder builder = new StringBuilder(PRIMARY_IP_ADDRESS);
-    if (share.ip2Enabled) {
-      builder.append(System.lineSeparator()).append(SECOND_IP_ADDRESS);
-    }
-    IOHelper.write(Paths.get(loginSrvDir.toString(), "!serveraddr.txt"), builder.toString());
-
-    String content = String.format("%s %s %d", share.gameName, share.gameName, ONLINE_USER_LIMIT);
-    IOHelper.write(Paths.get(loginSrvDir.toString(), "!UserLimit.txt"), content);
-
-    builder = new StringBuilder(PRIMARY_IP_ADDRESS);
-    if (share.config.selGate.getStart1) {
-      builder.append(String.format(" %s %d", share.extIPAddr, share.config.selGate.gatePort[0]));
-    }
-    builder.append(System.lineSeparator());
-    if (share.ip2Enabled) {
-      builder.append(SECOND_IP_ADDRESS);
-      if (share.config.selGate.getStart2) {
-        builder.append(String.format(" %s %d", share.extIPAddr2, share.config.selGate.gatePort[1]));
-      }
-    } else {
-      if (share.config.selGate.getStart2) {
-        builder.append(String.format(" %s %d", share.extIPAddr, share.config.selGate.gatePort[1]));
-      }
-    }
-    IOHelper.write(Paths.get(loginSrvDir.toString(), "!addrtable.txt"), builder.toString());
-    IOHelper.mkdir(Paths.get(loginSrvDir.toString(), "ChrLog\\"));
-    IOHelper.mkdir(Paths.get(loginSrvDir.toString(), "DB\\"));
-  }
-
-  private void generateDBServerConfig() {
-    Path dbServerDir = Paths.get(share.gameDirectory, "DBServer\\");
-    IOHelper.mkdir(dbServerDir);
-    Path dbFileDir = Paths.get(dbServerDir.toString(), "DB\\");
-    IOHelper.mkdir(dbFileDir);
-
-    try {
-      Path dbSrcPath = Paths.get(dbServerDir.toString(), "Dbsrc.ini");
-      IOHelper.create(dbSrcPath);
-      Ini ini = new Wini(dbSrcPath.toFile());
-      ini.put(DB_SERVER_SECTION_NAME_2, "ServerName", share.gameName);
-      ini.put(DB_SERVER_SECTION_NAME_2, "ServerAddr", PRIMARY_IP_ADDRESS);
-      ini.put(DB_SERVER_SECTION_NAME_2, "ServerPort", share.config.dbServer.serverPort);
-      ini.put(DB_SERVER_SECTION_NAME_2, "GateAddr", ALL_IP_ADDRESS);
-      ini.put(DB_SERVER_SECTION_NAME_2, "GatePort", share.config.dbServer.gatePort);
-      ini.put(DB_SERVER_SECTION_NAME_2, "IDSAddr", PRIMARY_IP_ADDRESS);
-      ini.put(DB_SERVER_SECTION_NAME_2, "IDSPort", share.config.loginSrv.serverPort);
-      ini.put(DB_SERVER_SECTION_NAME_2, "DBName", share.heroDBName);
-      ini.put(DB_SERVER_SECTION_NAME_2, "DBDir", "DB\\");
-      ini.store();
-    } catch (IOException e) {
-      Dialogs.error("生成数据库服务器配置文件出错！！", e).show();
-    }
-
-    StringBuilder builder = new StringBuilder(PRIMARY_IP_ADDRESS);
-    if (share.ip2Enabled) {
-      builder.append(System.lineSeparator()).append(SECOND_IP_ADDRESS);
-    }
-    IOHelper.write(Paths.get(dbServerDir.toString(), "!addrtable.txt"), builder.toString());
-
-    builder = new StringBuilder(PRIMARY_IP_ADDRESS);
-    for (int i = 0; i < share.config.runGate.getStart.length; i++) {
-      if (share.config.runGate.getStart[i]) {
-        builder.append(
-            String.format(" %s %d", share.extIPAddr, share.config.runGate.gatePort[i]));
-      }
-    }
-    builder.append(System.lineSeparator());
-    if (share.ip2Enabled) {
-      builder.append(SECOND_IP_ADDRESS);
-      for (int i = 0; i < share.config.runGate.getStart.length; i++) {
-        if (share.config.runGate.getStart[i]) {
-          builder.append(
-              String.format(" %s %d", share.extIPAddr2, share.config.runGate.gatePort[i]));
-        }
-      }
-    }
-    IOHelper.write(Paths.get(dbServerDir.toString(), "!serverinfo.txt"), builder.toString());
-    IOHelper.write(Paths.get(dbServerDir.toString(), "FUserName.txt"), ";创建人物过滤字符，一行一个过滤");
-  }
-
   public void onModifyBackupClicked() {
     BackupManager.BackupObject object = dataBackupTableView.getSelectionModel().getSelectedItem();
     if (object != null) {
@@ -1580,22 +1120,7 @@ public final class Controller {
   }
 
   public void onStartBackupClicked() {
-    switch (share.backupStartStatus) {
-      case 0:
-        share.backupStartStatus = 1;
-        startBackupButton.setText("停止");
-        share.backupManager.start();
-        backupMessageLabel.setTextFill(Color.GREEN);
-        backupMessageLabel.setText("数据备份功能启动中...");
-        break;
-      case 1:
-        share.backupStartStatus = 0;
-        startBackupButton.setText("启动");
-        share.backupManager.stop();
-        backupMessageLabel.setTextFill(Color.RED);
-        backupMessageLabel.setText("数据备份功能已停止...");
-        break;
-    }
+    engine.setBackupRunning(!engine.isBackupRunning());
   }
 
   public void onAutoRunBackupClicked() {
@@ -1629,7 +1154,7 @@ public final class Controller {
   }
 
   public void onStartClearDataClicked() {
-    if (startState == STOPPED_STATE) {
+    if (engine.state() == STOPPED) {
       startClearDataButton.setDisable(true);
       File homeDirectory = new File(share.gameDirectory);
       if (deleteRoleDataCheckBox.isSelected()) {
@@ -1737,6 +1262,28 @@ public final class Controller {
     }
   }
 
+  /**
+   * 根据启动模式计算登陆网关最早的启动时刻。
+   * <p>
+   * 在点击启动时按输入框当前的值计算，定时启动按本地时区换算，指定时间已经过去时为第二天的同一时刻。
+   *
+   * @return System.currentTimeMillis()，正常启动时为 0。
+   */
+  static long openTime(StartMode startMode, int hours, int minutes, ZonedDateTime now) {
+    if (StartMode.DELAY.equals(startMode)) {
+      // 从现在开始等待指定的时长
+      return now.toInstant().plus(Duration.ofHours(hours).plusMinutes(minutes)).toEpochMilli();
+    }
+    if (StartMode.TIMING.equals(startMode)) {
+      ZonedDateTime dateTime = now.with(LocalTime.of(hours, minutes));
+      if (dateTime.isBefore(now)) {
+        dateTime = now.toLocalDate().plusDays(1).atTime(hours, minutes).atZone(now.getZone());
+      }
+      return dateTime.toInstant().toEpochMilli();
+    }
+    return 0;
+  }
+
   public enum StartMode {
     NORMAL("正常启动"),
     DELAY("延时启动"),
@@ -1755,648 +1302,66 @@ public final class Controller {
     }
   }
 
-  public class StartGameTask extends TimerTask {
-    @Override
-    public void run() {
-      if (share.dbServer.getStart) {
-        switch (share.dbServer.startStatus) {
-          case 0:
-            share.dbServer.disposable = share.dbServer.start()
-                .observeOn(JavaFxScheduler.platform())
-                .subscribe(Controller.this::handleProcessMessage);
-            share.dbServer.startStatus = 1;
-            return;
-          case 1:
-            LOGGER.debug("正在等待数据库服务器启动..");
-            return;
-        }
-      }
-      // todo 重构为 RxJava 的 Interval 数据流
-      if (share.loginServer.getStart) {
-        switch (share.loginServer.startStatus) {
-          case 0:
-            share.loginServer.disposable = share.loginServer.start()
-                .observeOn(JavaFxScheduler.platform())
-                .doOnError(throwable -> {
-                  Dialogs.error(throwable).show();
-                  share.loginServer.startStatus = 9;
-                })
-                .subscribe(Controller.this::handleProcessMessage);
-            share.loginServer.startStatus = 1;
-            return;
-          case 1:
-            LOGGER.debug("正在等待登陆服务器启动..");
-            return;
-        }
-      }
-      if (share.logServer.getStart) {
-        switch (share.logServer.startStatus) {
-          case 0:
-            share.logServer.disposable = share.logServer.start()
-                .observeOn(JavaFxScheduler.platform())
-                .doOnError(throwable -> {
-                  Dialogs.error(throwable).show();
-                  share.logServer.startStatus = 9;
-                })
-                .subscribe(Controller.this::handleProcessMessage);
-            share.logServer.startStatus = 1;
-            return;
-          case 1:
-            LOGGER.debug("正在等待日志服务器启动..");
-            return;
-        }
-      }
-      if (share.m2Server.getStart) {
-        switch (share.m2Server.startStatus) {
-          case 0:
-            share.m2Server.disposable = share.m2Server.start()
-                .observeOn(JavaFxScheduler.platform())
-                .doOnError(throwable -> {
-                  Dialogs.error(throwable).show();
-                  share.m2Server.startStatus = 9;
-                })
-                .subscribe(Controller.this::handleProcessMessage);
-            share.m2Server.startStatus = 1;
-            return;
-          case 1:
-            LOGGER.debug("正在等待核心服务器启动..");
-            return;
-        }
-      }
-      if (getStartRunGate()) {
-        return;
-      }
-      boolean startRunGateOK = true;
-      for (int i = 0; i < share.runGate.size(); i++) {
-        Share.Program runGateProgram = share.runGate.get(i);
-        if (runGateProgram.getStart) {
-          if (runGateProgram.startStatus == 0) {
-            generateMultiRunGateConfig(i);
-            runGateProgram.disposable = runGateProgram.start()
-                .subscribeOn(JavaFxScheduler.platform())
-                .doOnError(throwable -> {
-                  Dialogs.error(throwable).show();
-                  runGateProgram.startStatus = 9;
-                })
-                .subscribe(Controller.this::handleProcessMessage);
-            runGateProgram.startStatus = 1;
-            startRunGateOK = false;
-          }
-        }
-      }
-      if (!startRunGateOK) {
-        LOGGER.debug("正在等待游戏网关全部启动..");
-        return;
-      }
-      if (share.selGate.getStart) {
-        switch (share.selGate.startStatus) {
-          case 0:
-            generateMultiSelGateConfig(0);
-            share.selGate.disposable = share.selGate.start()
-                .observeOn(JavaFxScheduler.platform())
-                .doOnError(throwable -> {
-                  Dialogs.error(throwable).show();
-                  share.selGate.startStatus = 9;
-                })
-                .subscribe(Controller.this::handleProcessMessage);
-            share.selGate.startStatus = 1;
-            return;
-          case 1:
-            LOGGER.debug("正在等待角色网关一启动..");
-            return;
-        }
-      }
-      if (share.selGate1.getStart) {
-        switch (share.selGate1.startStatus) {
-          case 0:
-            generateMultiSelGateConfig(1);
-            share.selGate1.disposable = share.selGate1.start()
-                .observeOn(JavaFxScheduler.platform())
-                .doOnError(throwable -> {
-                  Dialogs.error(throwable).show();
-                  share.selGate1.startStatus = 9;
-                })
-                .subscribe(Controller.this::handleProcessMessage);
-            share.selGate1.startStatus = 1;
-            return;
-          case 1:
-            LOGGER.debug("正在等待角色网关二启动..");
-            return;
-        }
-      }
-
-      StartMode startMode = startModeComboBox.getValue();
-      if (StartMode.DELAY.equals(startMode)) {
-        // 是否已经等了那么久
-        if ((System.currentTimeMillis() - runTick) < runTime) {
-          return;
-        }
-      } else if (StartMode.TIMING.equals(startMode)) {
-        // 是否到达指定时间
-        if (System.currentTimeMillis() < runTime) {
-          return;
-        }
-      }
-
-      if (share.loginGate.getStart) {
-        switch (share.loginGate.startStatus) {
-          case 0:
-            generateMultiLoginGateConfig(0);
-            share.loginGate.disposable = share.loginGate.start()
-                .observeOn(JavaFxScheduler.platform())
-                .doOnError(throwable -> {
-                  Dialogs.error(throwable).show();
-                  share.loginGate.startStatus = 9;
-                })
-                .subscribe(Controller.this::handleProcessMessage);
-            share.loginGate.startStatus = 1;
-            return;
-          case 1:
-            LOGGER.debug("正在等待登陆网关一启动..");
-            return;
-        }
-      }
-      if (share.loginGate2.getStart) {
-        switch (share.loginGate2.startStatus) {
-          case 0:
-            generateMultiLoginGateConfig(1);
-            share.loginGate2.disposable = share.loginGate2.start()
-                .observeOn(JavaFxScheduler.platform())
-                .doOnError(throwable -> {
-                  Dialogs.error(throwable).show();
-                  share.loginGate2.startStatus = 9;
-                })
-                .subscribe(Controller.this::handleProcessMessage);
-            share.loginGate2.startStatus = 1;
-            return;
-          case 1:
-            LOGGER.debug("正在等待登陆网关一启动..");
-            return;
-        }
-      }
-
-      if (share.plugTop.getStart) {
-        switch (share.plugTop.startStatus) {
-          case 0:
-            share.plugTop.disposable = share.plugTop.start()
-                .observeOn(JavaFxScheduler.platform())
-                .doOnError(throwable -> {
-                  Dialogs.error(throwable).show();
-                  share.plugTop.startStatus = 9;
-                })
-                .subscribe(Controller.this::handleProcessMessage);
-            share.plugTop.startStatus = 1;
-            return;
-          case 1:
-            LOGGER.debug("正在等待游戏排行榜插件启动..");
-            return;
-        }
-      }
-
-      startGameTimer.cancel();
-      startGameTimer = new Timer();
-      checkRunTimer.schedule(new CheckRunTask(), 1000, 1000);
-      Platform.runLater(() -> startGameButton.setText(share.textStopGame));
-      startState = RUNNING_STATE;
+  /**
+   * 在控制台显示引擎的运行信息，回调可能来自任意线程，统一切换到界面线程。
+   */
+  private final class ConsoleListener implements GameEngine.Listener {
+    @Override public void onMessage(String message) {
+      Platform.runLater(() -> mainOutMessage(message));
     }
 
-    private boolean getStartRunGate() {
-      for (int i = 0; i < share.runGate.size(); i++) {
-        Share.Program program = share.runGate.get(i);
-        if (program.getStart && program.startStatus == 1) {
-          return true;
-        }
-      }
-      return false;
+    @Override public void onError(String message, Throwable throwable) {
+      LOGGER.error(message, throwable);
+      Platform.runLater(() -> Dialogs.error(message, throwable).show());
     }
-  }
 
-  private void handleProcessMessage(String message) {
-    String[] split = message.split(":", 2);
-    int code = Integer.parseInt(split[0]);
-    UUID processCode = UUID.fromString(split[1]);
-    switch (code) {
-      case DB_SERVER_PROCESS_CODE:
-        if (share.dbServer.processCode == null) {
-          share.dbServer.processCode = processCode;
-          mainOutMessage("正在启动数据库服务器...");
-          return;
+    @Override public void onStateChanged(Lifecycle.State state) {
+      Platform.runLater(() -> {
+        switch (state) {
+          case STOPPED:
+            startGameButton.setText(share.textStartGame);
+            break;
+          case STARTING:
+            startGameButton.setText(share.textCancelStartGame);
+            break;
+          case RUNNING:
+            startGameButton.setText(share.textStopGame);
+            break;
+          case STOPPING:
+            startGameButton.setText(share.textCancelStopGame);
+            break;
         }
-        share.dbServer.startStatus = 2;
-        mainOutMessage("启动数据库服务器成功！");
-        break;
-      case LOGIN_SERVER_PROCESS_CODE:
-        if (share.loginServer.processCode == null) {
-          share.loginServer.processCode = processCode;
-          mainOutMessage("正在启动账号登陆服务器...");
-          return;
-        }
-        share.loginServer.startStatus = 2;
-        mainOutMessage("启动账号登陆服务器成功！");
-        break;
-      case LOG_SERVER_PROCESS_CODE:
-        if (share.logServer.processCode == null) {
-          share.logServer.processCode = processCode;
-          mainOutMessage("正在启动日志服务器...");
-          return;
-        }
-        share.logServer.startStatus = 2;
-        mainOutMessage("启动日志服务器成功！");
-        break;
-      case M2_SERVER_PROCESS_CODE:
-        if (share.m2Server.processCode == null) {
-          share.m2Server.processCode = processCode;
-          mainOutMessage("正在启动游戏引擎服务器...");
-          return;
-        }
-        share.m2Server.startStatus = 2;
-        mainOutMessage("启动游戏引擎服务器成功！");
-        break;
-      case LOGIN_GATE_PROCESS_CODE:
-        if (share.loginGate.getStart && share.loginGate.startStatus == 1) {
-          if (share.loginGate.processCode == null) {
-            share.loginGate.processCode = processCode;
-            mainOutMessage("正在启动登陆网关一...");
-            return;
-          }
-          if (processCode.equals(share.loginGate.processCode)) {
-            share.loginGate.startStatus = 2;
-            mainOutMessage("启动登陆网关一成功！");
-            return;
-          }
-        }
-        if (share.loginGate2.getStart && share.loginGate2.startStatus == 1) {
-          if (share.loginGate2.processCode == null) {
-            share.loginGate2.processCode = processCode;
-            mainOutMessage("正在启动登陆网关二...");
-            return;
-          }
-          if (processCode.equals(share.loginGate2.processCode)) {
-            share.loginGate2.startStatus = 2;
-            mainOutMessage("启动登陆网关二成功！");
-            return;
-          }
-        }
-        break;
-      case SEL_GATE_PROCESS_CODE:
-        if (share.selGate.getStart && share.selGate.startStatus == 1) {
-          if (share.selGate.processCode == null) {
-            share.selGate.processCode = processCode;
-            mainOutMessage("正在启动角色网关一...");
-            return;
-          }
-          if (processCode.equals(share.selGate.processCode)) {
-            share.selGate.startStatus = 2;
-            mainOutMessage("启动角色网关一成功！");
-            return;
-          }
-        }
-        if (share.selGate1.getStart && share.selGate1.startStatus == 1) {
-          if (share.selGate1.processCode == null) {
-            share.selGate1.processCode = processCode;
-            mainOutMessage("正在启动角色网关二...");
-            return;
-          }
-          if (processCode.equals(share.selGate.processCode)) {
-            share.selGate1.startStatus = 2;
-            mainOutMessage("启动角色网关二成功！");
-            return;
-          }
-        }
-        break;
-      case RUN_GATE_PROCESS_CODE:
-        for (int i = 0; i < share.runGate.size(); i++) {
-          Share.Program program = share.runGate.get(i);
-          if (program.getStart && program.startStatus == 1) {
-            if (program.processCode == null) {
-              program.processCode = processCode;
-              mainOutMessage("正在启动游戏网关[" + (i + 1) + "]...");
-              return;
-            }
-            if (processCode.equals(program.processCode)) {
-              program.startStatus = 2;
-              mainOutMessage("启动游戏网关[" + (i + 1) + "]成功！");
-              return;
-            }
-          }
-        }
-        break;
-      case PLUG_TOP_PROCESS_CODE:
-        if (share.plugTop.processCode == null) {
-          share.plugTop.processCode = processCode;
-          mainOutMessage("正在启动游戏排行榜引擎...");
-          return;
-        }
-        share.plugTop.startStatus = 2;
-        mainOutMessage("启动游戏排行榜引擎成功！");
-        break;
+        rollingRestartButton.setDisable(
+            state != RUNNING || engine.isRollingRestarting());
+      });
     }
-  }
 
-  public class CheckRunTask extends TimerTask {
-    @Override public void run() {
-      if (share.dbServer.getStart) {
-        if (share.dbServer.process == null || !share.dbServer.process.isAlive()) {
-          share.dbServer.disposable = share.dbServer.start()
-              .observeOn(JavaFxScheduler.platform())
-              .subscribe(Controller.this::handleProcessMessage);
-          mainOutMessage("数据库异常关闭，已被重新启动...");
-        }
-      }
-      if (share.loginServer.getStart) {
-        if (share.loginServer.process == null || !share.loginServer.process.isAlive()) {
-          share.loginServer.disposable = share.loginServer.start()
-              .observeOn(JavaFxScheduler.platform())
-              .subscribe(Controller.this::handleProcessMessage);
-          mainOutMessage("登录服务器异常关闭，已被重新启动...");
-        }
-      }
-      if (share.logServer.getStart) {
-        if (share.logServer.process == null || !share.logServer.process.isAlive()) {
-          share.logServer.disposable = share.logServer.start()
-              .observeOn(JavaFxScheduler.platform())
-              .subscribe(Controller.this::handleProcessMessage);
-          mainOutMessage("日志服务器异常关闭，已被重新启动...");
-        }
-      }
-      if (share.m2Server.getStart) {
-        if (share.m2Server.process == null || !share.m2Server.process.isAlive()) {
-          share.m2Server.disposable = share.m2Server.start()
-              .observeOn(JavaFxScheduler.platform())
-              .subscribe(Controller.this::handleProcessMessage);
-          mainOutMessage("游戏引擎服务器异常关闭，已被重新启动...");
-        }
-      }
-      for (int i = 0; i < share.runGate.size(); i++) {
-        Share.Program program = share.runGate.get(i);
-        if (program.getStart) {
-          if (program.process == null || !program.process.isAlive()) {
-            generateMultiRunGateConfig(i);
-            program.processCode = null;
-            program.disposable = program.start()
-                .observeOn(JavaFxScheduler.platform())
-                .subscribe(Controller.this::handleProcessMessage);
-            mainOutMessage("游戏网关[" + (i + 1) + "]异常关闭，已被重新启动...");
-          }
-        }
-      }
-      if (share.selGate.getStart) {
-        if (share.selGate.process == null || !share.selGate.process.isAlive()) {
-          generateMultiSelGateConfig(0);
-          share.selGate.processCode = null;
-          share.selGate.disposable = share.selGate.start()
-              .observeOn(JavaFxScheduler.platform())
-              .subscribe(Controller.this::handleProcessMessage);
-          mainOutMessage("角色网关一异常关闭，已被重新启动...");
-        }
-      }
-      if (share.selGate1.getStart) {
-        if (share.selGate1.process == null || !share.selGate1.process.isAlive()) {
-          generateMultiSelGateConfig(1);
-          share.selGate1.processCode = null;
-          share.selGate1.disposable = share.selGate1.start()
-              .observeOn(JavaFxScheduler.platform())
-              .subscribe(Controller.this::handleProcessMessage);
-          mainOutMessage("角色网关二异常关闭，已被重新启动...");
-        }
-      }
-      if (share.loginGate.getStart) {
-        if (share.loginGate.process == null || !share.loginGate.process.isAlive()) {
-          generateMultiLoginGateConfig(0);
-          share.loginGate.processCode = null;
-          share.loginGate.disposable = share.loginGate.start()
-              .observeOn(JavaFxScheduler.platform())
-              .subscribe(Controller.this::handleProcessMessage);
-          mainOutMessage("登录网关一异常关闭，已被重新启动...");
-        }
-      }
-      if (share.loginGate2.getStart) {
-        if (share.loginGate2.process == null || !share.loginGate2.process.isAlive()) {
-          generateMultiLoginGateConfig(1);
-          share.loginGate2.processCode = null;
-          share.loginGate2.disposable = share.loginGate2.start()
-              .observeOn(JavaFxScheduler.platform())
-              .subscribe(Controller.this::handleProcessMessage);
-          mainOutMessage("登录网关二异常关闭，已被重新启动...");
-        }
-      }
-      if (share.plugTop.getStart) {
-        if (share.plugTop.process == null || !share.plugTop.process.isAlive()) {
-          share.plugTop.processCode = null;
-          share.plugTop.disposable = share.plugTop.start()
-              .observeOn(JavaFxScheduler.platform())
-              .subscribe(Controller.this::handleProcessMessage);
-          mainOutMessage("排行榜插件异常关闭，已被重新启动...");
-        }
+    @Override public void onParked(Share.Program program, int exitCode) {
+      CheckBox checkBox = consoleCheckBoxes.get(program);
+      if (checkBox != null) {
+        Platform.runLater(() -> {
+          checkBox.setTextFill(Color.RED);
+          checkBox.setTooltip(new Tooltip("已暂停自动重启，最后退出码：" + exitCode));
+        });
       }
     }
-  }
-
-  public class StopGameTask extends TimerTask {
-
-    @Override public void run() {
-      if (share.loginGate.getStart && share.loginGate.startStatus > 1) {
-        if (share.loginGate.process != null && share.loginGate.process.isAlive()) {
-          if (share.loginGate.startStatus == 3) {
-            if ((System.currentTimeMillis() - share.stopTick) > share.stopTimeout) {
-              share.loginGate.stop();
-              mainOutMessage("正常关闭超时，登陆网关一已被强行停止...");
-            }
-            return;
-          }
-          share.loginGate.sendMessage(QUIT_CODE);
-          share.stopTick = System.currentTimeMillis();
-          share.loginGate.startStatus = 3;
-          return;
-        } else {
-          share.loginGate.startStatus = 0;
-          mainOutMessage("登陆网关一已停止...");
-        }
-      }
-
-      if (share.loginGate2.getStart && share.loginGate2.startStatus > 1) {
-        if (share.loginGate2.process != null && share.loginGate2.process.isAlive()) {
-          if (share.loginGate2.startStatus == 3) {
-            if ((System.currentTimeMillis() - share.stopTick) > share.stopTimeout) {
-              share.loginGate2.stop();
-              mainOutMessage("正常关闭超时，登陆网关二已被强行停止...");
-            }
-            return;
-          }
-          share.loginGate2.sendMessage(QUIT_CODE);
-          share.stopTick = System.currentTimeMillis();
-          share.loginGate2.startStatus = 3;
-          return;
-        } else {
-          share.loginGate2.startStatus = 0;
-          mainOutMessage("登陆网关二已停止...");
-        }
-      }
-
-      if (share.selGate.getStart && share.selGate.startStatus > 1) {
-        if (share.selGate.process != null && share.selGate.process.isAlive()) {
-          if (share.selGate.startStatus == 3) {
-            if ((System.currentTimeMillis() - share.stopTick) > share.stopTimeout) {
-              share.selGate.stop();
-              mainOutMessage("正常关闭超时，角色网关一已被强行停止...");
-            }
-            return;
-          }
-          share.selGate.sendMessage(QUIT_CODE);
-          share.stopTick = System.currentTimeMillis();
-          share.selGate.startStatus = 3;
-          return;
-        } else {
-          share.selGate.startStatus = 0;
-          mainOutMessage("角色网关一已停止...");
-        }
-      }
-
-      if (share.selGate1.getStart && share.selGate1.startStatus > 1) {
-        if (share.selGate1.process != null && share.selGate1.process.isAlive()) {
-          if (share.selGate1.startStatus == 3) {
-            if ((System.currentTimeMillis() - share.stopTick) > share.stopTimeout) {
-              share.selGate1.stop();
-              mainOutMessage("正常关闭超时，角色网关二已被强行停止...");
-            }
-            return;
-          }
-          share.selGate1.sendMessage(QUIT_CODE);
-          share.stopTick = System.currentTimeMillis();
-          share.selGate1.startStatus = 3;
-          return;
-        } else {
-          share.selGate1.startStatus = 0;
-          mainOutMessage("角色网关二已停止...");
-        }
-      }
-
-      for (int i = 0; i < share.runGate.size(); i++) {
-        Share.Program program = share.runGate.get(i);
-        if (program.getStart && program.startStatus > 1) {
-          if (program.process != null && program.process.isAlive()) {
-            if (program.startStatus == 3) {
-              if ((System.currentTimeMillis() - share.stopTick) > share.stopTimeout) {
-                program.stop();
-                mainOutMessage("正常关闭超时，游戏网关[" + (i + 1) + "]已被强行停止...");
-              }
-              return;
-            }
-            program.sendMessage(QUIT_CODE);
-            // fixme 全局变量不能用于多个游戏网关的判断，这里会出现 bug
-            share.stopTick = System.currentTimeMillis();
-            program.startStatus = 3;
-            return;
-          } else {
-            program.startStatus = 0;
-            mainOutMessage("游戏网关[" + (i + 1) + "]已停止...");
-          }
-        }
-      }
-
-      if (getStopRunGate()) {
-        gateStopped = false;
-        return;
-      }
-
-      if (share.m2Server.getStart && share.m2Server.startStatus > 1) {
-        if (!gateStopped) {
-          gateStopped = true;
-          gateStopTick = System.currentTimeMillis() + 5000;
-          mainOutMessage("网关已全部关闭，延时5秒关闭游戏引擎...");
-          return;
-        }
-        if (gateStopTick > System.currentTimeMillis()) {
-          return;
-        }
-
-        if (share.m2Server.process != null && share.m2Server.process.isAlive()) {
-          if (share.m2Server.startStatus == 3) {
-            return;
-          }
-          share.m2Server.sendMessage(QUIT_CODE);
-          share.stopTick = System.currentTimeMillis();
-          share.m2Server.startStatus = 3;
-          return;
-        } else {
-          share.m2Server.startStatus = 0;
-          mainOutMessage("游戏引擎主程序已停止...");
-        }
-      }
 
-      if (share.loginServer.getStart && share.loginServer.startStatus > 1) {
-        if (share.loginServer.process != null && share.loginServer.process.isAlive()) {
-          if (share.loginServer.startStatus == 3) {
-            if ((System.currentTimeMillis() - share.stopTick) > share.stopTimeout) {
-              // todo 1000 delay
-              share.loginServer.stop();
-              mainOutMessage("正常关闭超时，登陆服务器已被强行停止...");
-            }
-            return;
-          }
-          share.loginServer.sendMessage(QUIT_CODE);
-          share.stopTick = System.currentTimeMillis();
-          share.loginServer.startStatus = 3;
-          return;
+    @Override public void onBackupChanged(boolean running) {
+      Platform.runLater(() -> {
+        if (running) {
+          startBackupButton.setText("停止");
+          backupMessageLabel.setTextFill(Color.GREEN);
+          backupMessageLabel.setText("数据备份功能启动中...");
         } else {
-          share.loginServer.startStatus = 0;
-          mainOutMessage("登陆服务器已停止...");
+          startBackupButton.setText("启动");
+          backupMessageLabel.setTextFill(Color.RED);
+          backupMessageLabel.setText("数据备份功能已停止...");
         }
-      }
-
-      if (share.logServer.getStart && share.logServer.startStatus > 1) {
-        if (share.logServer.process != null && share.logServer.process.isAlive()) {
-          if (share.logServer.startStatus == 3) {
-            if ((System.currentTimeMillis() - share.stopTick) > share.stopTimeout) {
-              share.logServer.stop();
-              mainOutMessage("正常关闭超时，日志服务器已被强行停止...");
-            }
-            return;
-          }
-          share.logServer.sendMessage(QUIT_CODE);
-          share.stopTick = System.currentTimeMillis();
-          share.logServer.startStatus = 3;
-          return;
-        } else {
-          share.logServer.startStatus = 0;
-          mainOutMessage("日志服务器已停止...");
-        }
-      }
-
-      if (share.dbServer.getStart && share.dbServer.startStatus > 1) {
-        if (share.dbServer.process != null && share.dbServer.process.isAlive()) {
-          if (share.dbServer.startStatus == 3) {
-            if ((System.currentTimeMillis() - share.stopTick) > share.stopTimeout) {
-              share.dbServer.stop();
-              mainOutMessage("正常关闭超时，数据库服务器已被强行停止...");
-            }
-            return;
-          }
-          share.dbServer.sendMessage(QUIT_CODE);
-          share.stopTick = System.currentTimeMillis();
-          share.dbServer.startStatus = 3;
-          return;
-        } else {
-          share.dbServer.startStatus = 0;
-          mainOutMessage("数据库服务器已停止...");
-        }
-      }
-
-      mainOutMessage("所有程序停止完毕！");
-      stopGameTimer.cancel();
-      stopGameTimer = new Timer();
-      Platform.runLater(() -> startGameButton.setText(share.textStartGame));
-      startState = STOPPED_STATE;
+      });
     }
 
-    private boolean getStopRunGate() {
-      for (int i = 0; i < share.runGate.size(); i++) {
-        Share.Program program = share.runGate.get(i);
-        if (program.getStart && program.startStatus > 1) {
-          return true;
-        }
-      }
-      return false;
+    @Override public void onResources(String report) {
+      Platform.runLater(() -> resourceTextArea.setText(report));
     }
   }
 }
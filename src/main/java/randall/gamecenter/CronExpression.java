@@ -0,0 +1,200 @@
+package randall.gamecenter;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 计划任务表达式。
+ * <p>
+ * 与 crontab 相同的五个字段：分 时 日 月 周，支持 *、数字、范围 a-b、列表 a,b、步长 &#42;/n 与 a-b/n，
+ * 月和周可以使用英文缩写，周日为 0 或 7；日和周都不是 * 时满足其一即可。另外支持 &#64;hourly、&#64;daily、
+ * &#64;weekly 和 &#64;monthly。
+ * <p>
+ * 每个字段解析为一个位图，计算下一次时间时逐个字段跳到下一个匹配值，不按分钟逐一尝试。时间按本地时间匹配：
+ * 夏令时跳过的时刻顺延到跳过之后，重复的时刻只执行一次。
+ *
+ * @author mrzhqiang
+ */
+public final class CronExpression {
+  /** 最多向后查找的年数，例如只在 2 月 29 日执行的表达式。 */
+  private static final int MAX_YEARS = 8;
+  private static final String[] MONTHS =
+      {"JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC"};
+  private static final String[] DAYS = {"SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT"};
+
+  private final String expression;
+  private final long minutes;
+  private final long hours;
+  private final long days;
+  private final long months;
+  private final long daysOfWeek;
+  private final boolean anyDay;
+  private final boolean anyDayOfWeek;
+
+  private CronExpression(String expression, String[] fields) {
+    this.expression = expression;
+    this.minutes = parseField(fields[0], 0, 59, null);
+    this.hours = parseField(fields[1], 0, 23, null);
+    this.days = parseField(fields[2], 1, 31, null);
+    this.months = parseField(fields[3], 1, 12, MONTHS);
+    long week = parseField(fields[4], 0, 7, DAYS);
+    // 7 也表示周日
+    this.daysOfWeek = (week & 1L << 7) != 0 ? (week | 1L) & ~(1L << 7) : week;
+    this.anyDay = "*".equals(fields[2]) || "?".equals(fields[2]);
+    this.anyDayOfWeek = "*".equals(fields[4]) || "?".equals(fields[4]);
+  }
+
+  /**
+   * 解析表达式。
+   *
+   * @throws IllegalArgumentException 格式错误。
+   */
+  public static CronExpression parse(String expression) {
+    Preconditions.checkNotNull(expression, "expression == null");
+    String text = expression.trim();
+    switch (text.toLowerCase(Locale.ROOT)) {
+      case "@hourly":
+        text = "0 * * * *";
+        break;
+      case "@daily":
+      case "@midnight":
+        text = "0 0 * * *";
+        break;
+      case "@weekly":
+        text = "0 0 * * 0";
+        break;
+      case "@monthly":
+        text = "0 0 1 * *";
+        break;
+      default:
+        break;
+    }
+    List<String> fields = Splitter.on(' ').omitEmptyStrings().trimResults().splitToList(text);
+    Preconditions.checkArgument(fields.size() == 5, "表达式需要五个字段：%s", expression);
+    return new CronExpression(expression.trim(), fields.toArray(new String[0]));
+  }
+
+  /**
+   * 严格晚于指定时刻的下一次执行时间，找不到时返回 null。
+   */
+  public ZonedDateTime next(ZonedDateTime after) {
+    Preconditions.checkNotNull(after, "after == null");
+    LocalDateTime time = after.toLocalDateTime().truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+    int lastYear = time.getYear() + MAX_YEARS;
+    while (time.getYear() <= lastYear) {
+      if (!matches(months, time.getMonthValue())) {
+        time = time.withDayOfMonth(1).toLocalDate().plusMonths(1).atStartOfDay();
+        continue;
+      }
+      if (!matchesDay(time.toLocalDate())) {
+        time = time.toLocalDate().plusDays(1).atStartOfDay();
+        continue;
+      }
+      if (!matches(hours, time.getHour())) {
+        time = time.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+        continue;
+      }
+      if (!matches(minutes, time.getMinute())) {
+        int minute = nextBit(minutes, time.getMinute());
+        time = minute < 0
+            ? time.truncatedTo(ChronoUnit.HOURS).plusHours(1)
+            : time.withMinute(minute);
+        continue;
+      }
+      ZonedDateTime zoned = ZonedDateTime.ofLocal(time, after.getZone(), null);
+      if (zoned.isAfter(after)) {
+        return zoned;
+      }
+      // 夏令时结束后重复的一小时中，较早的偏移已经过去
+      zoned = zoned.withLaterOffsetAtOverlap();
+      if (zoned.isAfter(after)) {
+        return zoned;
+      }
+      time = time.plusMinutes(1);
+    }
+    return null;
+  }
+
+  private boolean matchesDay(LocalDate date) {
+    boolean day = matches(days, date.getDayOfMonth());
+    // DayOfWeek 周一为 1、周日为 7，换算为周日为 0
+    boolean week = matches(daysOfWeek, date.getDayOfWeek().getValue() % 7);
+    if (anyDay || anyDayOfWeek) {
+      return day && week;
+    }
+    return day || week;
+  }
+
+  private static boolean matches(long bits, int value) {
+    return (bits & 1L << value) != 0;
+  }
+
+  /** 不小于 value 的下一个位，没有时返回 -1。 */
+  private static int nextBit(long bits, int value) {
+    long rest = bits & -1L << value;
+    return rest == 0 ? -1 : Long.numberOfTrailingZeros(rest);
+  }
+
+  private static long parseField(String field, int min, int max, String[] names) {
+    long bits = 0;
+    for (String part : Splitter.on(',').splitToList(field)) {
+      Preconditions.checkArgument(!part.isEmpty(), "无效的字段：%s", field);
+      int step = 1;
+      int slash = part.indexOf('/');
+      String range = part;
+      if (slash >= 0) {
+        step = Integer.parseInt(part.substring(slash + 1));
+        Preconditions.checkArgument(step > 0, "无效的步长：%s", part);
+        range = part.substring(0, slash);
+      }
+      int start;
+      int end;
+      if ("*".equals(range) || "?".equals(range)) {
+        start = min;
+        end = max;
+      } else {
+        int dash = range.indexOf('-');
+        if (dash > 0) {
+          start = parseValue(range.substring(0, dash), names, min);
+          end = parseValue(range.substring(dash + 1), names, min);
+        } else {
+          start = parseValue(range, names, min);
+          // 5/15 表示从 5 开始每 15 个
+          end = slash >= 0 ? max : start;
+        }
+      }
+      Preconditions.checkArgument(min <= start && start <= end && end <= max,
+          "超出范围 %s-%s：%s", min, max, part);
+      for (int value = start; value <= end; value += step) {
+        bits |= 1L << value;
+      }
+    }
+    return bits;
+  }
+
+  /** 名称按顺序对应从 min 开始的数值。 */
+  private static int parseValue(String value, String[] names, int min) {
+    if (names != null) {
+      for (int i = 0; i < names.length; i++) {
+        if (names[i].equalsIgnoreCase(value)) {
+          return i + min;
+        }
+      }
+    }
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("无效的数值：" + value);
+    }
+  }
+
+  @Override public String toString() {
+    return expression;
+  }
+}
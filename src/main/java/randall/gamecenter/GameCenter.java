@@ -27,7 +27,7 @@ public final class GameCenter extends Application {
       primaryStage.setScene(scene);
       controller = loader.getController();
       primaryStage.setOnCloseRequest(event -> {
-        if (controller.startState == Share.RUNNING_STATE) {
+        if (controller.isGameRunning()) {
           Dialogs.confirm("游戏服务器正在运行，是否停止游戏服务器？")
               .ifPresent(buttonType -> controller.onStartGameClicked());
           event.consume();
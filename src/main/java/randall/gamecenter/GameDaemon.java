@@ -0,0 +1,362 @@
+package randall.gamecenter;
+
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static randall.gamecenter.Lifecycle.State.RUNNING;
+import static randall.gamecenter.Lifecycle.State.STOPPED;
+import static randall.gamecenter.Share.DEFAULT_GAME_DIRECTORY;
+import static randall.gamecenter.Share.PID_JOURNAL_FILE;
+import static randall.gamecenter.Share.SERVER_CONFIG_FILE;
+
+/**
+ * 无界面的守护进程。
+ * <p>
+ * 与图形界面共用 {@link GameEngine} 和 {@link BackupManager}，不加载 JavaFX 工具包，适合在没有显示器的
+ * Linux 主机上由 systemd 等托管。运行信息写入日志，收到 SIGTERM 时结束后台任务，受控程序默认继续运行，
+ * 下次启动时通过进程日志重新接管。
+ * <p>
+ * 引擎只负责调度子进程，建议使用较小的堆和客户端编译器启动：
+ * <pre>
+ * java -Xmx32m -XX:+UseSerialGC -XX:TieredStopAtLevel=1 -cp ... randall.gamecenter.GameDaemon \
+ *     --config /opt/mir/Config.ini run --stop-on-exit
+ * </pre>
+ * 配置了 AgentPort 的守护进程同时作为远程代理，由其他主机上的控制台通过 {@link AgentClient} 管理，
+ * 例如把游戏网关分散到多台主机上。
+ * <p>
+ * 使用 --shards 指定分区列表时同时管理多个游戏目录，命令作用于所有分区，见 {@link ShardManager}。
+ *
+ * @author mrzhqiang
+ */
+public final class GameDaemon {
+  private static final Logger LOGGER = LoggerFactory.getLogger("randall");
+
+  static final String USAGE = String.join(System.lineSeparator(),
+      "用法: GameDaemon [--config <Config.ini> | --shards <Shards.ini>] [命令] [选项]",
+      "命令:",
+      "  run        启动游戏服务器并保持运行（默认）",
+      "    --no-start      只接管仍在运行的程序，不启动游戏",
+      "    --stop-on-exit  守护进程退出时停止游戏",
+      "  stop       停止进程日志中仍在运行的程序，需要先结束守护进程",
+      "  status     显示进程日志中程序的运行状态",
+      "  generate   生成所有程序的配置文件",
+      "  help       显示帮助",
+      "使用 --shards 时同时管理分区列表中的所有游戏目录。");
+  /** 退出码：参数错误。 */
+  static final int EXIT_USAGE = 2;
+  /** 退出码：没有正在运行的程序，与 LSB 约定一致。 */
+  static final int EXIT_NOT_RUNNING = 3;
+  /**
+   * 在停止流程最长耗时之外多等待的时间。停止流程按配置的退出超时逐级升级，最终强制结束，
+   * 守护进程必须等它结束后再退出，否则会留下没有人管理的子进程。
+   */
+  private static final long STOP_MARGIN = 10000;
+
+  private GameDaemon() {
+    throw new AssertionError("no instance");
+  }
+
+  public static void main(String[] args) {
+    long startTick = System.nanoTime();
+    Options options;
+    try {
+      options = Options.parse(args);
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.println(USAGE);
+      System.exit(EXIT_USAGE);
+      return;
+    }
+    if (options.command == Command.HELP) {
+      System.out.println(USAGE);
+      return;
+    }
+    if (options.shards != null) {
+      shards(options, startTick);
+      return;
+    }
+    Share share = new Share(options.config);
+    share.loadConfig();
+    switch (options.command) {
+      case RUN:
+        run(share, options, startTick);
+        break;
+      case STOP:
+        System.exit(stop(share));
+        break;
+      case STATUS:
+        System.exit(status(share));
+        break;
+      case GENERATE:
+        new GameEngine(share, LOGGER::info).generateGameConfig();
+        share.supervisor.shutdown();
+        break;
+      default:
+        throw new AssertionError(options.command);
+    }
+  }
+
+  private static void run(Share share, Options options, long startTick) {
+    GameEngine engine = new GameEngine(share, new LogListener());
+    try {
+      share.backupManager.load(Paths.get(share.gameDirectory, share.backupListFile));
+    } catch (IOException e) {
+      LOGGER.error("读取备份文件列表出错！", e);
+    }
+    engine.open();
+    if (share.autoRunBakEnabled) {
+      engine.setBackupRunning(true);
+    }
+    if (options.start && engine.state() == STOPPED) {
+      engine.start(0);
+    }
+
+    CountDownLatch exit = new CountDownLatch(1);
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      LOGGER.info("守护进程正在退出...");
+      if (options.stopOnExit && engine.state() != STOPPED) {
+        awaitStopped(engine);
+      }
+      engine.close();
+      exit.countDown();
+    }, "daemon-shutdown"));
+    LOGGER.info(String.format("守护进程启动完成，耗时 %d ms，配置文件：%s",
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTick),
+        options.config.toAbsolutePath()));
+    try {
+      exit.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void shards(Options options, long startTick) {
+    Map<String, Path> configs;
+    try {
+      configs = ShardManager.readConfigs(options.shards);
+    } catch (IOException | IllegalArgumentException e) {
+      LOGGER.error("读取分区列表出错：" + options.shards, e);
+      System.exit(EXIT_USAGE);
+      return;
+    }
+    if (options.command == Command.RUN) {
+      runShards(options, startTick);
+      return;
+    }
+    // 一次性的命令逐个分区执行，有一个分区失败即失败，全部没有运行时返回 EXIT_NOT_RUNNING
+    int result = EXIT_NOT_RUNNING;
+    for (Map.Entry<String, Path> entry : configs.entrySet()) {
+      System.out.printf("[%s]%n", entry.getKey());
+      Share share = new Share(entry.getValue());
+      share.loadConfig();
+      int code;
+      switch (options.command) {
+        case STOP:
+          code = stop(share);
+          break;
+        case STATUS:
+          code = status(share);
+          break;
+        case GENERATE:
+          new GameEngine(share, LOGGER::info).generateGameConfig();
+          share.supervisor.shutdown();
+          code = 0;
+          break;
+        default:
+          throw new AssertionError(options.command);
+      }
+      if (code == 1 || result == EXIT_NOT_RUNNING) {
+        result = code;
+      }
+    }
+    System.exit(result);
+  }
+
+  private static void runShards(Options options, long startTick) {
+    ShardManager manager;
+    try {
+      manager = ShardManager.load(options.shards, new LogListener());
+    } catch (IOException | IllegalArgumentException e) {
+      LOGGER.error("读取分区列表出错：" + options.shards, e);
+      System.exit(EXIT_USAGE);
+      return;
+    }
+    manager.open();
+    if (options.start) {
+      manager.startAll();
+    }
+
+    CountDownLatch exit = new CountDownLatch(1);
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      LOGGER.info("守护进程正在退出...");
+      if (options.stopOnExit) {
+        awaitStopped(manager);
+      }
+      manager.close();
+      exit.countDown();
+    }, "daemon-shutdown"));
+    LOGGER.info(String.format("守护进程启动完成，耗时 %d ms，分区列表：%s，共 %d 个分区",
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTick),
+        options.shards.toAbsolutePath(), manager.shards().size()));
+    try {
+      exit.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static int stop(Share share) {
+    GameEngine engine = new GameEngine(share, LOGGER::info);
+    try {
+      if (engine.attach() == 0) {
+        LOGGER.info("没有正在运行的程序。");
+        return EXIT_NOT_RUNNING;
+      }
+      return awaitStopped(engine) ? 0 : 1;
+    } finally {
+      engine.close();
+    }
+  }
+
+  private static boolean awaitStopped(GameEngine engine) {
+    if (engine.state() != RUNNING) {
+      // 正在启动时先中止启动，已经启动的程序一并停止
+      engine.cancelStart();
+    }
+    try {
+      engine.stop().get(engine.stopTimeout() + STOP_MARGIN, TimeUnit.MILLISECONDS);
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException | TimeoutException e) {
+      LOGGER.error("停止游戏服务器失败！", e);
+    }
+    return false;
+  }
+
+  /**
+   * 同时停止所有分区。
+   */
+  private static void awaitStopped(ShardManager manager) {
+    for (ShardManager.Shard shard : manager.shards()) {
+      if (shard.engine.state() != RUNNING && shard.engine.state() != STOPPED) {
+        shard.engine.cancelStart();
+      }
+    }
+    try {
+      manager.stopAll().get(manager.stopTimeout() + STOP_MARGIN, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException | TimeoutException e) {
+      LOGGER.error("停止游戏服务器失败！", e);
+    }
+  }
+
+  private static int status(Share share) {
+    share.supervisor.shutdown();
+    PidJournal journal = new PidJournal(Paths.get(share.gameDirectory, PID_JOURNAL_FILE));
+    List<PidJournal.Entry> entries = journal.read();
+    int running = 0;
+    for (PidJournal.Entry entry : entries) {
+      boolean alive = AttachedProcess.attach(entry.pid, entry.startTime) != null;
+      if (alive) {
+        running++;
+      }
+      System.out.printf("%-16s %8d  %s%n", entry.id, entry.pid, alive ? "运行中" : "已退出");
+    }
+    System.out.printf("%d/%d 个程序正在运行%n", running, entries.size());
+    return running > 0 ? 0 : EXIT_NOT_RUNNING;
+  }
+
+  enum Command {
+    RUN, STOP, STATUS, GENERATE, HELP,
+  }
+
+  static final class Options {
+    final Path config;
+    /** 分区列表，为 null 表示只管理一个游戏目录。 */
+    final Path shards;
+    final Command command;
+    final boolean start;
+    final boolean stopOnExit;
+
+    private Options(Path config, Path shards, Command command, boolean start,
+        boolean stopOnExit) {
+      this.config = config;
+      this.shards = shards;
+      this.command = command;
+      this.start = start;
+      this.stopOnExit = stopOnExit;
+    }
+
+    static Options parse(String... args) {
+      Path config = Paths.get(DEFAULT_GAME_DIRECTORY, SERVER_CONFIG_FILE);
+      Path shards = null;
+      Command command = null;
+      boolean start = true;
+      boolean stopOnExit = false;
+      for (int i = 0; i < args.length; i++) {
+        String arg = args[i];
+        switch (arg) {
+          case "--config":
+          case "-c":
+            Preconditions.checkArgument(i + 1 < args.length, "缺少配置文件路径：%s", arg);
+            config = Paths.get(args[++i]);
+            break;
+          case "--shards":
+            Preconditions.checkArgument(i + 1 < args.length, "缺少分区列表路径：%s", arg);
+            shards = Paths.get(args[++i]);
+            break;
+          case "--no-start":
+            start = false;
+            break;
+          case "--stop-on-exit":
+            stopOnExit = true;
+            break;
+          case "--help":
+          case "-h":
+            command = Command.HELP;
+            break;
+          default:
+            Preconditions.checkArgument(!arg.startsWith("-"), "未知的选项：%s", arg);
+            Preconditions.checkArgument(command == null, "多余的命令：%s", arg);
+            try {
+              command = Command.valueOf(arg.toUpperCase());
+            } catch (IllegalArgumentException e) {
+              throw new IllegalArgumentException("未知的命令：" + arg);
+            }
+            break;
+        }
+      }
+      return new Options(config, shards, command == null ? Command.RUN : command, start,
+          stopOnExit);
+    }
+  }
+
+  /**
+   * 运行信息写入日志。
+   */
+  private static final class LogListener implements GameEngine.Listener {
+    @Override public void onMessage(String message) {
+      LOGGER.info(message);
+    }
+
+    @Override public void onParked(Share.Program program, int exitCode) {
+      LOGGER.warn(String.format("%s 已暂停自动重启，最后退出码：%d", program.programFile, exitCode));
+    }
+
+    @Override public void onResources(String report) {
+      LOGGER.debug(report);
+    }
+  }
+}
@@ -0,0 +1,2104 @@
+package randall.gamecenter;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.ini4j.Ini;
+import org.ini4j.Wini;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import randall.common.util.IOHelper;
+
+import static randall.gamecenter.Lifecycle.State.ERROR;
+import static randall.gamecenter.Lifecycle.State.RUNNING;
+import static randall.gamecenter.Lifecycle.State.STARTING;
+import static randall.gamecenter.Lifecycle.State.STOPPED;
+import static randall.gamecenter.Lifecycle.State.STOPPING;
+import static randall.gamecenter.Share.ALL_IP_ADDRESS;
+import static randall.gamecenter.Share.DB_SERVER_SECTION_NAME_2;
+import static randall.gamecenter.Share.ERROR_LOG_DIRECTORY;
+import static randall.gamecenter.Share.HANG_DIRECTORY;
+import static randall.gamecenter.Share.LOGIN_GATE_SECTION_NAME_2;
+import static randall.gamecenter.Share.LOGIN_SRV_SECTION_NAME_2;
+import static randall.gamecenter.Share.LOG_SERVER_SECTION_2;
+import static randall.gamecenter.Share.M2_SERVER_CONFIG_FILE;
+import static randall.gamecenter.Share.M2_SERVER_SECTION_NAME_1;
+import static randall.gamecenter.Share.M2_SERVER_SECTION_NAME_2;
+import static randall.gamecenter.Share.MAX_RUN_GATE_COUNT;
+import static randall.gamecenter.Share.ONLINE_USER_LIMIT;
+import static randall.gamecenter.Share.PID_JOURNAL_FILE;
+import static randall.gamecenter.Share.PRIMARY_IP_ADDRESS;
+import static randall.gamecenter.Share.RUN_GATE_SECTION_NAME_2;
+import static randall.gamecenter.Share.SCHEDULE_STATE_FILE;
+import static randall.gamecenter.Share.SECOND_IP_ADDRESS;
+import static randall.gamecenter.Share.SEL_GATE_SECTION_NAME_2;
+import static randall.gamecenter.Share.SERVER_CONFIG_FILE;
+import static randall.gamecenter.Share.TIMELINE_DIRECTORY;
+
+/**
+ * 游戏引擎。
+ * <p>
+ * 负责生成服务端配置，按依赖启动、检测、停止和滚动重启所有受控程序。图形界面和无界面的守护进程共用同一个引擎，
+ * 通过 {@link Listener} 接收运行信息，引擎本身不依赖 JavaFX。
+ *
+ * @author mrzhqiang
+ */
+public final class GameEngine {
+  private static final Logger LOGGER = LoggerFactory.getLogger("randall");
+  /** 兜底的运行检测间隔，正常情况下由进程退出事件触发检测。 */
+  private static final long CHECK_RUN_PERIOD = 30000;
+  /** 运行期间端口探测的间隔。 */
+  private static final long LIVENESS_PROBE_PERIOD = 10000;
+  private static final int PROBE_FAILURE_LIMIT = 3;
+  /** 网关全部关闭后，延时关闭游戏引擎，给玩家数据留出保存时间。 */
+  private static final long GATE_STOP_DELAY = 5000;
+  private static final long STANDBY_REFILL_PERIOD = 1000;
+  private static final long RESOURCE_SAMPLE_PERIOD = 5000;
+  private static final long PID_JOURNAL_PERIOD = 1000;
+  /** 测量游戏网关负载的间隔。 */
+  private static final long GATE_SCALE_PERIOD = 10000;
+  /** 连续几次测量都满足条件才调整网关数量。 */
+  private static final int GATE_SCALE_SAMPLES = 3;
+  /** 卡死检测的间隔。 */
+  private static final long WATCHDOG_PERIOD = 1000;
+  /** CPU 平均使用率达到一个核心的 90% 视为饱和。 */
+  private static final long CPU_SATURATION = 900;
+  /** 采样窗口内内存持续增长超过 10% 视为疑似泄漏。 */
+  private static final long MEMORY_GROWTH = 100;
+  /** 控制组最近 10 秒内停滞时间超过 20% 视为资源紧张，降到一半以下后恢复提示。 */
+  private static final double PRESSURE_WARNING = 20;
+  /** 内存中保留的时间线数量。 */
+  private static final int TIMELINE_COUNT = 10;
+  /** 与最近几次同类记录的中位数比较。 */
+  private static final int REGRESSION_WINDOW = 5;
+  /** 总耗时比中位数多出 20% 并且超过 1 秒时提示变慢。 */
+  private static final int REGRESSION_PERCENT = 20;
+  private static final long REGRESSION_SLACK = 1000;
+
+  private final Share share;
+  private final Listener listener;
+  private final Clock clock;
+  private final PidJournal pidJournal;
+  private final TimelineHistory timelineHistory;
+  private final Watchdog watchdog;
+
+  /** 游戏状态，读取时不需要加锁；切换时通知监听器。 */
+  private final Lifecycle lifecycle = new Lifecycle("game");
+  /** 登陆网关最早的启动时刻，System.currentTimeMillis()。 */
+  private volatile long openTime;
+  /** 登陆网关开始等待开放时间的时刻，System.nanoTime()；没有在等待时为 0。 */
+  private long openWaitTick;
+  private long stopTick;
+  private volatile ShutdownEngine shutdownEngine;
+  private volatile RollingRestart rollingRestart;
+  private CompletableFuture<List<ShutdownEngine.Result>> stopFuture;
+  private ControlServer controlServer;
+  /** 本机的远程代理，没有开启时为 null。 */
+  private volatile AgentServer agentServer;
+  /** 控制台连接的远程节点。 */
+  private final List<AgentClient> agents = Lists.newArrayList();
+  private MaintenanceScheduler scheduler;
+  private final MaintenanceScheduler sharedScheduler;
+  /** 游戏网关弹性伸缩，没有启用时为 null。 */
+  private volatile GateScaler gateScaler;
+  /** 正在排空的游戏网关，已经从服务器列表中去掉，没有时为 null。 */
+  private volatile ProgramDescriptor drainingGate;
+  private long drainDeadline;
+  /** 正在进行的启动或者停止的时间线，没有进行时为 null。 */
+  private volatile Timeline timeline;
+  /** 最近结束的时间线，最早的在前。 */
+  private final Deque<Timeline> timelines = new ArrayDeque<>();
+  private boolean closed;
+
+  private Supervisor.Task startGameTask;
+  private StartGameTask startGameRunner;
+  private Supervisor.Task checkRunTask;
+  private Supervisor.Task probeTask;
+  private CheckRunTask checkRunRunner;
+  private Supervisor.Task reportTask;
+  private Supervisor.Task standbyTask;
+  private Supervisor.Task resourceTask;
+  private Supervisor.Task journalTask;
+  private Supervisor.Task scaleTask;
+  private Supervisor.Task watchdogTask;
+
+  public GameEngine(Share share, Listener listener) {
+    this(share, listener, null);
+  }
+
+  /**
+   * @param scheduler 多个分区共用的维护计划，计划名称以分区名称为前缀；为 null 时按配置创建自己的。
+   */
+  public GameEngine(Share share, Listener listener, MaintenanceScheduler scheduler) {
+    this(share, listener, scheduler, Clock.systemUTC());
+  }
+
+  /**
+   * @param clock 判断开放时间和执行维护计划使用的时钟。
+   */
+  GameEngine(Share share, Listener listener, MaintenanceScheduler scheduler, Clock clock) {
+    this.share = Preconditions.checkNotNull(share, "share == null");
+    this.clock = Preconditions.checkNotNull(clock, "clock == null");
+    Preconditions.checkNotNull(listener, "listener == null");
+    this.listener = new ForwardingListener(listener);
+    this.sharedScheduler = scheduler;
+    this.pidJournal = new PidJournal(Paths.get(share.gameDirectory, PID_JOURNAL_FILE));
+    this.timelineHistory = new TimelineHistory(
+        Paths.get(share.gameDirectory, ERROR_LOG_DIRECTORY, TIMELINE_DIRECTORY));
+    this.watchdog =
+        new Watchdog(Paths.get(share.gameDirectory, ERROR_LOG_DIRECTORY, HANG_DIRECTORY));
+    lifecycle.addListener((game, from, to) -> listener.onStateChanged(to));
+    for (ProgramDescriptor descriptor : share.registry.all()) {
+      descriptor.program.lifecycle.addListener((program, from, to) -> {
+        switch (to) {
+          case RUNNING:
+            trace(descriptor, Timeline.Phase.READY);
+            if (descriptor.role == ProgramRole.RUN_GATE && descriptor.program.scaled) {
+              // 弹性启用的网关就绪后才加入服务器列表
+              writeServerInfo();
+            }
+            // 正在启动的程序就绪后立即推进启动流程，无需等待下一次定时检测
+            wakeStartGame();
+            break;
+          case STOPPING:
+            trace(descriptor, Timeline.Phase.QUIT);
+            break;
+          case STOPPED:
+            trace(descriptor, Timeline.Phase.EXITED);
+            break;
+          default:
+            break;
+        }
+      });
+    }
+  }
+
+  public Share share() {
+    return share;
+  }
+
+  public Lifecycle.State state() {
+    return lifecycle.state();
+  }
+
+  /**
+   * 游戏状态以及进入这个状态的时刻。
+   */
+  public Lifecycle.Snapshot snapshot() {
+    return lifecycle.snapshot();
+  }
+
+  /**
+   * 指定种类最近的时间线，正在进行的优先，没有记录时返回 null。
+   */
+  public Timeline timeline(Timeline.Kind kind) {
+    Timeline current = timeline;
+    if (current != null && current.kind() == kind) {
+      return current;
+    }
+    synchronized (timelines) {
+      Iterator<Timeline> iterator = timelines.descendingIterator();
+      while (iterator.hasNext()) {
+        Timeline next = iterator.next();
+        if (next.kind() == kind) {
+          return next;
+        }
+      }
+    }
+    return null;
+  }
+
+  public boolean isRollingRestarting() {
+    return rollingRestart != null;
+  }
+
+  /**
+   * 开始后台任务：统计报告、资源采样和进程日志，并接管上一次启动、仍在运行的程序。
+   */
+  public void open() {
+    reportTask = share.supervisor.schedule("report", () -> LOGGER.debug(share.supervisor.report()
+        + System.lineSeparator() + Processes.outputPump().stats()), 60000, 60000);
+    resourceTask = share.supervisor.schedule("resource-sampler", this::sampleResources,
+        RESOURCE_SAMPLE_PERIOD, RESOURCE_SAMPLE_PERIOD);
+    if (reattach() > 0) {
+      enterRunning();
+      // 立即检测一次，尽快启动没有接管到的程序
+      share.supervisor.execute("check-run", checkRunRunner);
+    }
+    journalTask = share.supervisor.schedule("pid-journal", this::writePidJournal,
+        PID_JOURNAL_PERIOD, PID_JOURNAL_PERIOD);
+    // 多个分区由分区管理统一开启控制接口
+    if (share.controlPort > 0 && !share.isShard()) {
+      try {
+        controlServer = new ControlServer(this, share.controlAddress, share.controlPort,
+            share.controlThreads, share.controlToken);
+        listener.onMessage("控制接口已开启：" + controlServer.address());
+      } catch (IOException | IllegalArgumentException e) {
+        listener.onError("开启控制接口失败！", e);
+      }
+    }
+    if (share.agentPort > 0) {
+      try {
+        agentServer =
+            new AgentServer(this, share.agentAddress, share.agentPort, share.agentToken);
+        listener.onMessage("远程代理已开启：" + agentServer.address());
+      } catch (IOException | IllegalArgumentException e) {
+        listener.onError("开启远程代理失败！", e);
+      }
+    }
+    openAgents();
+    openScheduler();
+  }
+
+  /**
+   * 连接配置中的远程节点，地址格式错误的节点被忽略。
+   */
+  private void openAgents() {
+    for (Map.Entry<String, String> entry : share.agents.entrySet()) {
+      try {
+        AgentClient client = AgentClient.of(entry.getKey(), entry.getValue(), share.agentToken,
+            new AgentListener());
+        client.open();
+        agents.add(client);
+      } catch (IllegalArgumentException e) {
+        listener.onMessage(String.format("忽略无效的远程节点 %s = %s：%s",
+            entry.getKey(), entry.getValue(), e.getMessage()));
+      }
+    }
+  }
+
+  /**
+   * 远程节点，按配置的先后排列。
+   */
+  public List<AgentClient> agents() {
+    return Collections.unmodifiableList(agents);
+  }
+
+  /**
+   * 按名称查找远程节点，找不到时返回 null。
+   */
+  public AgentClient findAgent(String name) {
+    for (AgentClient agent : agents) {
+      if (agent.name.equals(name)) {
+        return agent;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * 按配置添加维护计划，格式错误的计划被忽略。
+   */
+  private void openScheduler() {
+    if (share.schedules.isEmpty()) {
+      return;
+    }
+    ZoneId zone;
+    try {
+      zone = Strings.isNullOrEmpty(share.scheduleZone)
+          ? ZoneId.systemDefault() : ZoneId.of(share.scheduleZone.trim());
+    } catch (DateTimeException e) {
+      listener.onMessage("无效的维护计划时区：" + share.scheduleZone + "，使用系统时区。");
+      zone = ZoneId.systemDefault();
+    }
+    MaintenanceScheduler scheduler = sharedScheduler != null ? sharedScheduler
+        : new MaintenanceScheduler(share.supervisor, clock,
+            Paths.get(share.gameDirectory, SCHEDULE_STATE_FILE));
+    for (Map.Entry<String, String> entry : share.schedules.entrySet()) {
+      String id = scheduleId(entry.getKey());
+      try {
+        List<String> fields = Splitter.on('|').trimResults().splitToList(entry.getValue());
+        Preconditions.checkArgument(fields.size() == 2 || fields.size() == 3,
+            "需要表达式、操作和可选的错过策略");
+        CronExpression cron = CronExpression.parse(fields.get(0));
+        Maintenance action = Maintenance.of(fields.get(1));
+        MaintenanceScheduler.MissedRunPolicy policy = fields.size() == 3
+            ? MaintenanceScheduler.MissedRunPolicy.of(fields.get(2))
+            : MaintenanceScheduler.MissedRunPolicy.SKIP;
+        MaintenanceScheduler.Entry added =
+            scheduler.add(id, cron, zone, policy, () -> maintain(action));
+        if (added.nextTime() > 0) {
+          LOGGER.info(String.format("维护计划 %s（%s，%s）下一次执行：%s", id, cron,
+              action.id, Instant.ofEpochMilli(added.nextTime()).atZone(zone).toLocalDateTime()));
+        }
+      } catch (IllegalArgumentException e) {
+        listener.onMessage(String.format("忽略无效的维护计划 %s = %s：%s",
+            entry.getKey(), entry.getValue(), e.getMessage()));
+      }
+    }
+    this.scheduler = scheduler;
+  }
+
+  /**
+   * 维护计划，没有配置时返回 null。多个分区共用时包含其他分区的计划，见 {@link #schedules()}。
+   */
+  public MaintenanceScheduler scheduler() {
+    return scheduler;
+  }
+
+  /**
+   * 这个游戏目录的维护计划，按添加的先后排列。
+   */
+  public List<MaintenanceScheduler.Entry> schedules() {
+    MaintenanceScheduler current = scheduler;
+    if (current == null) {
+      return Collections.emptyList();
+    }
+    List<MaintenanceScheduler.Entry> entries = current.entries();
+    if (current == sharedScheduler) {
+      entries.removeIf(entry -> !entry.id.startsWith(scheduleId("")));
+    }
+    return entries;
+  }
+
+  /** 共用维护计划时以分区名称为前缀，避免不同分区的同名计划互相替换。 */
+  private String scheduleId(String name) {
+    return sharedScheduler == null ? name : share.shard + "/" + name;
+  }
+
+  /**
+   * 执行维护操作，游戏状态不满足时跳过并提示。
+   */
+  public void maintain(Maintenance action) {
+    switch (action) {
+      case START:
+        if (!start(0)) {
+          listener.onMessage("游戏服务器没有处于停止状态，跳过计划启动。");
+        }
+        break;
+      case STOP:
+        stop();
+        break;
+      case RESTART:
+      case BACKUP_RESTART:
+        if (lifecycle.state() != RUNNING) {
+          listener.onMessage("游戏服务器没有运行，跳过计划重启。");
+          return;
+        }
+        listener.onMessage(action == Maintenance.RESTART ? "开始计划重启..." : "开始停服备份...");
+        stop().whenComplete((results, throwable) -> {
+          if (throwable != null) {
+            listener.onMessage("停止流程已中止，取消计划重启。");
+            return;
+          }
+          share.supervisor.execute("maintenance-start", () -> {
+            if (action == Maintenance.BACKUP_RESTART && share.backupManager != null) {
+              share.backupManager.backupNow();
+              listener.onMessage("停服备份完成！");
+            }
+            start(0);
+          });
+        });
+        break;
+      case ROLLING_RESTART:
+        if (!rollingRestart()) {
+          listener.onMessage("游戏服务器没有运行，或者正在滚动重启，跳过计划滚动重启。");
+        }
+        break;
+      case BACKUP:
+        if (share.backupManager != null) {
+          share.backupManager.backupNow();
+        }
+        break;
+      default:
+        throw new AssertionError(action);
+    }
+  }
+
+  /**
+   * 只接管进程日志中仍在运行的程序，不做运行检测，也不启动缺少的程序，用于在控制器之外停止游戏。
+   *
+   * @return 接管到的程序数量，大于 0 时进入运行状态。
+   */
+  public int attach() {
+    int count = reattach();
+    if (count > 0) {
+      lifecycle.moveTo(RUNNING);
+    }
+    return count;
+  }
+
+  /**
+   * 结束所有后台任务。受控程序不会随之退出，下次打开时重新接管。
+   */
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (controlServer != null) {
+      controlServer.close();
+    }
+    AgentServer server = agentServer;
+    if (server != null) {
+      server.close();
+      agentServer = null;
+    }
+    for (AgentClient agent : agents) {
+      agent.close();
+    }
+    share.supervisor.cancel(startGameTask);
+    share.supervisor.cancel(checkRunTask);
+    share.supervisor.cancel(reportTask);
+    share.supervisor.cancel(probeTask);
+    share.supervisor.cancel(standbyTask);
+    share.supervisor.cancel(resourceTask);
+    share.supervisor.cancel(journalTask);
+    share.supervisor.cancel(scaleTask);
+    share.supervisor.cancel(watchdogTask);
+    if (scheduler != null && scheduler == sharedScheduler) {
+      for (String name : share.schedules.keySet()) {
+        scheduler.remove(scheduleId(name));
+      }
+    } else if (scheduler != null) {
+      scheduler.close();
+    }
+    writePidJournal();
+    RollingRestart restart = rollingRestart;
+    if (restart != null) {
+      restart.cancel();
+    }
+    if (share.backupManager != null) {
+      share.backupManager.stop();
+    }
+    if (share.isShard()) {
+      // 共用的调度器和端口探测器由分区管理关闭
+      return;
+    }
+    share.readinessProbe.close();
+    LOGGER.info(share.supervisor.report());
+    share.supervisor.shutdown();
+  }
+
+  /**
+   * 启动游戏服务器。
+   *
+   * @param openTime 登陆网关最早的启动时刻，System.currentTimeMillis()，为 0 表示不等待。
+   * @return 游戏没有处于停止状态时返回 false。
+   */
+  public synchronized boolean start(long openTime) {
+    if (lifecycle.state() != STOPPED) {
+      return false;
+    }
+    this.openTime = openTime;
+    openWaitTick = 0;
+    for (Share.Program program : share.programs()) {
+      program.restartPolicy.reset();
+      program.maintenance = false;
+      program.scaled = false;
+    }
+    drainingGate = null;
+    share.applyConfig();
+    timeline = new Timeline(Timeline.Kind.START);
+    lifecycle.moveTo(STARTING);
+    startGameRunner = new StartGameTask();
+    // 立即推进第一步，之后由握手和端口就绪唤醒，定时执行只是兜底
+    startGameTask = share.supervisor.schedule("start-game", startGameRunner, 0, 1000);
+    probeTask = share.supervisor.schedule("readiness-probe", this::probeStartingPrograms,
+        share.probeInterval, share.probeInterval);
+    return true;
+  }
+
+  /**
+   * 中止启动，已经启动的程序继续运行。
+   */
+  public synchronized void cancelStart() {
+    if (lifecycle.state() != STARTING) {
+      return;
+    }
+    share.supervisor.cancel(startGameTask);
+    share.supervisor.cancel(probeTask);
+    startGameTask = null;
+    probeTask = null;
+    startGameRunner = null;
+    timeline = null;
+    lifecycle.moveTo(RUNNING);
+  }
+
+  /**
+   * 按停止顺序停止所有程序。
+   *
+   * @return 所有程序停止后完成；停止流程被中止时异常完成。正在停止时返回同一个流程，已经停止时立即完成。
+   */
+  public synchronized CompletableFuture<List<ShutdownEngine.Result>> stop() {
+    if (lifecycle.state() == STOPPED) {
+      return CompletableFuture.completedFuture(Collections.emptyList());
+    }
+    if (lifecycle.state() == STOPPING && stopFuture != null) {
+      return stopFuture;
+    }
+    listener.onMessage("正在开始停止服务器...");
+    RollingRestart restart = rollingRestart;
+    if (restart != null) {
+      restart.cancel();
+      rollingRestart = null;
+    }
+    share.supervisor.cancel(startGameTask);
+    share.supervisor.cancel(checkRunTask);
+    share.supervisor.cancel(probeTask);
+    share.supervisor.cancel(standbyTask);
+    share.supervisor.cancel(scaleTask);
+    share.supervisor.cancel(watchdogTask);
+    startGameTask = null;
+    startGameRunner = null;
+    checkRunTask = null;
+    checkRunRunner = null;
+    probeTask = null;
+    standbyTask = null;
+    scaleTask = null;
+    watchdogTask = null;
+    gateScaler = null;
+    drainingGate = null;
+    stopTick = System.nanoTime();
+    timeline = new Timeline(Timeline.Kind.STOP);
+    lifecycle.moveTo(STOPPING);
+    ShutdownEngine engine = new ShutdownEngine(share.supervisor);
+    shutdownEngine = engine;
+    stopFuture = engine.shutdown(buildShutdownTiers(), this::onProgramStopped)
+        .whenComplete(this::onGameStopped);
+    return stopFuture;
+  }
+
+  /**
+   * 按当前配置停止所有程序最长需要的时间，单位：毫秒。
+   */
+  public long stopTimeout() {
+    return ShutdownEngine.timeout(buildShutdownTiers());
+  }
+
+  /**
+   * 中止停止流程，回到运行状态。
+   */
+  public synchronized void cancelStop() {
+    if (lifecycle.state() != STOPPING) {
+      return;
+    }
+    ShutdownEngine engine = shutdownEngine;
+    if (engine != null) {
+      engine.cancel();
+      shutdownEngine = null;
+    }
+    stopFuture = null;
+    timeline = null;
+    lifecycle.moveTo(RUNNING);
+  }
+
+  /**
+   * 按批次重启游戏网关和角色网关，每个网关重启前重新读取配置，游戏不需要停止。
+   *
+   * @return 游戏没有运行或者正在滚动重启时返回 false。
+   */
+  public synchronized boolean rollingRestart() {
+    if (lifecycle.state() != RUNNING || rollingRestart != null) {
+      return false;
+    }
+    List<ProgramDescriptor> targets = Lists.newArrayList();
+    targets.addAll(share.registry.byRole(ProgramRole.RUN_GATE));
+    targets.addAll(share.registry.byRole(ProgramRole.SEL_GATE));
+    targets.removeIf(descriptor -> !descriptor.program.getStart);
+    listener.onMessage(String.format("开始滚动重启 %d 个网关，每批 %d 个，至少保留 %d 个可用...",
+        targets.size(), share.rollingBatchSize, share.rollingMinAvailable));
+    long startTick = System.nanoTime();
+    RollingRestart restart = new RollingRestart(share.supervisor, share.readinessProbe,
+        share.probeTimeout, share.probeInterval, share.rollingReadyTimeout);
+    rollingRestart = restart;
+    listener.onStateChanged(lifecycle.state());
+    restart.restart(targets, share.rollingBatchSize, share.rollingMinAvailable,
+        this::relaunch, this::onGateRestarted)
+        .whenComplete((results, throwable) -> {
+          writeServerInfo();
+          String message = throwable != null
+              ? "滚动重启已中止：" + throwable.getMessage()
+              : String.format("滚动重启完成！总耗时 %d ms。",
+                  TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTick));
+          listener.onMessage(message);
+          if (rollingRestart == restart) {
+            rollingRestart = null;
+            listener.onStateChanged(lifecycle.state());
+          }
+        });
+    return true;
+  }
+
+  /**
+   * 按名称查找受控程序，例如 M2Server、RunGate3，找不到时返回 null。
+   */
+  public ProgramDescriptor findProgram(String id) {
+    for (ProgramDescriptor descriptor : share.registry.all()) {
+      if (descriptor.id.equals(id)) {
+        return descriptor;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * 手动启动单个程序，并恢复自动重启。
+   *
+   * @return 程序正在运行或者配置中没有启用时返回 false。
+   */
+  public synchronized boolean startProgram(ProgramDescriptor descriptor) {
+    Share.Program program = descriptor.program;
+    if (program.process != null && program.process.isAlive()) {
+      return false;
+    }
+    program.restartPolicy.reset();
+    if (!relaunch(descriptor)) {
+      return false;
+    }
+    program.restartPolicy.onLaunched(System.currentTimeMillis());
+    program.maintenance = false;
+    if (descriptor.role == ProgramRole.RUN_GATE) {
+      writeServerInfo();
+    }
+    listener.onMessage("已手动启动" + descriptor.name + "...");
+    return true;
+  }
+
+  /**
+   * 手动停止单个程序，停止后运行检测不会自动重启它，直到再次手动启动或者重新启动游戏。
+   *
+   * @return 程序停止后完成，程序没有运行时结果为 {@link ShutdownEngine.Stage#NOT_RUNNING}。
+   */
+  public CompletableFuture<List<ShutdownEngine.Result>> stopProgram(ProgramDescriptor descriptor) {
+    Share.Program program = descriptor.program;
+    program.maintenance = true;
+    ShutdownEngine.Tier tier =
+        new ShutdownEngine.Tier(descriptor.name, 0).require(descriptor.name, program);
+    return new ShutdownEngine(share.supervisor)
+        .shutdown(Collections.singletonList(tier), this::onProgramStopped);
+  }
+
+  /**
+   * 手动重启单个程序。
+   *
+   * @return 重新启动后完成，结果与 {@link #startProgram(ProgramDescriptor)} 相同。
+   */
+  public CompletableFuture<Boolean> restartProgram(ProgramDescriptor descriptor) {
+    return stopProgram(descriptor).thenApply(results -> startProgram(descriptor));
+  }
+
+  public boolean isBackupRunning() {
+    return share.backupStartStatus == 1;
+  }
+
+  /**
+   * 启动或者停止数据备份。
+   */
+  public synchronized void setBackupRunning(boolean running) {
+    if (running == isBackupRunning()) {
+      return;
+    }
+    share.backupStartStatus = running ? 1 : 0;
+    if (running) {
+      share.backupManager.start();
+    } else {
+      share.backupManager.stop();
+    }
+    listener.onBackupChanged(running);
+  }
+
+  private boolean relaunch(ProgramDescriptor descriptor) {
+    share.applyConfig(descriptor);
+    if (!descriptor.program.getStart) {
+      return false;
+    }
+    generateProgramConfig(descriptor);
+    descriptor.program.processCode = null;
+    launch(descriptor);
+    return true;
+  }
+
+  private void onGateRestarted(RollingRestart.Result result) {
+    listener.onMessage(String.format("%s %s，耗时 %d ms...",
+        result.descriptor.name, result.outcome, result.elapsed));
+  }
+
+  /**
+   * 生成所有服务端程序的配置文件。
+   */
+  public void generateGameConfig() {
+    IOHelper.mkdir(Paths.get(share.gameDirectory));
+    generateDBServerConfig();
+    generateLoginServerConfig();
+    generateM2ServerConfig();
+    generateLogServerConfig();
+    generateRunGateConfig();
+    generateSelGateConfig();
+    generateLoginGateConfig();
+  }
+
+  private void generateMultiRunGateConfig(int index) {
+    if (index >= 0 && index < MAX_RUN_GATE_COUNT) {
+      String name = "游戏网关[" + (index + 1) + "]";
+      generateRunGatePortConfig(name, share.config.runGate.gatePort[index]);
+    }
+  }
+
+  private void generateRunGatePortConfig(String name, int port) {
+    Path runGateDir = Paths.get(share.gameDirectory, "RunGate\\");
+    IOHelper.mkdir(runGateDir);
+
+    try {
+      Path runGateConfigPath = Paths.get(runGateDir.toString(), SERVER_CONFIG_FILE);
+      IOHelper.create(runGateConfigPath);
+      Ini ini = new Wini(runGateConfigPath.toFile());
+      ini.put(RUN_GATE_SECTION_NAME_2, "Title", share.gameName);
+      ini.put(RUN_GATE_SECTION_NAME_2, "GateAddr", ALL_IP_ADDRESS);
+      ini.put(RUN_GATE_SECTION_NAME_2, "GatePort", port);
+      ini.store();
+    } catch (IOException e) {
+      listener.onError("生成" + name + "配置出错！！", e);
+    }
+  }
+
+  private void generateMultiSelGateConfig(int index) {
+    if (index != 0 && index != 1) {
+      return;
+    }
+    Path selGateDir = Paths.get(share.gameDirectory, "SelGate\\");
+    IOHelper.mkdir(selGateDir);
+
+    try {
+      Path selGateConfigPath = Paths.get(selGateDir.toString(), SERVER_CONFIG_FILE);
+      IOHelper.create(selGateConfigPath);
+      Ini ini = new Wini(selGateConfigPath.toFile());
+      ini.put(SEL_GATE_SECTION_NAME_2, "Title", share.gameName);
+      ini.put(SEL_GATE_SECTION_NAME_2, "GateAddr", ALL_IP_ADDRESS);
+      ini.put(SEL_GATE_SECTION_NAME_2, "GatePort", share.config.selGate.gatePort[index]);
+      if (share.ip2Enabled) {
+        if (index == 0) {
+          ini.put(SEL_GATE_SECTION_NAME_2, "ServerAddr", PRIMARY_IP_ADDRESS);
+        } else {
+          ini.put(SEL_GATE_SECTION_NAME_2, "ServerAddr", SECOND_IP_ADDRESS);
+        }
+      }
+      ini.store();
+    } catch (IOException e) {
+      listener.onError("生成角色网关[" + index + "]出错！！", e);
+    }
+  }
+
+  private void generateMultiLoginGateConfig(int index) {
+    if (index != 0 && index != 1) {
+      return;
+    }
+    Path loginGateDir = Paths.get(share.gameDirectory, "LoginGate\\");
+    IOHelper.mkdir(loginGateDir);
+
+    try {
+      Path loginGateConfigPath = Paths.get(loginGateDir.toString(), SERVER_CONFIG_FILE);
+      IOHelper.create(loginGateConfigPath);
+      Ini ini = new Wini(loginGateConfigPath.toFile());
+      ini.put(LOGIN_SRV_SECTION_NAME_2, "Title", share.gameName);
+      ini.put(LOGIN_SRV_SECTION_NAME_2, "GatePort", share.config.loginGate.gatePort);
+      if (share.ip2Enabled) {
+        if (index == 0) {
+          ini.put(LOGIN_SRV_SECTION_NAME_2, "GateAddr", share.extIPAddr);
+          ini.put(LOGIN_SRV_SECTION_NAME_2, "ServerAddr", PRIMARY_IP_ADDRESS);
+        } else {
+          ini.put(LOGIN_SRV_SECTION_NAME_2, "GateAddr", share.extIPAddr2);
+          ini.put(LOGIN_SRV_SECTION_NAME_2, "ServerAddr", SECOND_IP_ADDRESS);
+        }
+      } else {
+        ini.put(LOGIN_SRV_SECTION_NAME_2, "GateAddr", ALL_IP_ADDRESS);
+      }
+      ini.store();
+    } catch (IOException e) {
+      listener.onError("生成角色网关[" + index + "]出错！！", e);
+    }
+  }
+
+  private void generateLoginGateConfig() {
+    Path loginGateDir = Paths.get(share.gameDirectory, "LoginGate\\");
+    IOHelper.mkdir(loginGateDir);
+
+    try {
+      Path configPath = Paths.get(loginGateDir.toString(), SERVER_CONFIG_FILE);
+      IOHelper.create(configPath);
+      Ini ini = new Wini(configPath.toFile());
+      ini.put(LOGIN_GATE_SECTION_NAME_2, "Title", share.gameName);
+      ini.put(LOGIN_GATE_SECTION_NAME_2, "ServerAddr", PRIMARY_IP_ADDRESS);
+      ini.put(LOGIN_GATE_SECTION_NAME_2, "ServerPort", share.config.loginSrv.gatePort);
+      ini.put(LOGIN_GATE_SECTION_NAME_2, "GateAddr", ALL_IP_ADDRESS);
+      ini.put(LOGIN_GATE_SECTION_NAME_2, "GatePort", share.config.loginGate.gatePort);
+      ini.store();
+    } catch (IOException e) {
+      listener.onError("生成登陆网关配置文件出错！！", e);
+    }
+  }
+
+  private void generateSelGateConfig() {
+    Path selGateDir = Paths.get(share.gameDirectory, "SelGate\\");
+    IOHelper.mkdir(selGateDir);
+
+    try {
+      Path configPath = Paths.get(selGateDir.toString(), SERVER_CONFIG_FILE);
+      IOHelper.create(configPath);
+      Ini ini = new Wini(configPath.toFile());
+      ini.put(SEL_GATE_SECTION_NAME_2, "Title", share.gameName);
+      ini.put(SEL_GATE_SECTION_NAME_2, "ServerAddr", PRIMARY_IP_ADDRESS);
+      ini.put(SEL_GATE_SECTION_NAME_2, "ServerPort", share.config.dbServer.gatePort);
+      ini.put(SEL_GATE_SECTION_NAME_2, "GateAddr", ALL_IP_ADDRESS);
+      ini.put(SEL_GATE_SECTION_NAME_2, "GatePort", share.config.selGate.gatePort[0]);
+      ini.store();
+    } catch (IOException e) {
+      listener.onError("生成角色网关配置文件出错！！", e);
+    }
+  }
+
+  private void generateRunGateConfig() {
+    Path runGateDir = Paths.get(share.gameDirectory, "RunGate\\");
+    IOHelper.mkdir(runGateDir);
+
+    try {
+      Path configPath = Paths.get(runGateDir.toString(), SERVER_CONFIG_FILE);
+      IOHelper.create(configPath);
+      Ini ini = new Wini(configPath.toFile());
+      ini.put(RUN_GATE_SECTION_NAME_2, "Title", share.gameName);
+      ini.put(RUN_GATE_SECTION_NAME_2, "ServerAddr", PRIMARY_IP_ADDRESS);
+      ini.put(RUN_GATE_SECTION_NAME_2, "ServerPort", share.config.m2Server.gatePort);
+      ini.put(RUN_GATE_SECTION_NAME_2, "GateAddr", ALL_IP_ADDRESS);
+      ini.put(RUN_GATE_SECTION_NAME_2, "GatePort", share.config.runGate.gatePort[0]);
+      ini.put(RUN_GATE_SECTION_NAME_2, "CenterAddr", PRIMARY_IP_ADDRESS);
+      ini.put(RUN_GATE_SECTION_NAME_2, "CenterPort", share.config.loginSrv.serverPort);
+      ini.store();
+    } catch (IOException e) {
+      listener.onError("生成游戏网关配置文件出错！！", e);
+    }
+  }
+
+  private void generateLogServerConfig() {
+    Path logSrvDir = Paths.get(share.gameDirectory, "LogServer\\");
+    IOHelper.mkdir(logSrvDir);
+
+    try {
+      Path logSrvPath = Paths.get(logSrvDir.toString(), "LogData.ini");
+      IOHelper.create(logSrvPath);
+      Ini ini = new Wini(logSrvPath.toFile());
+      ini.put(LOG_SERVER_SECTION_2, "ServerName", share.gameName);
+      ini.put(LOG_SERVER_SECTION_2, "Port", share.config.logServer.port);
+      ini.put(LOG_SERVER_SECTION_2, "BaseDir", "BaseDir\\");
+      ini.store();
+    } catch (IOException e) {
+      listener.onError("生成日志服务器配置文件出错！！", e);
+    }
+
+    IOHelper.mkdir(Paths.get(logSrvDir.toString(), "BaseDir\\"));
+  }
+
+  private void generateM2ServerConfig() {
+    Path m2SrvDir = Paths.get(share.gameDirectory, "Mir200\\");
+    IOHelper.mkdir(m2SrvDir);
+
+    try {
+      Path m2SrvPath = Paths.get(m2SrvDir.toString(), M2_SERVER_CONFIG_FILE);
+      IOHelper.create(m2SrvPath);
+      Ini ini = new Wini(m2SrvPath.toFile());
+      ini.put(M2_SERVER_SECTION_NAME_1, "ServerName", share.gameName);
+      ini.put(M2_SERVER_SECTION_NAME_1, "DBName", share.heroDBName);
+      ini.put(M2_SERVER_SECTION_NAME_1, "GateAddr", ALL_IP_ADDRESS);
+      ini.put(M2_SERVER_SECTION_NAME_1, "GatePort", share.config.m2Server.gatePort);
+      ini.put(M2_SERVER_SECTION_NAME_1, "DBAddr", PRIMARY_IP_ADDRESS);
+      ini.put(M2_SERVER_SECTION_NAME_1, "DBPort", share.config.dbServer.serverPort);
+      ini.put(M2_SERVER_SECTION_NAME_1, "IDSAddr", PRIMARY_IP_ADDRESS);
+      ini.put(M2_SERVER_SECTION_NAME_1, "IDSPort", share.config.loginSrv.serverPort);
+      ini.put(M2_SERVER_SECTION_NAME_1, "MsgSrvAddr", ALL_IP_ADDRESS);
+      ini.put(M2_SERVER_SECTION_NAME_1, "MsgSrvPort", share.config.m2Server.msgSrvPort);
+      ini.put(M2_SERVER_SECTION_NAME_1, "LogServerAddr", PRIMARY_IP_ADDRESS);
+      ini.put(M2_SERVER_SECTION_NAME_1, "LogServerPort", share.config.logServer.port);
+      ini.put(M2_SERVER_SECTION_NAME_1, "CloseWuXin", share.closeWuXinEnabled);
+
+      ini.put(M2_SERVER_SECTION_NAME_2, "GuildDir", "GuildBase\\Guilds\\");
+      ini.put(M2_SERVER_SECTION_NAME_2, "GuildFile", "GuildBase\\GuildList.txt");
+      ini.put(M2_SERVER_SECTION_NAME_2, "ConLogDir", "ConLog\\");
+      ini.put(M2_SERVER_SECTION_NAME_2, "CastleDir", "Castle\\");
+      ini.put(M2_SERVER_SECTION_NAME_2, "CastleFile", "Castle\\List.txt");
+      ini.put(M2_SERVER_SECTION_NAME_2, "GameDataDir", "Envir\\");
+      ini.put(M2_SERVER_SECTION_NAME_2, "EnvirDir", "Envir\\");
+      ini.put(M2_SERVER_SECTION_NAME_2, "MapDir", "Map\\");
+      ini.put(M2_SERVER_SECTION_NAME_2, "NoticeDir", "Notice\\");
+      ini.put(M2_SERVER_SECTION_NAME_2, "LogDir", "Log\\");
+      ini.put(M2_SERVER_SECTION_NAME_2, "EMailDir", "EMail\\");
+      ini.store();
+    } catch (IOException e) {
+      listener.onError("生成服务端核心配置出错！！", e);
+    }
+
+    // todo 批量创建文件
+    IOHelper.mkdir(Paths.get(m2SrvDir.toString(), "GuildBase\\"));
+    IOHelper.mkdir(Paths.get(m2SrvDir.toString(), "GuildBase\\Guilds\\"));
+    IOHelper.mkdir(Paths.get(m2SrvDir.toString(), "ConLog\\"));
+    IOHelper.mkdir(Paths.get(m2SrvDir.toString(), "Castle\\"));
+    IOHelper.mkdir(Paths.get(m2SrvDir.toString(), "Envir\\"));
+    IOHelper.mkdir(Paths.get(m2SrvDir.toString(), "Map\\"));
+    IOHelper.mkdir(Paths.get(m2SrvDir.toString(), "Notice\\"));
+    IOHelper.mkdir(Paths.get(m2SrvDir.toString(), "Log\\"));
+    IOHelper.mkdir(Paths.get(m2SrvDir.toString(), "EMail\\"));
+
+    IOHelper.write(Paths.get(m2SrvDir.toString(), "!servertable.txt"), PRIMARY_IP_ADDRESS);
+  }
+
+  private void generateLoginServerConfig() {
+    Path loginSrvDir = Paths.get(share.gameDirectory, "LoginSrv\\");
+    IOHelper.mkdir(loginSrvDir);
+
+    try {
+      Path loginSrvPath = Paths.get(loginSrvDir.toString(), "Logsrv.ini");
+      IOHelper.create(loginSrvPath);
+      Ini ini = new Wini(loginSrvPath.toFile());
+      ini.put(LOGIN_SRV_SECTION_NAME_2, "ServerAddr", ALL_IP_ADDRESS);
+      ini.put(LOGIN_SRV_SECTION_NAME_2, "ServerPort", share.config.loginSrv.serverPort);
+      ini.put(LOGIN_SRV_SECTION_NAME_2, "GateAddr", ALL_IP_ADDRESS);
+      ini.put(LOGIN_SRV_SECTION_NAME_2, "GatePort", share.config.loginSrv.gatePort);
+      ini.put(LOGIN_SRV_SECTION_NAME_2, "MonAddr", ALL_IP_ADDRESS);
+      ini.put(LOGIN_SRV_SECTION_NAME_2, "MonPort", share.config.loginSrv.monPort);
+      ini.put(LOGIN_SRV_SECTION_NAME_2, "CloseWuXin", share.closeWuXinEnabled);
+      ini.put(LOGIN_SRV_SECTION_NAME_2, "IDDir", "DB\\");
+      ini.put(LOGIN_SRV_SECTION_NAME_2, "CountLogDir", "ChrLog\\");
+      ini.store();
+    } catch (IOException e) {
+      listener.onError("生成登陆服务器配置文件出错", e);
+    }
+
+    StringBuilder builder = new StringBuilder(PRIMARY_IP_ADDRESS);
+    if (share.ip2Enabled) {
+      builder.append(System.lineSeparator()).append(SECOND_IP_ADDRESS);
+    }
+    IOHelper.write(Paths.get(loginSrvDir.toString(), "!serveraddr.txt"), builder.toString());
+
+    String content = String.format("%s %s %d", share.gameName, share.gameName, ONLINE_USER_LIMIT);
+    IOHelper.write(Paths.get(loginSrvDir.toString(), "!UserLimit.txt"), content);
+
+    builder = new StringBuilder(PRIMARY_IP_ADDRESS);
+    if (share.config.selGate.getStart1) {
+      builder.append(String.format(" %s %d", share.extIPAddr, share.config.selGate.gatePort[0]));
+    }
+    builder.append(System.lineSeparator());
+    if (share.ip2Enabled) {
+      builder.append(SECOND_IP_ADDRESS);
+      if (share.config.selGate.getStart2) {
+        builder.append(String.format(" %s %d", share.extIPAddr2, share.config.selGate.gatePort[1]));
+      }
+    } else {
+      if (share.config.selGate.getStart2) {
+        builder.append(String.format(" %s %d", share.extIPAddr, share.config.selGate.gatePort[1]));
+      }
+    }
+    IOHelper.write(Paths.get(loginSrvDir.toString(), "!addrtable.txt"), builder.toString());
+    IOHelper.mkdir(Paths.get(loginSrvDir.toString(), "ChrLog\\"));
+    IOHelper.mkdir(Paths.get(loginSrvDir.toString(), "DB\\"));
+  }
+
+  /**
+   * 生成服务器列表，列出所有启用的游戏网关对外公布的端口。
+   * <p>
+   * 游戏网关切换到备用网关后，公布的是备用网关实际监听的端口。弹性启用的网关就绪后才公布，
+   * 正在排空的网关不再公布。
+   */
+  public void writeServerInfo() {
+    List<Integer> ports = Lists.newArrayList();
+    ProgramDescriptor draining = drainingGate;
+    for (ProgramDescriptor descriptor : share.registry.byRole(ProgramRole.RUN_GATE)) {
+      int index = descriptor.index;
+      Share.Program program = descriptor.program;
+      boolean scaled = program.scaled && program.state() == RUNNING;
+      if ((share.config.runGate.getStart[index] || scaled) && descriptor != draining) {
+        int[] live = program.ports;
+        ports.add(live.length > 0 ? live[0] : share.config.runGate.gatePort[index]);
+      }
+    }
+    StringBuilder builder = new StringBuilder(PRIMARY_IP_ADDRESS);
+    for (int port : ports) {
+      builder.append(String.format(" %s %d", share.extIPAddr, port));
+    }
+    builder.append(System.lineSeparator());
+    if (share.ip2Enabled) {
+      builder.append(SECOND_IP_ADDRESS);
+      for (int port : ports) {
+        builder.append(String.format(" %s %d", share.extIPAddr2, port));
+      }
+    }
+    Path dbServerDir = Paths.get(share.gameDirectory, "DBServer\\");
+    IOHelper.write(Paths.get(dbServerDir.toString(), "!serverinfo.txt"), builder.toString());
+  }
+
+  private void generateDBServerConfig() {
+    Path dbServerDir = Paths.get(share.gameDirectory, "DBServer\\");
+    IOHelper.mkdir(dbServerDir);
+    Path dbFileDir = Paths.get(dbServerDir.toString(), "DB\\");
+    IOHelper.mkdir(dbFileDir);
+
+    try {
+      Path dbSrcPath = Paths.get(dbServerDir.toString(), "Dbsrc.ini");
+      IOHelper.create(dbSrcPath);
+      Ini ini = new Wini(dbSrcPath.toFile());
+      ini.put(DB_SERVER_SECTION_NAME_2, "ServerName", share.gameName);
+      ini.put(DB_SERVER_SECTION_NAME_2, "ServerAddr", PRIMARY_IP_ADDRESS);
+      ini.put(DB_SERVER_SECTION_NAME_2, "ServerPort", share.config.dbServer.serverPort);
+      ini.put(DB_SERVER_SECTION_NAME_2, "GateAddr", ALL_IP_ADDRESS);
+      ini.put(DB_SERVER_SECTION_NAME_2, "GatePort", share.config.dbServer.gatePort);
+      ini.put(DB_SERVER_SECTION_NAME_2, "IDSAddr", PRIMARY_IP_ADDRESS);
+      ini.put(DB_SERVER_SECTION_NAME_2, "IDSPort", share.config.loginSrv.serverPort);
+      ini.put(DB_SERVER_SECTION_NAME_2, "DBName", share.heroDBName);
+      ini.put(DB_SERVER_SECTION_NAME_2, "DBDir", "DB\\");
+      ini.store();
+    } catch (IOException e) {
+      listener.onError("生成数据库服务器配置文件出错！！", e);
+    }
+
+    StringBuilder builder = new StringBuilder(PRIMARY_IP_ADDRESS);
+    if (share.ip2Enabled) {
+      builder.append(System.lineSeparator()).append(SECOND_IP_ADDRESS);
+    }
+    IOHelper.write(Paths.get(dbServerDir.toString(), "!addrtable.txt"), builder.toString());
+
+    writeServerInfo();
+    IOHelper.write(Paths.get(dbServerDir.toString(), "FUserName.txt"), ";创建人物过滤字符，一行一个过滤");
+  }
+
+  private final class StartGameTask implements Runnable {
+    private final StartupGraph graph = buildStartupGraph();
+
+    @Override
+    public void run() {
+      if (!graph.advance()) {
+        return;
+      }
+      share.supervisor.cancel(startGameTask);
+      share.supervisor.cancel(probeTask);
+      startGameTask = null;
+      startGameRunner = null;
+      probeTask = null;
+      String report = graph.report();
+      listener.onMessage(report);
+      // 启动过程中反复崩溃的程序和依赖它们的程序已经熔断暂停，与运行期间一样等待人工处理，
+      // 其余程序照常进入运行
+      for (StartupGraph.Node node : graph.failures()) {
+        Share.Program program = node.program;
+        int exitCode = program.restartPolicy.lastExitCode();
+        if (node.blocker() != null) {
+          listener.onMessage(String.format("%s 依赖的 %s 启动失败，没有启动，已暂停自动重启！",
+              program.programFile, node.blocker().program.programFile));
+        } else {
+          listener.onMessage(String.format("%s 启动过程中连续崩溃，已暂停自动重启（最后退出码 %d）！",
+              program.programFile, exitCode));
+        }
+        listener.onParked(program, exitCode);
+      }
+      finishTimeline(Timeline.Kind.START);
+      enterRunning();
+    }
+  }
+
+  /**
+   * 进入运行状态：开始运行检测、存活探测、卡死检测和补充备用网关。
+   */
+  private void enterRunning() {
+    checkRunRunner = new CheckRunTask();
+    checkRunTask = share.supervisor.schedule("check-run", checkRunRunner,
+        CHECK_RUN_PERIOD, CHECK_RUN_PERIOD);
+    probeTask = share.supervisor.schedule("liveness-probe", this::probeRunningPrograms,
+        LIVENESS_PROBE_PERIOD, LIVENESS_PROBE_PERIOD);
+    if (share.standbyPool.isEnabled()) {
+      standbyTask = share.supervisor.schedule("standby-refill", this::refillStandby,
+          STANDBY_REFILL_PERIOD, STANDBY_REFILL_PERIOD);
+    }
+    if (!share.watchdogRules.isEmpty()) {
+      watchdog.reset();
+      watchdogTask = share.supervisor.schedule("watchdog", this::checkHangs,
+          WATCHDOG_PERIOD, WATCHDOG_PERIOD);
+    }
+    openGateScaler();
+    lifecycle.moveTo(RUNNING);
+  }
+
+  /**
+   * 按角色的规则检测卡死的程序，需要时发送心跳。
+   */
+  private void checkHangs() {
+    long now = System.nanoTime();
+    for (ProgramDescriptor descriptor : share.registry.all()) {
+      Share.Program program = descriptor.program;
+      Watchdog.Rule rule = share.watchdogRules.get(descriptor.role);
+      switch (watchdog.check(program, rule, now)) {
+        case HEARTBEAT:
+          program.sendMessage(rule.heartbeat);
+          break;
+        case HUNG:
+          long silent = Watchdog.silentNanos(program, now);
+          onHung(descriptor, rule, TimeUnit.NANOSECONDS.toMillis(silent));
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  /**
+   * 保存诊断信息，按规则提示或者强制结束进程；进程退出后由运行检测按重启策略重启。
+   */
+  private void onHung(ProgramDescriptor descriptor, Watchdog.Rule rule, long silentMillis) {
+    Path path = watchdog.capture(descriptor, silentMillis);
+    String message = String.format("%s 已经 %d 秒没有任何输出，判定为卡死，诊断信息：%s",
+        descriptor.name, TimeUnit.MILLISECONDS.toSeconds(silentMillis),
+        path == null ? "保存失败" : path);
+    Process process = descriptor.program.process;
+    if (rule.action == Watchdog.Action.RESTART && process != null) {
+      process.destroyForcibly();
+      message += "，已强制结束，等待重启...";
+    }
+    LOGGER.warn(message);
+    listener.onMessage(message);
+  }
+
+  /**
+   * 按配置开始游戏网关弹性伸缩，读取不到连接数时改用 CPU 使用率。
+   */
+  private void openGateScaler() {
+    Share.RunGateConfig config = share.config.runGate;
+    if (config.scaleMax <= 0) {
+      return;
+    }
+    GateScaler.Metric metric = config.scaleMetric;
+    if (metric == GateScaler.Metric.CONNECTIONS && GateScaler.readEstablished() == null) {
+      listener.onMessage("无法读取 /proc/net/tcp，改用 CPU 使用率衡量游戏网关负载。");
+      metric = GateScaler.Metric.CPU;
+    }
+    try {
+      int max = Math.min(config.scaleMax, MAX_RUN_GATE_COUNT);
+      gateScaler = new GateScaler(Math.min(Math.max(config.scaleMin, 0), max), max, metric,
+          config.scaleUp, config.scaleDown, GATE_SCALE_SAMPLES, config.scaleCooldown);
+    } catch (IllegalArgumentException e) {
+      listener.onMessage("游戏网关弹性伸缩配置无效：" + e.getMessage());
+      return;
+    }
+    scaleTask = share.supervisor.schedule("gate-scaler", this::scaleGates,
+        GATE_SCALE_PERIOD, GATE_SCALE_PERIOD);
+  }
+
+  /**
+   * 测量游戏网关负载，按需启用或者排空一个网关。
+   * <p>
+   * 有网关正在启动时不做调整：网关共用配置文件，并且新网关就绪前的负载没有参考价值。
+   */
+  private synchronized void scaleGates() {
+    GateScaler scaler = gateScaler;
+    if (scaler == null || lifecycle.state() != RUNNING || rollingRestart != null) {
+      return;
+    }
+    Map<Integer, Integer> connections = scaler.metric == GateScaler.Metric.CONNECTIONS
+        ? GateScaler.readEstablished() : null;
+    ProgramDescriptor draining = drainingGate;
+    if (draining != null) {
+      drainGate(draining, connections);
+      return;
+    }
+    int active = 0;
+    long total = 0;
+    for (ProgramDescriptor descriptor : share.registry.byRole(ProgramRole.RUN_GATE)) {
+      Share.Program program = descriptor.program;
+      if (!program.getStart) {
+        continue;
+      }
+      if (program.state() == STARTING) {
+        return;
+      }
+      active++;
+      if (program.state() == RUNNING) {
+        total += Math.max(0, gateLoad(program, connections));
+      }
+    }
+    switch (scaler.evaluate(active, total, System.currentTimeMillis())) {
+      case SCALE_UP:
+        scaleUp(active, total);
+        break;
+      case SCALE_DOWN:
+        scaleDown(connections);
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * 网关负载：对外公布端口上的连接数，或者最近一次采样的 CPU 使用率，无法获取时返回 -1。
+   */
+  private static long gateLoad(Share.Program program, Map<Integer, Integer> connections) {
+    if (connections == null) {
+      return program.resources.cpu.latest(-1);
+    }
+    int[] ports = program.ports;
+    return ports.length == 0 ? -1 : connections.getOrDefault(ports[0], 0);
+  }
+
+  /**
+   * 启用编号最小的、配置中没有启用的游戏网关，就绪后加入服务器列表。
+   */
+  private void scaleUp(int active, long total) {
+    for (ProgramDescriptor descriptor : share.registry.byRole(ProgramRole.RUN_GATE)) {
+      Share.Program program = descriptor.program;
+      if (program.getStart || (program.process != null && program.process.isAlive())) {
+        continue;
+      }
+      program.scaled = true;
+      program.restartPolicy.reset();
+      program.maintenance = false;
+      if (!relaunch(descriptor)) {
+        program.scaled = false;
+        return;
+      }
+      program.restartPolicy.onLaunched(System.currentTimeMillis());
+      listener.onMessage(String.format("游戏网关平均负载 %d，已启用%s，端口 %d...",
+          active == 0 ? 0 : total / active, descriptor.name,
+          share.config.runGate.gatePort[descriptor.index]));
+      return;
+    }
+    LOGGER.info("没有可以启用的游戏网关。");
+  }
+
+  /**
+   * 从弹性启用的网关中选出负载最低的一个开始排空，先从服务器列表中去掉，不再接收新玩家。
+   */
+  private void scaleDown(Map<Integer, Integer> connections) {
+    ProgramDescriptor candidate = null;
+    long lowest = Long.MAX_VALUE;
+    for (ProgramDescriptor descriptor : share.registry.byRole(ProgramRole.RUN_GATE)) {
+      Share.Program program = descriptor.program;
+      if (!program.scaled || program.state() != RUNNING) {
+        continue;
+      }
+      long load = gateLoad(program, connections);
+      if (candidate == null || load < lowest) {
+        candidate = descriptor;
+        lowest = load;
+      }
+    }
+    if (candidate == null) {
+      return;
+    }
+    drainingGate = candidate;
+    drainDeadline = System.currentTimeMillis() + share.config.runGate.scaleDrainTimeout;
+    writeServerInfo();
+    listener.onMessage(String.format("游戏网关负载降低，正在排空%s（负载 %d）...",
+        candidate.name, lowest));
+  }
+
+  /**
+   * 排空的网关连接全部断开或者超时后停止；按 CPU 衡量负载时无法得知连接数，等到超时后停止。
+   */
+  private void drainGate(ProgramDescriptor descriptor, Map<Integer, Integer> connections) {
+    Share.Program program = descriptor.program;
+    if (drainDeadline == Long.MAX_VALUE) {
+      // 正在停止
+      return;
+    }
+    long remaining = connections == null ? -1 : gateLoad(program, connections);
+    if (remaining != 0 && System.currentTimeMillis() < drainDeadline
+        && program.process != null && program.process.isAlive()) {
+      return;
+    }
+    drainDeadline = Long.MAX_VALUE;
+    stopProgram(descriptor).whenComplete((results, throwable) -> finishDrain(descriptor));
+  }
+
+  private synchronized void finishDrain(ProgramDescriptor descriptor) {
+    Share.Program program = descriptor.program;
+    program.scaled = false;
+    program.getStart = false;
+    if (drainingGate == descriptor) {
+      drainingGate = null;
+    }
+    writeServerInfo();
+    listener.onMessage(String.format("已停止排空的%s。", descriptor.name));
+  }
+
+  /**
+   * 根据进程日志接管上一次启动、仍在运行的程序，避免重复启动后争抢端口。
+   * <p>
+   * 接管成功后由调用者进入运行状态，没有接管到的程序由运行检测按重启策略重新启动；
+   * 配置中已经禁用的程序直接结束。
+   *
+   * @return 接管到的程序数量。
+   */
+  private int reattach() {
+    List<PidJournal.Entry> entries = pidJournal.read();
+    if (entries.isEmpty()) {
+      return 0;
+    }
+    share.applyConfig();
+    Map<String, ProgramDescriptor> descriptors = Maps.newHashMap();
+    for (ProgramDescriptor descriptor : share.registry.all()) {
+      descriptors.put(descriptor.id, descriptor);
+    }
+    for (ProgramDescriptor slot : share.standbyPool.slots()) {
+      descriptors.put(slot.id, slot);
+    }
+    int count = 0;
+    for (PidJournal.Entry entry : entries) {
+      AttachedProcess process = AttachedProcess.attach(entry.pid, entry.startTime);
+      if (process == null) {
+        continue;
+      }
+      ProgramDescriptor descriptor = descriptors.get(entry.id);
+      if (descriptor != null && !descriptor.program.getStart
+          && descriptor.role == ProgramRole.RUN_GATE && share.config.runGate.scaleMax > 0) {
+        // 上一次由弹性伸缩启用的网关，继续由伸缩管理
+        descriptor.program.scaled = true;
+        descriptor.program.getStart = true;
+      }
+      if (descriptor == null || !descriptor.program.getStart) {
+        LOGGER.info(String.format("结束已经不再需要的程序 %s（进程号 %d）。", entry.id, entry.pid));
+        process.destroy();
+        continue;
+      }
+      Share.Program program = descriptor.program;
+      program.process = process;
+      program.processCode = entry.processCode;
+      program.ports = entry.ports;
+      program.lifecycle.moveTo(RUNNING);
+      program.restartPolicy.onLaunched(System.currentTimeMillis());
+      watchExit(program);
+      count++;
+      listener.onMessage(String.format("已接管%s（进程号 %d）。", descriptor.name, entry.pid));
+    }
+    if (count > 0) {
+      writeServerInfo();
+      listener.onMessage(String.format("已接管 %d 个运行中的程序，游戏服务器继续运行。", count));
+    }
+    return count;
+  }
+
+  /**
+   * 记录所有运行中程序的进程号，控制器重新打开时据此接管。
+   */
+  private void writePidJournal() {
+    List<ProgramDescriptor> descriptors = share.registry.all();
+    descriptors.addAll(share.standbyPool.slots());
+    List<PidJournal.Entry> entries = Lists.newArrayList();
+    for (ProgramDescriptor descriptor : descriptors) {
+      Share.Program program = descriptor.program;
+      Process process = program.process;
+      if (process == null || !process.isAlive()) {
+        continue;
+      }
+      long pid = ProcessSampler.pid(process);
+      if (pid > 0) {
+        entries.add(new PidJournal.Entry(descriptor.id, pid, AttachedProcess.startTime(pid),
+            program.processCode, program.ports));
+      }
+    }
+    pidJournal.write(entries);
+  }
+
+  /**
+   * 根据注册表中各个角色声明的依赖构建启动图。
+   * <p>
+   * 共用配置文件的网关依次生成配置并启动；登陆网关还需要满足启动模式的时间要求。
+   */
+  private StartupGraph buildStartupGraph() {
+    StartupGraph graph = new StartupGraph();
+    for (ProgramDescriptor descriptor : share.registry.all()) {
+      List<String> dependencies = Lists.newArrayList();
+      for (ProgramRole role : descriptor.role.dependencies()) {
+        for (ProgramDescriptor dependency : share.registry.byRole(role)) {
+          dependencies.add(dependency.id);
+        }
+      }
+      StartupGraph.Node node = graph.add(descriptor.id, descriptor.program, () -> {
+        generateProgramConfig(descriptor);
+        launch(descriptor);
+      }, dependencies.toArray(new String[0]));
+      if (descriptor.role.isSharedConfig()) {
+        node.exclusive(descriptor.role.id);
+      }
+      if (descriptor.role == ProgramRole.LOGIN_GATE) {
+        node.when(() -> isStartTimeReached(descriptor));
+      }
+    }
+    return graph;
+  }
+
+  /**
+   * 为共用配置文件的程序生成自己的配置，其他程序的配置在启动前已经统一生成。
+   */
+  private void generateProgramConfig(ProgramDescriptor descriptor) {
+    switch (descriptor.role) {
+      case RUN_GATE:
+        generateMultiRunGateConfig(descriptor.index);
+        break;
+      case SEL_GATE:
+        generateMultiSelGateConfig(descriptor.index);
+        break;
+      case LOGIN_GATE:
+        generateMultiLoginGateConfig(descriptor.index);
+        break;
+      default:
+        break;
+    }
+    trace(descriptor, Timeline.Phase.CONFIG);
+  }
+
+  /**
+   * 记录到正在进行的启动或者停止时间线中。
+   */
+  private void trace(ProgramDescriptor descriptor, Timeline.Phase phase) {
+    Timeline current = timeline;
+    if (current != null) {
+      current.record(descriptor.id, phase);
+    }
+  }
+
+  /**
+   * 结束时间线，导出并和之前的记录比较，总耗时明显变长时提示。
+   */
+  private void finishTimeline(Timeline.Kind kind) {
+    Timeline current = timeline;
+    if (current == null || current.kind() != kind) {
+      return;
+    }
+    timeline = null;
+    current.finish();
+    synchronized (timelines) {
+      timelines.addLast(current);
+      while (timelines.size() > TIMELINE_COUNT) {
+        timelines.removeFirst();
+      }
+    }
+    long baseline = timelineHistory.baseline(kind, REGRESSION_WINDOW);
+    Path path = timelineHistory.save(current);
+    long total = current.totalMillis();
+    if (baseline > 0 && total - baseline > REGRESSION_SLACK
+        && total * 100 > baseline * (100 + REGRESSION_PERCENT)) {
+      String message = String.format("%s耗时 %d ms，比最近 %d 次的中位数 %d ms 慢了 %d%%，请查看时间线：%s",
+          kind.displayName, total, REGRESSION_WINDOW, baseline, (total - baseline) * 100 / baseline,
+          path == null ? timelineHistory.directory() : path);
+      LOGGER.warn(message);
+      listener.onMessage(message);
+    }
+  }
+
+  /**
+   * 并行探测正在启动的程序，端口全部可以连接即视为启动成功，立即推进启动流程。
+   */
+  private void probeStartingPrograms() {
+    for (Share.Program program : share.programs()) {
+      if (!program.getStart || program.state() != STARTING
+          || program.ports.length == 0 || program.probing) {
+        continue;
+      }
+      program.probing = true;
+      share.readinessProbe.probeAll(program.probeHost, program.ports, share.probeTimeout)
+          .whenComplete((ready, throwable) -> {
+            program.probing = false;
+            if (Boolean.TRUE.equals(ready)
+                && program.lifecycle.compareAndSet(STARTING, RUNNING)) {
+              String message = String.format("%s 端口 %s 已就绪！",
+                  program.programFile, Arrays.toString(program.ports));
+              listener.onMessage(message);
+            }
+          });
+    }
+  }
+
+  /**
+   * 探测运行中程序的端口，用于发现进程仍然存活、但已经不再响应连接的程序。
+   */
+  private void probeRunningPrograms() {
+    for (Share.Program program : share.programs()) {
+      if (!program.getStart || program.state() != RUNNING
+          || program.ports.length == 0 || program.probing) {
+        continue;
+      }
+      program.probing = true;
+      share.readinessProbe.probeAll(program.probeHost, program.ports, share.probeTimeout)
+          .whenComplete((ready, throwable) -> {
+            program.probing = false;
+            if (Boolean.TRUE.equals(ready)) {
+              program.probeFailures = 0;
+              return;
+            }
+            program.probeFailures++;
+            if (program.probeFailures == PROBE_FAILURE_LIMIT) {
+              String message = String.format("%s 端口 %s 连续 %d 次无响应，程序可能已经卡死！",
+                  program.programFile, Arrays.toString(program.ports), PROBE_FAILURE_LIMIT);
+              listener.onMessage(message);
+            }
+          });
+    }
+  }
+
+  /**
+   * 是否已经到了开放时间。依赖就绪后等待开放时间的时长记录到时间线中，不计入启动耗时。
+   */
+  private boolean isStartTimeReached(ProgramDescriptor descriptor) {
+    long now = System.nanoTime();
+    if (clock.millis() >= openTime) {
+      if (openWaitTick != 0) {
+        Timeline current = timeline;
+        if (current != null) {
+          current.exclude(now - openWaitTick);
+        }
+        openWaitTick = 0;
+      }
+      return true;
+    }
+    if (openWaitTick == 0) {
+      openWaitTick = now;
+      trace(descriptor, Timeline.Phase.WAIT);
+    }
+    return false;
+  }
+
+  private void launch(ProgramDescriptor descriptor) {
+    Share.Program program = descriptor.program;
+    // 先进入启动状态再创建进程，否则进程立即退出时会被覆盖成正在启动
+    if (!program.lifecycle.moveTo(STARTING)) {
+      listener.onMessage(program.programFile + " 正在停止，暂不启动！");
+      return;
+    }
+    try {
+      program.disposable = program.start()
+          .subscribe(message -> handleProcessMessage(descriptor, message), throwable -> {
+            listener.onError("读取程序输出出错！", throwable);
+            program.lifecycle.moveTo(ERROR);
+          });
+      trace(descriptor, Timeline.Phase.SPAWNED);
+      watchExit(program);
+    } catch (Throwable e) {
+      // 包括类加载失败之类的错误，程序标记为出错，调用方的周期任务继续执行
+      LOGGER.error("启动程序出错！", e);
+      program.lifecycle.moveTo(ERROR);
+      listener.onError("启动程序出错！", e);
+    }
+  }
+
+  /**
+   * 有程序输出握手信息时立即推进启动流程，无需等待下一次定时检测。
+   */
+  private void wakeStartGame() {
+    StartGameTask task = startGameRunner;
+    if (lifecycle.state() == STARTING && task != null) {
+      share.supervisor.execute("start-game-wake", task);
+    }
+  }
+
+  /**
+   * 处理程序输出的一行，握手有进展时推进启动流程。
+   */
+  void handleProcessMessage(ProgramDescriptor descriptor, String message) {
+    if (dispatchProcessMessage(descriptor, message)) {
+      wakeStartGame();
+    }
+  }
+
+  /**
+   * 处理程序输出的一行。
+   * <p>
+   * 每个进程的输出由各自的线程读取，握手信息只属于输出它的程序：同一角色的多个实例同时重启时，
+   * 按角色分配握手信息会把一个实例的握手交给另一个实例，导致两者都停留在正在启动。
+   *
+   * @return 是否推进了握手。
+   */
+  private boolean dispatchProcessMessage(ProgramDescriptor descriptor, String message) {
+    String[] split = message.split(":", 2);
+    int code;
+    UUID processCode;
+    try {
+      code = Integer.parseInt(split[0].trim());
+      processCode = UUID.fromString(split[1].trim());
+    } catch (RuntimeException e) {
+      // 合并了标准错误输出，或者程序输出了普通日志
+      LOGGER.info("程序输出：" + message);
+      return false;
+    }
+    ProgramRole role = ProgramRole.of(code);
+    if (role != descriptor.role) {
+      LOGGER.warn(String.format("%s 输出了不属于它的程序代码：%s", descriptor.name, message));
+      return false;
+    }
+    Share.Program program = descriptor.program;
+    if (!program.getStart || program.state() != STARTING) {
+      return false;
+    }
+    if (program.processCode == null) {
+      program.processCode = processCode;
+      trace(descriptor, Timeline.Phase.HANDSHAKE);
+      listener.onMessage("正在启动" + descriptor.name + "...");
+      return true;
+    }
+    if (processCode.equals(program.processCode)
+        && program.lifecycle.compareAndSet(STARTING, RUNNING)) {
+      listener.onMessage("启动" + descriptor.name + "成功！");
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * 运行检测任务。
+   * <p>
+   * 由进程退出事件触发，只重启已经退出的程序；另外保留一个低频的定时检测作为兜底。
+   */
+  private final class CheckRunTask implements Runnable {
+    // 退出事件与兜底检测可能同时触发，必须串行执行，避免重复启动
+    @Override public synchronized void run() {
+      if (lifecycle.state() != RUNNING) {
+        return;
+      }
+      for (ProgramDescriptor descriptor : share.registry.all()) {
+        Share.Program program = descriptor.program;
+        if (program.maintenance) {
+          continue;
+        }
+        if (descriptor.role == ProgramRole.RUN_GATE && program.getStart && failover(descriptor)) {
+          continue;
+        }
+        if (program.getStart && shouldRestart(program)) {
+          generateProgramConfig(descriptor);
+          restart(descriptor, descriptor.name + "异常关闭，已被重新启动");
+        }
+      }
+    }
+
+    /**
+     * 游戏网关退出后优先接管一个就绪的备用网关，并在后台补充备用网关。
+     */
+    private boolean failover(ProgramDescriptor descriptor) {
+      Share.Program program = descriptor.program;
+      RestartPolicy policy = program.restartPolicy;
+      if ((program.process != null && program.process.isAlive()) || policy.isParked()
+          || policy.isPending() || share.standbyPool.readyCount() == 0) {
+        return false;
+      }
+      long detectTick = System.nanoTime();
+      // 切换同样计入失败次数，避免网关连续崩溃时把备用网关全部耗尽
+      if (policy.onFailure(System.currentTimeMillis(), program.lastExitCode) < 0) {
+        park(program);
+        return true;
+      }
+      if (!share.standbyPool.promote(program, exited -> onExit(program, exited))) {
+        return false;
+      }
+      policy.onLaunched(System.currentTimeMillis());
+      if (program.exitTick == 0) {
+        program.exitTick = detectTick;
+      }
+      program.detectTime = TimeUnit.NANOSECONDS.toMillis(detectTick - program.exitTick);
+      writeServerInfo();
+      program.restartTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - program.exitTick);
+      program.restartCount++;
+      program.exitTick = 0;
+      share.supervisor.execute("standby-refill", GameEngine.this::refillStandby);
+      String text = String.format(
+          "%s异常关闭，已切换到备用网关，端口 %d（退出码 %d，检测 %d ms，切换 %d ms）...",
+          descriptor.name, program.ports[0], program.lastExitCode, program.detectTime,
+          program.restartTime);
+      listener.onMessage(text);
+      return true;
+    }
+
+    /**
+     * 程序已经退出时，按照重启策略判断现在是否允许重启。
+     */
+    private boolean shouldRestart(Share.Program program) {
+      if (program.process != null && program.process.isAlive()) {
+        return false;
+      }
+      RestartPolicy policy = program.restartPolicy;
+      if (policy.isParked()) {
+        return false;
+      }
+      long now = System.currentTimeMillis();
+      if (!policy.isPending()) {
+        long delay = policy.onFailure(now, program.lastExitCode);
+        if (delay < 0) {
+          park(program);
+          return false;
+        }
+        if (delay > 0) {
+          share.supervisor.schedule("check-run-backoff", this, delay);
+          return false;
+        }
+      }
+      return policy.canRestart(now);
+    }
+
+    private void park(Share.Program program) {
+      int exitCode = program.restartPolicy.lastExitCode();
+      String text = String.format("%s 短时间内连续崩溃，已暂停自动重启（最后退出码 %d）！",
+          program.programFile, exitCode);
+      listener.onMessage(text);
+      listener.onParked(program, exitCode);
+    }
+
+    private void restart(ProgramDescriptor descriptor, String message) {
+      Share.Program program = descriptor.program;
+      if (descriptor.role == ProgramRole.RUN_GATE) {
+        int port = share.config.runGate.gatePort[descriptor.index];
+        if (program.ports.length == 0 || program.ports[0] != port) {
+          program.ports = new int[]{port};
+          writeServerInfo();
+        }
+      }
+      long detectTick = System.nanoTime();
+      if (program.exitTick == 0) {
+        // 没有收到退出事件，由兜底检测发现
+        program.exitTick = detectTick;
+      }
+      program.detectTime = TimeUnit.NANOSECONDS.toMillis(detectTick - program.exitTick);
+      program.processCode = null;
+      launch(descriptor);
+      program.restartPolicy.onLaunched(System.currentTimeMillis());
+      program.restartTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - program.exitTick);
+      program.restartCount++;
+      program.exitTick = 0;
+      String text = String.format("%s（退出码 %d，检测 %d ms，重启 %d ms，创建进程 %d μs）...",
+          message, program.lastExitCode, program.detectTime, program.restartTime,
+          program.spawnTime);
+      listener.onMessage(text);
+    }
+  }
+
+  /**
+   * 采样所有运行中程序的资源占用，通过监听器报告，并提示内存持续增长和 CPU 饱和的程序。
+   */
+  private void sampleResources() {
+    StringBuilder builder = new StringBuilder();
+    for (ProgramDescriptor descriptor : share.registry.all()) {
+      Share.Program program = descriptor.program;
+      Process process = program.process;
+      ProcessSampler.Sample sample = ProcessSampler.sample(process);
+      if (sample == null) {
+        continue;
+      }
+      ResourceStats stats = program.resources;
+      stats.record(process, sample);
+      if (stats.isCpuSaturated(CPU_SATURATION) && !stats.cpuWarned) {
+        stats.cpuWarned = true;
+        String message = String.format("%s CPU 使用率持续超过 %d%%，可能已经饱和！",
+            descriptor.name, CPU_SATURATION / 10);
+        listener.onMessage(message);
+      }
+      if (stats.isMemoryGrowing(MEMORY_GROWTH) && !stats.memoryWarned) {
+        stats.memoryWarned = true;
+        String message = String.format("%s 内存在 %d 分钟内持续增长 %s，疑似内存泄漏！",
+            descriptor.name,
+            TimeUnit.MILLISECONDS.toMinutes(RESOURCE_SAMPLE_PERIOD * stats.rss.capacity()),
+            formatMemory(stats.rss.latest(0) - stats.rss.get(0)));
+        listener.onMessage(message);
+      }
+      long cpu = stats.cpu.latest(-1);
+      builder.append(String.format("%-16s CPU %6s  内存 %9s  线程 %4s  文件 %5s%n",
+          descriptor.name,
+          cpu < 0 ? "-" : String.format("%.1f%%", cpu / 10.0),
+          formatMemory(stats.rss.latest(-1)),
+          formatCount(stats.threads.latest(-1)),
+          formatCount(stats.files.latest(-1))));
+    }
+    for (ControlGroup group : share.controlGroups.values()) {
+      ControlGroup.Pressure pressure = group.pressure();
+      if (pressure == null) {
+        continue;
+      }
+      builder.append(String.format("%-16s 压力 CPU %s  内存 %s  IO %s%n", "cgroup " + group.name,
+          formatPressure(pressure.cpu), formatPressure(pressure.memory),
+          formatPressure(pressure.io)));
+      if (pressure.max() >= PRESSURE_WARNING && !group.pressureWarned) {
+        group.pressureWarned = true;
+        String message = String.format("控制组 %s 资源紧张：CPU %s，内存 %s，IO %s 的时间在等待资源！",
+            group.name, formatPressure(pressure.cpu), formatPressure(pressure.memory),
+            formatPressure(pressure.io));
+        listener.onMessage(message);
+      } else if (pressure.max() < PRESSURE_WARNING / 2) {
+        group.pressureWarned = false;
+      }
+    }
+    listener.onResources(builder.toString());
+  }
+
+  private static String formatMemory(long kilobytes) {
+    return kilobytes < 0 ? "-" : String.format("%.1f MB", kilobytes / 1024.0);
+  }
+
+  private static String formatPressure(double percent) {
+    return percent < 0 ? "-" : String.format("%.1f%%", percent);
+  }
+
+  private static String formatCount(long count) {
+    return count < 0 ? "-" : String.valueOf(count);
+  }
+
+  /**
+   * 补充备用网关：每次只启动一个，并且等其他游戏网关读取完共用的配置文件后再生成配置。
+   */
+  private void refillStandby() {
+    if (lifecycle.state() != RUNNING) {
+      return;
+    }
+    Set<Integer> usedPorts = Sets.newHashSet();
+    for (ProgramDescriptor descriptor : share.registry.byRole(ProgramRole.RUN_GATE)) {
+      Share.Program program = descriptor.program;
+      if (program.state() == STARTING && program.processCode == null) {
+        return;
+      }
+      if (program.getStart) {
+        usedPorts.add(share.config.runGate.gatePort[descriptor.index]);
+        for (int port : program.ports) {
+          usedPorts.add(port);
+        }
+      }
+    }
+    ProgramDescriptor slot = share.standbyPool.nextToLaunch(usedPorts);
+    if (slot == null) {
+      return;
+    }
+    generateRunGatePortConfig(slot.name, slot.program.ports[0]);
+    launch(slot);
+  }
+
+  /**
+   * 监听进程退出事件，程序异常退出后立即触发运行检测。
+   */
+  private void watchExit(Share.Program program) {
+    Process process = program.process;
+    if (process == null) {
+      return;
+    }
+    Processes.onExit(process).thenAccept(exited -> onExit(program, exited));
+  }
+
+  private void onExit(Share.Program program, Process exited) {
+    Process current = program.process;
+    if (current != null && current != exited && current.isAlive()) {
+      // 已经被新进程替换
+      return;
+    }
+    program.exitTick = System.nanoTime();
+    program.lastExitCode = exited.exitValue();
+    CheckRunTask task = checkRunRunner;
+    if (lifecycle.state() == RUNNING && task != null) {
+      share.supervisor.execute("check-run-exit", task);
+    }
+  }
+
+  /**
+   * 按角色的停止顺序分层：先关闭登陆网关阻止新玩家进入，再并行关闭角色网关和游戏网关，
+   * 网关全部关闭后延时关闭游戏引擎，等待引擎保存数据后再关闭登陆、日志服务器和排行榜插件，
+   * 最后关闭数据库服务器。
+   */
+  private List<ShutdownEngine.Tier> buildShutdownTiers() {
+    Map<Integer, ShutdownEngine.Tier> tiers = Maps.newTreeMap();
+    for (ProgramDescriptor descriptor : share.registry.all()) {
+      ProgramRole role = descriptor.role;
+      tiers.computeIfAbsent(role.stopOrder, order -> new ShutdownEngine.Tier(role.displayName,
+          role == ProgramRole.M2_SERVER ? GATE_STOP_DELAY : 0))
+          .add(descriptor.name, descriptor.program);
+    }
+    for (ProgramDescriptor slot : share.standbyPool.slots()) {
+      tiers.get(slot.role.stopOrder).add(slot.name, slot.program);
+    }
+    return Lists.newArrayList(tiers.values());
+  }
+
+  private void onProgramStopped(ShutdownEngine.Result result) {
+    String message;
+    switch (result.stage) {
+      case NOT_RUNNING:
+        message = result.target.name + "已停止...";
+        break;
+      case QUIT:
+        message = String.format("%s已停止，耗时 %d ms...", result.target.name, result.elapsed);
+        break;
+      case FAILED:
+        message = String.format("%s没有停止，等待 %d ms 后放弃！", result.target.name, result.elapsed);
+        break;
+      default:
+        message = String.format("正常关闭超时，%s已被%s，耗时 %d ms...",
+            result.target.name, result.stage, result.elapsed);
+        break;
+    }
+    listener.onMessage(message);
+  }
+
+  private void onGameStopped(List<ShutdownEngine.Result> results, Throwable throwable) {
+    if (throwable != null) {
+      LOGGER.info("停止流程已中止：" + throwable.getMessage());
+      return;
+    }
+    long slowest = 0;
+    int failed = 0;
+    for (ShutdownEngine.Result result : results) {
+      slowest = Math.max(slowest, result.elapsed);
+      failed += result.stage == ShutdownEngine.Stage.FAILED ? 1 : 0;
+    }
+    String message = String.format("所有程序停止完毕！总耗时 %d ms，最慢程序 %d ms。",
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - stopTick), slowest);
+    if (failed > 0) {
+      message += String.format("其中 %d 个程序无法结束，请手动检查进程！", failed);
+    }
+    listener.onMessage(message);
+    shutdownEngine = null;
+    finishTimeline(Timeline.Kind.STOP);
+    lifecycle.moveTo(STOPPED);
+  }
+
+  /**
+   * 维护操作。
+   */
+  public enum Maintenance {
+    START("start"),
+    STOP("stop"),
+    /** 停止后重新启动。 */
+    RESTART("restart"),
+    /** 停止、立即备份数据，然后重新启动。 */
+    BACKUP_RESTART("backup-restart"),
+    /** 滚动重启网关，游戏不需要停止。 */
+    ROLLING_RESTART("rolling-restart"),
+    /** 立即备份数据，不停止游戏。 */
+    BACKUP("backup"),
+    ;
+
+    public final String id;
+
+    Maintenance(String id) {
+      this.id = id;
+    }
+
+    public static Maintenance of(String id) {
+      for (Maintenance action : values()) {
+        if (action.id.equalsIgnoreCase(id)) {
+          return action;
+        }
+      }
+      throw new IllegalArgumentException("未知的维护操作：" + id);
+    }
+  }
+
+  /**
+   * 运行信息同时转发给连接到本机代理的控制台。
+   * <p>
+   * 程序输出经由输出泵的线程回调到这里，转发给控制台时只放入队列，不会阻塞。
+   */
+  private final class ForwardingListener implements Listener {
+    private final Listener delegate;
+
+    ForwardingListener(Listener delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override public void onMessage(String message) {
+      delegate.onMessage(message);
+      AgentServer server = agentServer;
+      if (server != null) {
+        server.message(message);
+      }
+    }
+
+    @Override public void onError(String message, Throwable throwable) {
+      delegate.onError(message, throwable);
+      AgentServer server = agentServer;
+      if (server != null) {
+        server.message(message + "：" + throwable);
+      }
+    }
+
+    @Override public void onStateChanged(Lifecycle.State state) {
+      delegate.onStateChanged(state);
+    }
+
+    @Override public void onParked(Share.Program program, int exitCode) {
+      delegate.onParked(program, exitCode);
+    }
+
+    @Override public void onBackupChanged(boolean running) {
+      delegate.onBackupChanged(running);
+    }
+
+    @Override public void onResources(String report) {
+      delegate.onResources(report);
+    }
+  }
+
+  /**
+   * 远程节点的连接变化和引擎消息显示在本机，程序输出写入日志。
+   */
+  private final class AgentListener implements AgentClient.Listener {
+    @Override public void onConnected(AgentClient client) {
+      listener.onMessage(String.format("已连接远程节点 %s（%s）", client, client.gameName()));
+    }
+
+    @Override public void onDisconnected(AgentClient client, String reason) {
+      listener.onMessage(String.format("与远程节点 %s 的连接已断开：%s", client, reason));
+    }
+
+    @Override public void onLogs(AgentClient client, List<AgentProtocol.LogLine> lines) {
+      for (AgentProtocol.LogLine line : lines) {
+        if (line.source.isEmpty()) {
+          listener.onMessage(String.format("[%s] %s", client.name, line.text));
+        } else {
+          LOGGER.info(String.format("[%s] %s 输出：%s", client.name, line.source, line.text));
+        }
+      }
+    }
+  }
+
+  /**
+   * 引擎事件，可能在任意线程中回调。
+   */
+  public interface Listener {
+    /**
+     * 运行信息，图形界面显示在控制台中，守护进程写入日志。
+     */
+    void onMessage(String message);
+
+    default void onError(String message, Throwable throwable) {
+      LOGGER.error(message, throwable);
+    }
+
+    /**
+     * 游戏状态或者滚动重启状态发生变化。
+     */
+    default void onStateChanged(Lifecycle.State state) {
+    }
+
+    /**
+     * 程序短时间内连续崩溃，已暂停自动重启。
+     */
+    default void onParked(Share.Program program, int exitCode) {
+    }
+
+    /**
+     * 数据备份启动或者停止。
+     */
+    default void onBackupChanged(boolean running) {
+    }
+
+    /**
+     * 资源占用报告，每行一个程序。
+     */
+    default void onResources(String report) {
+    }
+  }
+}
@@ -0,0 +1,168 @@
+package randall.gamecenter;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Maps;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 游戏网关弹性伸缩。
+ * <p>
+ * 按固定间隔汇总运行中游戏网关的负载：在 Linux 上读取 /proc/net/tcp 和 /proc/net/tcp6，统计网关端口上
+ * 已经建立的连接数；读取不到时改用 CPU 使用率。平均负载连续几次达到上限时启用一个配置中没有启用的网关；
+ * 连续几次不超过下限、并且少一个网关后平均负载仍然低于上限时，排空一个由伸缩启用的网关。每次调整后冷却
+ * 一段时间，避免来回抖动。
+ * <p>
+ * 这里只做判断，启用、排空和停止网关由游戏引擎完成。
+ *
+ * @author mrzhqiang
+ */
+public final class GateScaler {
+  private static final Path[] TCP_TABLES =
+      {Paths.get("/proc/net/tcp"), Paths.get("/proc/net/tcp6")};
+  /** /proc/net/tcp 中 ESTABLISHED 状态的编码。 */
+  private static final String ESTABLISHED = "01";
+
+  public final int min;
+  public final int max;
+  public final Metric metric;
+  /** 平均负载的上限和下限，连接数或者 CPU 千分比。 */
+  public final long upThreshold;
+  public final long downThreshold;
+  /** 连续满足条件的次数。 */
+  public final int samples;
+  /** 两次调整之间的最短间隔，单位：毫秒。 */
+  public final long cooldown;
+
+  private int upStreak;
+  private int downStreak;
+  private long lastAction = Long.MIN_VALUE / 2;
+
+  /**
+   * @param min 游戏网关的最少数量，配置中启用的网关不会被停止，实际数量不会低于启用的数量。
+   * @param max 游戏网关的最多数量。
+   */
+  public GateScaler(int min, int max, Metric metric, long upThreshold, long downThreshold,
+      int samples, long cooldown) {
+    Preconditions.checkArgument(0 <= min && min <= max, "invalid range: %s-%s", min, max);
+    Preconditions.checkArgument(downThreshold < upThreshold, "downThreshold >= upThreshold");
+    Preconditions.checkArgument(samples > 0, "samples <= 0");
+    this.min = min;
+    this.max = max;
+    this.metric = Preconditions.checkNotNull(metric, "metric == null");
+    this.upThreshold = upThreshold;
+    this.downThreshold = downThreshold;
+    this.samples = samples;
+    this.cooldown = cooldown;
+  }
+
+  /**
+   * 根据一次测量判断是否需要调整，返回扩容或者缩容时开始冷却。
+   *
+   * @param active    已经启用的游戏网关数量，包括异常退出、正在等待重启的网关。
+   * @param totalLoad 运行中的游戏网关的负载总和。
+   * @param now       当前时刻，单位：毫秒。
+   */
+  public synchronized Action evaluate(int active, long totalLoad, long now) {
+    if (active < min || active > max) {
+      // 超出范围时不需要连续确认，但同样受冷却时间限制
+      return act(active < min ? Action.SCALE_UP : Action.SCALE_DOWN, now);
+    }
+    if (now - lastAction < cooldown) {
+      upStreak = 0;
+      downStreak = 0;
+      return Action.NONE;
+    }
+    if (active < max && (active == 0 || totalLoad >= upThreshold * active)) {
+      downStreak = 0;
+      if (++upStreak >= samples) {
+        return act(Action.SCALE_UP, now);
+      }
+    } else if (active > min && totalLoad <= downThreshold * active
+        && totalLoad < upThreshold * (active - 1)) {
+      upStreak = 0;
+      if (++downStreak >= samples) {
+        return act(Action.SCALE_DOWN, now);
+      }
+    } else {
+      upStreak = 0;
+      downStreak = 0;
+    }
+    return Action.NONE;
+  }
+
+  private Action act(Action action, long now) {
+    upStreak = 0;
+    downStreak = 0;
+    if (now - lastAction < cooldown) {
+      return Action.NONE;
+    }
+    lastAction = now;
+    return action;
+  }
+
+  /**
+   * 每个本地端口上已经建立的 TCP 连接数，读取不到 /proc/net/tcp 时返回 null。
+   */
+  public static Map<Integer, Integer> readEstablished() {
+    Map<Integer, Integer> counts = null;
+    for (Path table : TCP_TABLES) {
+      if (Files.notExists(table)) {
+        continue;
+      }
+      try {
+        List<String> lines = Files.readAllLines(table, StandardCharsets.US_ASCII);
+        if (counts == null) {
+          counts = Maps.newHashMap();
+        }
+        countEstablished(lines, counts);
+      } catch (IOException | SecurityException ignore) {
+        // 没有权限时当作读取不到
+      }
+    }
+    return counts;
+  }
+
+  /**
+   * 解析 /proc/net/tcp 格式的内容，按本地端口累加 ESTABLISHED 状态的连接数。
+   */
+  static void countEstablished(List<String> lines, Map<Integer, Integer> counts) {
+    Splitter splitter = Splitter.on(' ').omitEmptyStrings();
+    for (String line : lines) {
+      // sl local_address rem_address st ...，本地地址的格式为 0100007F:1C20
+      List<String> fields = splitter.limit(5).splitToList(line);
+      if (fields.size() < 4 || !ESTABLISHED.equals(fields.get(3))) {
+        continue;
+      }
+      String local = fields.get(1);
+      try {
+        int port = Integer.parseInt(local.substring(local.lastIndexOf(':') + 1), 16);
+        counts.merge(port, 1, Integer::sum);
+      } catch (NumberFormatException ignore) {
+        // 标题行或者格式不符
+      }
+    }
+  }
+
+  /**
+   * 衡量网关负载的方式。
+   */
+  public enum Metric {
+    /** 网关端口上已经建立的连接数。 */
+    CONNECTIONS,
+    /** CPU 使用率，千分比，1000 表示占满一个核心。 */
+    CPU,
+  }
+
+  public enum Action {
+    NONE,
+    SCALE_UP,
+    SCALE_DOWN,
+  }
+}
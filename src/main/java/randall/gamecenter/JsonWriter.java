@@ -0,0 +1,150 @@
+package randall.gamecenter;
+
+import com.google.common.base.Preconditions;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * 简单的 JSON 输出工具。
+ * <p>
+ * 只支持控制接口需要的对象、数组、字符串、数字和布尔值，按调用顺序直接拼接，不做缩进。
+ *
+ * @author mrzhqiang
+ */
+public final class JsonWriter {
+  private final StringBuilder builder = new StringBuilder();
+  /** 每一层对象或数组是否已经写入过元素。 */
+  private final Deque<Boolean> scopes = new ArrayDeque<>();
+  private boolean afterName;
+
+  public JsonWriter beginObject() {
+    open('{');
+    return this;
+  }
+
+  public JsonWriter endObject() {
+    close('}');
+    return this;
+  }
+
+  public JsonWriter beginArray() {
+    open('[');
+    return this;
+  }
+
+  public JsonWriter endArray() {
+    close(']');
+    return this;
+  }
+
+  public JsonWriter name(String name) {
+    Preconditions.checkState(!afterName, "name already written");
+    separate();
+    quote(name);
+    builder.append(':');
+    afterName = true;
+    return this;
+  }
+
+  public JsonWriter value(String value) {
+    separate();
+    if (value == null) {
+      builder.append("null");
+    } else {
+      quote(value);
+    }
+    return this;
+  }
+
+  public JsonWriter value(long value) {
+    separate();
+    builder.append(value);
+    return this;
+  }
+
+  public JsonWriter value(double value) {
+    separate();
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      builder.append("null");
+    } else {
+      builder.append(value);
+    }
+    return this;
+  }
+
+  public JsonWriter value(boolean value) {
+    separate();
+    builder.append(value);
+    return this;
+  }
+
+  public JsonWriter value(int[] values) {
+    beginArray();
+    for (int value : values) {
+      value(value);
+    }
+    return endArray();
+  }
+
+  private void open(char bracket) {
+    separate();
+    builder.append(bracket);
+    scopes.push(false);
+  }
+
+  private void close(char bracket) {
+    Preconditions.checkState(!scopes.isEmpty() && !afterName, "unexpected %s", bracket);
+    scopes.pop();
+    builder.append(bracket);
+  }
+
+  private void separate() {
+    if (afterName) {
+      afterName = false;
+      return;
+    }
+    if (!scopes.isEmpty()) {
+      if (scopes.pop()) {
+        builder.append(',');
+      }
+      scopes.push(true);
+    }
+  }
+
+  private void quote(String text) {
+    builder.append('"');
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      switch (c) {
+        case '"':
+          builder.append("\\\"");
+          break;
+        case '\\':
+          builder.append("\\\\");
+          break;
+        case '\n':
+          builder.append("\\n");
+          break;
+        case '\r':
+          builder.append("\\r");
+          break;
+        case '\t':
+          builder.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            builder.append(String.format("\\u%04x", (int) c));
+          } else {
+            builder.append(c);
+          }
+          break;
+      }
+    }
+    builder.append('"');
+  }
+
+  @Override public String toString() {
+    Preconditions.checkState(scopes.isEmpty(), "unclosed scope");
+    return builder.toString();
+  }
+}
@@ -0,0 +1,178 @@
+package randall.gamecenter;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import randall.common.util.IOHelper;
+
+/**
+ * 启动参数。
+ * <p>
+ * 使用 {@link ProcessBuilder} 以参数数组的形式启动程序，显式指定工作目录和环境变量，
+ * 并且必须处理标准错误输出：子进程的输出管道写满后会被阻塞，表现为程序卡死。
+ *
+ * @author mrzhqiang
+ */
+public final class LaunchSpec {
+  private static final Logger LOGGER = LoggerFactory.getLogger("randall");
+
+  private final List<String> command = Lists.newArrayList();
+  private final Map<String, String> environment = Maps.newLinkedHashMap();
+  private Path directory;
+  private ErrorOutput errorOutput = ErrorOutput.PUMP;
+  private Path errorFile;
+  private Placement placement = Placement.NONE;
+  private ControlGroup controlGroup;
+
+  public LaunchSpec(String program, Object... arguments) {
+    Preconditions.checkNotNull(program, "program == null");
+    command.add(program);
+    for (Object argument : arguments) {
+      command.add(String.valueOf(argument));
+    }
+  }
+
+  /**
+   * 工作目录，程序按相对路径读取的配置文件都以此为准。
+   */
+  public LaunchSpec directory(Path directory) {
+    this.directory = directory;
+    return this;
+  }
+
+  public LaunchSpec environment(String name, String value) {
+    environment.put(name, value);
+    return this;
+  }
+
+  public LaunchSpec environment(Map<String, String> environment) {
+    this.environment.putAll(environment);
+    return this;
+  }
+
+  /**
+   * 标准错误输出的处理方式；使用 {@link ErrorOutput#FILE} 时输出追加到指定文件。
+   */
+  public LaunchSpec errorOutput(ErrorOutput errorOutput, Path errorFile) {
+    this.errorOutput = Preconditions.checkNotNull(errorOutput, "errorOutput == null");
+    Preconditions.checkArgument(errorOutput != ErrorOutput.FILE || errorFile != null,
+        "errorFile == null");
+    this.errorFile = errorFile;
+    return this;
+  }
+
+  /**
+   * 进程放置策略：CPU 亲和性、调度优先级和 IO 优先级。
+   */
+  public LaunchSpec placement(Placement placement) {
+    this.placement = Preconditions.checkNotNull(placement, "placement == null");
+    return this;
+  }
+
+  /**
+   * 资源限制，为 null 表示不限制。
+   */
+  public LaunchSpec controlGroup(ControlGroup controlGroup) {
+    this.controlGroup = controlGroup;
+    return this;
+  }
+
+  public List<String> command() {
+    return Collections.unmodifiableList(command);
+  }
+
+  public Path directory() {
+    return directory;
+  }
+
+  public ErrorOutput errorOutput() {
+    return errorOutput;
+  }
+
+  /**
+   * 启动程序。
+   *
+   * @return 已启动的进程以及创建进程的耗时。
+   */
+  public Launched start() throws IOException {
+    List<String> wrapped = placement.wrap(command);
+    if (controlGroup != null) {
+      wrapped = controlGroup.wrap(wrapped);
+    }
+    ProcessBuilder builder = new ProcessBuilder(wrapped);
+    if (directory != null) {
+      builder.directory(directory.toFile());
+    }
+    builder.environment().putAll(environment);
+    switch (errorOutput) {
+      case MERGE:
+        builder.redirectErrorStream(true);
+        break;
+      case FILE:
+        IOHelper.mkdir(errorFile.getParent());
+        builder.redirectError(ProcessBuilder.Redirect.appendTo(errorFile.toFile()));
+        break;
+      case DISCARD:
+        builder.redirectError(ProcessBuilder.Redirect.to(nullFile()));
+        break;
+      default:
+        break;
+    }
+    long startTick = System.nanoTime();
+    Process process = builder.start();
+    long spawnTime = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTick);
+    placement.apply(process);
+    if (errorOutput == ErrorOutput.PUMP) {
+      String name = new File(command.get(0)).getName();
+      Processes.pump(process, process.getErrorStream(),
+          line -> LOGGER.warn("[" + name + "] " + line));
+    }
+    return new Launched(process, spawnTime);
+  }
+
+  @Override public String toString() {
+    String text = String.join(" ", command);
+    if (!placement.isEmpty()) {
+      text += " [" + placement + "]";
+    }
+    if (controlGroup != null && controlGroup.path() != null) {
+      text += " [cgroup " + controlGroup + "]";
+    }
+    return text;
+  }
+
+  private static File nullFile() {
+    return new File(Processes.isWindows() ? "NUL" : "/dev/null");
+  }
+
+  public enum ErrorOutput {
+    /** 由后台线程读取并写入日志。 */
+    PUMP,
+    /** 合并到标准输出，与握手信息一起读取。 */
+    MERGE,
+    /** 追加到文件。 */
+    FILE,
+    /** 丢弃。 */
+    DISCARD,
+  }
+
+  public static final class Launched {
+    public final Process process;
+    /** 从调用到进程创建完成的耗时，单位：微秒。 */
+    public final long spawnTime;
+
+    Launched(Process process, long spawnTime) {
+      this.process = process;
+      this.spawnTime = spawnTime;
+    }
+  }
+}
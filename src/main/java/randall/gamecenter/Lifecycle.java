@@ -0,0 +1,178 @@
+package randall.gamecenter;
+
+import com.google.common.base.Preconditions;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 生命周期状态机。
+ * <p>
+ * 每个受控程序和整个游戏各有一个。状态保存在不可变的 {@link Snapshot} 中，通过比较并交换原子地切换，
+ * 读取时不需要加锁；只允许 {@link State#canMoveTo(State)} 中声明的转换，非法的转换被拒绝并记录警告。
+ * 转换成功后在执行转换的线程上依次通知监听器。
+ *
+ * @author mrzhqiang
+ */
+public final class Lifecycle {
+  private static final Logger LOGGER = LoggerFactory.getLogger("randall");
+
+  /** 所属的对象，通过 toString 得到日志中使用的名称。 */
+  private final Object owner;
+  private final AtomicReference<Snapshot> current;
+  private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+  public Lifecycle(Object owner) {
+    this.owner = Preconditions.checkNotNull(owner, "owner == null");
+    this.current = new AtomicReference<>(new Snapshot(State.STOPPED, System.nanoTime(), 0));
+  }
+
+  public String name() {
+    return String.valueOf(owner);
+  }
+
+  public State state() {
+    return current.get().state;
+  }
+
+  public Snapshot snapshot() {
+    return current.get();
+  }
+
+  /**
+   * 当前状态为 expect 时切换到 update。
+   *
+   * @return 当前状态不是 expect，或者转换不被允许时返回 false；两者相同时直接返回 true，不通知监听器。
+   */
+  public boolean compareAndSet(State expect, State update) {
+    Snapshot snapshot = current.get();
+    if (snapshot.state != expect) {
+      return false;
+    }
+    if (expect == update) {
+      return true;
+    }
+    if (!expect.canMoveTo(update)) {
+      LOGGER.warn(String.format("%s 拒绝非法的状态转换：%s -> %s", name(), expect, update));
+      return false;
+    }
+    Snapshot next = new Snapshot(update, System.nanoTime(), snapshot.version + 1);
+    if (!current.compareAndSet(snapshot, next)) {
+      return false;
+    }
+    notifyListeners(expect, update);
+    return true;
+  }
+
+  /**
+   * 从任意状态切换到 update。
+   *
+   * @return 转换不被允许时返回 false；已经处于 update 时直接返回 true，不通知监听器。
+   */
+  public boolean moveTo(State update) {
+    while (true) {
+      State expect = current.get().state;
+      if (expect == update) {
+        return true;
+      }
+      if (!expect.canMoveTo(update)) {
+        LOGGER.warn(String.format("%s 拒绝非法的状态转换：%s -> %s", name(), expect, update));
+        return false;
+      }
+      if (compareAndSet(expect, update)) {
+        return true;
+      }
+    }
+  }
+
+  public void addListener(Listener listener) {
+    listeners.add(Preconditions.checkNotNull(listener, "listener == null"));
+  }
+
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
+  }
+
+  private void notifyListeners(State from, State to) {
+    for (Listener listener : listeners) {
+      try {
+        listener.onTransition(this, from, to);
+      } catch (RuntimeException e) {
+        LOGGER.error(String.format("%s 状态监听器出错：%s -> %s", name(), from, to), e);
+      }
+    }
+  }
+
+  @Override public String toString() {
+    return name() + "[" + state() + "]";
+  }
+
+  public enum State {
+    STOPPED(0, "stopped"),
+    STARTING(1, "starting"),
+    RUNNING(2, "running"),
+    STOPPING(3, "stopping"),
+    ERROR(9, "error"),
+    ;
+
+    /** 与旧版本的状态代码保持一致。 */
+    public final int code;
+    public final String id;
+
+    State(int code, String id) {
+      this.code = code;
+      this.id = id;
+    }
+
+    /**
+     * 是否允许切换到目标状态。
+     * <p>
+     * 正在停止时不能重新启动，必须等进程退出回到已停止，或者中止停止流程回到运行中；
+     * 已经停止的不需要再停止。其余转换都允许，例如进程退出后从运行中回到已停止，
+     * 备用网关接管后直接进入运行中。
+     */
+    public boolean canMoveTo(State target) {
+      if (target == this) {
+        return false;
+      }
+      switch (this) {
+        case STOPPED:
+          return target != STOPPING;
+        case STOPPING:
+          return target != STARTING;
+        default:
+          return true;
+      }
+    }
+
+    @Override public String toString() {
+      return id;
+    }
+  }
+
+  /**
+   * 某一时刻的状态，不可变。
+   */
+  public static final class Snapshot {
+    public final State state;
+    /** 进入这个状态的时刻，System.nanoTime()。 */
+    public final long since;
+    /** 每次转换加一，用于判断两次读取之间是否发生过转换。 */
+    public final long version;
+
+    Snapshot(State state, long since, long version) {
+      this.state = state;
+      this.since = since;
+      this.version = version;
+    }
+  }
+
+  public interface Listener {
+    /**
+     * 状态转换成功后回调，在执行转换的线程上执行，不应阻塞。
+     */
+    void onTransition(Lifecycle lifecycle, State from, State to);
+  }
+}
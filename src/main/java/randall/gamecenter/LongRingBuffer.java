@@ -0,0 +1,74 @@
+package randall.gamecenter;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * 定长环形缓冲区。
+ * <p>
+ * 使用 long 数组保存最近的采样值，写满后覆盖最旧的数据，采样过程中不产生装箱对象。
+ * 由采样线程写入，界面线程读取，所有方法都做了同步。
+ *
+ * @author mrzhqiang
+ */
+public final class LongRingBuffer {
+  private final long[] values;
+  private int head;
+  private int size;
+
+  public LongRingBuffer(int capacity) {
+    Preconditions.checkArgument(capacity > 0, "capacity <= 0");
+    values = new long[capacity];
+  }
+
+  public synchronized void add(long value) {
+    values[head] = value;
+    head = (head + 1) % values.length;
+    if (size < values.length) {
+      size++;
+    }
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+
+  public int capacity() {
+    return values.length;
+  }
+
+  public synchronized boolean isFull() {
+    return size == values.length;
+  }
+
+  /**
+   * 按时间顺序取值，0 为最旧的一个。
+   */
+  public synchronized long get(int index) {
+    Preconditions.checkElementIndex(index, size);
+    int start = (head - size + values.length) % values.length;
+    return values[(start + index) % values.length];
+  }
+
+  /**
+   * 最新的一个值，没有数据时返回 defaultValue。
+   */
+  public synchronized long latest(long defaultValue) {
+    return size == 0 ? defaultValue : values[(head - 1 + values.length) % values.length];
+  }
+
+  public synchronized long average() {
+    if (size == 0) {
+      return 0;
+    }
+    long sum = 0;
+    for (int i = 0; i < size; i++) {
+      sum += get(i);
+    }
+    return sum / size;
+  }
+
+  public synchronized void clear() {
+    head = 0;
+    size = 0;
+  }
+}
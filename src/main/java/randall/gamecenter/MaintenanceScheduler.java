@@ -0,0 +1,280 @@
+package randall.gamecenter;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 维护计划。
+ * <p>
+ * 按计划任务表达式周期执行每日重启、每周停服备份、每小时滚动重启网关等维护操作。所有计划按下一次执行时间
+ * 放在优先队列中，监管调度器上只保留一个定时任务等待队首，新增或者执行一个计划的代价为 O(log n)，
+ * 几百个计划也只占用一个定时任务。
+ * <p>
+ * 等待时间不超过一分钟，系统时间被调整后最迟一分钟内重新对齐。醒来时已经超过宽限时间的计划视为错过，
+ * 按各自的策略跳过或者补执行一次；每个计划最后一次执行的时间写入状态文件，控制器关闭期间错过的计划
+ * 在下次打开时同样按策略处理。
+ *
+ * @author mrzhqiang
+ */
+public final class MaintenanceScheduler implements AutoCloseable {
+  private static final Logger LOGGER = LoggerFactory.getLogger("randall");
+
+  /** 醒来时允许的延迟，超过视为错过，单位：毫秒。 */
+  static final long GRACE = 60000;
+  /** 最长等待时间，单位：毫秒。 */
+  static final long MAX_SLEEP = 60000;
+
+  private final Supervisor supervisor;
+  private final Clock clock;
+  /** 最后执行时间的状态文件，为 null 表示不记录。 */
+  private final Path statePath;
+  private final Map<String, Long> lastRuns;
+  private final Map<String, Entry> entries = Maps.newLinkedHashMap();
+  private final PriorityQueue<Entry> queue =
+      new PriorityQueue<>(Comparator.comparingLong(entry -> entry.nextTime));
+  private Supervisor.Task wakeTask;
+  /** 当前定时任务等待的时刻，没有时为 Long.MAX_VALUE。 */
+  private long wakeTime = Long.MAX_VALUE;
+  private boolean closed;
+
+  public MaintenanceScheduler(Supervisor supervisor, Clock clock, Path statePath) {
+    this.supervisor = Preconditions.checkNotNull(supervisor, "supervisor == null");
+    this.clock = Preconditions.checkNotNull(clock, "clock == null");
+    this.statePath = statePath;
+    this.lastRuns = readState();
+  }
+
+  /**
+   * 添加计划，名称相同的计划会被替换。
+   */
+  public synchronized Entry add(String id, CronExpression cron, ZoneId zone, MissedRunPolicy policy,
+      Runnable action) {
+    Preconditions.checkState(!closed, "scheduler closed");
+    Preconditions.checkArgument(!id.isEmpty() && id.indexOf('\t') < 0, "invalid id: %s", id);
+    remove(id);
+    Entry entry = new Entry(id, cron, zone, policy, action);
+    long now = clock.millis();
+    Long lastRun = lastRuns.get(id);
+    entry.lastRun = lastRun == null ? 0 : lastRun;
+    long next = lastRun == null ? entry.nextAfter(now) : entry.nextAfter(lastRun);
+    if (next > 0 && next < now - GRACE && policy == MissedRunPolicy.SKIP) {
+      LOGGER.info(String.format("跳过关闭期间错过的维护计划 %s（%s）。", id, format(next, zone)));
+      next = entry.nextAfter(now);
+    }
+    entry.nextTime = next;
+    entries.put(id, entry);
+    if (next > 0) {
+      queue.add(entry);
+      reschedule(now);
+    }
+    return entry;
+  }
+
+  public synchronized boolean remove(String id) {
+    Entry entry = entries.remove(id);
+    if (entry == null) {
+      return false;
+    }
+    queue.remove(entry);
+    return true;
+  }
+
+  /**
+   * 所有计划，按添加的先后排列。
+   */
+  public synchronized List<Entry> entries() {
+    return Lists.newArrayList(entries.values());
+  }
+
+  @Override public synchronized void close() {
+    closed = true;
+    supervisor.cancel(wakeTask);
+    wakeTask = null;
+    queue.clear();
+  }
+
+  private synchronized void wake() {
+    if (closed) {
+      return;
+    }
+    wakeTask = null;
+    wakeTime = Long.MAX_VALUE;
+    long now = clock.millis();
+    boolean ran = false;
+    while (!queue.isEmpty() && queue.peek().nextTime <= now) {
+      Entry entry = queue.poll();
+      if (now - entry.nextTime > GRACE && entry.policy == MissedRunPolicy.SKIP) {
+        LOGGER.info(String.format("跳过错过的维护计划 %s（%s）。",
+            entry.id, format(entry.nextTime, entry.zone)));
+      } else {
+        run(entry, now);
+        ran = true;
+      }
+      // 从现在开始计算，错过多次也只补执行一次
+      entry.nextTime = entry.nextAfter(now);
+      if (entry.nextTime > 0) {
+        queue.add(entry);
+      }
+    }
+    if (ran) {
+      writeState();
+    }
+    reschedule(now);
+  }
+
+  private void run(Entry entry, long now) {
+    entry.lastRun = now;
+    entry.runCount++;
+    lastRuns.put(entry.id, now);
+    supervisor.execute("maintenance-" + entry.id, () -> {
+      LOGGER.info(String.format("执行维护计划 %s（%s）。", entry.id, entry.cron));
+      entry.action.run();
+    });
+  }
+
+  /**
+   * 队首变化时重新设置定时任务，队首没有变化时保留原来的任务。
+   */
+  private void reschedule(long now) {
+    Entry head = queue.peek();
+    if (head == null) {
+      supervisor.cancel(wakeTask);
+      wakeTask = null;
+      wakeTime = Long.MAX_VALUE;
+      return;
+    }
+    long time = Math.min(head.nextTime, now + MAX_SLEEP);
+    if (wakeTask != null && time >= wakeTime) {
+      return;
+    }
+    supervisor.cancel(wakeTask);
+    wakeTime = time;
+    wakeTask = supervisor.schedule("maintenance-scheduler", this::wake, Math.max(0, time - now));
+  }
+
+  private Map<String, Long> readState() {
+    Map<String, Long> runs = Maps.newHashMap();
+    if (statePath == null || Files.notExists(statePath)) {
+      return runs;
+    }
+    try {
+      for (String line : Files.readAllLines(statePath, StandardCharsets.UTF_8)) {
+        List<String> fields = Splitter.on('\t').splitToList(line);
+        if (fields.size() == 2) {
+          try {
+            runs.put(fields.get(0), Long.parseLong(fields.get(1)));
+          } catch (NumberFormatException e) {
+            LOGGER.warn("忽略无效的维护计划状态：" + line);
+          }
+        }
+      }
+    } catch (IOException e) {
+      LOGGER.warn("读取维护计划状态出错：" + statePath, e);
+    }
+    return runs;
+  }
+
+  private void writeState() {
+    if (statePath == null) {
+      return;
+    }
+    List<String> lines = Lists.newArrayList();
+    for (Map.Entry<String, Long> entry : lastRuns.entrySet()) {
+      lines.add(Joiner.on('\t').join(entry.getKey(), entry.getValue()));
+    }
+    try {
+      Files.createDirectories(statePath.toAbsolutePath().getParent());
+      Path temp = statePath.resolveSibling(statePath.getFileName() + ".tmp");
+      Files.write(temp, lines, StandardCharsets.UTF_8);
+      Files.move(temp, statePath, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      LOGGER.warn("写入维护计划状态出错：" + statePath, e);
+    }
+  }
+
+  private static String format(long time, ZoneId zone) {
+    return Instant.ofEpochMilli(time).atZone(zone).toLocalDateTime().toString();
+  }
+
+  /**
+   * 错过执行时间的处理策略。
+   */
+  public enum MissedRunPolicy {
+    /** 跳过，等待下一次。 */
+    SKIP("skip"),
+    /** 补执行一次，错过多次也只执行一次。 */
+    RUN_ONCE("run-once"),
+    ;
+
+    public final String id;
+
+    MissedRunPolicy(String id) {
+      this.id = id;
+    }
+
+    public static MissedRunPolicy of(String id) {
+      for (MissedRunPolicy policy : values()) {
+        if (policy.id.equalsIgnoreCase(id)) {
+          return policy;
+        }
+      }
+      throw new IllegalArgumentException("未知的错过策略：" + id);
+    }
+  }
+
+  public static final class Entry {
+    public final String id;
+    public final CronExpression cron;
+    public final ZoneId zone;
+    public final MissedRunPolicy policy;
+    private final Runnable action;
+    /** 下一次执行的时刻，System.currentTimeMillis()；没有下一次时为 0。 */
+    private volatile long nextTime;
+    /** 最后一次执行的时刻，没有执行过时为 0。 */
+    private volatile long lastRun;
+    private volatile int runCount;
+
+    Entry(String id, CronExpression cron, ZoneId zone, MissedRunPolicy policy, Runnable action) {
+      this.id = id;
+      this.cron = Preconditions.checkNotNull(cron, "cron == null");
+      this.zone = Preconditions.checkNotNull(zone, "zone == null");
+      this.policy = Preconditions.checkNotNull(policy, "policy == null");
+      this.action = Preconditions.checkNotNull(action, "action == null");
+    }
+
+    public long nextTime() {
+      return nextTime;
+    }
+
+    public long lastRun() {
+      return lastRun;
+    }
+
+    public int runCount() {
+      return runCount;
+    }
+
+    long nextAfter(long time) {
+      ZonedDateTime next = cron.next(Instant.ofEpochMilli(time).atZone(zone));
+      return next == null ? 0 : next.toInstant().toEpochMilli();
+    }
+  }
+}
@@ -0,0 +1,349 @@
+package randall.gamecenter;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 进程输出泵。
+ * <p>
+ * 固定数量的守护线程轮流读取所有子进程的输出流，代替每个流占用一个阻塞线程：
+ * 每个线程持有一块可重复使用的读取缓冲区，只读取 {@link InputStream#available()} 报告的字节，
+ * 因此从不阻塞，按行切分后回调。进程退出并且输出已经读完，或者调用 {@link Handle#cancel()} 后，
+ * 流立即关闭并从泵中移除，重启程序不会留下仍在读取旧进程的线程。
+ * <p>
+ * 没有数据可读时线程逐步延长休眠时间，最长 {@link #MAX_IDLE} 毫秒，有数据时立即恢复；
+ * 没有输出流的线程一直等待，注册新的输出流时立即唤醒，程序全部停止后不再定时醒来。
+ * 回调在泵的线程中执行，一个回调阻塞会延误同一线程上所有程序的输出，
+ * 因此转发给界面和远程控制台的消息都只放入队列，不在回调中等待。
+ * 进程退出后由它的子进程继续写入同一管道的内容不再读取。
+ *
+ * @author mrzhqiang
+ */
+public final class OutputPump implements AutoCloseable {
+  private static final Logger LOGGER = LoggerFactory.getLogger("randall");
+
+  /** 每个线程的读取缓冲区大小，单位：字节。 */
+  static final int CHUNK_SIZE = 8192;
+  /** 单行的最大长度，超过时截断为多行，防止异常输出占满内存，单位：字节。 */
+  static final int MAX_LINE = 64 * 1024;
+  /** 行缓冲区的初始大小，读到较长的行后扩大，行结束后缩回，单位：字节。 */
+  private static final int LINE_SIZE = 256;
+  /** 没有数据可读时的最长休眠时间，单位：毫秒。 */
+  static final long MAX_IDLE = 20;
+
+  private final Charset charset;
+  private final List<Worker> workers = Lists.newArrayList();
+  private final AtomicLong bytes = new AtomicLong();
+  private final AtomicLong lines = new AtomicLong();
+  private final AtomicLong truncated = new AtomicLong();
+  private final AtomicLong polls = new AtomicLong();
+  /** 所有读取缓冲区和行缓冲区占用的内存，单位：字节。 */
+  private final AtomicLong bufferBytes = new AtomicLong();
+  private volatile boolean closed;
+
+  /**
+   * @param name    线程名称的前缀。
+   * @param threads 线程数量。
+   */
+  public OutputPump(String name, int threads) {
+    this(name, threads, Charset.defaultCharset());
+  }
+
+  public OutputPump(String name, int threads, Charset charset) {
+    Preconditions.checkArgument(threads > 0, "threads <= 0");
+    this.charset = Preconditions.checkNotNull(charset, "charset == null");
+    for (int i = 0; i < threads; i++) {
+      Worker worker = new Worker();
+      Thread thread = new Thread(worker, name + (i + 1));
+      thread.setDaemon(true);
+      worker.thread = thread;
+      workers.add(worker);
+      thread.start();
+    }
+  }
+
+  /**
+   * 开始读取进程的一个输出流。
+   *
+   * @param process  输出流所属的进程，用于判断流是否已经结束。
+   * @param consumer 每读到一行回调一次，在泵的线程中执行，不能阻塞。
+   * @param onClose  流结束后回调一次，主动取消时不回调，可以为 null。
+   */
+  public Handle register(Process process, InputStream input, Consumer<String> consumer,
+      Runnable onClose) {
+    Preconditions.checkNotNull(process, "process == null");
+    Preconditions.checkNotNull(input, "input == null");
+    Preconditions.checkNotNull(consumer, "consumer == null");
+    Preconditions.checkState(!closed, "output pump is closed");
+    Stream stream = new Stream(process, input, consumer, onClose);
+    // 分配给读取流最少的线程
+    Worker target = workers.get(0);
+    for (Worker worker : workers) {
+      if (worker.streams.size() < target.streams.size()) {
+        target = worker;
+      }
+    }
+    target.streams.add(stream);
+    LockSupport.unpark(target.thread);
+    return stream;
+  }
+
+  public Stats stats() {
+    int streams = 0;
+    for (Worker worker : workers) {
+      streams += worker.streams.size();
+    }
+    return new Stats(workers.size(), streams, bufferBytes.get(), bytes.get(), lines.get(),
+        truncated.get(), polls.get());
+  }
+
+  /**
+   * 停止所有线程，线程退出前关闭所有流，不再回调。
+   */
+  @Override public void close() {
+    closed = true;
+    for (Worker worker : workers) {
+      for (Stream stream : worker.streams) {
+        stream.cancel();
+      }
+      LockSupport.unpark(worker.thread);
+    }
+  }
+
+  /**
+   * 已经注册的输出流。
+   */
+  public interface Handle {
+    /**
+     * 停止读取并关闭输出流，之后不再回调。
+     */
+    void cancel();
+
+    boolean isClosed();
+  }
+
+  private final class Worker implements Runnable {
+    final List<Stream> streams = new CopyOnWriteArrayList<>();
+    final byte[] chunk = new byte[CHUNK_SIZE];
+    volatile Thread thread;
+
+    @Override public void run() {
+      bufferBytes.addAndGet(chunk.length);
+      long idle = 1;
+      while (!closed) {
+        if (streams.isEmpty()) {
+          // 注册和关闭时唤醒，先唤醒再等待也会立即返回
+          LockSupport.park(this);
+          if (Thread.interrupted()) {
+            break;
+          }
+          idle = 1;
+          continue;
+        }
+        polls.incrementAndGet();
+        boolean progress = false;
+        Iterator<Stream> iterator = streams.iterator();
+        while (iterator.hasNext()) {
+          Stream stream = iterator.next();
+          if (stream.poll(chunk)) {
+            progress = true;
+          }
+          if (stream.isClosed()) {
+            streams.remove(stream);
+          }
+        }
+        if (progress) {
+          idle = 1;
+          continue;
+        }
+        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(idle));
+        if (Thread.interrupted()) {
+          break;
+        }
+        idle = Math.min(idle * 2, MAX_IDLE);
+      }
+      for (Stream stream : streams) {
+        stream.finish(false);
+      }
+      streams.clear();
+      bufferBytes.addAndGet(-chunk.length);
+    }
+  }
+
+  private final class Stream implements Handle {
+    private final Process process;
+    private final InputStream input;
+    private final Consumer<String> consumer;
+    private final Runnable onClose;
+    private byte[] line = new byte[LINE_SIZE];
+    private int length;
+    /** 上一个字节是回车，紧随其后的换行不再产生空行。 */
+    private boolean carriageReturn;
+    private volatile boolean cancelled;
+    private volatile boolean closed;
+
+    Stream(Process process, InputStream input, Consumer<String> consumer, Runnable onClose) {
+      this.process = process;
+      this.input = input;
+      this.consumer = consumer;
+      this.onClose = onClose;
+      bufferBytes.addAndGet(line.length);
+    }
+
+    /**
+     * 读取一次，只在所属的线程中调用。
+     *
+     * @return 是否读到了数据。
+     */
+    boolean poll(byte[] chunk) {
+      if (closed) {
+        return false;
+      }
+      if (cancelled) {
+        finish(false);
+        return false;
+      }
+      int count;
+      try {
+        int available = input.available();
+        if (available <= 0) {
+          // 进程退出后再确认一次没有剩余的输出，避免漏掉退出前的最后几行
+          if (process.isAlive() || input.available() > 0) {
+            return false;
+          }
+          finish(true);
+          return false;
+        }
+        count = input.read(chunk, 0, Math.min(available, chunk.length));
+      } catch (IOException e) {
+        LOGGER.debug("读取进程输出结束：" + e.getMessage());
+        finish(true);
+        return false;
+      }
+      if (count < 0) {
+        finish(true);
+        return false;
+      }
+      bytes.addAndGet(count);
+      for (int i = 0; i < count && !cancelled; i++) {
+        byte b = chunk[i];
+        if (b == '\n' && carriageReturn) {
+          carriageReturn = false;
+        } else if (b == '\n' || b == '\r') {
+          carriageReturn = b == '\r';
+          emit();
+        } else {
+          carriageReturn = false;
+          append(b);
+        }
+      }
+      return true;
+    }
+
+    private void append(byte b) {
+      if (length == MAX_LINE) {
+        truncated.incrementAndGet();
+        emit();
+      }
+      if (length == line.length) {
+        int size = Math.min(line.length * 2, MAX_LINE);
+        bufferBytes.addAndGet(size - line.length);
+        byte[] larger = new byte[size];
+        System.arraycopy(line, 0, larger, 0, length);
+        line = larger;
+      }
+      line[length++] = b;
+    }
+
+    private void emit() {
+      String text = new String(line, 0, length, charset);
+      length = 0;
+      if (line.length > LINE_SIZE) {
+        // 偶尔出现的长行不应长期占用内存
+        bufferBytes.addAndGet(LINE_SIZE - line.length);
+        line = new byte[LINE_SIZE];
+      }
+      lines.incrementAndGet();
+      try {
+        consumer.accept(text);
+      } catch (RuntimeException e) {
+        LOGGER.error("处理进程输出出错！", e);
+      }
+    }
+
+    private void finish(boolean notify) {
+      if (notify && length > 0) {
+        emit();
+      }
+      closed = true;
+      bufferBytes.addAndGet(-line.length);
+      try {
+        input.close();
+      } catch (IOException ignore) {
+        // 流已经关闭
+      }
+      if (notify && !cancelled && onClose != null) {
+        try {
+          onClose.run();
+        } catch (RuntimeException e) {
+          LOGGER.error("处理进程输出结束出错！", e);
+        }
+      }
+    }
+
+    @Override public void cancel() {
+      cancelled = true;
+    }
+
+    @Override public boolean isClosed() {
+      return closed;
+    }
+  }
+
+  /**
+   * 泵的统计数据。
+   */
+  public static final class Stats {
+    public final int threads;
+    /** 正在读取的输出流数量。 */
+    public final int streams;
+    /** 读取缓冲区和行缓冲区占用的内存，单位：字节。 */
+    public final long bufferBytes;
+    /** 累计读取的字节数。 */
+    public final long bytes;
+    /** 累计读取的行数。 */
+    public final long lines;
+    /** 超过最大长度被截断的次数。 */
+    public final long truncated;
+    /** 累计轮询的次数，没有输出流时线程不再轮询。 */
+    public final long polls;
+
+    Stats(int threads, int streams, long bufferBytes, long bytes, long lines, long truncated,
+        long polls) {
+      this.threads = threads;
+      this.streams = streams;
+      this.bufferBytes = bufferBytes;
+      this.bytes = bytes;
+      this.lines = lines;
+      this.truncated = truncated;
+      this.polls = polls;
+    }
+
+    @Override public String toString() {
+      return String.format("输出泵：线程 %d，输出流 %d，缓冲区 %d KB，累计读取 %d KB、%d 行，截断 %d 次，"
+          + "轮询 %d 次", threads, streams, bufferBytes / 1024, bytes / 1024, lines, truncated, polls);
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package randall.gamecenter;
+
+import com.google.common.collect.Lists;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * 程序标准输出的最近活动：最后一次输出的时刻和最近的若干行。
+ * <p>
+ * 由读取输出的线程写入，卡死检测和远程代理读取。备用网关接管异常退出的网关时随进程一起转移。
+ *
+ * @author mrzhqiang
+ */
+public final class OutputTail {
+  private final int capacity;
+  private final Deque<String> lines;
+  /** 累计输出的行数，用于读取某一时刻之后的新输出。 */
+  private long count;
+  /** 最后一次输出的时刻，System.nanoTime()，没有输出过时无意义。 */
+  private volatile long lastTick;
+  /** 是否输出过，System.nanoTime() 可以是任意值，不能用 0 表示没有输出过。 */
+  private volatile boolean ticked;
+
+  public OutputTail(int capacity) {
+    this.capacity = capacity;
+    this.lines = new ArrayDeque<>(capacity);
+  }
+
+  public void add(String line) {
+    add(line, System.nanoTime());
+  }
+
+  synchronized void add(String line, long tick) {
+    lastTick = tick;
+    ticked = true;
+    if (lines.size() == capacity) {
+      lines.removeFirst();
+    }
+    lines.addLast(line);
+    count++;
+  }
+
+  /**
+   * 累计输出的行数。
+   */
+  public synchronized long count() {
+    return count;
+  }
+
+  /**
+   * 把累计第 from 行之后的新输出加入 into，已经被挤出的行不再返回。
+   *
+   * @return 下一次读取的起点，即当前累计的行数。
+   */
+  public synchronized long linesSince(long from, List<String> into) {
+    long skip = Math.max(0, from - (count - lines.size()));
+    for (String line : lines) {
+      if (skip > 0) {
+        skip--;
+      } else {
+        into.add(line);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * 最后一次输出的时刻，System.nanoTime()，只有 {@link #hasOutput()} 为 true 时有意义。
+   */
+  public long lastTick() {
+    return lastTick;
+  }
+
+  public boolean hasOutput() {
+    return ticked;
+  }
+
+  /**
+   * 最近的输出，最早的在前。
+   */
+  public synchronized List<String> lines() {
+    return Lists.newArrayList(lines);
+  }
+}
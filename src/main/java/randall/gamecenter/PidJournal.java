@@ -0,0 +1,145 @@
+package randall.gamecenter;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 进程日志。
+ * <p>
+ * 记录每个受控程序的进程号、启动时间、握手代码和端口，控制器意外退出后重新打开时据此接管仍在运行的程序，
+ * 而不是重复启动它们。
+ * <p>
+ * 每行一个程序，字段之间使用制表符分隔。先写入临时文件再替换，控制器在写入过程中崩溃也不会留下残缺的日志；
+ * 内容没有变化时不写入。
+ *
+ * @author mrzhqiang
+ */
+public final class PidJournal {
+  private static final Logger LOGGER = LoggerFactory.getLogger("randall");
+
+  private static final String HEADER = "# id\tpid\tstartTime\tprocessCode\tports";
+  private static final String NONE = "-";
+
+  private final Path path;
+  private String written;
+
+  public PidJournal(Path path) {
+    this.path = Preconditions.checkNotNull(path, "path == null");
+  }
+
+  public Path path() {
+    return path;
+  }
+
+  /**
+   * 写入当前运行中的程序，内容没有变化时直接返回。
+   */
+  public synchronized void write(List<Entry> entries) {
+    StringBuilder builder = new StringBuilder(HEADER).append('\n');
+    for (Entry entry : entries) {
+      builder.append(entry).append('\n');
+    }
+    String content = builder.toString();
+    if (content.equals(written)) {
+      return;
+    }
+    try {
+      Files.createDirectories(path.toAbsolutePath().getParent());
+      Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+      Files.write(temp, content.getBytes(StandardCharsets.UTF_8));
+      try {
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+      }
+      written = content;
+    } catch (IOException e) {
+      LOGGER.warn("写入进程日志出错：" + path, e);
+    }
+  }
+
+  /**
+   * 读取上一次记录的程序，文件不存在或者无法读取时返回空列表，格式错误的行会被忽略。
+   */
+  public synchronized List<Entry> read() {
+    if (Files.notExists(path)) {
+      return Collections.emptyList();
+    }
+    List<String> lines;
+    try {
+      lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      LOGGER.warn("读取进程日志出错：" + path, e);
+      return Collections.emptyList();
+    }
+    List<Entry> entries = Lists.newArrayList();
+    for (String line : lines) {
+      if (line.trim().isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      try {
+        entries.add(Entry.parse(line));
+      } catch (RuntimeException e) {
+        LOGGER.warn("忽略无效的进程日志：" + line);
+      }
+    }
+    return entries;
+  }
+
+  public static final class Entry {
+    /** 程序描述的名称，例如 M2Server、RunGate3、StandbyGate1。 */
+    public final String id;
+    public final long pid;
+    /** 由 {@link AttachedProcess#startTime(long)} 获取，用于识别进程号是否被复用。 */
+    public final long startTime;
+    /** 尚未握手时为 null。 */
+    public final UUID processCode;
+    /** 游戏网关切换到备用网关后端口会变化，因此一并记录。 */
+    public final int[] ports;
+
+    public Entry(String id, long pid, long startTime, UUID processCode, int[] ports) {
+      Preconditions.checkArgument(!id.isEmpty() && id.indexOf('\t') < 0, "invalid id: %s", id);
+      this.id = id;
+      this.pid = pid;
+      this.startTime = startTime;
+      this.processCode = processCode;
+      this.ports = ports.clone();
+    }
+
+    static Entry parse(String line) {
+      List<String> fields = Splitter.on('\t').splitToList(line);
+      Preconditions.checkArgument(fields.size() == 5, "invalid entry: %s", line);
+      String code = fields.get(3);
+      List<String> portList = Splitter.on(',').omitEmptyStrings().splitToList(fields.get(4));
+      int[] ports = new int[portList.size()];
+      for (int i = 0; i < ports.length; i++) {
+        ports[i] = Integer.parseInt(portList.get(i));
+      }
+      return new Entry(fields.get(0), Long.parseLong(fields.get(1)), Long.parseLong(fields.get(2)),
+          NONE.equals(code) ? null : UUID.fromString(code), ports);
+    }
+
+    @Override public String toString() {
+      List<Integer> portList = Lists.newArrayListWithCapacity(ports.length);
+      for (int port : ports) {
+        portList.add(port);
+      }
+      return Joiner.on('\t').join(id, pid, startTime,
+          processCode == null ? NONE : processCode, Joiner.on(',').join(portList));
+    }
+  }
+}
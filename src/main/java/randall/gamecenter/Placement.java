@@ -0,0 +1,271 @@
+package randall.gamecenter;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 进程放置策略。
+ * <p>
+ * 启动程序时指定 CPU 亲和性、调度优先级（nice）和磁盘 IO 优先级，例如把游戏引擎服务器固定在专用核心上，
+ * 游戏网关分散到其余核心，减少相互抢占造成的延迟抖动。
+ * <p>
+ * Linux 上使用 taskset、nice 和 ionice 依次 exec 目标程序，进程号不变，并且在程序创建任何线程之前生效；
+ * 系统中找不到的命令会被跳过。Windows 上在进程创建后通过 PowerShell 设置亲和性和优先级类别，
+ * 不支持 IO 优先级。
+ *
+ * @author mrzhqiang
+ */
+public final class Placement {
+  private static final Logger LOGGER = LoggerFactory.getLogger("randall");
+
+  public static final Placement NONE = new Placement(new int[0], false, 0, IoClass.NONE, 0);
+
+  /** Windows 亲和性掩码为 64 位。 */
+  private static final int MAX_CPU = 64;
+  private static final Map<String, Boolean> TOOLS = Maps.newConcurrentMap();
+
+  private final int[] cpus;
+  private final boolean spread;
+  private final int nice;
+  private final IoClass ioClass;
+  private final int ioLevel;
+
+  /**
+   * @param cpus    允许运行的 CPU 编号，为空表示不限制。
+   * @param spread  同一角色的多个实例是否按序号轮流分配到其中一个 CPU 上。
+   * @param nice    调度优先级，-20 到 19，数值越小优先级越高，0 表示不调整。
+   * @param ioClass IO 调度类别。
+   * @param ioLevel IO 优先级，0 到 7，数值越小优先级越高。
+   */
+  public Placement(int[] cpus, boolean spread, int nice, IoClass ioClass, int ioLevel) {
+    Preconditions.checkNotNull(cpus, "cpus == null");
+    for (int cpu : cpus) {
+      Preconditions.checkArgument(cpu >= 0 && cpu < MAX_CPU, "invalid cpu: %s", cpu);
+    }
+    Preconditions.checkArgument(nice >= -20 && nice <= 19, "invalid nice: %s", nice);
+    Preconditions.checkArgument(ioLevel >= 0 && ioLevel <= 7, "invalid io level: %s", ioLevel);
+    this.cpus = cpus.clone();
+    this.spread = spread;
+    this.nice = nice;
+    this.ioClass = Preconditions.checkNotNull(ioClass, "ioClass == null");
+    this.ioLevel = ioLevel;
+  }
+
+  /**
+   * 解析 CPU 列表，格式与 taskset -c 相同，例如 0-1,4。
+   */
+  public static int[] parseCpus(String text) {
+    TreeSet<Integer> cpus = new TreeSet<>();
+    if (!Strings.isNullOrEmpty(text)) {
+      for (String part : Splitter.on(',').trimResults().omitEmptyStrings().split(text)) {
+        int dash = part.indexOf('-');
+        if (dash < 0) {
+          cpus.add(Integer.parseInt(part));
+          continue;
+        }
+        int from = Integer.parseInt(part.substring(0, dash).trim());
+        int to = Integer.parseInt(part.substring(dash + 1).trim());
+        Preconditions.checkArgument(from <= to, "invalid cpu range: %s", part);
+        for (int cpu = from; cpu <= to; cpu++) {
+          cpus.add(cpu);
+        }
+      }
+    }
+    int[] result = new int[cpus.size()];
+    int i = 0;
+    for (Integer cpu : cpus) {
+      result[i++] = cpu;
+    }
+    return result;
+  }
+
+  public boolean isEmpty() {
+    return cpus.length == 0 && nice == 0 && ioClass == IoClass.NONE;
+  }
+
+  public int[] cpus() {
+    return cpus.clone();
+  }
+
+  public int nice() {
+    return nice;
+  }
+
+  public IoClass ioClass() {
+    return ioClass;
+  }
+
+  public int ioLevel() {
+    return ioLevel;
+  }
+
+  /**
+   * 某个实例实际使用的策略：分散模式下按实例序号轮流选择一个 CPU。
+   */
+  public Placement forInstance(int index) {
+    if (!spread || cpus.length <= 1) {
+      return this;
+    }
+    int[] single = {cpus[index % cpus.length]};
+    return new Placement(single, false, nice, ioClass, ioLevel);
+  }
+
+  /**
+   * 生成实际执行的命令，Linux 上在原命令前加上 taskset、nice 和 ionice。
+   */
+  public List<String> wrap(List<String> command) {
+    if (isEmpty() || Processes.isWindows()) {
+      return command;
+    }
+    List<String> result = Lists.newArrayList();
+    if (cpus.length > 0 && isAvailable("taskset")) {
+      result.add("taskset");
+      result.add("-c");
+      result.add(cpuList());
+    }
+    if (nice != 0 && isAvailable("nice")) {
+      // 没有权限提高优先级时 nice 只输出警告，仍然会启动程序
+      result.add("nice");
+      result.add("-n");
+      result.add(String.valueOf(nice));
+    }
+    if (ioClass != IoClass.NONE && isAvailable("ionice")) {
+      // -t 忽略设置失败，例如普通用户无法使用实时类别
+      result.add("ionice");
+      result.add("-t");
+      result.add("-c");
+      result.add(String.valueOf(ioClass.code));
+      if (ioClass.hasLevel()) {
+        result.add("-n");
+        result.add(String.valueOf(ioLevel));
+      }
+    }
+    result.addAll(command);
+    return result;
+  }
+
+  /**
+   * 进程创建之后应用策略，只在 Windows 上需要。
+   */
+  public void apply(Process process) {
+    if (isEmpty() || !Processes.isWindows()) {
+      return;
+    }
+    long pid = ProcessSampler.pid(process);
+    if (pid <= 0) {
+      LOGGER.warn("无法获取进程号，放置策略未生效：" + this);
+      return;
+    }
+    StringBuilder script = new StringBuilder("$p = Get-Process -Id ").append(pid).append(';');
+    if (cpus.length > 0) {
+      script.append("$p.ProcessorAffinity = ").append(affinityMask()).append(';');
+    }
+    if (nice != 0) {
+      script.append("$p.PriorityClass = '").append(priorityClass()).append("';");
+    }
+    try {
+      Process powershell = new ProcessBuilder("powershell", "-NoProfile", "-Command",
+          script.toString()).redirectErrorStream(true).start();
+      Processes.pump(powershell, powershell.getInputStream(),
+          line -> LOGGER.warn("[placement] " + line));
+    } catch (IOException e) {
+      LOGGER.warn("设置进程放置策略失败：" + this, e);
+    }
+  }
+
+  private String cpuList() {
+    StringBuilder builder = new StringBuilder();
+    for (int cpu : cpus) {
+      if (builder.length() > 0) {
+        builder.append(',');
+      }
+      builder.append(cpu);
+    }
+    return builder.toString();
+  }
+
+  private long affinityMask() {
+    long mask = 0;
+    for (int cpu : cpus) {
+      mask |= 1L << cpu;
+    }
+    return mask;
+  }
+
+  private String priorityClass() {
+    if (nice <= -10) {
+      return "High";
+    }
+    if (nice < 0) {
+      return "AboveNormal";
+    }
+    return nice >= 10 ? "Idle" : "BelowNormal";
+  }
+
+  private static boolean isAvailable(String tool) {
+    return TOOLS.computeIfAbsent(tool, name -> {
+      String path = System.getenv("PATH");
+      if (path != null) {
+        for (String directory : path.split(File.pathSeparator)) {
+          if (new File(directory, name).canExecute()) {
+            return true;
+          }
+        }
+      }
+      LOGGER.warn("找不到命令 " + name + "，相应的放置策略不会生效。");
+      return false;
+    });
+  }
+
+  @Override public String toString() {
+    if (isEmpty()) {
+      return "none";
+    }
+    StringBuilder builder = new StringBuilder();
+    if (cpus.length > 0) {
+      builder.append("cpus=").append(cpuList()).append(spread ? "(spread)" : "").append(' ');
+    }
+    if (nice != 0) {
+      builder.append("nice=").append(nice).append(' ');
+    }
+    if (ioClass != IoClass.NONE) {
+      builder.append("io=").append(ioClass);
+      if (ioClass.hasLevel()) {
+        builder.append('/').append(ioLevel);
+      }
+    }
+    return builder.toString().trim();
+  }
+
+  public enum IoClass {
+    /** 不调整。 */
+    NONE(0),
+    /** 实时，需要管理员权限。 */
+    REALTIME(1),
+    BEST_EFFORT(2),
+    /** 只在磁盘空闲时读写。 */
+    IDLE(3),
+    ;
+
+    /** ionice -c 的参数。 */
+    public final int code;
+
+    IoClass(int code) {
+      this.code = code;
+    }
+
+    boolean hasLevel() {
+      return this == REALTIME || this == BEST_EFFORT;
+    }
+  }
+}
@@ -0,0 +1,152 @@
+package randall.gamecenter;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * 进程资源采样器。
+ * <p>
+ * 在 Linux 上直接读取 /proc/[pid] 下的 stat、status 和 fd，获取 CPU 时间、常驻内存、
+ * 线程数和打开的文件数；其他系统在 Java 9 及以上版本通过反射使用 {@code ProcessHandle.Info}，
+ * 只能得到 CPU 时间，无法获取的数值为 -1。
+ *
+ * @author mrzhqiang
+ */
+public final class ProcessSampler {
+  /** /proc/[pid]/stat 中 CPU 时间的单位，绝大多数 Linux 内核为 100。 */
+  private static final long CLOCK_TICKS_PER_SECOND = 100;
+  private static final Path PROC = Paths.get("/proc");
+
+  private static final Method PID = Processes.findMethod(Process.class, "pid");
+  private static final Method TO_HANDLE = Processes.findMethod(Process.class, "toHandle");
+  private static final Method INFO = findMethod("java.lang.ProcessHandle", "info");
+  private static final Method TOTAL_CPU_DURATION =
+      findMethod("java.lang.ProcessHandle$Info", "totalCpuDuration");
+
+  private ProcessSampler() {
+    throw new AssertionError("no instance");
+  }
+
+  /**
+   * 进程号，无法获取时返回 -1。
+   */
+  public static long pid(Process process) {
+    if (process instanceof AttachedProcess) {
+      return ((AttachedProcess) process).pid();
+    }
+    if (PID != null) {
+      try {
+        return (Long) PID.invoke(process);
+      } catch (ReflectiveOperationException | UnsupportedOperationException ignore) {
+        return -1;
+      }
+    }
+    // Java 8 的 UNIXProcess 保存了进程号
+    try {
+      Field field = process.getClass().getDeclaredField("pid");
+      field.setAccessible(true);
+      return field.getInt(process);
+    } catch (ReflectiveOperationException | RuntimeException ignore) {
+      return -1;
+    }
+  }
+
+  /**
+   * 采样一次，进程已经退出时返回 null。
+   */
+  public static Sample sample(Process process) {
+    if (process == null || !process.isAlive()) {
+      return null;
+    }
+    long pid = pid(process);
+    if (pid > 0 && Files.isDirectory(PROC)) {
+      Sample sample = sampleProc(pid);
+      if (sample != null) {
+        return sample;
+      }
+    }
+    return sampleHandle(process);
+  }
+
+  static Sample sampleProc(long pid) {
+    Path directory = PROC.resolve(String.valueOf(pid));
+    try {
+      String stat = new String(Files.readAllBytes(directory.resolve("stat")),
+          StandardCharsets.US_ASCII);
+      // 进程名可能包含空格，从最后一个右括号之后开始解析，第一个字段是第 3 项 state
+      String[] fields = stat.substring(stat.lastIndexOf(')') + 2).trim().split("\\s+");
+      long ticks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+      long cpuTime = ticks * 1000 / CLOCK_TICKS_PER_SECOND;
+      int threads = Integer.parseInt(fields[17]);
+      long rss = -1;
+      List<String> status = Files.readAllLines(directory.resolve("status"),
+          StandardCharsets.US_ASCII);
+      for (String line : status) {
+        if (line.startsWith("VmRSS:")) {
+          rss = Long.parseLong(line.substring(6).replace("kB", "").trim());
+          break;
+        }
+      }
+      int files = -1;
+      try (Stream<Path> stream = Files.list(directory.resolve("fd"))) {
+        files = (int) stream.count();
+      } catch (IOException | SecurityException ignore) {
+        // 没有权限读取其他用户进程的 fd
+      }
+      return new Sample(System.nanoTime(), cpuTime, rss, threads, files);
+    } catch (IOException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Sample sampleHandle(Process process) {
+    if (TO_HANDLE == null || INFO == null || TOTAL_CPU_DURATION == null) {
+      return null;
+    }
+    try {
+      Object info = INFO.invoke(TO_HANDLE.invoke(process));
+      Optional<Duration> cpu = (Optional<Duration>) TOTAL_CPU_DURATION.invoke(info);
+      return new Sample(System.nanoTime(), cpu.map(Duration::toMillis).orElse(-1L), -1, -1, -1);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  private static Method findMethod(String className, String name) {
+    try {
+      return Processes.findMethod(Class.forName(className), name);
+    } catch (ClassNotFoundException e) {
+      return null;
+    }
+  }
+
+  public static final class Sample {
+    /** 采样时刻，System.nanoTime()。 */
+    public final long tick;
+    /** 累计 CPU 时间，单位：毫秒。 */
+    public final long cpuTime;
+    /** 常驻内存，单位：KB。 */
+    public final long rss;
+    public final int threads;
+    /** 打开的文件描述符数量。 */
+    public final int files;
+
+    Sample(long tick, long cpuTime, long rss, int threads, int files) {
+      this.tick = tick;
+      this.cpuTime = cpuTime;
+      this.rss = rss;
+      this.threads = threads;
+      this.files = files;
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package randall.gamecenter;
+
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 进程工具。
+ * <p>
+ * 项目以 Java 8 为编译目标，运行在 Java 9 及以上版本时通过反射使用 {@code Process.onExit()}，
+ * 否则退回到由守护线程阻塞等待 {@link Process#waitFor()}。所有进程的输出流由同一个
+ * {@link OutputPump} 中固定数量的线程读取。
+ *
+ * @author mrzhqiang
+ */
+public final class Processes {
+  private static final Logger LOGGER = LoggerFactory.getLogger("randall");
+
+  private static final Method ON_EXIT = findMethod(Process.class, "onExit");
+
+  private static final ExecutorService WAITERS =
+      Executors.newCachedThreadPool(new DaemonFactory("process-exit-"));
+  /** 读取进程输出的线程数量，与进程数量无关。 */
+  static final int PUMP_THREADS = 2;
+  private static final OutputPump PUMP = new OutputPump("process-output-", PUMP_THREADS);
+
+  private Processes() {
+    throw new AssertionError("no instance");
+  }
+
+  /**
+   * 进程退出时完成的 Future，回调不会占用调用方线程。
+   */
+  @SuppressWarnings("unchecked")
+  public static CompletableFuture<Process> onExit(Process process) {
+    if (ON_EXIT != null) {
+      try {
+        return (CompletableFuture<Process>) ON_EXIT.invoke(process);
+      } catch (ReflectiveOperationException e) {
+        LOGGER.warn("调用 Process.onExit 失败，改为阻塞等待进程退出。", e);
+      }
+    }
+    return CompletableFuture.supplyAsync(() -> {
+      boolean interrupted = false;
+      while (true) {
+        try {
+          process.waitFor();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      return process;
+    }, WAITERS);
+  }
+
+  /**
+   * 在后台逐行读取进程的输出流直到进程退出，防止管道写满后子进程被阻塞。
+   */
+  public static OutputPump.Handle pump(Process process, InputStream inputStream,
+      Consumer<String> consumer) {
+    return PUMP.register(process, inputStream, consumer, null);
+  }
+
+  /**
+   * 所有进程共用的输出泵。
+   */
+  public static OutputPump outputPump() {
+    return PUMP;
+  }
+
+  public static boolean isWindows() {
+    return System.getProperty("os.name", "").toLowerCase().startsWith("windows");
+  }
+
+  static Method findMethod(Class<?> type, String name, Class<?>... parameterTypes) {
+    try {
+      return type.getMethod(name, parameterTypes);
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  private static final class DaemonFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+    private final String prefix;
+
+    DaemonFactory(String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
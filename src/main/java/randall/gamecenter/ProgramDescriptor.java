@@ -0,0 +1,40 @@
+package randall.gamecenter;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * 程序描述。
+ * <p>
+ * 由角色和实例序号唯一确定一个受控程序，端口等运行参数在启动前根据配置写入 {@link #program}。
+ *
+ * @author mrzhqiang
+ */
+public final class ProgramDescriptor {
+  public final ProgramRole role;
+  /** 同一角色内的实例序号，从 0 开始。 */
+  public final int index;
+  public final Share.Program program;
+  /** 启动依赖图中的节点名称，例如 DBServer、RunGate3。 */
+  public final String id;
+  /** 显示在控制台中的名称，例如 数据库服务器、游戏网关[3]。 */
+  public final String name;
+
+  ProgramDescriptor(ProgramRole role, int index, boolean multiple, Share.Program program) {
+    this(role, index, program,
+        multiple ? role.id + (index + 1) : role.id,
+        multiple ? role.displayName + "[" + (index + 1) + "]" : role.displayName);
+  }
+
+  ProgramDescriptor(ProgramRole role, int index, Share.Program program, String id, String name) {
+    Preconditions.checkArgument(index >= 0, "index < 0");
+    this.role = Preconditions.checkNotNull(role, "role == null");
+    this.index = index;
+    this.program = Preconditions.checkNotNull(program, "program == null");
+    this.id = Preconditions.checkNotNull(id, "id == null");
+    this.name = Preconditions.checkNotNull(name, "name == null");
+  }
+
+  @Override public String toString() {
+    return id;
+  }
+}
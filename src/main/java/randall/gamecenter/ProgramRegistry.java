@@ -0,0 +1,80 @@
+package randall.gamecenter;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 程序注册表。
+ * <p>
+ * 按角色登记所有受控程序，启动、检测和停止流程都遍历注册表，而不是为每个程序单独编写分支。
+ * 遍历顺序为角色的声明顺序，同一角色内按实例序号排列。
+ *
+ * @author mrzhqiang
+ */
+public final class ProgramRegistry {
+  private final Map<ProgramRole, List<ProgramDescriptor>> roles = new EnumMap<>(ProgramRole.class);
+  private final Map<Share.Program, ProgramDescriptor> programs = Maps.newIdentityHashMap();
+
+  /**
+   * 登记一个角色的全部实例。
+   */
+  public List<Share.Program> register(ProgramRole role, int count) {
+    Preconditions.checkNotNull(role, "role == null");
+    Preconditions.checkArgument(count > 0, "count <= 0");
+    Preconditions.checkState(!roles.containsKey(role), "duplicate role: %s", role);
+    List<ProgramDescriptor> descriptors = Lists.newArrayListWithCapacity(count);
+    List<Share.Program> instances = Lists.newArrayListWithCapacity(count);
+    for (int i = 0; i < count; i++) {
+      Share.Program program = new Share.Program();
+      ProgramDescriptor descriptor = new ProgramDescriptor(role, i, count > 1, program);
+      descriptors.add(descriptor);
+      instances.add(program);
+      programs.put(program, descriptor);
+    }
+    roles.put(role, Collections.unmodifiableList(descriptors));
+    return Collections.unmodifiableList(instances);
+  }
+
+  public Share.Program register(ProgramRole role) {
+    return register(role, 1).get(0);
+  }
+
+  public List<ProgramDescriptor> byRole(ProgramRole role) {
+    List<ProgramDescriptor> descriptors = roles.get(role);
+    return descriptors != null ? descriptors : Collections.emptyList();
+  }
+
+  public ProgramDescriptor get(ProgramRole role, int index) {
+    List<ProgramDescriptor> descriptors = byRole(role);
+    return index >= 0 && index < descriptors.size() ? descriptors.get(index) : null;
+  }
+
+  public ProgramDescriptor find(Share.Program program) {
+    return programs.get(program);
+  }
+
+  public List<ProgramDescriptor> all() {
+    List<ProgramDescriptor> all = Lists.newArrayListWithCapacity(programs.size());
+    for (List<ProgramDescriptor> descriptors : roles.values()) {
+      all.addAll(descriptors);
+    }
+    return all;
+  }
+
+  public List<Share.Program> programs() {
+    List<Share.Program> all = Lists.newArrayListWithCapacity(programs.size());
+    for (ProgramDescriptor descriptor : all()) {
+      all.add(descriptor.program);
+    }
+    return all;
+  }
+
+  public int size() {
+    return programs.size();
+  }
+}
@@ -0,0 +1,88 @@
+package randall.gamecenter;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import static randall.gamecenter.Share.DB_SERVER_PROCESS_CODE;
+import static randall.gamecenter.Share.LOGIN_GATE_PROCESS_CODE;
+import static randall.gamecenter.Share.LOGIN_SERVER_PROCESS_CODE;
+import static randall.gamecenter.Share.LOG_SERVER_PROCESS_CODE;
+import static randall.gamecenter.Share.M2_SERVER_PROCESS_CODE;
+import static randall.gamecenter.Share.PLUG_TOP_PROCESS_CODE;
+import static randall.gamecenter.Share.RUN_GATE_PROCESS_CODE;
+import static randall.gamecenter.Share.SEL_GATE_PROCESS_CODE;
+
+/**
+ * 程序角色。
+ * <p>
+ * 声明每一类服务端程序的握手代码、安装目录、启动依赖以及停止顺序，
+ * 同一角色可以有多个实例，例如多个游戏网关。
+ * <p>
+ * 枚举的声明顺序就是一种合法的启动顺序：每个角色只依赖排在它前面的角色。
+ *
+ * @author mrzhqiang
+ */
+public enum ProgramRole {
+  DB_SERVER("DBServer", "数据库服务器", DB_SERVER_PROCESS_CODE, "DBServer\\", 4),
+  LOGIN_SERVER("LoginSrv", "账号登陆服务器", LOGIN_SERVER_PROCESS_CODE, "LoginSrv\\", 3),
+  LOG_SERVER("LogServer", "日志服务器", LOG_SERVER_PROCESS_CODE, "LogServer\\", 3),
+  M2_SERVER("M2Server", "游戏引擎服务器", M2_SERVER_PROCESS_CODE, "Mir200\\", 2),
+  RUN_GATE("RunGate", "游戏网关", RUN_GATE_PROCESS_CODE, "RunGate\\", 1),
+  SEL_GATE("SelGate", "角色网关", SEL_GATE_PROCESS_CODE, "SelGate\\", 1),
+  LOGIN_GATE("LoginGate", "登陆网关", LOGIN_GATE_PROCESS_CODE, "LoginGate\\", 0),
+  PLUG_TOP("PlugTop", "游戏排行榜引擎", PLUG_TOP_PROCESS_CODE, "Mir200\\", 3),
+  ;
+
+  public final String id;
+  public final String displayName;
+  public final int processCode;
+  /** 相对于游戏目录的安装目录。 */
+  public final String directory;
+  /** 停止顺序，数值小的先停止，相同数值的程序并行停止。 */
+  public final int stopOrder;
+
+  ProgramRole(String id, String displayName, int processCode, String directory, int stopOrder) {
+    this.id = id;
+    this.displayName = displayName;
+    this.processCode = processCode;
+    this.directory = directory;
+    this.stopOrder = stopOrder;
+  }
+
+  /**
+   * 启动前必须就绪的角色。
+   */
+  public Set<ProgramRole> dependencies() {
+    switch (this) {
+      case LOGIN_SERVER:
+      case SEL_GATE:
+        return EnumSet.of(DB_SERVER);
+      case M2_SERVER:
+        return EnumSet.of(DB_SERVER, LOGIN_SERVER, LOG_SERVER);
+      case RUN_GATE:
+      case PLUG_TOP:
+        return EnumSet.of(M2_SERVER);
+      case LOGIN_GATE:
+        // 登陆网关是对外开放的入口，等其他网关全部就绪后再开放
+        return EnumSet.of(LOGIN_SERVER, RUN_GATE, SEL_GATE);
+      default:
+        return EnumSet.noneOf(ProgramRole.class);
+    }
+  }
+
+  /**
+   * 同一角色的多个实例是否共用一个配置文件，共用时需要依次生成配置并启动。
+   */
+  public boolean isSharedConfig() {
+    return this == RUN_GATE || this == SEL_GATE || this == LOGIN_GATE;
+  }
+
+  public static ProgramRole of(int processCode) {
+    for (ProgramRole role : values()) {
+      if (role.processCode == processCode) {
+        return role;
+      }
+    }
+    return null;
+  }
+}
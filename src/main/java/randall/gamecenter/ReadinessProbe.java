@@ -0,0 +1,189 @@
+package randall.gamecenter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 端口就绪探测器。
+ * <p>
+ * 使用一个 Selector 线程以非阻塞方式同时发起多个 TCP 连接，端口能够建立连接即认为程序已就绪，
+ * 不再只依赖程序输出的握手信息。连接建立后立即关闭，不发送任何数据。
+ *
+ * @author mrzhqiang
+ */
+public final class ReadinessProbe implements Closeable {
+  private static final Logger LOGGER = LoggerFactory.getLogger("randall");
+
+  private final Selector selector;
+  private final Queue<Attempt> pending = new ConcurrentLinkedQueue<>();
+  private final Thread thread;
+  private volatile boolean running = true;
+
+  public ReadinessProbe() {
+    try {
+      selector = Selector.open();
+    } catch (IOException e) {
+      throw new UncheckedIOException("打开端口探测器出错！", e);
+    }
+    thread = new Thread(this::loop, "readiness-probe");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * 探测单个端口。
+   *
+   * @return 在超时时间内建立连接则返回 true，连接被拒绝或超时返回 false。
+   */
+  public CompletableFuture<Boolean> probe(String host, int port, long timeout) {
+    Attempt attempt = new Attempt(new InetSocketAddress(host, port),
+        System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout));
+    if (!running) {
+      attempt.future.complete(false);
+      return attempt.future;
+    }
+    pending.add(attempt);
+    if (!running) {
+      // 检查之后探测器被关闭，探测线程可能已经处理完队列，不会再完成这次探测
+      pending.remove(attempt);
+      attempt.future.complete(false);
+      return attempt.future;
+    }
+    selector.wakeup();
+    return attempt.future;
+  }
+
+  /**
+   * 并行探测多个端口，全部可以连接才返回 true。
+   */
+  public CompletableFuture<Boolean> probeAll(String host, int[] ports, long timeout) {
+    CompletableFuture<Boolean> result = CompletableFuture.completedFuture(true);
+    for (int port : ports) {
+      CompletableFuture<Boolean> future = probe(host, port, timeout);
+      result = result.thenCombine(future, (a, b) -> a && b);
+    }
+    return result;
+  }
+
+  @Override public void close() {
+    running = false;
+    selector.wakeup();
+  }
+
+  private void loop() {
+    while (running) {
+      try {
+        register();
+        selector.select(nextTimeout());
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+          SelectionKey key = iterator.next();
+          iterator.remove();
+          Attempt attempt = (Attempt) key.attachment();
+          boolean connected;
+          try {
+            connected = ((SocketChannel) key.channel()).finishConnect();
+          } catch (IOException e) {
+            connected = false;
+          }
+          finish(key, attempt, connected);
+        }
+        expire();
+      } catch (IOException | RuntimeException e) {
+        LOGGER.error("端口探测出错！", e);
+      }
+    }
+    for (SelectionKey key : selector.keys()) {
+      finish(key, (Attempt) key.attachment(), false);
+    }
+    pending.forEach(attempt -> attempt.future.complete(false));
+    try {
+      selector.close();
+    } catch (IOException ignore) {
+    }
+  }
+
+  private void register() {
+    Attempt attempt;
+    while ((attempt = pending.poll()) != null) {
+      SocketChannel channel = null;
+      try {
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        if (channel.connect(attempt.address)) {
+          channel.close();
+          attempt.future.complete(true);
+        } else {
+          channel.register(selector, SelectionKey.OP_CONNECT, attempt);
+        }
+      } catch (IOException e) {
+        closeQuietly(channel);
+        attempt.future.complete(false);
+      }
+    }
+  }
+
+  private long nextTimeout() {
+    long deadline = Long.MAX_VALUE;
+    for (SelectionKey key : selector.keys()) {
+      Attempt attempt = (Attempt) key.attachment();
+      if (key.isValid() && attempt != null) {
+        deadline = Math.min(deadline, attempt.deadline);
+      }
+    }
+    if (deadline == Long.MAX_VALUE) {
+      return 0;
+    }
+    return Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+  }
+
+  private void expire() {
+    long now = System.nanoTime();
+    for (SelectionKey key : selector.keys()) {
+      Attempt attempt = (Attempt) key.attachment();
+      if (key.isValid() && attempt != null && now - attempt.deadline >= 0) {
+        finish(key, attempt, false);
+      }
+    }
+  }
+
+  private void finish(SelectionKey key, Attempt attempt, boolean connected) {
+    key.cancel();
+    closeQuietly(key.channel());
+    if (attempt != null) {
+      attempt.future.complete(connected);
+    }
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (IOException ignore) {
+      }
+    }
+  }
+
+  private static final class Attempt {
+    final InetSocketAddress address;
+    final long deadline;
+    final CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+    Attempt(InetSocketAddress address, long deadline) {
+      this.address = address;
+      this.deadline = deadline;
+    }
+  }
+}
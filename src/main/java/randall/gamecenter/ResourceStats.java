@@ -0,0 +1,90 @@
+package randall.gamecenter;
+
+/**
+ * 程序资源统计。
+ * <p>
+ * 保存最近一段时间的 CPU 使用率、常驻内存、线程数和文件数，用于在控制台显示，
+ * 并发现内存持续增长和 CPU 长时间饱和的程序。
+ *
+ * @author mrzhqiang
+ */
+public final class ResourceStats {
+  /** CPU 使用率以千分比保存，1000 表示占满一个核心。 */
+  public final LongRingBuffer cpu;
+  /** 常驻内存，单位：KB。 */
+  public final LongRingBuffer rss;
+  public final LongRingBuffer threads;
+  public final LongRingBuffer files;
+
+  /** 已经提示过 CPU 饱和或内存增长，避免每次采样都重复提示，进程更换后重置。 */
+  public volatile boolean cpuWarned;
+  public volatile boolean memoryWarned;
+
+  private Process process;
+  private long lastTick;
+  private long lastCpuTime = -1;
+
+  public ResourceStats(int capacity) {
+    cpu = new LongRingBuffer(capacity);
+    rss = new LongRingBuffer(capacity);
+    threads = new LongRingBuffer(capacity);
+    files = new LongRingBuffer(capacity);
+  }
+
+  /**
+   * 记录一次采样；进程更换后清空历史数据。
+   */
+  public synchronized void record(Process process, ProcessSampler.Sample sample) {
+    if (this.process != process) {
+      this.process = process;
+      clear();
+    }
+    if (lastCpuTime >= 0 && sample.cpuTime >= 0 && sample.tick > lastTick) {
+      long wall = (sample.tick - lastTick) / 1000000;
+      if (wall > 0) {
+        cpu.add((sample.cpuTime - lastCpuTime) * 1000 / wall);
+      }
+    }
+    lastTick = sample.tick;
+    lastCpuTime = sample.cpuTime;
+    rss.add(sample.rss);
+    threads.add(sample.threads);
+    files.add(sample.files);
+  }
+
+  /**
+   * 窗口写满后，CPU 平均使用率不低于阈值（千分比）。
+   */
+  public boolean isCpuSaturated(long threshold) {
+    return cpu.isFull() && cpu.average() >= threshold;
+  }
+
+  /**
+   * 窗口写满后，内存几乎一直在增长，并且增长超过了阈值（千分比）。
+   */
+  public boolean isMemoryGrowing(long threshold) {
+    if (!rss.isFull() || rss.get(0) <= 0) {
+      return false;
+    }
+    int rising = 0;
+    for (int i = 1; i < rss.size(); i++) {
+      if (rss.get(i) > rss.get(i - 1)) {
+        rising++;
+      }
+    }
+    long first = rss.get(0);
+    long last = rss.get(rss.size() - 1);
+    return rising * 10 >= (rss.size() - 1) * 9 && (last - first) * 1000 / first >= threshold;
+  }
+
+  public synchronized void clear() {
+    cpu.clear();
+    rss.clear();
+    threads.clear();
+    files.clear();
+    cpuWarned = false;
+    memoryWarned = false;
+    lastTick = 0;
+    lastCpuTime = -1;
+  }
+}
@@ -0,0 +1,131 @@
+package randall.gamecenter;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 重启策略。
+ * <p>
+ * 程序异常退出后按指数退避并加入随机抖动延迟重启；如果在统计窗口内失败次数达到上限，
+ * 则熔断暂停该程序，不再重启，等待人工处理，避免同一主机上的其他程序被频繁重启拖累。
+ * <p>
+ * 运行检测、启动流程、弹性伸缩和备用网关切换都会在各自的线程中调用，修改状态的方法互斥执行；
+ * 只读取一个状态的方法不加锁。时间参数单位均为毫秒。
+ *
+ * @author mrzhqiang
+ */
+public final class RestartPolicy {
+  public static final long DEFAULT_BASE_DELAY = TimeUnit.SECONDS.toMillis(1);
+  public static final long DEFAULT_MAX_DELAY = TimeUnit.MINUTES.toMillis(1);
+  public static final int DEFAULT_FAILURE_LIMIT = 5;
+  public static final long DEFAULT_WINDOW = TimeUnit.MINUTES.toMillis(5);
+  /** 程序持续运行超过这个时间，认为已经恢复正常，退避延迟从头计算。 */
+  public static final long DEFAULT_STABLE_TIME = TimeUnit.MINUTES.toMillis(1);
+  private static final double JITTER = 0.2;
+
+  private final long baseDelay;
+  private final long maxDelay;
+  private final int failureLimit;
+  private final long window;
+  private final long stableTime;
+
+  /** 统计窗口内的失败时刻，以下字段都只在持有对象锁时修改。 */
+  private final Deque<Long> failures = new ArrayDeque<>();
+  private int consecutive;
+  private long launchTime;
+  private long nextAttempt;
+  private volatile boolean pending;
+  private volatile boolean parked;
+  private volatile int lastExitCode;
+
+  public RestartPolicy() {
+    this(DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY, DEFAULT_FAILURE_LIMIT, DEFAULT_WINDOW,
+        DEFAULT_STABLE_TIME);
+  }
+
+  public RestartPolicy(long baseDelay, long maxDelay, int failureLimit, long window,
+      long stableTime) {
+    this.baseDelay = baseDelay;
+    this.maxDelay = maxDelay;
+    this.failureLimit = failureLimit;
+    this.window = window;
+    this.stableTime = stableTime;
+  }
+
+  /**
+   * 记录一次异常退出。
+   *
+   * @return 距离下次允许重启的延迟；如果已经熔断暂停，返回 -1。
+   */
+  public synchronized long onFailure(long now, int exitCode) {
+    lastExitCode = exitCode;
+    pending = true;
+    if (launchTime > 0 && now - launchTime >= stableTime) {
+      consecutive = 0;
+    }
+    consecutive++;
+    failures.addLast(now);
+    while (!failures.isEmpty() && now - failures.peekFirst() > window) {
+      failures.removeFirst();
+    }
+    if (failures.size() >= failureLimit) {
+      parked = true;
+      return -1;
+    }
+    long delay = baseDelay << Math.min(consecutive - 1, 20);
+    delay = Math.min(delay, maxDelay);
+    double jitter = 1 + ThreadLocalRandom.current().nextDouble(-JITTER, JITTER);
+    delay = Math.max(0, (long) (delay * jitter));
+    nextAttempt = now + delay;
+    return delay;
+  }
+
+  /**
+   * 是否已经记录了失败，正在等待重启。
+   */
+  public boolean isPending() {
+    return pending;
+  }
+
+  public synchronized boolean canRestart(long now) {
+    return pending && !parked && now >= nextAttempt;
+  }
+
+  /**
+   * 记录一次重启。
+   */
+  public synchronized void onLaunched(long now) {
+    pending = false;
+    launchTime = now;
+  }
+
+  /**
+   * 不经过失败计数直接熔断暂停，例如依赖的程序已经熔断暂停，启动之后也只会反复崩溃。
+   */
+  public synchronized void park() {
+    pending = false;
+    parked = true;
+  }
+
+  public boolean isParked() {
+    return parked;
+  }
+
+  public int lastExitCode() {
+    return lastExitCode;
+  }
+
+  /**
+   * 解除熔断并清空失败记录，通常在人工重新启动游戏时调用。
+   */
+  public synchronized void reset() {
+    failures.clear();
+    consecutive = 0;
+    launchTime = 0;
+    nextAttempt = 0;
+    pending = false;
+    parked = false;
+  }
+}
@@ -0,0 +1,260 @@
+package randall.gamecenter;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 滚动重启。
+ * <p>
+ * 在游戏运行期间分批重启网关：每批先正常停止，再依次生成配置并启动，
+ * 等到整批网关的端口全部就绪后才开始下一批。同一角色中至少保留指定数量的可用网关，
+ * 因此不需要停止整个游戏。
+ * <p>
+ * 正在重启的程序标记为维护状态，运行检测不会把它当作异常退出而重启或切换。
+ *
+ * @author mrzhqiang
+ */
+public final class RollingRestart {
+  private final Supervisor supervisor;
+  private final ReadinessProbe probe;
+  private final long probeTimeout;
+  private final long probeInterval;
+  private final long readyTimeout;
+
+  private volatile boolean cancelled;
+
+  public RollingRestart(Supervisor supervisor, ReadinessProbe probe, long probeTimeout,
+      long probeInterval, long readyTimeout) {
+    this.supervisor = Preconditions.checkNotNull(supervisor, "supervisor == null");
+    this.probe = Preconditions.checkNotNull(probe, "probe == null");
+    this.probeTimeout = probeTimeout;
+    this.probeInterval = probeInterval;
+    this.readyTimeout = readyTimeout;
+  }
+
+  /**
+   * 开始滚动重启。
+   *
+   * @param targets      需要重启的程序，同一角色的程序放在一起。
+   * @param batchSize    每批最多重启的数量。
+   * @param minAvailable 同一角色至少保留的可用数量，无法满足时跳过该角色。
+   * @param launcher     生成配置并启动程序，返回 false 表示程序已被禁用，不再启动。
+   * @param listener     每个程序处理完毕后回调。
+   */
+  public CompletableFuture<List<Result>> restart(List<ProgramDescriptor> targets, int batchSize,
+      int minAvailable, Launcher launcher, Consumer<Result> listener) {
+    Preconditions.checkArgument(batchSize > 0, "batchSize <= 0");
+    List<Result> results = Collections.synchronizedList(Lists.newArrayList());
+    Consumer<Result> collector = result -> {
+      results.add(result);
+      listener.accept(result);
+    };
+    CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+    for (List<ProgramDescriptor> group : groupByRole(targets)) {
+      chain = chain.thenCompose(ignore -> restartGroup(group, batchSize, minAvailable, launcher,
+          collector));
+    }
+    return chain.thenApply(ignore -> {
+      synchronized (results) {
+        return Lists.newArrayList(results);
+      }
+    });
+  }
+
+  public void cancel() {
+    cancelled = true;
+  }
+
+  private CompletableFuture<Void> restartGroup(List<ProgramDescriptor> group, int batchSize,
+      int minAvailable, Launcher launcher, Consumer<Result> listener) {
+    int ready = 0;
+    for (ProgramDescriptor descriptor : group) {
+      if (isRunning(descriptor.program)) {
+        ready++;
+      }
+    }
+    // 已经停止的程序不占用可用数量，但运行中的程序必须留够余量
+    int size = Math.min(batchSize, ready - minAvailable);
+    if (size < 1) {
+      for (ProgramDescriptor descriptor : group) {
+        listener.accept(new Result(descriptor, Outcome.SKIPPED, 0));
+      }
+      return CompletableFuture.completedFuture(null);
+    }
+    CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+    for (List<ProgramDescriptor> batch : Lists.partition(group, size)) {
+      chain = chain.thenCompose(ignore -> restartBatch(batch, launcher, listener));
+    }
+    return chain;
+  }
+
+  private CompletableFuture<Void> restartBatch(List<ProgramDescriptor> batch, Launcher launcher,
+      Consumer<Result> listener) {
+    checkCancelled();
+    long startTick = System.nanoTime();
+    ShutdownEngine.Tier tier = new ShutdownEngine.Tier("滚动重启", 0);
+    for (ProgramDescriptor descriptor : batch) {
+      descriptor.program.maintenance = true;
+      tier.add(descriptor.name, descriptor.program);
+    }
+    CompletableFuture<Void> chain = new ShutdownEngine(supervisor)
+        .shutdown(Collections.singletonList(tier), result -> {
+        })
+        .thenApply(ignore -> null);
+    // 共用配置文件，上一个程序读取配置之后才启动下一个
+    for (ProgramDescriptor descriptor : batch) {
+      chain = chain.thenCompose(ignore -> {
+        checkCancelled();
+        if (!launcher.launch(descriptor)) {
+          return CompletableFuture.completedFuture(null);
+        }
+        Share.Program program = descriptor.program;
+        return await(() -> CompletableFuture.completedFuture(program.processCode != null
+            || program.state() != Lifecycle.State.STARTING)).thenApply(ok -> null);
+      });
+    }
+    return chain.thenCompose(ignore -> {
+      CompletableFuture<?>[] futures = new CompletableFuture<?>[batch.size()];
+      for (int i = 0; i < futures.length; i++) {
+        ProgramDescriptor descriptor = batch.get(i);
+        futures[i] = awaitReady(descriptor.program).thenAccept(ready -> {
+          descriptor.program.maintenance = false;
+          Outcome outcome;
+          if (!descriptor.program.getStart) {
+            outcome = Outcome.DISABLED;
+          } else {
+            outcome = ready ? Outcome.RESTARTED : Outcome.TIMEOUT;
+          }
+          long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTick);
+          listener.accept(new Result(descriptor, outcome, elapsed));
+        });
+      }
+      return CompletableFuture.allOf(futures);
+    }).whenComplete((ignore, throwable) -> {
+      if (throwable != null) {
+        for (ProgramDescriptor descriptor : batch) {
+          descriptor.program.maintenance = false;
+        }
+      }
+    });
+  }
+
+  /**
+   * 等待程序就绪：收到第二次握手信息，或者端口全部可以连接。
+   */
+  private CompletableFuture<Boolean> awaitReady(Share.Program program) {
+    if (!program.getStart) {
+      return CompletableFuture.completedFuture(true);
+    }
+    return await(() -> {
+      Lifecycle.State state = program.state();
+      if (state == Lifecycle.State.RUNNING) {
+        return CompletableFuture.completedFuture(true);
+      }
+      if (state != Lifecycle.State.STARTING || program.ports.length == 0) {
+        return CompletableFuture.completedFuture(false);
+      }
+      return probe.probeAll(program.probeHost, program.ports, probeTimeout).thenApply(ready -> {
+        if (ready) {
+          program.lifecycle.compareAndSet(Lifecycle.State.STARTING, Lifecycle.State.RUNNING);
+        }
+        return ready;
+      });
+    });
+  }
+
+  /**
+   * 按探测间隔反复检查条件，直到满足或者超过就绪超时。
+   */
+  private CompletableFuture<Boolean> await(Supplier<CompletableFuture<Boolean>> condition) {
+    CompletableFuture<Boolean> future = new CompletableFuture<>();
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(readyTimeout);
+    poll(condition, deadline, future);
+    return future;
+  }
+
+  private void poll(Supplier<CompletableFuture<Boolean>> condition, long deadline,
+      CompletableFuture<Boolean> future) {
+    if (cancelled) {
+      future.completeExceptionally(new CancellationException("滚动重启已取消"));
+      return;
+    }
+    condition.get().whenComplete((ok, throwable) -> {
+      if (Boolean.TRUE.equals(ok)) {
+        future.complete(true);
+      } else if (System.nanoTime() - deadline >= 0) {
+        future.complete(false);
+      } else {
+        supervisor.schedule("rolling-restart-poll", () -> poll(condition, deadline, future),
+            probeInterval);
+      }
+    });
+  }
+
+  private void checkCancelled() {
+    if (cancelled) {
+      throw new CancellationException("滚动重启已取消");
+    }
+  }
+
+  private static boolean isRunning(Share.Program program) {
+    Process process = program.process;
+    return program.state() == Lifecycle.State.RUNNING && process != null && process.isAlive();
+  }
+
+  private static List<List<ProgramDescriptor>> groupByRole(List<ProgramDescriptor> targets) {
+    List<List<ProgramDescriptor>> groups = Lists.newArrayList();
+    List<ProgramDescriptor> group = null;
+    for (ProgramDescriptor descriptor : targets) {
+      if (group == null || group.get(0).role != descriptor.role) {
+        group = Lists.newArrayList();
+        groups.add(group);
+      }
+      group.add(descriptor);
+    }
+    return groups;
+  }
+
+  public interface Launcher {
+    boolean launch(ProgramDescriptor descriptor);
+  }
+
+  public enum Outcome {
+    RESTARTED("重启完成"),
+    TIMEOUT("就绪超时"),
+    DISABLED("已禁用"),
+    SKIPPED("可用数量不足，已跳过"),
+    ;
+
+    public final String name;
+
+    Outcome(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  public static final class Result {
+    public final ProgramDescriptor descriptor;
+    public final Outcome outcome;
+    /** 从开始停止这一批到程序就绪的耗时，单位：毫秒。 */
+    public final long elapsed;
+
+    Result(ProgramDescriptor descriptor, Outcome outcome, long elapsed) {
+      this.descriptor = descriptor;
+      this.outcome = outcome;
+      this.elapsed = elapsed;
+    }
+  }
+}
@@ -0,0 +1,335 @@
+package randall.gamecenter;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.ini4j.Ini;
+import org.ini4j.Wini;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static randall.gamecenter.Lifecycle.State.STOPPED;
+import static randall.gamecenter.Share.BASIC_SECTION_NAME;
+import static randall.gamecenter.Share.DEFAULT_CONTROL_ADDRESS;
+import static randall.gamecenter.Share.DEFAULT_CONTROL_PORT;
+import static randall.gamecenter.Share.DEFAULT_CONTROL_THREADS;
+import static randall.gamecenter.Share.SCHEDULE_STATE_FILE;
+
+/**
+ * 分区管理。
+ * <p>
+ * 一个控制器同时管理多个游戏目录（分区），每个分区有自己的配置文件、受控程序和备份文件列表，
+ * 所有分区共用同一个调度线程池、端口探测器和维护计划，控制器的线程数不再随分区数量线性增加。
+ * 分区列表写在单独的配置文件中，相对路径以这个文件所在的目录为准：
+ * <pre>
+ * [GameConfig]
+ * ControlPort = 8700
+ * [Shards]
+ * World1 = /opt/mir/world1/Config.ini
+ * World2 = world2/Config.ini
+ * </pre>
+ * 分区自己配置的控制接口不会开启，统一由这里按 [GameConfig] 中的配置开启，通过 /shards 查询和操作各个分区。
+ * <p>
+ * 各个分区的程序运行在同一台机器上，不同分区中启用的程序不能监听同一个端口，否则拒绝加载。
+ *
+ * @author mrzhqiang
+ */
+public final class ShardManager implements AutoCloseable {
+  private static final Logger LOGGER = LoggerFactory.getLogger("randall");
+
+  public static final String SHARDS_SECTION_NAME = "Shards";
+  /** 调度线程数量的上限，每个分区增加一个线程，备份等耗时任务不会阻塞其他分区的启停。 */
+  static final int MAX_POOL_SIZE = 8;
+
+  private final Map<String, Shard> shards = Maps.newLinkedHashMap();
+  private final Supervisor supervisor;
+  private final ReadinessProbe readinessProbe = new ReadinessProbe();
+  private final MaintenanceScheduler scheduler;
+
+  /** 控制接口的端口，为 0 表示不开启。 */
+  public int controlPort = DEFAULT_CONTROL_PORT;
+  public String controlAddress = DEFAULT_CONTROL_ADDRESS;
+  public String controlToken = "";
+  public int controlThreads = DEFAULT_CONTROL_THREADS;
+
+  private ControlServer controlServer;
+  private boolean closed;
+
+  /**
+   * @param configs   每个分区的名称和配置文件，按先后排列。
+   * @param statePath 共用维护计划的状态文件，为 null 表示不记录。
+   */
+  public ShardManager(Map<String, Path> configs, Path statePath, GameEngine.Listener listener) {
+    Preconditions.checkArgument(!configs.isEmpty(), "no shards");
+    Preconditions.checkNotNull(listener, "listener == null");
+    supervisor = new Supervisor(Math.min(configs.size() + 1, MAX_POOL_SIZE));
+    scheduler = new MaintenanceScheduler(supervisor, Clock.systemUTC(), statePath);
+    for (Map.Entry<String, Path> entry : configs.entrySet()) {
+      String name = entry.getKey();
+      Preconditions.checkArgument(!Strings.isNullOrEmpty(name) && name.indexOf('/') < 0
+          && !isReserved(name), "invalid shard name: %s", name);
+      Share share = new Share(entry.getValue(), name, supervisor, readinessProbe);
+      share.loadConfig();
+      GameEngine engine = new GameEngine(share, new ShardListener(name, listener), scheduler);
+      shards.put(name, new Shard(name, share, engine));
+    }
+    try {
+      checkPorts(shards.values());
+    } catch (IllegalArgumentException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /**
+   * 检查不同分区之间的端口冲突。
+   *
+   * @throws IllegalArgumentException 有冲突时，列出所有冲突的端口。
+   */
+  static void checkPorts(Iterable<Shard> shards) {
+    Map<Integer, String> owners = Maps.newHashMap();
+    List<String> conflicts = Lists.newArrayList();
+    for (Shard shard : shards) {
+      for (Map.Entry<Integer, String> entry : shard.share.listenPorts().entrySet()) {
+        String owner = shard.name + "/" + entry.getValue();
+        String previous = owners.putIfAbsent(entry.getKey(), owner);
+        if (previous != null) {
+          conflicts.add(String.format("%s 与 %s 都使用端口 %d", owner, previous, entry.getKey()));
+        }
+      }
+    }
+    Preconditions.checkArgument(conflicts.isEmpty(), "分区端口冲突：%s",
+        Joiner.on('；').join(conflicts));
+  }
+
+  /**
+   * 控制接口中的批量操作名称，不能用作分区名称。
+   */
+  public static boolean isReserved(String name) {
+    return "start".equals(name) || "stop".equals(name) || "rolling-restart".equals(name)
+        || "backup".equals(name);
+  }
+
+  /**
+   * 读取分区列表文件。
+   */
+  public static ShardManager load(Path path, GameEngine.Listener listener) throws IOException {
+    ShardManager manager = new ShardManager(readConfigs(path),
+        path.toAbsolutePath().resolveSibling(SCHEDULE_STATE_FILE), listener);
+    Ini.Section basic = new Wini(path.toFile()).get(BASIC_SECTION_NAME);
+    if (basic != null) {
+      manager.controlPort = basic.get("ControlPort", Integer.class, DEFAULT_CONTROL_PORT);
+      manager.controlAddress = basic.get("ControlAddress", DEFAULT_CONTROL_ADDRESS);
+      manager.controlToken = basic.get("ControlToken", "");
+      manager.controlThreads = basic.get("ControlThreads", Integer.class, DEFAULT_CONTROL_THREADS);
+    }
+    return manager;
+  }
+
+  /**
+   * 读取分区列表文件中的分区名称和配置文件。
+   */
+  public static Map<String, Path> readConfigs(Path path) throws IOException {
+    Preconditions.checkArgument(Files.exists(path), "找不到分区列表：%s", path);
+    Ini.Section section = new Wini(path.toFile()).get(SHARDS_SECTION_NAME);
+    Preconditions.checkArgument(section != null && !section.isEmpty(),
+        "分区列表中没有 [%s]：%s", SHARDS_SECTION_NAME, path);
+    Path directory = path.toAbsolutePath().getParent();
+    Map<String, Path> configs = Maps.newLinkedHashMap();
+    for (String name : section.keySet()) {
+      configs.put(name.trim(), directory.resolve(section.get(name).trim()));
+    }
+    return configs;
+  }
+
+  /**
+   * 所有分区，按配置的先后排列。
+   */
+  public List<Shard> shards() {
+    return Collections.unmodifiableList(Lists.newArrayList(shards.values()));
+  }
+
+  /**
+   * 指定名称的分区，不存在时返回 null。
+   */
+  public Shard shard(String name) {
+    return shards.get(name);
+  }
+
+  public MaintenanceScheduler scheduler() {
+    return scheduler;
+  }
+
+  /**
+   * 打开所有分区：读取备份文件列表，开始后台任务并接管仍在运行的程序，然后开启控制接口。
+   */
+  public void open() {
+    for (Shard shard : shards.values()) {
+      Share share = shard.share;
+      try {
+        share.backupManager.load(Paths.get(share.gameDirectory, share.backupListFile));
+      } catch (IOException e) {
+        LOGGER.error(String.format("[%s] 读取备份文件列表出错！", shard.name), e);
+      }
+      shard.engine.open();
+      if (share.autoRunBakEnabled) {
+        shard.engine.setBackupRunning(true);
+      }
+    }
+    if (controlPort > 0) {
+      try {
+        controlServer = new ControlServer(this, controlAddress, controlPort, controlThreads,
+            controlToken);
+        LOGGER.info("控制接口已开启：" + controlServer.address());
+      } catch (IOException | IllegalArgumentException e) {
+        LOGGER.error("开启控制接口失败！", e);
+      }
+    }
+  }
+
+  /**
+   * 启动所有已经停止的分区。
+   *
+   * @return 开始启动的分区名称。
+   */
+  public List<String> startAll() {
+    List<String> started = Lists.newArrayList();
+    for (Shard shard : shards.values()) {
+      if (shard.engine.state() == STOPPED && shard.engine.start(0)) {
+        started.add(shard.name);
+      }
+    }
+    return started;
+  }
+
+  /**
+   * 停止所有分区。
+   *
+   * @return 所有分区停止后完成，任意一个分区的停止流程被中止时异常完成。
+   */
+  public CompletableFuture<Void> stopAll() {
+    List<CompletableFuture<?>> futures = Lists.newArrayList();
+    for (Shard shard : shards.values()) {
+      futures.add(shard.engine.stop());
+    }
+    return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+  }
+
+  /**
+   * 同时停止所有分区最长需要的时间，即最慢的分区的时间，单位：毫秒。
+   */
+  public long stopTimeout() {
+    long timeout = 0;
+    for (Shard shard : shards.values()) {
+      timeout = Math.max(timeout, shard.engine.stopTimeout());
+    }
+    return timeout;
+  }
+
+  /**
+   * 滚动重启所有正在运行的分区，各分区之间互不影响。
+   *
+   * @return 开始滚动重启的分区名称。
+   */
+  public List<String> rollingRestartAll() {
+    List<String> restarted = Lists.newArrayList();
+    for (Shard shard : shards.values()) {
+      if (shard.engine.rollingRestart()) {
+        restarted.add(shard.name);
+      }
+    }
+    return restarted;
+  }
+
+  /**
+   * 开启或者停止所有分区的数据备份。
+   */
+  public void setBackupRunning(boolean running) {
+    for (Shard shard : shards.values()) {
+      shard.engine.setBackupRunning(running);
+    }
+  }
+
+  /**
+   * 结束所有分区的后台任务，受控程序不会随之退出。
+   */
+  @Override public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (controlServer != null) {
+      controlServer.close();
+    }
+    for (Shard shard : shards.values()) {
+      shard.engine.close();
+    }
+    scheduler.close();
+    readinessProbe.close();
+    LOGGER.info(supervisor.report());
+    supervisor.shutdown();
+  }
+
+  /**
+   * 一个分区。
+   */
+  public static final class Shard {
+    public final String name;
+    public final Share share;
+    public final GameEngine engine;
+
+    Shard(String name, Share share, GameEngine engine) {
+      this.name = name;
+      this.share = share;
+      this.engine = engine;
+    }
+  }
+
+  /**
+   * 运行信息加上分区名称，再交给上层处理。
+   */
+  private static final class ShardListener implements GameEngine.Listener {
+    private final String prefix;
+    private final GameEngine.Listener delegate;
+
+    ShardListener(String name, GameEngine.Listener delegate) {
+      this.prefix = "[" + name + "] ";
+      this.delegate = delegate;
+    }
+
+    @Override public void onMessage(String message) {
+      delegate.onMessage(prefix + message);
+    }
+
+    @Override public void onError(String message, Throwable throwable) {
+      delegate.onError(prefix + message, throwable);
+    }
+
+    @Override public void onStateChanged(Lifecycle.State state) {
+      delegate.onStateChanged(state);
+    }
+
+    @Override public void onParked(Share.Program program, int exitCode) {
+      delegate.onParked(program, exitCode);
+    }
+
+    @Override public void onBackupChanged(boolean running) {
+      delegate.onBackupChanged(running);
+    }
+
+    @Override public void onResources(String report) {
+      delegate.onResources(prefix + report);
+    }
+  }
+}
@@ -1,27 +1,26 @@
 package randall.gamecenter;
 
+import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
-import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import io.reactivex.Observable;
 import io.reactivex.ObservableEmitter;
 import io.reactivex.disposables.Disposable;
-import io.reactivex.schedulers.Schedulers;
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import org.ini4j.Ini;
 import org.ini4j.Wini;
-import randall.common.ui.Dialogs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import randall.common.util.IOHelper;
 
 /**
@@ -30,7 +29,20 @@ import randall.common.util.IOHelper;
  * @author mrzhqiang
  */
 public final class Share {
-  public static final int MAX_RUN_GATE_COUNT = 8;
+  private static final Logger LOGGER = LoggerFactory.getLogger("randall");
+
+  /** 游戏网关的最大数量，超出界面显示数量的网关通过配置文件启用。 */
+  public static final int MAX_RUN_GATE_COUNT = 64;
+  /** 控制台和配置向导中显示的游戏网关数量。 */
+  public static final int CONSOLE_RUN_GATE_COUNT = 8;
+  public static final int DEFAULT_RUN_GATE_PORT = 7200;
+  public static final int DEFAULT_RUN_GATE_START_COUNT = 3;
+  public static final int DEFAULT_STANDBY_PORT = 7300;
+  public static final int DEFAULT_SCALE_MIN = DEFAULT_RUN_GATE_START_COUNT;
+  public static final int DEFAULT_SCALE_UP = 500;
+  public static final int DEFAULT_SCALE_DOWN = 200;
+  public static final long DEFAULT_SCALE_COOLDOWN = 120000;
+  public static final long DEFAULT_SCALE_DRAIN_TIMEOUT = 600000;
 
   public static final int DB_SERVER_PROCESS_CODE = 1001;
   public static final int LOGIN_SERVER_PROCESS_CODE = 1002;
@@ -41,12 +53,6 @@ public final class Share {
   public static final int RUN_GATE_PROCESS_CODE = 1007;
   public static final int PLUG_TOP_PROCESS_CODE = 1008;
 
-  public static final int STOPPED_STATE = 0;
-  public static final int STARTING_STATE = 1;
-  public static final int RUNNING_STATE = 2;
-  public static final int STOPPING_STATE = 3;
-  public static final int ERROR_STATE = 9;
-
   public static final String QUIT_CODE = ":QUIT";
 
   public static final String BASIC_SECTION_NAME = "GameConfig";
@@ -58,6 +64,10 @@ public final class Share {
   public static final String SEL_GATE_SECTION_NAME = "SelGate";
   public static final String LOGIN_GATE_SECTION_NAME = "LoginGate";
   public static final String PLUG_TOP_SECTION_NAME = "PlugTop";
+  /** 维护计划，每行一个计划：名称 = 表达式 | 操作 | 错过策略。 */
+  public static final String SCHEDULE_SECTION_NAME = "Schedule";
+  /** 远程节点，每行一个代理：名称 = 地址:端口。 */
+  public static final String AGENTS_SECTION_NAME = "Agents";
 
   public static final String ALL_IP_ADDRESS = "0.0.0.0";
   public static final String PRIMARY_IP_ADDRESS = "127.0.0.1";
@@ -85,6 +95,34 @@ public final class Share {
   public static final Boolean DEFAULT_AUTO_RUN_BACKUP = false;
   public static final boolean DEFAULT_IP_2_ENABLED = false;
   public static final boolean DEFAULT_CLOSE_WUXING_ENABLED = false;
+  public static final int DEFAULT_PROBE_TIMEOUT = 500;
+  public static final long DEFAULT_STOP_TIMEOUT = 10000;
+  /** 游戏引擎退出时需要保存全部玩家数据，给予更长的退出时间。 */
+  public static final long DEFAULT_M2_SERVER_STOP_TIMEOUT = 60000;
+  public static final long DEFAULT_DB_SERVER_STOP_TIMEOUT = 30000;
+  public static final int DEFAULT_PROBE_INTERVAL = 200;
+  public static final LaunchSpec.ErrorOutput DEFAULT_ERROR_OUTPUT = LaunchSpec.ErrorOutput.PUMP;
+  public static final String ERROR_LOG_DIRECTORY = "Logs";
+  /** 进程日志，相对于游戏目录。 */
+  public static final String PID_JOURNAL_FILE = "GameCenter.pids";
+  /** 启动和停止的时间线，相对于日志目录。 */
+  public static final String TIMELINE_DIRECTORY = "Timeline";
+  /** 维护计划最后一次执行的时间，相对于游戏目录。 */
+  public static final String SCHEDULE_STATE_FILE = "GameCenter.schedule";
+  /** 卡死诊断信息的目录，位于日志目录下。 */
+  public static final String HANG_DIRECTORY = "Hang";
+  /** 保留的最近输出行数，卡死时写入诊断信息。 */
+  public static final int OUTPUT_TAIL_LINES = 50;
+  /** 每个程序保留的资源采样数量，按 5 秒一次采样约为 5 分钟。 */
+  public static final int RESOURCE_SAMPLE_COUNT = 60;
+  public static final int DEFAULT_ROLLING_BATCH_SIZE = 1;
+  public static final int DEFAULT_ROLLING_MIN_AVAILABLE = 1;
+  public static final int DEFAULT_ROLLING_READY_TIMEOUT = 60000;
+  public static final int DEFAULT_CONTROL_PORT = 0;
+  public static final String DEFAULT_CONTROL_ADDRESS = "127.0.0.1";
+  public static final int DEFAULT_CONTROL_THREADS = 4;
+  public static final int DEFAULT_AGENT_PORT = 0;
+  public static final String DEFAULT_AGENT_ADDRESS = "127.0.0.1";
 
   public Ini ini;
 
@@ -104,35 +142,329 @@ public final class Share {
   public boolean closeWuXinEnabled = DEFAULT_CLOSE_WUXING_ENABLED;
   public boolean ip2Enabled = DEFAULT_IP_2_ENABLED;
 
-  public long stopTick;
-  public long stopTimeout = 10000;
+  /** 端口探测的连接超时，单位：毫秒。 */
+  public int probeTimeout = DEFAULT_PROBE_TIMEOUT;
+  /** 启动过程中端口探测的间隔，单位：毫秒。 */
+  public int probeInterval = DEFAULT_PROBE_INTERVAL;
+
+  /** 没有单独配置的程序收到退出指令后等待退出的时间，单位：毫秒。 */
+  public long stopTimeout = DEFAULT_STOP_TIMEOUT;
+  /** 滚动重启时每批重启的网关数量。 */
+  public int rollingBatchSize = DEFAULT_ROLLING_BATCH_SIZE;
+  /** 滚动重启时同一类网关至少保留的可用数量。 */
+  public int rollingMinAvailable = DEFAULT_ROLLING_MIN_AVAILABLE;
+  /** 滚动重启时等待网关就绪的时间，单位：毫秒。 */
+  public int rollingReadyTimeout = DEFAULT_ROLLING_READY_TIMEOUT;
+  /** 子进程标准错误输出的处理方式。 */
+  public LaunchSpec.ErrorOutput errorOutput = DEFAULT_ERROR_OUTPUT;
+  /** 控制接口的端口，为 0 表示不开启。 */
+  public int controlPort = DEFAULT_CONTROL_PORT;
+  /** 控制接口监听的地址，默认只允许本机访问。 */
+  public String controlAddress = DEFAULT_CONTROL_ADDRESS;
+  /** 控制接口的访问令牌，为空表示不校验。 */
+  public String controlToken = "";
+  /** 控制接口处理请求的线程数。 */
+  public int controlThreads = DEFAULT_CONTROL_THREADS;
+  /** 维护计划使用的时区，为空表示系统时区。 */
+  public String scheduleZone = "";
+  /** 维护计划，按配置中的先后排列。 */
+  public final Map<String, String> schedules = Maps.newLinkedHashMap();
+  /** 远程代理的端口，为 0 表示不开启，开启后远程控制台可以管理本机的程序。 */
+  public int agentPort = DEFAULT_AGENT_PORT;
+  /** 远程代理监听的地址，控制台在其他主机上时需要改为内网地址。 */
+  public String agentAddress = DEFAULT_AGENT_ADDRESS;
+  /** 远程代理的访问令牌，连接其他节点的代理时使用同一个令牌，为空表示不校验。 */
+  public String agentToken = "";
+  /** 控制台管理的远程节点，名称和代理地址，按配置中的先后排列。 */
+  public final Map<String, String> agents = Maps.newLinkedHashMap();
 
   public final Config config = new Config();
 
-  public final Program dbServer = new Program();
-  public final Program loginServer = new Program();
-  public final Program logServer = new Program();
-  public final Program m2Server = new Program();
-  public final List<Program> runGate = Lists.newArrayListWithCapacity(MAX_RUN_GATE_COUNT);
-  public final Program selGate = new Program();
-  public final Program selGate1 = new Program();
-  public final Program loginGate = new Program();
-  public final Program loginGate2 = new Program();
-  public final Program plugTop = new Program();
-
-  public BackupManager backupManager = new BackupManager();
+  /** 每个角色的进程放置策略，没有配置的角色不做调整。 */
+  public final Map<ProgramRole, Placement> placements = Maps.newEnumMap(ProgramRole.class);
+  /** 每个角色的 cgroup 资源限制，没有配置的角色不限制。 */
+  public final Map<ProgramRole, ControlGroup> controlGroups =
+      Maps.newEnumMap(ProgramRole.class);
+  /** cgroup 的上级目录，相对于 /sys/fs/cgroup，为空表示控制器自己所在的控制组。 */
+  public String cgroupRoot = "";
+  /** 已经准备好的 cgroup 上级目录，只准备一次；不支持时为 null。 */
+  private Path cgroupBase;
+  private boolean cgroupDelegated;
+  /** 每个角色的卡死检测规则，没有配置的角色不检测。 */
+  public final Map<ProgramRole, Watchdog.Rule> watchdogRules = Maps.newEnumMap(ProgramRole.class);
+  /** 每个角色的退出超时时间，单位：毫秒，没有配置的角色见 {@link #stopTimeout(ProgramRole)}。 */
+  public final Map<ProgramRole, Long> stopTimeouts = Maps.newEnumMap(ProgramRole.class);
+
+  public final ProgramRegistry registry = new ProgramRegistry();
+
+  public final Program dbServer = registry.register(ProgramRole.DB_SERVER);
+  public final Program loginServer = registry.register(ProgramRole.LOGIN_SERVER);
+  public final Program logServer = registry.register(ProgramRole.LOG_SERVER);
+  public final Program m2Server = registry.register(ProgramRole.M2_SERVER);
+  public final List<Program> runGate = registry.register(ProgramRole.RUN_GATE, MAX_RUN_GATE_COUNT);
+  public final List<Program> selGates = registry.register(ProgramRole.SEL_GATE, 2);
+  public final Program selGate = selGates.get(0);
+  public final Program selGate1 = selGates.get(1);
+  public final List<Program> loginGates = registry.register(ProgramRole.LOGIN_GATE, 2);
+  public final Program loginGate = loginGates.get(0);
+  public final Program loginGate2 = loginGates.get(1);
+  public final Program plugTop = registry.register(ProgramRole.PLUG_TOP);
+
+  /** 备用游戏网关，启动游戏时按配置重新创建。 */
+  public StandbyPool standbyPool = new StandbyPool(0, DEFAULT_STANDBY_PORT, 0);
+
+  /** 分区名称，单独管理一个游戏目录时为空。 */
+  public final String shard;
+  /** 多个分区共用调度器和端口探测器，由 {@link ShardManager} 负责关闭。 */
+  public final Supervisor supervisor;
+  public final ReadinessProbe readinessProbe;
+  public BackupManager backupManager;
   public int backupStartStatus = 0;
 
   public Share() {
+    this(Paths.get(DEFAULT_GAME_DIRECTORY, SERVER_CONFIG_FILE));
+  }
+
+  /**
+   * @param path 控制器的配置文件，不存在时创建一个空文件。
+   */
+  public Share(Path path) {
+    this(path, "", new Supervisor(), new ReadinessProbe());
+  }
+
+  /**
+   * @param path  控制器的配置文件，不存在时创建一个空文件。
+   * @param shard 分区名称，为空表示单独管理一个游戏目录。
+   */
+  public Share(Path path, String shard, Supervisor supervisor, ReadinessProbe readinessProbe) {
+    this.shard = Preconditions.checkNotNull(shard, "shard == null");
+    this.supervisor = Preconditions.checkNotNull(supervisor, "supervisor == null");
+    this.readinessProbe = Preconditions.checkNotNull(readinessProbe, "readinessProbe == null");
+    this.backupManager = new BackupManager(supervisor);
     try {
-      Path path = Paths.get(gameDirectory, this.configFile);
       if (Files.notExists(path)) {
-        IOHelper.mkdir(path.getParent());
+        IOHelper.mkdir(path.toAbsolutePath().getParent());
         IOHelper.create(path);
       }
       ini = new Wini(path.toFile());
     } catch (IOException e) {
-      Dialogs.error("初始化配置文件出错！！", e).show();
+      LOGGER.error("初始化配置文件出错！！", e);
+      Wini empty = new Wini();
+      empty.setFile(path.toFile());
+      ini = empty;
+    }
+  }
+
+  /**
+   * 是否作为多个分区之一，与其他分区共用调度器和端口探测器。
+   */
+  public boolean isShard() {
+    return !shard.isEmpty();
+  }
+
+  /**
+   * 按配置会被监听的端口，端口对应监听它的程序，用于检查多个分区之间的端口冲突。
+   * 只包括启用的程序，弹性伸缩和备用网关按可能用到的全部端口计算。
+   */
+  public Map<Integer, String> listenPorts() {
+    Map<Integer, String> ports = Maps.newTreeMap();
+    if (agentPort > 0) {
+      ports.put(agentPort, "AgentServer");
+    }
+    for (ProgramDescriptor descriptor : registry.all()) {
+      int index = descriptor.index;
+      int[] listen;
+      switch (descriptor.role) {
+        case DB_SERVER:
+          listen = config.dbServer.getStart
+              ? new int[]{config.dbServer.serverPort, config.dbServer.gatePort} : new int[0];
+          break;
+        case LOGIN_SERVER:
+          listen = config.loginSrv.getStart ? new int[]{config.loginSrv.serverPort,
+              config.loginSrv.gatePort, config.loginSrv.monPort} : new int[0];
+          break;
+        case LOG_SERVER:
+          listen = config.logServer.getStart ? new int[]{config.logServer.port} : new int[0];
+          break;
+        case M2_SERVER:
+          listen = config.m2Server.getStart
+              ? new int[]{config.m2Server.gatePort, config.m2Server.msgSrvPort} : new int[0];
+          break;
+        case RUN_GATE:
+          listen = config.runGate.getStart[index] || index < config.runGate.scaleMax
+              ? new int[]{config.runGate.gatePort[index]} : new int[0];
+          break;
+        case SEL_GATE:
+          listen = (index == 0 ? config.selGate.getStart1 : config.selGate.getStart2)
+              ? new int[]{config.selGate.gatePort[index]} : new int[0];
+          break;
+        case LOGIN_GATE:
+          // 第二个登陆网关监听另一个地址上的同一个端口
+          listen = config.loginGate.getStart && index == 0
+              ? new int[]{config.loginGate.gatePort} : new int[0];
+          break;
+        default:
+          listen = new int[0];
+          break;
+      }
+      for (int port : listen) {
+        ports.putIfAbsent(port, descriptor.id);
+      }
+    }
+    if (config.runGate.standbyCount > 0) {
+      for (int i = 0; i < MAX_RUN_GATE_COUNT; i++) {
+        ports.putIfAbsent(config.runGate.standbyPort + i, "Standby");
+      }
+    }
+    return ports;
+  }
+
+  /**
+   * 所有受控程序。
+   */
+  public List<Program> programs() {
+    return registry.programs();
+  }
+
+  /**
+   * 启动前把配置同步到每一个受控程序：是否启用、程序文件、窗口位置、探测端口和退出超时。
+   */
+  public void applyConfig() {
+    openControlGroups();
+    for (ProgramDescriptor descriptor : registry.all()) {
+      applyConfig(descriptor);
+    }
+    int standbyCount = Math.max(0, Math.min(config.runGate.standbyCount, MAX_RUN_GATE_COUNT));
+    standbyPool = new StandbyPool(standbyCount, config.runGate.standbyPort, MAX_RUN_GATE_COUNT);
+    for (ProgramDescriptor slot : standbyPool.slots()) {
+      applyConfig(slot);
+      // 备用网关的端口在启动时分配
+      slot.program.getStart = true;
+      slot.program.ports = new int[0];
+    }
+  }
+
+  /**
+   * 建立配置了资源限制的控制组，已经建立的只更新限制。
+   */
+  private synchronized void openControlGroups() {
+    if (controlGroups.isEmpty()) {
+      return;
+    }
+    if (!cgroupDelegated) {
+      cgroupDelegated = true;
+      cgroupBase = ControlGroup.delegate(cgroupRoot);
+    }
+    if (cgroupBase == null) {
+      return;
+    }
+    for (ControlGroup group : controlGroups.values()) {
+      if (group.open(cgroupBase)) {
+        LOGGER.info("资源限制：" + group);
+      }
+    }
+  }
+
+  /**
+   * 把配置同步到单个程序，滚动重启时用于让网关读取最新的设置。
+   */
+  public void applyConfig(ProgramDescriptor descriptor) {
+    Program program = descriptor.program;
+    int index = descriptor.index;
+    program.lifecycle.moveTo(Lifecycle.State.STOPPED);
+    program.reStart = true;
+    program.directory = gameDirectory + descriptor.role.directory;
+    program.quitTimeout = stopTimeout(descriptor.role);
+    program.probeHost = PRIMARY_IP_ADDRESS;
+    program.errorOutput = errorOutput;
+    program.errorFile = Paths.get(gameDirectory, ERROR_LOG_DIRECTORY, descriptor.id + ".err.log");
+    program.placement = placements.getOrDefault(descriptor.role, Placement.NONE)
+        .forInstance(index);
+    program.controlGroup = controlGroups.get(descriptor.role);
+    switch (descriptor.role) {
+      case DB_SERVER:
+        program.getStart = config.dbServer.getStart;
+        program.programFile = config.dbServer.programFile;
+        program.mainFormX = config.dbServer.mainFormX;
+        program.mainFormY = config.dbServer.mainFormY;
+        program.ports = new int[]{config.dbServer.serverPort, config.dbServer.gatePort};
+        break;
+      case LOGIN_SERVER:
+        program.getStart = config.loginSrv.getStart;
+        program.programFile = config.loginSrv.programFile;
+        program.mainFormX = config.loginSrv.mainFormX;
+        program.mainFormY = config.loginSrv.mainFormY;
+        program.ports = new int[]{config.loginSrv.serverPort, config.loginSrv.gatePort};
+        break;
+      case LOG_SERVER:
+        // 日志服务器使用 UDP 接收日志，只依赖握手信息
+        program.getStart = config.logServer.getStart;
+        program.programFile = config.logServer.programFile;
+        program.mainFormX = config.logServer.mainFormX;
+        program.mainFormY = config.logServer.mainFormY;
+        program.ports = new int[0];
+        break;
+      case M2_SERVER:
+        program.getStart = config.m2Server.getStart;
+        program.programFile = config.m2Server.programFile;
+        program.mainFormX = config.m2Server.mainFormX;
+        program.mainFormY = config.m2Server.mainFormY;
+        program.ports = new int[]{config.m2Server.gatePort};
+        break;
+      case RUN_GATE:
+        program.getStart = config.runGate.getStart[index] || program.scaled;
+        program.programFile = config.runGate.programFile;
+        // 每四个网关排成两行两列
+        program.mainFormX = config.runGate.mainFormX + (index % 2 == 1 ? 276 : 0);
+        program.mainFormY = config.runGate.mainFormY + ((index / 2) % 2 == 1 ? 187 : 0);
+        program.ports = new int[]{config.runGate.gatePort[index]};
+        break;
+      case SEL_GATE:
+        program.getStart = index == 0 ? config.selGate.getStart1 : config.selGate.getStart2;
+        program.programFile = config.selGate.programFile;
+        program.mainFormX = config.selGate.mainFormX;
+        program.mainFormY = config.selGate.mainFormY;
+        program.ports = new int[]{config.selGate.gatePort[index]};
+        break;
+      case LOGIN_GATE:
+        program.getStart = config.loginGate.getStart && (index == 0 || ip2Enabled);
+        program.programFile = config.loginGate.programFile;
+        program.mainFormX = config.loginGate.mainFormX;
+        program.mainFormY = config.loginGate.mainFormY;
+        program.ports = new int[]{config.loginGate.gatePort};
+        if (index > 0 && ip2Enabled) {
+          program.probeHost = extIPAddr2;
+        }
+        break;
+      case PLUG_TOP:
+        // 排行榜插件不监听端口
+        program.getStart = config.plugTop.getStart;
+        program.programFile = config.plugTop.programFile;
+        program.mainFormX = config.plugTop.mainFormX;
+        program.mainFormY = config.plugTop.mainFormY;
+        program.ports = new int[0];
+        break;
+    }
+  }
+
+  /**
+   * 角色的退出超时时间，单位：毫秒。
+   * <p>
+   * 优先使用角色配置段中的 StopTimeout；没有配置时，数据库服务器和游戏引擎需要保存数据，
+   * 分别使用更长的默认值，其他角色使用 {@link #stopTimeout}。
+   */
+  public long stopTimeout(ProgramRole role) {
+    Long timeout = stopTimeouts.get(role);
+    if (timeout != null) {
+      return timeout;
+    }
+    switch (role) {
+      case DB_SERVER:
+        return DEFAULT_DB_SERVER_STOP_TIMEOUT;
+      case M2_SERVER:
+        return DEFAULT_M2_SERVER_STOP_TIMEOUT;
+      default:
+        return stopTimeout;
     }
   }
 
@@ -149,6 +481,39 @@ public final class Share {
       ip2Enabled = ini.get(BASIC_SECTION_NAME).get("IP2", Boolean.class, DEFAULT_IP_2_ENABLED);
       closeWuXinEnabled = ini.get(BASIC_SECTION_NAME)
           .get("CloseWuXin", Boolean.class, DEFAULT_CLOSE_WUXING_ENABLED);
+      probeTimeout = ini.get(BASIC_SECTION_NAME)
+          .get("ProbeTimeout", Integer.class, DEFAULT_PROBE_TIMEOUT);
+      probeInterval = ini.get(BASIC_SECTION_NAME)
+          .get("ProbeInterval", Integer.class, DEFAULT_PROBE_INTERVAL);
+      stopTimeout = ini.get(BASIC_SECTION_NAME)
+          .get("StopTimeout", Long.class, DEFAULT_STOP_TIMEOUT);
+      rollingBatchSize = ini.get(BASIC_SECTION_NAME)
+          .get("RollingBatchSize", Integer.class, DEFAULT_ROLLING_BATCH_SIZE);
+      rollingMinAvailable = ini.get(BASIC_SECTION_NAME)
+          .get("RollingMinAvailable", Integer.class, DEFAULT_ROLLING_MIN_AVAILABLE);
+      rollingReadyTimeout = ini.get(BASIC_SECTION_NAME)
+          .get("RollingReadyTimeout", Integer.class, DEFAULT_ROLLING_READY_TIMEOUT);
+      controlPort = ini.get(BASIC_SECTION_NAME)
+          .get("ControlPort", Integer.class, DEFAULT_CONTROL_PORT);
+      controlAddress = ini.get(BASIC_SECTION_NAME)
+          .get("ControlAddress", DEFAULT_CONTROL_ADDRESS);
+      controlToken = ini.get(BASIC_SECTION_NAME).get("ControlToken", "");
+      controlThreads = ini.get(BASIC_SECTION_NAME)
+          .get("ControlThreads", Integer.class, DEFAULT_CONTROL_THREADS);
+      scheduleZone = ini.get(BASIC_SECTION_NAME).get("ScheduleZone", "");
+      cgroupRoot = ini.get(BASIC_SECTION_NAME).get("CgroupRoot", "");
+      agentPort = ini.get(BASIC_SECTION_NAME)
+          .get("AgentPort", Integer.class, DEFAULT_AGENT_PORT);
+      agentAddress = ini.get(BASIC_SECTION_NAME).get("AgentAddress", DEFAULT_AGENT_ADDRESS);
+      agentToken = ini.get(BASIC_SECTION_NAME).get("AgentToken", "");
+      String errorOutputName = ini.get(BASIC_SECTION_NAME)
+          .get("ErrorOutput", DEFAULT_ERROR_OUTPUT.name());
+      try {
+        errorOutput = LaunchSpec.ErrorOutput.valueOf(errorOutputName.trim().toUpperCase());
+      } catch (IllegalArgumentException e) {
+        LOGGER.warn("无效的错误输出方式：" + errorOutputName);
+        errorOutput = DEFAULT_ERROR_OUTPUT;
+      }
     }
     if (ini.get(DB_SERVER_SECTION_NAME) != null) {
       config.dbServer.mainFormX = ini.get(DB_SERVER_SECTION_NAME)
@@ -203,40 +568,35 @@ public final class Share {
           ini.get(RUN_GATE_SECTION_NAME).get("MainFormX", Integer.class, config.runGate.mainFormX);
       config.runGate.mainFormY =
           ini.get(RUN_GATE_SECTION_NAME).get("MainFormY", Integer.class, config.runGate.mainFormY);
-      // get start
-      config.runGate.getStart[0] = ini.get(RUN_GATE_SECTION_NAME)
-          .get("GetStart1", Boolean.class, config.runGate.getStart[0]);
-      config.runGate.getStart[1] = ini.get(RUN_GATE_SECTION_NAME)
-          .get("GetStart2", Boolean.class, config.runGate.getStart[1]);
-      config.runGate.getStart[2] = ini.get(RUN_GATE_SECTION_NAME)
-          .get("GetStart3", Boolean.class, config.runGate.getStart[2]);
-      config.runGate.getStart[3] = ini.get(RUN_GATE_SECTION_NAME)
-          .get("GetStart4", Boolean.class, config.runGate.getStart[3]);
-      config.runGate.getStart[4] = ini.get(RUN_GATE_SECTION_NAME)
-          .get("GetStart5", Boolean.class, config.runGate.getStart[4]);
-      config.runGate.getStart[5] = ini.get(RUN_GATE_SECTION_NAME)
-          .get("GetStart6", Boolean.class, config.runGate.getStart[5]);
-      config.runGate.getStart[6] = ini.get(RUN_GATE_SECTION_NAME)
-          .get("GetStart7", Boolean.class, config.runGate.getStart[6]);
-      config.runGate.getStart[7] = ini.get(RUN_GATE_SECTION_NAME)
-          .get("GetStart8", Boolean.class, config.runGate.getStart[7]);
-      // gate port
-      config.runGate.gatePort[0] = ini.get(RUN_GATE_SECTION_NAME)
-          .get("GatePort1", Integer.class, config.runGate.gatePort[0]);
-      config.runGate.gatePort[1] = ini.get(RUN_GATE_SECTION_NAME)
-          .get("GatePort2", Integer.class, config.runGate.gatePort[1]);
-      config.runGate.gatePort[2] = ini.get(RUN_GATE_SECTION_NAME)
-          .get("GatePort3", Integer.class, config.runGate.gatePort[2]);
-      config.runGate.gatePort[3] = ini.get(RUN_GATE_SECTION_NAME)
-          .get("GatePort4", Integer.class, config.runGate.gatePort[3]);
-      config.runGate.gatePort[4] = ini.get(RUN_GATE_SECTION_NAME)
-          .get("GatePort5", Integer.class, config.runGate.gatePort[4]);
-      config.runGate.gatePort[5] = ini.get(RUN_GATE_SECTION_NAME)
-          .get("GatePort6", Integer.class, config.runGate.gatePort[5]);
-      config.runGate.gatePort[6] = ini.get(RUN_GATE_SECTION_NAME)
-          .get("GatePort7", Integer.class, config.runGate.gatePort[6]);
-      config.runGate.gatePort[7] = ini.get(RUN_GATE_SECTION_NAME)
-          .get("GatePort8", Integer.class, config.runGate.gatePort[7]);
+      config.runGate.standbyCount = ini.get(RUN_GATE_SECTION_NAME)
+          .get("StandbyCount", Integer.class, config.runGate.standbyCount);
+      config.runGate.standbyPort = ini.get(RUN_GATE_SECTION_NAME)
+          .get("StandbyPort", Integer.class, config.runGate.standbyPort);
+      config.runGate.scaleMin = ini.get(RUN_GATE_SECTION_NAME)
+          .get("ScaleMin", Integer.class, config.runGate.scaleMin);
+      config.runGate.scaleMax = ini.get(RUN_GATE_SECTION_NAME)
+          .get("ScaleMax", Integer.class, config.runGate.scaleMax);
+      String metricName = ini.get(RUN_GATE_SECTION_NAME)
+          .get("ScaleMetric", config.runGate.scaleMetric.name());
+      try {
+        config.runGate.scaleMetric = GateScaler.Metric.valueOf(metricName.trim().toUpperCase());
+      } catch (IllegalArgumentException e) {
+        LOGGER.warn("无效的网关负载衡量方式：" + metricName);
+      }
+      config.runGate.scaleUp = ini.get(RUN_GATE_SECTION_NAME)
+          .get("ScaleUp", Integer.class, config.runGate.scaleUp);
+      config.runGate.scaleDown = ini.get(RUN_GATE_SECTION_NAME)
+          .get("ScaleDown", Integer.class, config.runGate.scaleDown);
+      config.runGate.scaleCooldown = ini.get(RUN_GATE_SECTION_NAME)
+          .get("ScaleCooldown", Long.class, config.runGate.scaleCooldown);
+      config.runGate.scaleDrainTimeout = ini.get(RUN_GATE_SECTION_NAME)
+          .get("ScaleDrainTimeout", Long.class, config.runGate.scaleDrainTimeout);
+      for (int i = 0; i < MAX_RUN_GATE_COUNT; i++) {
+        config.runGate.getStart[i] = ini.get(RUN_GATE_SECTION_NAME)
+            .get("GetStart" + (i + 1), Boolean.class, config.runGate.getStart[i]);
+        config.runGate.gatePort[i] = ini.get(RUN_GATE_SECTION_NAME)
+            .get("GatePort" + (i + 1), Integer.class, config.runGate.gatePort[i]);
+      }
     }
     if (ini.get(SEL_GATE_SECTION_NAME) != null) {
       config.selGate.mainFormX =
@@ -270,9 +630,88 @@ public final class Share {
       config.plugTop.getStart =
           ini.get(PLUG_TOP_SECTION_NAME).get("GetStart", Boolean.class, config.plugTop.getStart);
     }
+    schedules.clear();
+    Ini.Section scheduleSection = ini.get(SCHEDULE_SECTION_NAME);
+    if (scheduleSection != null) {
+      for (String name : scheduleSection.keySet()) {
+        schedules.put(name, scheduleSection.get(name));
+      }
+    }
+    agents.clear();
+    Ini.Section agentSection = ini.get(AGENTS_SECTION_NAME);
+    if (agentSection != null) {
+      for (String name : agentSection.keySet()) {
+        agents.put(name, agentSection.get(name));
+      }
+    }
+    placements.clear();
+    watchdogRules.clear();
+    controlGroups.clear();
+    stopTimeouts.clear();
+    for (ProgramRole role : ProgramRole.values()) {
+      // 角色名称与配置段名称相同
+      Ini.Section section = ini.get(role.id);
+      if (section != null) {
+        placements.put(role, loadPlacement(role, section));
+        ControlGroup group = loadControlGroup(role, section);
+        if (group != null) {
+          controlGroups.put(role, group);
+        }
+        Watchdog.Rule rule = loadWatchdogRule(role, section);
+        if (rule != null) {
+          watchdogRules.put(role, rule);
+        }
+        long stop = section.get("StopTimeout", Long.class, 0L);
+        if (stop > 0) {
+          stopTimeouts.put(role, stop);
+        }
+      }
+    }
   }
 
-  public void saveConfig() {
+  private ControlGroup loadControlGroup(ProgramRole role, Ini.Section section) {
+    try {
+      ControlGroup group = new ControlGroup(role.id,
+          ControlGroup.parseSize(section.get("MemoryMax", "")),
+          section.get("CpuWeight", Integer.class, 0),
+          section.get("IoWeight", Integer.class, 0));
+      return group.isEmpty() ? null : group;
+    } catch (IllegalArgumentException e) {
+      LOGGER.warn("无效的资源限制：" + role.displayName, e);
+      return null;
+    }
+  }
+
+  private Watchdog.Rule loadWatchdogRule(ProgramRole role, Ini.Section section) {
+    try {
+      long timeout = section.get("HangTimeout", Long.class, 0L);
+      if (timeout <= 0) {
+        return null;
+      }
+      String action = section.get("HangAction", Watchdog.Action.RESTART.name());
+      return new Watchdog.Rule(timeout, section.get("Heartbeat", ""),
+          Watchdog.Action.valueOf(action.trim().toUpperCase()));
+    } catch (IllegalArgumentException e) {
+      LOGGER.warn("无效的卡死检测规则：" + role.displayName, e);
+      return null;
+    }
+  }
+
+  private Placement loadPlacement(ProgramRole role, Ini.Section section) {
+    try {
+      String ioClass = section.get("IoClass", Placement.IoClass.NONE.name());
+      return new Placement(Placement.parseCpus(section.get("CpuAffinity", "")),
+          section.get("CpuSpread", Boolean.class, false),
+          section.get("Nice", Integer.class, 0),
+          Placement.IoClass.valueOf(ioClass.trim().toUpperCase()),
+          section.get("IoLevel", Integer.class, 4));
+    } catch (IllegalArgumentException e) {
+      LOGGER.warn("无效的放置策略：" + role.displayName, e);
+      return Placement.NONE;
+    }
+  }
+
+  public void saveConfig() throws IOException {
     // ini put 方法可以创建不存在的 section，因此无需判断 section 是否存在
     ini.put(BASIC_SECTION_NAME, "GameDirectory", gameDirectory);
     ini.put(BASIC_SECTION_NAME, "HeroDBName", heroDBName);
@@ -282,6 +721,22 @@ public final class Share {
     ini.put(BASIC_SECTION_NAME, "AutoRunBak", autoRunBakEnabled);
     ini.put(BASIC_SECTION_NAME, "IP2", ip2Enabled);
     ini.put(BASIC_SECTION_NAME, "CloseWuXin", closeWuXinEnabled);
+    ini.put(BASIC_SECTION_NAME, "ProbeTimeout", probeTimeout);
+    ini.put(BASIC_SECTION_NAME, "ProbeInterval", probeInterval);
+    ini.put(BASIC_SECTION_NAME, "StopTimeout", stopTimeout);
+    ini.put(BASIC_SECTION_NAME, "ErrorOutput", errorOutput.name());
+    ini.put(BASIC_SECTION_NAME, "RollingBatchSize", rollingBatchSize);
+    ini.put(BASIC_SECTION_NAME, "RollingMinAvailable", rollingMinAvailable);
+    ini.put(BASIC_SECTION_NAME, "RollingReadyTimeout", rollingReadyTimeout);
+    ini.put(BASIC_SECTION_NAME, "ControlPort", controlPort);
+    ini.put(BASIC_SECTION_NAME, "ControlAddress", controlAddress);
+    ini.put(BASIC_SECTION_NAME, "ControlToken", controlToken);
+    ini.put(BASIC_SECTION_NAME, "ControlThreads", controlThreads);
+    ini.put(BASIC_SECTION_NAME, "ScheduleZone", scheduleZone);
+    ini.put(BASIC_SECTION_NAME, "CgroupRoot", cgroupRoot);
+    ini.put(BASIC_SECTION_NAME, "AgentPort", agentPort);
+    ini.put(BASIC_SECTION_NAME, "AgentAddress", agentAddress);
+    ini.put(BASIC_SECTION_NAME, "AgentToken", agentToken);
 
     ini.put(DB_SERVER_SECTION_NAME, "MainFormX", config.dbServer.mainFormX);
     ini.put(DB_SERVER_SECTION_NAME, "MainFormY", config.dbServer.mainFormY);
@@ -309,24 +764,27 @@ public final class Share {
 
     ini.put(RUN_GATE_SECTION_NAME, "MainFormX", config.runGate.mainFormX);
     ini.put(RUN_GATE_SECTION_NAME, "MainFormY", config.runGate.mainFormY);
+    ini.put(RUN_GATE_SECTION_NAME, "StandbyCount", config.runGate.standbyCount);
+    ini.put(RUN_GATE_SECTION_NAME, "StandbyPort", config.runGate.standbyPort);
+    ini.put(RUN_GATE_SECTION_NAME, "ScaleMin", config.runGate.scaleMin);
+    ini.put(RUN_GATE_SECTION_NAME, "ScaleMax", config.runGate.scaleMax);
+    ini.put(RUN_GATE_SECTION_NAME, "ScaleMetric", config.runGate.scaleMetric.name());
+    ini.put(RUN_GATE_SECTION_NAME, "ScaleUp", config.runGate.scaleUp);
+    ini.put(RUN_GATE_SECTION_NAME, "ScaleDown", config.runGate.scaleDown);
+    ini.put(RUN_GATE_SECTION_NAME, "ScaleCooldown", config.runGate.scaleCooldown);
+    ini.put(RUN_GATE_SECTION_NAME, "ScaleDrainTimeout", config.runGate.scaleDrainTimeout);
 
-    ini.put(RUN_GATE_SECTION_NAME, "GetStart1", config.runGate.getStart[0]);
-    ini.put(RUN_GATE_SECTION_NAME, "GetStart2", config.runGate.getStart[1]);
-    ini.put(RUN_GATE_SECTION_NAME, "GetStart3", config.runGate.getStart[2]);
-    ini.put(RUN_GATE_SECTION_NAME, "GetStart4", config.runGate.getStart[3]);
-    ini.put(RUN_GATE_SECTION_NAME, "GetStart5", config.runGate.getStart[4]);
-    ini.put(RUN_GATE_SECTION_NAME, "GetStart6", config.runGate.getStart[5]);
-    ini.put(RUN_GATE_SECTION_NAME, "GetStart7", config.runGate.getStart[6]);
-    ini.put(RUN_GATE_SECTION_NAME, "GetStart8", config.runGate.getStart[7]);
-
-    ini.put(RUN_GATE_SECTION_NAME, "GatePort1", config.runGate.gatePort[0]);
-    ini.put(RUN_GATE_SECTION_NAME, "GatePort2", config.runGate.gatePort[1]);
-    ini.put(RUN_GATE_SECTION_NAME, "GatePort3", config.runGate.gatePort[2]);
-    ini.put(RUN_GATE_SECTION_NAME, "GatePort4", config.runGate.gatePort[3]);
-    ini.put(RUN_GATE_SECTION_NAME, "GatePort5", config.runGate.gatePort[4]);
-    ini.put(RUN_GATE_SECTION_NAME, "GatePort6", config.runGate.gatePort[5]);
-    ini.put(RUN_GATE_SECTION_NAME, "GatePort7", config.runGate.gatePort[6]);
-    ini.put(RUN_GATE_SECTION_NAME, "GatePort8", config.runGate.gatePort[7]);
+    // 界面之外的网关只有启用后才写入，避免配置文件被大量默认值填满
+    int runGateCount = CONSOLE_RUN_GATE_COUNT;
+    for (int i = 0; i < MAX_RUN_GATE_COUNT; i++) {
+      if (config.runGate.getStart[i]) {
+        runGateCount = Math.max(runGateCount, i + 1);
+      }
+    }
+    for (int i = 0; i < runGateCount; i++) {
+      ini.put(RUN_GATE_SECTION_NAME, "GetStart" + (i + 1), config.runGate.getStart[i]);
+      ini.put(RUN_GATE_SECTION_NAME, "GatePort" + (i + 1), config.runGate.gatePort[i]);
+    }
 
     ini.put(SEL_GATE_SECTION_NAME, "MainFormX", config.selGate.mainFormX);
     ini.put(SEL_GATE_SECTION_NAME, "MainFormY", config.selGate.mainFormY);
@@ -344,58 +802,122 @@ public final class Share {
     ini.put(PLUG_TOP_SECTION_NAME, "MainFormY", config.plugTop.mainFormY);
     ini.put(PLUG_TOP_SECTION_NAME, "GetStart", config.plugTop.getStart);
 
-    try {
-      ini.store();
-    } catch (IOException e) {
-      Dialogs.error("保存配置文件时出错！", e).show();
+    for (Map.Entry<ProgramRole, Long> entry : stopTimeouts.entrySet()) {
+      ini.put(entry.getKey().id, "StopTimeout", entry.getValue());
     }
+
+    ini.store();
   }
 
   public static class Program {
     public boolean getStart;
     public boolean reStart;
-    // 0 default; 1 starting; 2 started; 9 failed or error
-    public byte startStatus;
-    public Process process;
-    public UUID processCode;
+    /** 启动状态，由启动、运行检测和停止流程原子地切换。 */
+    public final Lifecycle lifecycle = new Lifecycle(this);
+    public volatile Process process;
+    public volatile UUID processCode;
     public String programFile;
     public String directory;
     public Integer mainFormX;
     public Integer mainFormY;
 
     public Disposable disposable;
+    /** 附加的环境变量，在继承当前进程环境变量的基础上覆盖。 */
+    public final Map<String, String> environment = Maps.newHashMap();
+    public LaunchSpec.ErrorOutput errorOutput = LaunchSpec.ErrorOutput.PUMP;
+    /** 标准错误输出写入文件时使用的文件。 */
+    public Path errorFile;
+    /** 最近一次创建进程的耗时，单位：微秒。 */
+    public volatile long spawnTime;
+    /** 发送退出指令后等待程序自行退出的时间，单位：毫秒。 */
+    public long quitTimeout = DEFAULT_STOP_TIMEOUT;
+
+    private BufferedWriter writer;
+    private Process writerProcess;
+
+    /** 最近一次检测到进程退出的时刻，System.nanoTime()。 */
+    public volatile long exitTick;
+    public volatile int lastExitCode;
+    /** 从进程退出到监管器开始处理的耗时，单位：毫秒。 */
+    public volatile long detectTime;
+    /** 从进程退出到新进程启动完成的耗时，单位：毫秒。 */
+    public volatile long restartTime;
+    public volatile int restartCount;
+
+    public final RestartPolicy restartPolicy = new RestartPolicy();
+
+    /** 程序监听的 TCP 端口，用于就绪探测；为空表示只依赖握手信息。 */
+    public int[] ports = new int[0];
+    public String probeHost = PRIMARY_IP_ADDRESS;
+    public volatile boolean probing;
+    /** 运行期间连续探测失败的次数。 */
+    public volatile int probeFailures;
+    /** 正在维护（例如滚动重启），运行检测不处理它的退出。 */
+    public volatile boolean maintenance;
+    /** 由弹性伸缩启用的游戏网关，不写入配置，重新启动游戏后恢复为配置中的设置。 */
+    public volatile boolean scaled;
+
+    public final ResourceStats resources = new ResourceStats(RESOURCE_SAMPLE_COUNT);
+    /** 标准输出的最近活动，每次启动时重新创建。 */
+    public volatile OutputTail output = new OutputTail(OUTPUT_TAIL_LINES);
+    public Placement placement = Placement.NONE;
+    /** 所属角色的资源限制，为 null 表示不限制。 */
+    public ControlGroup controlGroup;
+
+    /**
+     * 启动参数：程序文件和窗口位置作为参数数组传递，工作目录为程序所在目录。
+     */
+    public LaunchSpec launchSpec() {
+      Path path = Paths.get(Strings.isNullOrEmpty(directory) ? "." : directory);
+      return new LaunchSpec(path.resolve(programFile).toString(), mainFormX, mainFormY)
+          .directory(path)
+          .environment(environment)
+          .errorOutput(errorOutput, errorFile)
+          .placement(placement)
+          .controlGroup(controlGroup);
+    }
+
+    public Lifecycle.State state() {
+      return lifecycle.state();
+    }
 
     public Observable<String> start() {
-      if (Strings.isNullOrEmpty(directory)) {
-        directory = ".\\";
-      }
-      if (!directory.endsWith("\\")) {
-        directory = directory + "\\";
-      }
-      String command = String.format("%s%s %d %d", directory, programFile, mainFormX, mainFormY);
+      LaunchSpec spec = launchSpec();
+      LaunchSpec.Launched launched;
       try {
-        process = Runtime.getRuntime().exec(command);
+        launched = spec.start();
       } catch (IOException e) {
         throw new RuntimeException("启动程序[" + programFile + "]出错！！", e);
       }
+      Process current = launched.process;
+      OutputTail tail = new OutputTail(OUTPUT_TAIL_LINES);
+      output = tail;
+      process = current;
+      spawnTime = launched.spawnTime;
+      LOGGER.info(String.format("启动程序[%s]耗时 %d μs：%s", programFile, spawnTime, spec));
       return Observable.create((ObservableEmitter<String> emitter) -> {
-        InputStream inputStream = process.getInputStream();
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
-          String line;
-          while ((line = reader.readLine()) != null) {
-            emitter.onNext(line);
-            if (!process.isAlive()) {
-              return;
-            }
-          }
-        } catch (IOException e) {
-          emitter.tryOnError(e);
-        }
-        startStatus = 0;
+        // 由输出泵一直读到进程退出，否则管道写满后子进程会被阻塞；取消订阅时立即停止读取
+        OutputPump.Handle handle = Processes.outputPump().register(current,
+            current.getInputStream(), line -> {
+              tail.add(line);
+              emitter.onNext(line);
+            }, () -> {
+              onExited(current);
+              emitter.onComplete();
+            });
+        emitter.setCancellable(handle::cancel);
+      });
+    }
+
+    /**
+     * 进程退出后改为停止状态，已经换成其他进程时忽略。
+     */
+    void onExited(Process exited) {
+      if (process == exited) {
+        lifecycle.moveTo(Lifecycle.State.STOPPED);
         process = null;
         processCode = null;
-        emitter.onComplete();
-      }).subscribeOn(Schedulers.io());
+      }
     }
 
     public void stop() {
@@ -404,23 +926,40 @@ public final class Share {
         disposable = null;
       }
       processCode = null;
-      if (process.isAlive()) {
-        process.destroy();
+      Process current = process;
+      if (current != null && current.isAlive()) {
+        current.destroy();
         process = null;
       }
     }
 
-    public void sendMessage(String message) {
-      if (process != null && process.isAlive()) {
-        OutputStream outputStream = process.getOutputStream();
-        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(outputStream))) {
-          writer.write(message);
-          writer.flush();
-        } catch (IOException e) {
-          e.printStackTrace();
-        }
+    /**
+     * 向程序的标准输入写入一行消息。
+     * <p>
+     * 写入后不关闭输入流，否则之后再也无法向同一个进程发送消息。
+     */
+    public synchronized void sendMessage(String message) {
+      Process current = process;
+      if (current == null || !current.isAlive()) {
+        return;
+      }
+      if (writerProcess != current) {
+        OutputStream outputStream = current.getOutputStream();
+        writer = new BufferedWriter(new OutputStreamWriter(outputStream));
+        writerProcess = current;
+      }
+      try {
+        writer.write(message);
+        writer.newLine();
+        writer.flush();
+      } catch (IOException e) {
+        LOGGER.error("向程序[" + programFile + "]发送消息出错！", e);
       }
     }
+
+    @Override public String toString() {
+      return String.valueOf(programFile);
+    }
   }
 
   public static class DBServerConfig {
@@ -462,9 +1001,30 @@ public final class Share {
   public static class RunGateConfig {
     public int mainFormX = 437;
     public int mainFormY = 373;
-    public boolean[] getStart = {true, true, true, false, false, false, false, false};
-    public int[] gatePort = {7200, 7201, 7202, 7203, 7204, 7205, 7206, 7207};
+    public boolean[] getStart = new boolean[MAX_RUN_GATE_COUNT];
+    public int[] gatePort = new int[MAX_RUN_GATE_COUNT];
+    /** 预先启动的备用网关数量，为 0 表示不启用。 */
+    public int standbyCount = 0;
+    public int standbyPort = DEFAULT_STANDBY_PORT;
+    /** 弹性伸缩时游戏网关的最少和最多数量，最多数量为 0 表示不启用。 */
+    public int scaleMin = DEFAULT_SCALE_MIN;
+    public int scaleMax = 0;
+    public GateScaler.Metric scaleMetric = GateScaler.Metric.CONNECTIONS;
+    /** 平均负载达到上限时启用网关，不超过下限时排空网关，单位为连接数或者 CPU 千分比。 */
+    public int scaleUp = DEFAULT_SCALE_UP;
+    public int scaleDown = DEFAULT_SCALE_DOWN;
+    /** 两次调整之间的最短间隔，单位：毫秒。 */
+    public long scaleCooldown = DEFAULT_SCALE_COOLDOWN;
+    /** 排空网关时等待连接断开的最长时间，单位：毫秒。 */
+    public long scaleDrainTimeout = DEFAULT_SCALE_DRAIN_TIMEOUT;
     public String programFile = "RunGate.exe";
+
+    public RunGateConfig() {
+      for (int i = 0; i < MAX_RUN_GATE_COUNT; i++) {
+        getStart[i] = i < DEFAULT_RUN_GATE_START_COUNT;
+        gatePort[i] = DEFAULT_RUN_GATE_PORT + i;
+      }
+    }
   }
 
   public static class SelGateConfig {
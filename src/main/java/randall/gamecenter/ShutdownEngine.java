@@ -0,0 +1,293 @@
+package randall.gamecenter;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static randall.gamecenter.Share.QUIT_CODE;
+
+/**
+ * 停止引擎。
+ * <p>
+ * 按层级依次停止程序，同一层级内的程序并行停止。每个程序先发送 {@link Share#QUIT_CODE}，
+ * 超过各自的退出超时后调用 {@link Process#destroy()}，仍未退出再调用
+ * {@link Process#destroyForcibly()}，并记录每个程序从发送退出指令到进程结束的耗时。
+ * <p>
+ * 强制结束后仍未退出的程序，以及停止流程被取消时尚未退出的程序，以 {@link Stage#FAILED} 结束，
+ * 停止流程不会因为个别进程而一直等待。
+ *
+ * @author mrzhqiang
+ */
+public final class ShutdownEngine {
+  private static final Logger LOGGER = LoggerFactory.getLogger("randall");
+
+  /** destroy 之后等待进程退出的时间，超时则强制结束。 */
+  public static final long DEFAULT_DESTROY_TIMEOUT = TimeUnit.SECONDS.toMillis(5);
+
+  private final Supervisor supervisor;
+  /** 已经发出退出指令、尚未得到结果的程序。 */
+  private final Set<Stopping> stopping = ConcurrentHashMap.newKeySet();
+  private volatile boolean cancelled;
+
+  public ShutdownEngine(Supervisor supervisor) {
+    this.supervisor = Preconditions.checkNotNull(supervisor, "supervisor == null");
+  }
+
+  /**
+   * 开始停止。
+   *
+   * @param listener 每个程序停止后回调，在进程退出的线程上执行。
+   * @return 所有层级停止完毕后完成；被取消时以 {@link CancellationException} 结束。
+   */
+  public CompletableFuture<List<Result>> shutdown(List<Tier> tiers, Consumer<Result> listener) {
+    List<Result> results = Collections.synchronizedList(Lists.newArrayList());
+    CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+    for (Tier tier : tiers) {
+      if (tier.isEmpty()) {
+        continue;
+      }
+      chain = chain.thenCompose(ignore -> delay(tier.delay))
+          .thenCompose(ignore -> stopTier(tier, result -> {
+            results.add(result);
+            listener.accept(result);
+          }));
+    }
+    return chain.thenApply(ignore -> {
+      checkCancelled();
+      List<Result> copy;
+      synchronized (results) {
+        copy = Lists.newArrayList(results);
+      }
+      return copy;
+    });
+  }
+
+  /**
+   * 停止流程最长的耗时：每个层级的延迟，加上层级内最慢的程序依次等待退出、终止、强制结束和最后确认的时间，
+   * 单位：毫秒。
+   */
+  public static long timeout(List<Tier> tiers) {
+    long timeout = 0;
+    for (Tier tier : tiers) {
+      if (tier.isEmpty()) {
+        continue;
+      }
+      long slowest = 0;
+      for (Target target : tier.targets) {
+        slowest = Math.max(slowest, target.quitTimeout + 2 * target.destroyTimeout);
+      }
+      timeout += tier.delay + slowest;
+    }
+    return timeout;
+  }
+
+  /**
+   * 取消尚未开始的层级以及尚未执行的升级操作，已经发出的退出指令无法撤回，尚未退出的程序以
+   * {@link Stage#FAILED} 结束。
+   */
+  public void cancel() {
+    cancelled = true;
+    for (Stopping current : stopping) {
+      current.finish(Stage.FAILED);
+    }
+  }
+
+  private CompletableFuture<Void> delay(long delay) {
+    checkCancelled();
+    if (delay <= 0) {
+      return CompletableFuture.completedFuture(null);
+    }
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    supervisor.schedule("shutdown-delay", () -> future.complete(null), delay);
+    return future;
+  }
+
+  private CompletableFuture<Void> stopTier(Tier tier, Consumer<Result> listener) {
+    checkCancelled();
+    CompletableFuture<?>[] futures = new CompletableFuture<?>[tier.targets.size()];
+    for (int i = 0; i < futures.length; i++) {
+      futures[i] = stop(tier.targets.get(i)).thenAccept(listener);
+    }
+    return CompletableFuture.allOf(futures);
+  }
+
+  private CompletableFuture<Result> stop(Target target) {
+    Share.Program program = target.program;
+    Process process = program.process;
+    if (process == null || !process.isAlive()) {
+      program.lifecycle.moveTo(Lifecycle.State.STOPPED);
+      return CompletableFuture.completedFuture(new Result(target, Stage.NOT_RUNNING, 0));
+    }
+    Stopping current = new Stopping(target);
+    stopping.add(current);
+    current.result.whenComplete((result, throwable) -> {
+      stopping.remove(current);
+      // 进程已经退出，不再等待下一个阶段
+      supervisor.cancel(current.escalation);
+    });
+    program.lifecycle.moveTo(Lifecycle.State.STOPPING);
+    long quitTimeout = target.quitTimeout;
+    if (process instanceof AttachedProcess) {
+      // 重新接管的进程没有标准输入，无法发送退出指令
+      quitTimeout = 0;
+    } else {
+      program.sendMessage(QUIT_CODE);
+    }
+    current.escalation = supervisor.schedule("shutdown-destroy", () -> {
+      if (current.escalate(Stage.QUIT, Stage.DESTROY)) {
+        process.destroy();
+        current.escalation = supervisor.schedule("shutdown-kill", () -> {
+          if (current.escalate(Stage.DESTROY, Stage.FORCE)) {
+            process.destroyForcibly();
+            current.escalation = supervisor.schedule("shutdown-check", () -> {
+              if (!current.result.isDone()) {
+                LOGGER.error(target.name + " 强制结束后仍未退出！");
+                program.lifecycle.moveTo(Lifecycle.State.ERROR);
+                current.finish(Stage.FAILED);
+              }
+            }, target.destroyTimeout);
+          }
+        }, target.destroyTimeout);
+      }
+    }, quitTimeout);
+    Processes.onExit(process).thenAccept(exited -> {
+      program.lifecycle.moveTo(Lifecycle.State.STOPPED);
+      current.finish(current.stage.get());
+    });
+    return current.result;
+  }
+
+  private void checkCancelled() {
+    if (cancelled) {
+      throw new CancellationException("停止流程已取消");
+    }
+  }
+
+  public enum Stage {
+    NOT_RUNNING("未运行"),
+    QUIT("正常退出"),
+    DESTROY("超时终止"),
+    FORCE("强制结束"),
+    /** 强制结束后仍未退出，或者停止流程已经取消。 */
+    FAILED("停止失败"),
+    ;
+
+    public final String name;
+
+    Stage(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  public static final class Tier {
+    public final String name;
+    public final long delay;
+    private final List<Target> targets = Lists.newArrayList();
+
+    /**
+     * @param delay 上一层级停止完毕后，延迟多久开始停止这一层级，单位：毫秒。
+     */
+    public Tier(String name, long delay) {
+      this.name = name;
+      this.delay = delay;
+    }
+
+    /**
+     * 添加需要停止的程序，退出超时取自 {@link Share.Program#quitTimeout}；
+     * 未启用、并且没有运行的程序直接忽略。
+     */
+    public Tier add(String name, Share.Program program) {
+      Process process = program.process;
+      if (program.getStart || (process != null && process.isAlive())) {
+        require(name, program);
+      }
+      return this;
+    }
+
+    /**
+     * 添加需要停止的程序，不论是否启用，没有运行时以 {@link Stage#NOT_RUNNING} 结束。
+     */
+    public Tier require(String name, Share.Program program) {
+      return require(name, program, DEFAULT_DESTROY_TIMEOUT);
+    }
+
+    Tier require(String name, Share.Program program, long destroyTimeout) {
+      targets.add(new Target(name, program, program.quitTimeout, destroyTimeout));
+      return this;
+    }
+
+    public boolean isEmpty() {
+      return targets.isEmpty();
+    }
+  }
+
+  public static final class Target {
+    public final String name;
+    public final Share.Program program;
+    public final long quitTimeout;
+    public final long destroyTimeout;
+
+    Target(String name, Share.Program program, long quitTimeout, long destroyTimeout) {
+      this.name = name;
+      this.program = program;
+      this.quitTimeout = quitTimeout;
+      this.destroyTimeout = destroyTimeout;
+    }
+  }
+
+  /**
+   * 正在停止的程序，阶段由调度线程推进，由进程退出的线程读取。
+   */
+  private final class Stopping {
+    final Target target;
+    final long startTick = System.nanoTime();
+    final AtomicReference<Stage> stage = new AtomicReference<>(Stage.QUIT);
+    final CompletableFuture<Result> result = new CompletableFuture<>();
+    /** 下一个阶段的调度任务。 */
+    volatile Supervisor.Task escalation;
+
+    Stopping(Target target) {
+      this.target = target;
+    }
+
+    /**
+     * 进程仍未退出并且没有取消时进入下一个阶段。
+     */
+    boolean escalate(Stage from, Stage to) {
+      return !cancelled && !result.isDone() && stage.compareAndSet(from, to);
+    }
+
+    void finish(Stage stage) {
+      long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTick);
+      result.complete(new Result(target, stage, elapsed));
+    }
+  }
+
+  public static final class Result {
+    public final Target target;
+    public final Stage stage;
+    /** 从发送退出指令到进程结束的耗时，单位：毫秒。 */
+    public final long elapsed;
+
+    Result(Target target, Stage stage, long elapsed) {
+      this.target = target;
+      this.stage = stage;
+      this.elapsed = elapsed;
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package randall.gamecenter;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * 备用游戏网关池。
+ * <p>
+ * 游戏启动完成后预先启动若干个监听备用端口的游戏网关。某个游戏网关异常退出时，
+ * 直接接管一个已经就绪的备用网关，并把服务器列表中的端口改为备用网关的端口，
+ * 不必等待新进程冷启动；随后在后台补充备用网关。
+ * <p>
+ * 网关程序只在启动时读取端口配置，运行中的进程无法改绑端口，因此切换的是对外公布的端口。
+ *
+ * @author mrzhqiang
+ */
+public final class StandbyPool {
+  private final List<ProgramDescriptor> slots;
+  private final int basePort;
+  private final int portRange;
+
+  /**
+   * @param size     备用网关数量，为 0 表示不启用。
+   * @param basePort 备用端口的起始值，从这里开始查找没有被占用的端口。
+   */
+  public StandbyPool(int size, int basePort, int portRange) {
+    Preconditions.checkArgument(size >= 0, "size < 0");
+    Preconditions.checkArgument(portRange >= size, "portRange < size");
+    List<ProgramDescriptor> slots = Lists.newArrayListWithCapacity(size);
+    for (int i = 0; i < size; i++) {
+      slots.add(new ProgramDescriptor(ProgramRole.RUN_GATE, i, new Share.Program(),
+          "StandbyGate" + (i + 1), "备用游戏网关[" + (i + 1) + "]"));
+    }
+    this.slots = Collections.unmodifiableList(slots);
+    this.basePort = basePort;
+    this.portRange = portRange;
+  }
+
+  public boolean isEnabled() {
+    return !slots.isEmpty();
+  }
+
+  public List<ProgramDescriptor> slots() {
+    return slots;
+  }
+
+  /**
+   * 选出下一个需要启动的备用网关，并为它分配一个没有被占用的端口。
+   * <p>
+   * 备用网关与游戏网关共用配置文件，上一个网关读取配置之前不会启动下一个。
+   *
+   * @param usedPorts 正在使用的端口。
+   * @return 没有需要启动的备用网关，或者有网关正在读取配置时返回 null。
+   */
+  public synchronized ProgramDescriptor nextToLaunch(Set<Integer> usedPorts) {
+    ProgramDescriptor candidate = null;
+    for (ProgramDescriptor slot : slots) {
+      Share.Program program = slot.program;
+      if (program.state() == Lifecycle.State.STARTING && program.processCode == null) {
+        return null;
+      }
+      if (candidate == null && program.state() == Lifecycle.State.STOPPED && !isAlive(program)) {
+        candidate = slot;
+      }
+    }
+    if (candidate == null) {
+      return null;
+    }
+    for (ProgramDescriptor slot : slots) {
+      if (slot.program.ports.length > 0 && isAlive(slot.program)) {
+        usedPorts.add(slot.program.ports[0]);
+      }
+    }
+    for (int port = basePort; port < basePort + portRange; port++) {
+      if (!usedPorts.contains(port)) {
+        candidate.program.ports = new int[]{port};
+        return candidate;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * 取出一个已经就绪的备用网关，并把进程转移给异常退出的游戏网关。
+   * <p>
+   * 启动备用网关时注册的退出回调只会更新备用网关，因此这里另外监听接管的进程：
+   * 退出后先把游戏网关改为停止状态，再通知调用方。
+   *
+   * @param onExit 接管的进程退出时调用，参数为退出的进程。
+   * @return 转移成功返回 true；没有就绪的备用网关时返回 false。
+   */
+  public synchronized boolean promote(Share.Program target, Consumer<Process> onExit) {
+    Preconditions.checkNotNull(onExit, "onExit == null");
+    for (ProgramDescriptor slot : slots) {
+      Share.Program standby = slot.program;
+      if (!isAlive(standby)
+          || !standby.lifecycle.compareAndSet(Lifecycle.State.RUNNING, Lifecycle.State.STOPPED)) {
+        continue;
+      }
+      target.process = standby.process;
+      target.processCode = standby.processCode;
+      target.disposable = standby.disposable;
+      target.spawnTime = standby.spawnTime;
+      target.ports = standby.ports;
+      target.output = standby.output;
+      target.lifecycle.moveTo(Lifecycle.State.RUNNING);
+      standby.process = null;
+      standby.processCode = null;
+      standby.disposable = null;
+      standby.ports = new int[0];
+      Processes.onExit(target.process).thenAccept(exited -> {
+        target.onExited(exited);
+        onExit.accept(exited);
+      });
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * 已经就绪的备用网关数量。
+   */
+  public synchronized int readyCount() {
+    int count = 0;
+    for (ProgramDescriptor slot : slots) {
+      if (slot.program.state() == Lifecycle.State.RUNNING && isAlive(slot.program)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static boolean isAlive(Share.Program program) {
+    Process process = program.process;
+    return process != null && process.isAlive();
+  }
+}
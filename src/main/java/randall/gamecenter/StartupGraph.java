@@ -0,0 +1,328 @@
+package randall.gamecenter;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * 启动依赖图。
+ * <p>
+ * 每个节点声明自己依赖的节点，只要依赖全部就绪就立刻启动，互不依赖的节点（例如多个游戏网关）
+ * 在同一次推进中并行启动，不再按固定顺序每秒启动一个程序。
+ * <p>
+ * 共用同一个配置文件的节点（例如多个游戏网关）可以声明相同的独占资源，
+ * 前一个程序输出第一行握手信息之后，才会为下一个程序生成配置并启动，避免配置文件被提前覆盖。
+ * <p>
+ * 启动过程中退出的程序与运行期间崩溃的程序一样，按各自的 {@link RestartPolicy} 退避后重新启动；
+ * 熔断暂停后标记为出错，依赖它的节点不再启动，同样熔断暂停并标记为出错，
+ * 启动流程结束时通过 {@link #failures()} 一起报告。
+ *
+ * @author mrzhqiang
+ */
+public final class StartupGraph {
+  private final Map<String, Node> nodes = Maps.newLinkedHashMap();
+  private final Map<String, Node> resources = Maps.newHashMap();
+  /** 重启策略使用的时钟，单位：毫秒。 */
+  private final LongSupplier clock;
+
+  private long startTick;
+  private long finishTick;
+  private boolean finished;
+
+  public StartupGraph() {
+    this(System::currentTimeMillis);
+  }
+
+  StartupGraph(LongSupplier clock) {
+    this.clock = Preconditions.checkNotNull(clock, "clock == null");
+  }
+
+  public Node add(String name, Share.Program program, Runnable launcher, String... dependencies) {
+    Preconditions.checkNotNull(name, "name == null");
+    Preconditions.checkNotNull(program, "program == null");
+    Preconditions.checkNotNull(launcher, "launcher == null");
+    Preconditions.checkState(!nodes.containsKey(name), "duplicate node: %s", name);
+    Node node = new Node(name, program, launcher);
+    for (String dependency : dependencies) {
+      Node parent = nodes.get(dependency);
+      Preconditions.checkArgument(parent != null, "unknown dependency: %s", dependency);
+      node.dependencies.add(parent);
+    }
+    nodes.put(name, node);
+    return node;
+  }
+
+  public Node get(String name) {
+    return nodes.get(name);
+  }
+
+  public Collection<Node> nodes() {
+    return Collections.unmodifiableCollection(nodes.values());
+  }
+
+  /**
+   * 推进一次启动流程：启动所有依赖已就绪、且尚未启动的节点。
+   *
+   * @return 仅在首次观察到全部节点就绪时返回 true。
+   */
+  public synchronized boolean advance() {
+    if (finished) {
+      return false;
+    }
+    long now = System.nanoTime();
+    if (startTick == 0) {
+      startTick = now;
+    }
+    boolean settled = true;
+    for (Node node : nodes.values()) {
+      if (node.isSettled()) {
+        if (node.readyTick == 0) {
+          node.readyTick = now;
+        }
+        continue;
+      }
+      if (node.program.state() != Lifecycle.State.STOPPED) {
+        settled = false;
+        continue;
+      }
+      long time = clock.getAsLong();
+      // 启动过程中退出的程序会被重置为停止状态，按重启策略退避后重新启动
+      if (node.launchTick != 0 && !node.mayRelaunch(time)) {
+        if (node.failed) {
+          node.readyTick = now;
+        } else {
+          settled = false;
+        }
+        continue;
+      }
+      Node blocker = node.failedDependency();
+      if (blocker != null) {
+        // 依赖已经熔断暂停，启动之后也只会反复崩溃
+        node.block(blocker);
+        node.readyTick = now;
+        continue;
+      }
+      settled = false;
+      if (!node.canLaunch()) {
+        continue;
+      }
+      if (node.resource != null) {
+        Node holder = resources.get(node.resource);
+        if (holder != null && holder.holdsResource()) {
+          continue;
+        }
+        resources.put(node.resource, node);
+      }
+      node.launchTick = System.nanoTime();
+      node.launcher.run();
+      node.program.restartPolicy.onLaunched(time);
+    }
+    if (settled) {
+      finished = true;
+      finishTick = now;
+    }
+    return finished;
+  }
+
+  /**
+   * 启动过程中反复退出、已经熔断暂停的节点，以及因为依赖失败而没有启动的节点。
+   */
+  public synchronized List<Node> failures() {
+    List<Node> failures = Lists.newArrayList();
+    for (Node node : nodes.values()) {
+      if (node.failed) {
+        failures.add(node);
+      }
+    }
+    return failures;
+  }
+
+  /**
+   * 从开始启动到全部就绪的耗时，单位：毫秒。
+   */
+  public synchronized long elapsed() {
+    if (startTick == 0) {
+      return 0;
+    }
+    long end = finished ? finishTick : System.nanoTime();
+    return TimeUnit.NANOSECONDS.toMillis(end - startTick);
+  }
+
+  /**
+   * 关键路径：从最后一个就绪的节点开始，沿着最晚就绪的依赖向前回溯。
+   */
+  public synchronized List<Node> criticalPath() {
+    Node last = null;
+    for (Node node : nodes.values()) {
+      if (node.launchTick != 0 && !node.failed
+          && (last == null || node.readyTick > last.readyTick)) {
+        last = node;
+      }
+    }
+    List<Node> path = Lists.newArrayList();
+    while (last != null) {
+      path.add(last);
+      Node previous = null;
+      for (Node dependency : last.dependencies) {
+        if (dependency.launchTick != 0 && !dependency.failed
+            && (previous == null || dependency.readyTick > previous.readyTick)) {
+          previous = dependency;
+        }
+      }
+      last = previous;
+    }
+    Collections.reverse(path);
+    return path;
+  }
+
+  public synchronized String report() {
+    StringBuilder builder = new StringBuilder();
+    builder.append(String.format("启动总耗时 %d ms，关键路径：", elapsed()));
+    List<Node> path = criticalPath();
+    for (int i = 0; i < path.size(); i++) {
+      Node node = path.get(i);
+      if (i > 0) {
+        builder.append(" → ");
+      }
+      builder.append(String.format("%s(%d ms)", node.name, node.startupTime()));
+    }
+    List<Node> failures = failures();
+    if (!failures.isEmpty()) {
+      builder.append("，启动失败：");
+      for (int i = 0; i < failures.size(); i++) {
+        Node node = failures.get(i);
+        builder.append(i > 0 ? "、" : "");
+        if (node.blocker != null) {
+          builder.append(String.format("%s(依赖 %s 失败)", node.name, node.blocker.name));
+        } else {
+          builder.append(String.format("%s(退出码 %d)", node.name,
+              node.program.restartPolicy.lastExitCode()));
+        }
+      }
+    }
+    return builder.toString();
+  }
+
+  public static final class Node {
+    public final String name;
+    public final Share.Program program;
+    private final Runnable launcher;
+    private final List<Node> dependencies = Lists.newArrayList();
+
+    private BooleanSupplier condition = () -> true;
+    private String resource;
+    private long launchTick;
+    private long readyTick;
+    /** 启动过程中反复退出，或者依赖失败没有启动，已经熔断暂停。 */
+    private boolean failed;
+    /** 导致没有启动的依赖节点。 */
+    private Node blocker;
+
+    private Node(String name, Share.Program program, Runnable launcher) {
+      this.name = name;
+      this.program = program;
+      this.launcher = launcher;
+    }
+
+    /**
+     * 额外的启动条件，例如延时启动或定时启动。
+     */
+    public Node when(BooleanSupplier condition) {
+      this.condition = Preconditions.checkNotNull(condition, "condition == null");
+      return this;
+    }
+
+    /**
+     * 声明独占资源，同一资源上的节点依次启动。
+     */
+    public Node exclusive(String resource) {
+      this.resource = resource;
+      return this;
+    }
+
+    /**
+     * 启动耗时，从启动程序到就绪，单位：毫秒。
+     */
+    public long startupTime() {
+      if (launchTick == 0 || readyTick == 0) {
+        return 0;
+      }
+      return TimeUnit.NANOSECONDS.toMillis(readyTick - launchTick);
+    }
+
+    public boolean isFailed() {
+      return failed;
+    }
+
+    /**
+     * 因为依赖失败而没有启动时，返回失败的依赖节点，否则返回 null。
+     */
+    public Node blocker() {
+      return blocker;
+    }
+
+    /**
+     * 启动过程中退出的程序记录一次失败，退避时间未到时等待；熔断暂停后标记为出错，不再启动。
+     */
+    private boolean mayRelaunch(long now) {
+      RestartPolicy policy = program.restartPolicy;
+      if (!policy.isPending() && policy.onFailure(now, program.lastExitCode) < 0) {
+        failed = true;
+        program.lifecycle.moveTo(Lifecycle.State.ERROR);
+        return false;
+      }
+      return policy.canRestart(now);
+    }
+
+    private void block(Node dependency) {
+      failed = true;
+      blocker = dependency;
+      program.restartPolicy.park();
+      program.lifecycle.moveTo(Lifecycle.State.ERROR);
+    }
+
+    private Node failedDependency() {
+      for (Node dependency : dependencies) {
+        if (dependency.program.getStart
+            && (dependency.failed || dependency.program.state() == Lifecycle.State.ERROR)) {
+          return dependency;
+        }
+      }
+      return null;
+    }
+
+    private boolean canLaunch() {
+      for (Node dependency : dependencies) {
+        if (!dependency.isReady()) {
+          return false;
+        }
+      }
+      return condition.getAsBoolean();
+    }
+
+    /**
+     * 未启用的程序和已就绪的程序，后续节点可以启动。
+     */
+    private boolean isReady() {
+      return !program.getStart || program.state() == Lifecycle.State.RUNNING;
+    }
+
+    /**
+     * 可以启动的程序以及启动出错的程序，都不再阻塞启动流程结束。
+     */
+    private boolean isSettled() {
+      return isReady() || program.state() == Lifecycle.State.ERROR;
+    }
+
+    private boolean holdsResource() {
+      return program.state() == Lifecycle.State.STARTING && program.processCode == null;
+    }
+  }
+}
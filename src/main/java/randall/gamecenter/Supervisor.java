@@ -0,0 +1,207 @@
+package randall.gamecenter;
+
+import com.google.common.base.Preconditions;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 监管调度器。
+ * <p>
+ * 启动、停止、运行检测以及数据备份等周期任务全部由同一个调度线程池托管，
+ * 状态切换时只取消对应的任务，不再反复销毁和创建 Timer 线程。
+ *
+ * @author mrzhqiang
+ */
+public final class Supervisor {
+  private static final Logger LOGGER = LoggerFactory.getLogger("randall");
+
+  /** 调度线程数量，数据备份可能耗时较长，多保留一个线程避免阻塞启停任务。 */
+  private static final int POOL_SIZE = 2;
+
+  private final ScheduledThreadPoolExecutor executor;
+  private final Set<Task> tasks = ConcurrentHashMap.newKeySet();
+
+  public Supervisor() {
+    this(POOL_SIZE);
+  }
+
+  /**
+   * @param poolSize 调度线程数量，多个分区共用一个调度器时按分区数量增加。
+   */
+  public Supervisor(int poolSize) {
+    Preconditions.checkArgument(poolSize > 0, "invalid pool size: %s", poolSize);
+    AtomicInteger count = new AtomicInteger();
+    ThreadFactory factory = runnable -> {
+      Thread thread = new Thread(runnable, "supervisor-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    executor = new ScheduledThreadPoolExecutor(poolSize, factory);
+    // 取消的任务立即移出队列，保证队列深度统计准确
+    executor.setRemoveOnCancelPolicy(true);
+    executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+  }
+
+  /**
+   * 以固定间隔调度任务，语义与 {@link java.util.Timer#schedule(java.util.TimerTask, long, long)}
+   * 一致：每次执行结束后间隔 period 毫秒再执行下一次。
+   */
+  public Task schedule(String name, Runnable runnable, long delay, long period) {
+    Preconditions.checkNotNull(name, "name == null");
+    Preconditions.checkNotNull(runnable, "runnable == null");
+    Task task = new Task(name, runnable, period);
+    task.expectedTick = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+    tasks.add(task);
+    task.future = executor.scheduleWithFixedDelay(task, delay, period, TimeUnit.MILLISECONDS);
+    return task;
+  }
+
+  /**
+   * 调度只执行一次的任务。
+   */
+  public Task schedule(String name, Runnable runnable, long delay) {
+    Preconditions.checkNotNull(name, "name == null");
+    Preconditions.checkNotNull(runnable, "runnable == null");
+    Task task = new Task(name, runnable, 0);
+    task.expectedTick = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+    tasks.add(task);
+    task.future = executor.schedule(task, delay, TimeUnit.MILLISECONDS);
+    return task;
+  }
+
+  /**
+   * 立即执行任务。
+   */
+  public Task execute(String name, Runnable runnable) {
+    return schedule(name, runnable, 0);
+  }
+
+  /**
+   * 取消任务，允许传入 null 以便调用方无需判空。
+   */
+  public void cancel(Task task) {
+    if (task != null) {
+      task.cancel();
+    }
+  }
+
+  /**
+   * 当前等待执行的任务数量。
+   */
+  public int queueSize() {
+    return executor.getQueue().size();
+  }
+
+  /**
+   * 正在执行的任务数量。
+   */
+  public int activeCount() {
+    return executor.getActiveCount();
+  }
+
+  /**
+   * 所有存活任务中最大的调度延迟，单位：毫秒。
+   */
+  public long maxLag() {
+    long lag = 0;
+    for (Task task : tasks) {
+      lag = Math.max(lag, task.maxLag());
+    }
+    return lag;
+  }
+
+  public String report() {
+    StringBuilder builder = new StringBuilder();
+    builder.append(String.format("调度队列：%d，执行中：%d，已完成：%d",
+        queueSize(), activeCount(), executor.getCompletedTaskCount()));
+    for (Task task : tasks) {
+      builder.append(System.lineSeparator())
+          .append(String.format("  [%s] 执行 %d 次，出错 %d 次，延迟 %d ms，最大延迟 %d ms",
+              task.name, task.runCount, task.failureCount, task.lastLag(), task.maxLag()));
+    }
+    return builder.toString();
+  }
+
+  public void shutdown() {
+    tasks.forEach(Task::cancel);
+    executor.shutdownNow();
+    LOGGER.info("监管调度器已关闭。");
+  }
+
+  public final class Task implements Runnable {
+    public final String name;
+    private final Runnable runnable;
+    private final long period;
+
+    private volatile ScheduledFuture<?> future;
+    private volatile long expectedTick;
+    private volatile long lastLag;
+    private volatile long maxLag;
+    private volatile long runCount;
+    private volatile long failureCount;
+
+    private Task(String name, Runnable runnable, long period) {
+      this.name = name;
+      this.runnable = runnable;
+      this.period = period;
+    }
+
+    @Override public void run() {
+      long now = System.nanoTime();
+      lastLag = Math.max(0, now - expectedTick);
+      maxLag = Math.max(maxLag, lastLag);
+      runCount++;
+      try {
+        runnable.run();
+      } catch (Throwable e) {
+        // 抛出的异常或者错误会让调度器静默取消周期任务，所以这里必须全部捕获；
+        // 周期任务总是继续调度，由任务自己在下一次执行时决定如何处理所属的程序
+        failureCount++;
+        LOGGER.error("执行任务 [" + name + "] 出错！", e);
+      } finally {
+        if (period > 0) {
+          expectedTick = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(period);
+        } else {
+          tasks.remove(this);
+        }
+      }
+    }
+
+    public void cancel() {
+      if (future != null) {
+        future.cancel(false);
+      }
+      tasks.remove(this);
+    }
+
+    public boolean isCancelled() {
+      return future == null || future.isCancelled();
+    }
+
+    /** 最近一次执行相对预期时间的延迟，单位：毫秒。 */
+    public long lastLag() {
+      return TimeUnit.NANOSECONDS.toMillis(lastLag);
+    }
+
+    /** 最大执行延迟，单位：毫秒。 */
+    public long maxLag() {
+      return TimeUnit.NANOSECONDS.toMillis(maxLag);
+    }
+
+    public long runCount() {
+      return runCount;
+    }
+
+    /** 抛出异常或者错误的次数。 */
+    public long failureCount() {
+      return failureCount;
+    }
+  }
+}
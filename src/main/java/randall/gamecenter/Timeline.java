@@ -0,0 +1,216 @@
+package randall.gamecenter;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 启动或者停止游戏的时间线。
+ * <p>
+ * 按单调时钟记录每个程序经过的阶段：生成配置、创建进程、第一次握手、就绪、发送退出指令以及进程退出，
+ * 时间为相对于本次启动或者停止开始时的偏移。可以导出为 JSON 或者 CSV，按程序画成甘特图，
+ * 查看时间花在了哪里。
+ * <p>
+ * 定时启动时等待开放时间的时长通过 {@link #exclude(long)} 记录，不计入总耗时，
+ * 否则每次定时启动都会被当作启动变慢。
+ *
+ * @author mrzhqiang
+ */
+public final class Timeline {
+  private final Kind kind;
+  /** 开始时刻，System.currentTimeMillis()，用于显示和文件名。 */
+  private final long startTime;
+  private final long startTick;
+  private final List<Event> events = Lists.newArrayList();
+  /** 结束时刻，System.nanoTime()；尚未结束时为 0。 */
+  private long endTick;
+  /** 不计入总耗时的等待，单位：纳秒。 */
+  private long excluded;
+
+  public Timeline(Kind kind) {
+    this(kind, System.currentTimeMillis(), System.nanoTime());
+  }
+
+  Timeline(Kind kind, long startTime, long startTick) {
+    this.kind = Preconditions.checkNotNull(kind, "kind == null");
+    this.startTime = startTime;
+    this.startTick = startTick;
+  }
+
+  public Kind kind() {
+    return kind;
+  }
+
+  public long startTime() {
+    return startTime;
+  }
+
+  /**
+   * 记录程序进入某个阶段，结束之后的记录会被忽略。
+   */
+  public synchronized void record(String program, Phase phase) {
+    record(program, phase, System.nanoTime());
+  }
+
+  synchronized void record(String program, Phase phase, long tick) {
+    if (endTick != 0) {
+      return;
+    }
+    events.add(new Event(program, phase, Math.max(0, tick - startTick)));
+  }
+
+  /**
+   * 记录一段不计入总耗时的等待，结束之后的记录会被忽略。
+   */
+  public synchronized void exclude(long nanos) {
+    if (endTick == 0 && nanos > 0) {
+      excluded += nanos;
+    }
+  }
+
+  public synchronized void finish() {
+    finish(System.nanoTime());
+  }
+
+  synchronized void finish(long tick) {
+    if (endTick == 0) {
+      endTick = tick;
+    }
+  }
+
+  public synchronized boolean isFinished() {
+    return endTick != 0;
+  }
+
+  /**
+   * 从开始到结束的总耗时，尚未结束时为到现在为止的耗时，不包括等待的时间，单位：毫秒。
+   */
+  public synchronized long totalMillis() {
+    long end = endTick == 0 ? System.nanoTime() : endTick;
+    return TimeUnit.NANOSECONDS.toMillis(end - startTick - excluded);
+  }
+
+  /**
+   * 不计入总耗时的等待，单位：毫秒。
+   */
+  public synchronized long waitMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(excluded);
+  }
+
+  public synchronized List<Event> events() {
+    return Collections.unmodifiableList(Lists.newArrayList(events));
+  }
+
+  /**
+   * 按程序分组，每个程序的阶段按发生的先后排列，程序按第一次出现的先后排列。
+   */
+  public synchronized Map<String, List<Event>> byProgram() {
+    Map<String, List<Event>> programs = Maps.newLinkedHashMap();
+    for (Event event : events) {
+      programs.computeIfAbsent(event.program, key -> Lists.newArrayList()).add(event);
+    }
+    return programs;
+  }
+
+  public String toJson() {
+    JsonWriter writer = new JsonWriter().beginObject()
+        .name("kind").value(kind.id)
+        .name("startTime").value(startTime)
+        .name("totalMillis").value(totalMillis());
+    long waitMillis = waitMillis();
+    if (waitMillis > 0) {
+      writer.name("waitMillis").value(waitMillis);
+    }
+    writer.name("programs").beginArray();
+    for (Map.Entry<String, List<Event>> entry : byProgram().entrySet()) {
+      writer.beginObject().name("id").value(entry.getKey()).name("phases").beginArray();
+      for (Event event : entry.getValue()) {
+        writer.beginObject()
+            .name("phase").value(event.phase.id)
+            .name("millis").value(event.millis())
+            .endObject();
+      }
+      writer.endArray().endObject();
+    }
+    return writer.endArray().endObject().toString();
+  }
+
+  public String toCsv() {
+    StringBuilder builder = new StringBuilder("program,phase,millis\n");
+    for (Event event : events()) {
+      builder.append(event.program).append(',')
+          .append(event.phase.id).append(',')
+          .append(event.millis()).append('\n');
+    }
+    return builder.toString();
+  }
+
+  public enum Kind {
+    START("start", "启动游戏"),
+    STOP("stop", "停止游戏"),
+    ;
+
+    public final String id;
+    public final String displayName;
+
+    Kind(String id, String displayName) {
+      this.id = id;
+      this.displayName = displayName;
+    }
+
+    public static Kind of(String id) {
+      for (Kind kind : values()) {
+        if (kind.id.equals(id)) {
+          return kind;
+        }
+      }
+      return null;
+    }
+  }
+
+  public enum Phase {
+    /** 依赖已经就绪，开始等待开放时间，直到生成配置之前的时间不计入总耗时。 */
+    WAIT("wait"),
+    /** 生成了程序自己的配置文件，共用配置文件的网关需要依次生成。 */
+    CONFIG("config"),
+    /** 进程创建完成。 */
+    SPAWNED("spawned"),
+    /** 收到第一次握手信息。 */
+    HANDSHAKE("handshake"),
+    /** 收到第二次握手信息，或者端口全部可以连接。 */
+    READY("ready"),
+    /** 发送了退出指令。 */
+    QUIT("quit"),
+    /** 进程退出。 */
+    EXITED("exited"),
+    ;
+
+    public final String id;
+
+    Phase(String id) {
+      this.id = id;
+    }
+  }
+
+  public static final class Event {
+    public final String program;
+    public final Phase phase;
+    /** 相对于开始时刻的偏移，单位：纳秒。 */
+    public final long offset;
+
+    Event(String program, Phase phase, long offset) {
+      this.program = program;
+      this.phase = phase;
+      this.offset = offset;
+    }
+
+    /** 相对于开始时刻的偏移，单位：毫秒，保留三位小数。 */
+    public double millis() {
+      return Math.round(offset / 1000.0) / 1000.0;
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package randall.gamecenter;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 时间线历史。
+ * <p>
+ * 每次启动或者停止结束后，把时间线导出为 JSON 和 CSV 文件，并在历史文件中追加一行总耗时，
+ * 用于和之前的记录比较，发现启动变慢的情况。历史文件只保留最近 {@link #MAX_ENTRIES} 行。
+ *
+ * @author mrzhqiang
+ */
+public final class TimelineHistory {
+  private static final Logger LOGGER = LoggerFactory.getLogger("randall");
+
+  static final String HISTORY_FILE = "history.tsv";
+  static final int MAX_ENTRIES = 100;
+
+  private final Path directory;
+
+  public TimelineHistory(Path directory) {
+    this.directory = Preconditions.checkNotNull(directory, "directory == null");
+  }
+
+  public Path directory() {
+    return directory;
+  }
+
+  /**
+   * 最近 window 次同类记录总耗时的中位数，单位：毫秒；没有记录时返回 -1。
+   */
+  public synchronized long baseline(Timeline.Kind kind, int window) {
+    Preconditions.checkArgument(window > 0, "invalid window: %s", window);
+    List<Long> totals = Lists.newArrayList();
+    for (Entry entry : read()) {
+      if (entry.kind == kind) {
+        totals.add(entry.totalMillis);
+      }
+    }
+    if (totals.isEmpty()) {
+      return -1;
+    }
+    totals = Lists.newArrayList(totals.subList(Math.max(0, totals.size() - window), totals.size()));
+    Collections.sort(totals);
+    int middle = totals.size() / 2;
+    return totals.size() % 2 == 1
+        ? totals.get(middle)
+        : (totals.get(middle - 1) + totals.get(middle)) / 2;
+  }
+
+  /**
+   * 导出已经结束的时间线，并记录它的总耗时。
+   *
+   * @return 导出的 JSON 文件，出错时返回 null。
+   */
+  public synchronized Path save(Timeline timeline) {
+    Preconditions.checkArgument(timeline.isFinished(), "timeline not finished");
+    String name = timeline.kind().id + "-"
+        + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(timeline.startTime()));
+    Path json = directory.resolve(name + ".json");
+    try {
+      Files.createDirectories(directory);
+      Files.write(json, timeline.toJson().getBytes(StandardCharsets.UTF_8));
+      Files.write(directory.resolve(name + ".csv"),
+          timeline.toCsv().getBytes(StandardCharsets.UTF_8));
+      List<String> lines = Lists.newArrayList();
+      for (Entry entry : read()) {
+        lines.add(entry.toString());
+      }
+      lines.add(
+          new Entry(timeline.kind(), timeline.startTime(), timeline.totalMillis()).toString());
+      lines = lines.subList(Math.max(0, lines.size() - MAX_ENTRIES), lines.size());
+      Files.write(directory.resolve(HISTORY_FILE), lines, StandardCharsets.UTF_8);
+      return json;
+    } catch (IOException e) {
+      LOGGER.warn("保存时间线出错：" + directory, e);
+      return null;
+    }
+  }
+
+  private List<Entry> read() {
+    Path path = directory.resolve(HISTORY_FILE);
+    if (Files.notExists(path)) {
+      return Collections.emptyList();
+    }
+    List<String> lines;
+    try {
+      lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      LOGGER.warn("读取时间线历史出错：" + path, e);
+      return Collections.emptyList();
+    }
+    List<Entry> entries = Lists.newArrayList();
+    for (String line : lines) {
+      try {
+        entries.add(Entry.parse(line));
+      } catch (RuntimeException e) {
+        LOGGER.warn("忽略无效的时间线历史：" + line);
+      }
+    }
+    return entries;
+  }
+
+  private static final class Entry {
+    final Timeline.Kind kind;
+    final long startTime;
+    final long totalMillis;
+
+    Entry(Timeline.Kind kind, long startTime, long totalMillis) {
+      this.kind = kind;
+      this.startTime = startTime;
+      this.totalMillis = totalMillis;
+    }
+
+    static Entry parse(String line) {
+      List<String> fields = Splitter.on('\t').splitToList(line);
+      Preconditions.checkArgument(fields.size() == 3, "invalid entry: %s", line);
+      Timeline.Kind kind = Preconditions.checkNotNull(Timeline.Kind.of(fields.get(0)),
+          "invalid kind: %s", line);
+      return new Entry(kind, Long.parseLong(fields.get(1)), Long.parseLong(fields.get(2)));
+    }
+
+    @Override public String toString() {
+      return Joiner.on('\t').join(kind.id, startTime, totalMillis);
+    }
+  }
+}
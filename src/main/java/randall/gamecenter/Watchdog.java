@@ -0,0 +1,239 @@
+package randall.gamecenter;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 卡死检测。
+ * <p>
+ * 运行检测只能发现已经退出的程序，进程还在、却已经不再工作的程序（例如死锁的游戏引擎）需要另外判断。
+ * 这里以标准输出的活动衡量程序是否存活：运行中的程序超过角色配置的静默时间没有任何输出，判定为卡死。
+ * 本身不会定期输出的程序可以配置心跳指令，静默超过三分之一的时间后定期写入标准输入，程序回复任意一行即可。
+ * 开始检测之前的静默不计入卡死的判定，否则游戏全部启动之前就已经就绪的程序，第一次检测时还没收到心跳就会被判定为卡死。
+ * <p>
+ * 判定卡死后先保存诊断信息：最近的输出、资源占用，以及 Linux 上 /proc 中的进程状态、各线程状态和内核栈；
+ * 然后按规则只提示，或者强制结束进程，交给运行检测按重启策略重启，反复卡死同样会被熔断暂停。
+ * 重新接管的进程无法读取输出，不做检测。
+ *
+ * @author mrzhqiang
+ */
+public final class Watchdog {
+  private static final Logger LOGGER = LoggerFactory.getLogger("randall");
+  private static final Path PROC = Paths.get("/proc");
+  private static final DateTimeFormatter FILE_TIME =
+      DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+  /** 心跳间隔占静默时间的比例。 */
+  private static final int HEARTBEATS_PER_TIMEOUT = 3;
+
+  private final Path directory;
+  /** 每个程序开始检测的时刻，System.nanoTime()。 */
+  private final Map<Share.Program, Long> watched = Maps.newHashMap();
+  /** 每个程序最后一次发送心跳的时刻，System.nanoTime()。 */
+  private final Map<Share.Program, Long> heartbeats = Maps.newHashMap();
+  /** 已经判定为卡死、恢复输出之前不再重复处理的程序。 */
+  private final Set<Share.Program> hung = Sets.newHashSet();
+
+  /**
+   * @param directory 保存诊断信息的目录。
+   */
+  public Watchdog(Path directory) {
+    this.directory = Preconditions.checkNotNull(directory, "directory == null");
+  }
+
+  public Path directory() {
+    return directory;
+  }
+
+  /**
+   * 检测一个程序。
+   *
+   * @param rule 程序角色的规则，为 null 表示不检测。
+   * @param now  当前时刻，System.nanoTime()。
+   */
+  public synchronized Verdict check(Share.Program program, Rule rule, long now) {
+    Process process = program.process;
+    if (rule == null || process == null || !process.isAlive()
+        || process instanceof AttachedProcess || program.maintenance
+        || program.state() != Lifecycle.State.RUNNING) {
+      watched.remove(program);
+      heartbeats.remove(program);
+      hung.remove(program);
+      return Verdict.OK;
+    }
+    long silent = silentNanos(program, now);
+    long watching = now - watched.computeIfAbsent(program, key -> now);
+    if (Math.min(silent, watching) >= rule.timeout) {
+      return hung.add(program) ? Verdict.HUNG : Verdict.OK;
+    }
+    hung.remove(program);
+    if (Strings.isNullOrEmpty(rule.heartbeat)) {
+      return Verdict.OK;
+    }
+    long interval = rule.timeout / HEARTBEATS_PER_TIMEOUT;
+    Long last = heartbeats.get(program);
+    if (silent >= interval && (last == null || now - last >= interval)) {
+      heartbeats.put(program, now);
+      return Verdict.HEARTBEAT;
+    }
+    return Verdict.OK;
+  }
+
+  /**
+   * 清除所有程序的检测记录，重新开始检测时调用。
+   */
+  public synchronized void reset() {
+    watched.clear();
+    heartbeats.clear();
+    hung.clear();
+  }
+
+  /**
+   * 从最后一次输出、或者进入运行状态起的静默时长，取较近的一个，单位：纳秒。
+   */
+  public static long silentNanos(Share.Program program, long now) {
+    long since = program.lifecycle.snapshot().since;
+    OutputTail output = program.output;
+    if (output.hasOutput()) {
+      long last = output.lastTick();
+      // System.nanoTime() 可能溢出，只能比较差值
+      if (last - since > 0) {
+        since = last;
+      }
+    }
+    return now - since;
+  }
+
+  /**
+   * 保存诊断信息。
+   *
+   * @return 诊断文件，保存失败时返回 null。
+   */
+  public Path capture(ProgramDescriptor descriptor, long silentMillis) {
+    Share.Program program = descriptor.program;
+    Process process = program.process;
+    long pid = process == null ? -1 : ProcessSampler.pid(process);
+    String nl = System.lineSeparator();
+    StringBuilder builder = new StringBuilder();
+    builder.append("程序：").append(descriptor.name).append('（').append(descriptor.id).append('）')
+        .append(nl)
+        .append("程序文件：").append(program.programFile).append(nl)
+        .append("进程号：").append(pid).append(nl)
+        .append("静默时长：").append(silentMillis).append(" ms").append(nl)
+        .append("重启次数：").append(program.restartCount).append(nl);
+    ResourceStats resources = program.resources;
+    builder.append(String.format("资源占用：CPU %d‰，内存 %d KB，线程 %d，文件 %d%n",
+        resources.cpu.latest(-1), resources.rss.latest(-1), resources.threads.latest(-1),
+        resources.files.latest(-1)));
+    if (pid > 0 && Files.isDirectory(PROC.resolve(String.valueOf(pid)))) {
+      appendProc(builder, PROC.resolve(String.valueOf(pid)));
+    }
+    builder.append(nl).append("最近的输出：").append(nl);
+    Joiner.on(nl).appendTo(builder, program.output.lines()).append(nl);
+
+    Path path = directory.resolve(String.format("%s-%s.txt", descriptor.id,
+        LocalDateTime.now().format(FILE_TIME)));
+    try {
+      Files.createDirectories(directory);
+      Files.write(path, builder.toString().getBytes(StandardCharsets.UTF_8));
+      return path;
+    } catch (IOException e) {
+      LOGGER.warn("保存卡死诊断信息出错：" + path, e);
+      return null;
+    }
+  }
+
+  /**
+   * 进程状态、各线程的状态和等待位置，以及有权限时的内核栈。
+   */
+  private static void appendProc(StringBuilder builder, Path directory) {
+    String nl = System.lineSeparator();
+    builder.append(nl).append("/proc/status：").append(nl)
+        .append(read(directory.resolve("status")));
+    builder.append(nl).append("线程（编号 状态 等待位置）：").append(nl);
+    Map<Integer, String> threads = new TreeMap<>();
+    try (DirectoryStream<Path> tasks = Files.newDirectoryStream(directory.resolve("task"))) {
+      for (Path task : tasks) {
+        String stat = read(task.resolve("stat"));
+        int end = stat.lastIndexOf(')');
+        // 第 3 项是线程状态，R 运行、S 睡眠、D 不可中断等待
+        String state = end < 0 || end + 2 >= stat.length()
+            ? "?" : stat.substring(end + 2, end + 3);
+        String name = task.getFileName().toString();
+        threads.put(Integer.parseInt(name),
+            String.format("%s %s %s", name, state, read(task.resolve("wchan")).trim()));
+      }
+    } catch (IOException | RuntimeException e) {
+      builder.append("读取线程出错：").append(e.getMessage()).append(nl);
+    }
+    Joiner.on(nl).appendTo(builder, threads.values()).append(nl);
+    String stack = read(directory.resolve("stack"));
+    if (!stack.isEmpty()) {
+      builder.append(nl).append("内核栈：").append(nl).append(stack);
+    }
+  }
+
+  private static String read(Path path) {
+    try {
+      return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+    } catch (IOException | SecurityException e) {
+      // 没有权限读取，例如内核栈需要 root
+      return "";
+    }
+  }
+
+  public enum Verdict {
+    OK,
+    /** 需要发送心跳。 */
+    HEARTBEAT,
+    /** 刚刚判定为卡死，同一次卡死只返回一次。 */
+    HUNG,
+  }
+
+  /**
+   * 卡死后的处理方式。
+   */
+  public enum Action {
+    /** 只保存诊断信息并提示。 */
+    ALERT,
+    /** 保存诊断信息后强制结束进程，由运行检测重启。 */
+    RESTART,
+  }
+
+  /**
+   * 一个角色的检测规则。
+   */
+  public static final class Rule {
+    /** 静默时间，单位：纳秒。 */
+    public final long timeout;
+    /** 心跳指令，为空表示不发送。 */
+    public final String heartbeat;
+    public final Action action;
+
+    /**
+     * @param timeout 静默时间，单位：毫秒。
+     */
+    public Rule(long timeout, String heartbeat, Action action) {
+      Preconditions.checkArgument(timeout > 0, "timeout <= 0");
+      this.timeout = TimeUnit.MILLISECONDS.toNanos(timeout);
+      this.heartbeat = Strings.nullToEmpty(heartbeat).trim();
+      this.action = Preconditions.checkNotNull(action, "action == null");
+    }
+  }
+}
@@ -0,0 +1,234 @@
+package randall.gamecenter;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author mrzhqiang
+ */
+public class AgentTest {
+  private final List<Share> shares = Lists.newArrayList();
+  private final List<GameEngine> engines = Lists.newArrayList();
+  private final List<AgentServer> servers = Lists.newArrayList();
+  private final List<AgentClient> clients = Lists.newArrayList();
+  private final BlockingQueue<AgentProtocol.LogLine> logs = new LinkedBlockingQueue<>();
+  private final CountDownLatch connected = new CountDownLatch(2);
+
+  @Before
+  public void setUp() throws Exception {
+    for (int i = 0; i < 2; i++) {
+      Path directory = Files.createTempDirectory("agent");
+      Share share = new Share(Files.createFile(directory.resolve(Share.SERVER_CONFIG_FILE)));
+      share.gameDirectory = directory.toString();
+      share.gameName = "Node" + i;
+      GameEngine engine = new GameEngine(share, message -> {
+      });
+      AgentServer server = new AgentServer(engine, Share.PRIMARY_IP_ADDRESS, 0, "secret");
+      shares.add(share);
+      engines.add(engine);
+      servers.add(server);
+      AgentClient client = new AgentClient("Node" + i, Share.PRIMARY_IP_ADDRESS,
+          server.address().getPort(), "secret", new AgentClient.Listener() {
+        @Override public void onConnected(AgentClient client) {
+          connected.countDown();
+        }
+
+        @Override public void onLogs(AgentClient client, List<AgentProtocol.LogLine> lines) {
+          logs.addAll(lines);
+        }
+      });
+      client.open();
+      clients.add(client);
+    }
+    assertTrue(connected.await(10, TimeUnit.SECONDS));
+  }
+
+  @After
+  public void tearDown() {
+    for (AgentClient client : clients) {
+      client.close();
+    }
+    for (AgentServer server : servers) {
+      server.close();
+    }
+    for (Share share : shares) {
+      share.supervisor.shutdown();
+      share.readinessProbe.close();
+    }
+  }
+
+  @Test
+  public void mirrorsStatusOfEachNode() throws Exception {
+    for (int i = 0; i < 2; i++) {
+      AgentClient client = clients.get(i);
+      assertEquals("Node" + i, client.gameName());
+      awaitTrue(() -> client.game() != null && !client.programs().isEmpty());
+      assertEquals("stopped", client.game().state);
+      assertEquals(shares.get(i).registry.all().size(), client.programs().size());
+    }
+
+    // 只有第二个节点开启备份，状态变化推送到对应的客户端
+    assertEquals("", clients.get(1).send(AgentProtocol.Command.BACKUP_START, "")
+        .get(5, TimeUnit.SECONDS));
+    assertTrue(engines.get(1).isBackupRunning());
+    awaitTrue(() -> clients.get(1).game().backup);
+    assertFalse(clients.get(0).game().backup);
+    assertFalse(engines.get(0).isBackupRunning());
+  }
+
+  @Test
+  public void rejectsUnknownProgram() throws Exception {
+    try {
+      clients.get(0).send(AgentProtocol.Command.PROGRAM_START, "Nothing")
+          .get(5, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException e) {
+      assertEquals("未知的程序：Nothing", e.getCause().getMessage());
+    }
+  }
+
+  @Test
+  public void streamsOutputAndMessagesInBatches() throws Exception {
+    shares.get(0).m2Server.output.add("first");
+    shares.get(0).m2Server.output.add("second");
+    servers.get(0).message("engine message");
+    List<String> received = Lists.newArrayList();
+    while (received.size() < 3) {
+      AgentProtocol.LogLine line = logs.poll(5, TimeUnit.SECONDS);
+      assertNotNull(line);
+      received.add(line.source + ":" + line.text);
+    }
+    assertTrue(received.toString(), received.contains("M2Server:first"));
+    assertTrue(received.toString(), received.contains("M2Server:second"));
+    assertTrue(received.toString(), received.contains(":engine message"));
+  }
+
+  @Test
+  public void splitLongLinesBySize() throws Exception {
+    // 每行编码后约 12 KB，500 行远远超过一帧的长度上限
+    String text = Strings.repeat("日", AgentProtocol.MAX_LOG_LENGTH);
+    for (int i = 0; i < AgentProtocol.MAX_LOG_BATCH; i++) {
+      servers.get(0).message(text);
+    }
+    for (int i = 0; i < AgentProtocol.MAX_LOG_BATCH; i++) {
+      AgentProtocol.LogLine line = logs.poll(5, TimeUnit.SECONDS);
+      assertNotNull("received " + i, line);
+      assertEquals(text, line.text);
+    }
+    assertTrue(clients.get(0).isConnected());
+  }
+
+  @Test
+  public void requireTokenOutsideLoopback() throws Exception {
+    GameEngine engine = engines.get(0);
+    try {
+      new AgentServer(engine, Share.ALL_IP_ADDRESS, 0, "").close();
+      fail("should require a token");
+    } catch (IllegalArgumentException expected) {
+      // 监听所有地址时必须配置令牌
+    }
+    new AgentServer(engine, Share.ALL_IP_ADDRESS, 0, "secret").close();
+    new AgentServer(engine, Share.PRIMARY_IP_ADDRESS, 0, "").close();
+  }
+
+  @Test
+  public void wrongTokenIsDenied() throws Exception {
+    AgentClient client = new AgentClient("Wrong", Share.PRIMARY_IP_ADDRESS,
+        servers.get(0).address().getPort(), "wrong", new AgentClient.Listener() {
+    });
+    clients.add(client);
+    client.open();
+    TimeUnit.MILLISECONDS.sleep(500);
+    assertFalse(client.isConnected());
+    try {
+      client.send(AgentProtocol.Command.GAME_START, "").get(1, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+  }
+
+  @Test
+  public void limitSessionsBeforeHandshake() throws Exception {
+    InetSocketAddress address = servers.get(0).address();
+    List<Socket> idle = Lists.newArrayList();
+    try {
+      // 已经有一个控制台连接，未握手的连接同样占用名额
+      for (int i = 1; i < AgentServer.MAX_SESSIONS; i++) {
+        Socket socket = new Socket(address.getAddress(), address.getPort());
+        idle.add(socket);
+      }
+      Socket rejected = new Socket(address.getAddress(), address.getPort());
+      idle.add(rejected);
+      rejected.setSoTimeout(5000);
+      AgentProtocol.Frame frame = AgentProtocol.readFrame(rejected.getInputStream());
+      assertEquals(AgentProtocol.DENIED, frame.type);
+      assertEquals("连接数量已满", frame.payload.readUTF());
+    } finally {
+      for (Socket socket : idle) {
+        socket.close();
+      }
+    }
+    // 关闭的连接归还名额
+    AgentClient client = new AgentClient("Again", Share.PRIMARY_IP_ADDRESS,
+        address.getPort(), "secret", new AgentClient.Listener() {
+    });
+    clients.add(client);
+    client.open();
+    awaitTrue(client::isConnected);
+  }
+
+  @Test(timeout = 20000)
+  public void offerDoesNotWaitForSlowConsole() throws Exception {
+    InetSocketAddress address = servers.get(0).address();
+    try (Socket socket = new Socket()) {
+      socket.setReceiveBufferSize(4096);
+      socket.connect(address);
+      AgentProtocol.writeFrame(socket.getOutputStream(), AgentProtocol.HELLO,
+          new AgentProtocol.Writer().writeShort(AgentProtocol.VERSION).writeUtf("secret")
+              .toByteArray());
+      assertEquals(AgentProtocol.WELCOME, AgentProtocol.readFrame(socket.getInputStream()).type);
+      // 握手之后不再读取，发送缓冲区很快写满，发送线程阻塞在写入上，转发消息仍然立即返回
+      String text = Strings.repeat("x", 1000);
+      long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(3);
+      long slowest = 0;
+      while (System.nanoTime() < end) {
+        long start = System.nanoTime();
+        servers.get(0).message(text);
+        slowest = Math.max(slowest, System.nanoTime() - start);
+      }
+      assertTrue(String.valueOf(slowest), slowest < TimeUnit.MILLISECONDS.toNanos(500));
+    }
+  }
+
+  private static void awaitTrue(Condition condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!condition.test()) {
+      assertTrue(System.nanoTime() < deadline);
+      TimeUnit.MILLISECONDS.sleep(20);
+    }
+  }
+
+  private interface Condition {
+    boolean test();
+  }
+}
@@ -0,0 +1,68 @@
+package randall.gamecenter;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+/**
+ * @author mrzhqiang
+ */
+public class ControlGroupTest {
+  @Test
+  public void parseSizeAndPressure() {
+    assertEquals(0, ControlGroup.parseSize(""));
+    assertEquals(0, ControlGroup.parseSize("max"));
+    assertEquals(4096, ControlGroup.parseSize("4096"));
+    assertEquals(512L << 20, ControlGroup.parseSize("512M"));
+    assertEquals(2L << 30, ControlGroup.parseSize(" 2g "));
+
+    String pressure = "some avg10=12.50 avg60=3.10 avg300=0.80 total=123456\n"
+        + "full avg10=1.00 avg60=0.20 avg300=0.00 total=2345\n";
+    assertEquals(12.5, ControlGroup.parseSome(pressure), 0.001);
+    assertEquals(-1, ControlGroup.parseSome(""), 0.001);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectInvalidSize() {
+    ControlGroup.parseSize("lots");
+  }
+
+  @Test
+  public void joinGroupBeforeExec() throws Exception {
+    assumeFalse(Processes.isWindows());
+    ControlGroup group = new ControlGroup("LogServer", 256L << 20, 50, 0);
+    List<String> command = Arrays.asList("echo", "ready");
+    assertEquals(command, group.wrap(command));
+
+    // 普通目录代替 /sys/fs/cgroup，只验证写入的限制和加入控制组的方式
+    Path base = Files.createTempDirectory("cgroup");
+    assertTrue(group.open(base));
+    Path path = base.resolve("LogServer");
+    assertEquals(Collections.singletonList(String.valueOf(256L << 20)),
+        Files.readAllLines(path.resolve("memory.max"), StandardCharsets.US_ASCII));
+    assertEquals(Collections.singletonList("50"),
+        Files.readAllLines(path.resolve("cpu.weight"), StandardCharsets.US_ASCII));
+
+    Process process = new ProcessBuilder(group.wrap(command)).start();
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(process.getInputStream(), StandardCharsets.US_ASCII))) {
+      assertEquals("ready", reader.readLine());
+    }
+    assertTrue(process.waitFor(10, TimeUnit.SECONDS));
+    // exec 之后进程号不变
+    long pid = ProcessSampler.pid(process);
+    assertEquals(Collections.singletonList(String.valueOf(pid)),
+        Files.readAllLines(path.resolve("cgroup.procs"), StandardCharsets.US_ASCII));
+  }
+}
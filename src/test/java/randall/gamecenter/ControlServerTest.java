@@ -0,0 +1,116 @@
+package randall.gamecenter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author mrzhqiang
+ */
+public class ControlServerTest {
+  private Share share;
+  private GameEngine engine;
+  private ControlServer server;
+
+  @Before
+  public void setUp() throws Exception {
+    Path directory = Files.createTempDirectory("control");
+    share = new Share(Files.createFile(directory.resolve(Share.SERVER_CONFIG_FILE)));
+    share.gameDirectory = directory.toString();
+    engine = new GameEngine(share, message -> {
+    });
+    server = new ControlServer(engine, Share.PRIMARY_IP_ADDRESS, 0, 2, "secret");
+  }
+
+  @After
+  public void tearDown() {
+    server.close();
+    share.supervisor.shutdown();
+  }
+
+  @Test
+  public void statusListsPrograms() throws Exception {
+    HttpURLConnection connection = open("GET", "/status", "secret");
+    assertEquals(200, connection.getResponseCode());
+    String body = read(connection);
+    assertTrue(body, body.startsWith("{\"state\":\"stopped\",\"rollingRestart\":false"));
+    assertTrue(body, body.contains("\"id\":\"M2Server\""));
+
+    connection = open("GET", "/programs/M2Server", "secret");
+    assertEquals(200, connection.getResponseCode());
+    assertTrue(read(connection).contains("\"alive\":false"));
+  }
+
+  @Test
+  public void requireTokenOutsideLoopback() throws Exception {
+    try {
+      new ControlServer(engine, Share.ALL_IP_ADDRESS, 0, 1, "").close();
+      fail("should require a token");
+    } catch (IllegalArgumentException expected) {
+      // 监听所有地址时必须配置令牌
+    }
+    new ControlServer(engine, Share.ALL_IP_ADDRESS, 0, 1, "secret").close();
+    new ControlServer(engine, Share.PRIMARY_IP_ADDRESS, 0, 1, "").close();
+  }
+
+  @Test
+  public void rejectsInvalidRequests() throws Exception {
+    assertEquals(401, open("GET", "/status", null).getResponseCode());
+    assertEquals(401, open("GET", "/status", "wrong").getResponseCode());
+    assertEquals(404, open("GET", "/programs/Nothing", "secret").getResponseCode());
+    assertEquals(404, open("POST", "/programs/Nothing/start", "secret").getResponseCode());
+    assertEquals(405, open("GET", "/game/start", "secret").getResponseCode());
+    assertEquals(405, open("POST", "/status", "secret").getResponseCode());
+    assertEquals(409, open("POST", "/game/rolling-restart", "secret").getResponseCode());
+  }
+
+  @Test
+  public void backupCanBeToggled() throws Exception {
+    HttpURLConnection connection = open("POST", "/backup/start", "secret");
+    assertEquals(200, connection.getResponseCode());
+    assertTrue(read(connection).contains("\"backup\":true"));
+    assertTrue(engine.isBackupRunning());
+    assertEquals(200, open("POST", "/backup/stop", "secret").getResponseCode());
+    assertEquals(false, engine.isBackupRunning());
+  }
+
+  private HttpURLConnection open(String method, String path, String token) throws IOException {
+    InetSocketAddress address = server.address();
+    URL url = new URL("http", address.getHostString(), address.getPort(), path);
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setRequestMethod(method);
+    if (token != null) {
+      connection.setRequestProperty("Authorization", "Bearer " + token);
+    }
+    if ("POST".equals(method)) {
+      connection.setDoOutput(true);
+      connection.getOutputStream().close();
+    }
+    return connection;
+  }
+
+  private static String read(HttpURLConnection connection) throws IOException {
+    try (InputStream input = connection.getInputStream()) {
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int count;
+      while ((count = input.read(buffer)) >= 0) {
+        output.write(buffer, 0, count);
+      }
+      return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+}
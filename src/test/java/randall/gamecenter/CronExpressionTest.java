@@ -0,0 +1,94 @@
+package randall.gamecenter;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author mrzhqiang
+ */
+public class CronExpressionTest {
+  private static final ZoneId SHANGHAI = ZoneId.of("Asia/Shanghai");
+  private static final ZoneId NEW_YORK = ZoneId.of("America/New_York");
+
+  @Test
+  public void dailyAndHourly() {
+    CronExpression daily = CronExpression.parse("0 5 * * *");
+    assertEquals(at(SHANGHAI, 2026, 10, 17, 5, 0),
+        daily.next(at(SHANGHAI, 2026, 10, 17, 4, 59)));
+    // 严格晚于指定时刻
+    assertEquals(at(SHANGHAI, 2026, 10, 18, 5, 0),
+        daily.next(at(SHANGHAI, 2026, 10, 17, 5, 0)));
+
+    CronExpression hourly = CronExpression.parse("@hourly");
+    assertEquals(at(SHANGHAI, 2026, 12, 31, 0, 0),
+        hourly.next(at(SHANGHAI, 2026, 12, 30, 23, 30)));
+    assertEquals(at(SHANGHAI, 2027, 1, 1, 0, 0),
+        hourly.next(at(SHANGHAI, 2026, 12, 31, 23, 0)));
+  }
+
+  @Test
+  public void listsRangesStepsAndNames() {
+    CronExpression cron = CronExpression.parse("*/20 9-17/4 * JAN,jul MON-FRI");
+    // 2026-07-04 是周六
+    assertEquals(at(SHANGHAI, 2026, 7, 6, 9, 0), cron.next(at(SHANGHAI, 2026, 7, 4, 12, 0)));
+    assertEquals(at(SHANGHAI, 2026, 7, 6, 9, 20), cron.next(at(SHANGHAI, 2026, 7, 6, 9, 0)));
+    assertEquals(at(SHANGHAI, 2026, 7, 6, 13, 0), cron.next(at(SHANGHAI, 2026, 7, 6, 9, 40)));
+    assertEquals(at(SHANGHAI, 2027, 1, 1, 9, 0), cron.next(at(SHANGHAI, 2026, 7, 31, 17, 40)));
+
+    // 日和周同时指定时满足其一即可，7 也表示周日
+    CronExpression either = CronExpression.parse("0 0 13 * 7");
+    assertEquals(at(SHANGHAI, 2026, 10, 18, 0, 0), either.next(at(SHANGHAI, 2026, 10, 17, 0, 0)));
+    assertEquals(at(SHANGHAI, 2026, 11, 1, 0, 0), either.next(at(SHANGHAI, 2026, 10, 25, 0, 0)));
+    assertEquals(at(SHANGHAI, 2026, 11, 13, 0, 0), either.next(at(SHANGHAI, 2026, 11, 8, 0, 0)));
+  }
+
+  @Test
+  public void leapDayAndImpossibleDate() {
+    CronExpression leap = CronExpression.parse("0 0 29 2 *");
+    assertEquals(at(SHANGHAI, 2028, 2, 29, 0, 0), leap.next(at(SHANGHAI, 2026, 10, 17, 0, 0)));
+    assertNull(CronExpression.parse("0 0 31 2 *").next(at(SHANGHAI, 2026, 10, 17, 0, 0)));
+  }
+
+  @Test
+  public void daylightSavingTime() {
+    CronExpression cron = CronExpression.parse("30 2 * * *");
+    // 2026-03-08 02:00 跳到 03:00，跳过的时刻顺延
+    ZonedDateTime gap = cron.next(at(NEW_YORK, 2026, 3, 8, 0, 0));
+    assertEquals(LocalDateTime.of(2026, 3, 8, 3, 30), gap.toLocalDateTime());
+    assertEquals(at(NEW_YORK, 2026, 3, 9, 2, 30), cron.next(gap));
+
+    // 2026-11-01 01:00 到 02:00 重复一次，只执行一次
+    CronExpression overlap = CronExpression.parse("30 1 * * *");
+    ZonedDateTime first = overlap.next(at(NEW_YORK, 2026, 11, 1, 0, 0));
+    assertEquals(ZoneOffset.ofHours(-4), first.getOffset());
+    assertEquals(at(NEW_YORK, 2026, 11, 2, 1, 30), overlap.next(first));
+
+    // 在重复的一小时中较晚的偏移里，下一次不会回到较早的偏移
+    ZonedDateTime later = LocalDateTime.of(2026, 11, 1, 1, 10).atZone(NEW_YORK)
+        .withLaterOffsetAtOverlap();
+    ZonedDateTime next = CronExpression.parse("*/30 * * * *").next(later);
+    assertEquals(LocalDateTime.of(2026, 11, 1, 1, 30), next.toLocalDateTime());
+    assertEquals(ZoneOffset.ofHours(-5), next.getOffset());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectOutOfRange() {
+    CronExpression.parse("60 * * * *");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectMissingField() {
+    CronExpression.parse("0 5 * *");
+  }
+
+  private static ZonedDateTime at(ZoneId zone, int year, int month, int day, int hour,
+      int minute) {
+    return LocalDateTime.of(year, month, day, hour, minute).atZone(zone);
+  }
+}
@@ -0,0 +1,57 @@
+package randall.gamecenter;
+
+import java.nio.file.Paths;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mrzhqiang
+ */
+public class GameDaemonTest {
+
+  @Test
+  public void parseDefaults() {
+    GameDaemon.Options options = GameDaemon.Options.parse();
+    assertEquals(GameDaemon.Command.RUN, options.command);
+    assertEquals(Paths.get(Share.DEFAULT_GAME_DIRECTORY, Share.SERVER_CONFIG_FILE), options.config);
+    assertTrue(options.start);
+    assertFalse(options.stopOnExit);
+  }
+
+  @Test
+  public void parseCommandAndOptions() {
+    GameDaemon.Options options =
+        GameDaemon.Options.parse("--config", "/opt/mir/Config.ini", "run", "--no-start",
+            "--stop-on-exit");
+    assertEquals(GameDaemon.Command.RUN, options.command);
+    assertEquals(Paths.get("/opt/mir/Config.ini"), options.config);
+    assertFalse(options.start);
+    assertTrue(options.stopOnExit);
+
+    assertEquals(GameDaemon.Command.STATUS, GameDaemon.Options.parse("status").command);
+    assertEquals(GameDaemon.Command.HELP, GameDaemon.Options.parse("stop", "-h").command);
+  }
+
+  @Test
+  public void parseShards() {
+    GameDaemon.Options options =
+        GameDaemon.Options.parse("--shards", "/opt/mir/Shards.ini", "status");
+    assertEquals(GameDaemon.Command.STATUS, options.command);
+    assertEquals(Paths.get("/opt/mir/Shards.ini"), options.shards);
+    assertNull(GameDaemon.Options.parse().shards);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectUnknownCommand() {
+    GameDaemon.Options.parse("restart");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectMissingConfigPath() {
+    GameDaemon.Options.parse("--config");
+  }
+}
@@ -0,0 +1,162 @@
+package randall.gamecenter;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mrzhqiang
+ */
+public class GameEngineTest {
+  private final MutableClock clock = new MutableClock(TimeUnit.DAYS.toMillis(1));
+  private Share share;
+  private GameEngine engine;
+
+  @Before
+  public void setUp() throws Exception {
+    Path directory = Files.createTempDirectory("engine");
+    share = new Share(Files.createFile(directory.resolve(Share.SERVER_CONFIG_FILE)));
+    share.gameDirectory = directory.toString();
+    engine = new GameEngine(share, message -> {
+    }, null, clock);
+  }
+
+  @After
+  public void tearDown() {
+    engine.close();
+  }
+
+  @Test
+  public void handshakesBelongToTheProgramThatPrintedThem() {
+    List<ProgramDescriptor> gates = share.registry.byRole(ProgramRole.RUN_GATE);
+    ProgramDescriptor gate1 = gates.get(0);
+    ProgramDescriptor gate2 = gates.get(1);
+    for (ProgramDescriptor gate : gates.subList(0, 2)) {
+      gate.program.getStart = true;
+      gate.program.lifecycle.moveTo(Lifecycle.State.STARTING);
+    }
+    String code = ProgramRole.RUN_GATE.processCode + ":";
+    UUID uuid1 = UUID.randomUUID();
+    UUID uuid2 = UUID.randomUUID();
+
+    // 两个同一角色的实例交错输出握手信息，后启动的实例先输出
+    engine.handleProcessMessage(gate2, code + uuid2);
+    engine.handleProcessMessage(gate1, code + uuid1);
+    assertEquals(uuid1, gate1.program.processCode);
+    assertEquals(uuid2, gate2.program.processCode);
+    engine.handleProcessMessage(gate2, code + uuid2);
+    engine.handleProcessMessage(gate1, "普通日志");
+    engine.handleProcessMessage(gate1, code + uuid1);
+
+    assertEquals(Lifecycle.State.RUNNING, gate1.program.state());
+    assertEquals(Lifecycle.State.RUNNING, gate2.program.state());
+  }
+
+  @Test
+  public void ignoreHandshakeOfAnotherRole() {
+    ProgramDescriptor gate = share.registry.byRole(ProgramRole.RUN_GATE).get(0);
+    gate.program.getStart = true;
+    gate.program.lifecycle.moveTo(Lifecycle.State.STARTING);
+    engine.handleProcessMessage(gate, ProgramRole.SEL_GATE.processCode + ":" + UUID.randomUUID());
+    assertNull(gate.program.processCode);
+    assertEquals(Lifecycle.State.STARTING, gate.program.state());
+  }
+
+  @Test
+  public void loginGateWaitsForOpenTime() throws Exception {
+    // 启动时按配置重新设置是否启用，只保留登陆网关
+    Share.Config config = share.config;
+    config.dbServer.getStart = false;
+    config.loginSrv.getStart = false;
+    config.m2Server.getStart = false;
+    config.logServer.getStart = false;
+    Arrays.fill(config.runGate.getStart, false);
+    config.selGate.getStart1 = false;
+    config.selGate.getStart2 = false;
+    config.plugTop.getStart = false;
+    ProgramDescriptor gate = share.registry.byRole(ProgramRole.LOGIN_GATE).get(0);
+
+    assertTrue(engine.start(clock.millis() + TimeUnit.MINUTES.toMillis(10)));
+    // 依赖已经就绪，开始等待开放时间
+    assertTrue(awaitPhase(gate, Timeline.Phase.WAIT));
+    clock.advance(TimeUnit.MINUTES.toMillis(5));
+    Thread.sleep(1500);
+    assertEquals(Lifecycle.State.STOPPED, gate.program.state());
+    assertEquals(Lifecycle.State.STARTING, engine.state());
+    assertFalse(hasPhase(gate, Timeline.Phase.CONFIG));
+
+    clock.advance(TimeUnit.MINUTES.toMillis(5));
+    assertTrue(awaitPhase(gate, Timeline.Phase.CONFIG));
+  }
+
+  private boolean awaitPhase(ProgramDescriptor descriptor, Timeline.Phase phase)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (System.nanoTime() < deadline) {
+      if (hasPhase(descriptor, phase)) {
+        return true;
+      }
+      Thread.sleep(20);
+    }
+    return false;
+  }
+
+  private boolean hasPhase(ProgramDescriptor descriptor, Timeline.Phase phase) {
+    Timeline timeline = engine.timeline(Timeline.Kind.START);
+    if (timeline == null) {
+      return false;
+    }
+    for (Timeline.Event event : timeline.events()) {
+      if (event.program.equals(descriptor.id) && event.phase == phase) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * 由测试拨动的时钟。
+   */
+  private static final class MutableClock extends Clock {
+    private volatile long millis;
+
+    MutableClock(long millis) {
+      this.millis = millis;
+    }
+
+    void advance(long delta) {
+      millis += delta;
+    }
+
+    @Override public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override public Clock withZone(ZoneId zone) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override public long millis() {
+      return millis;
+    }
+
+    @Override public Instant instant() {
+      return Instant.ofEpochMilli(millis);
+    }
+  }
+}
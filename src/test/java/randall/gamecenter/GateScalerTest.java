@@ -0,0 +1,64 @@
+package randall.gamecenter;
+
+import com.google.common.collect.Maps;
+import java.util.Arrays;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author mrzhqiang
+ */
+public class GateScalerTest {
+  @Test
+  public void countEstablishedConnections() {
+    Map<Integer, Integer> counts = Maps.newHashMap();
+    GateScaler.countEstablished(Arrays.asList(
+        "  sl  local_address rem_address   st tx_queue rx_queue tr tm->when retrnsmt   uid",
+        "   0: 00000000:1C20 00000000:0000 0A 00000000:00000000 00:00000000 00000000     0",
+        "   1: 0100007F:1C20 0100007F:D431 01 00000000:00000000 00:00000000 00000000     0",
+        "   2: 0100007F:1C20 0100007F:D432 01 00000000:00000000 00:00000000 00000000     0",
+        "   3: 0100007F:1C21 0100007F:D433 06 00000000:00000000 00:00000000 00000000     0"),
+        counts);
+    GateScaler.countEstablished(Arrays.asList(
+        "   0: 0000000000000000FFFF00000100007F:1C21 0000000000000000FFFF00000100007F:D434 01"),
+        counts);
+    // 7200 上两个连接，7201 上一个连接，监听和 TIME_WAIT 状态不计
+    assertEquals(Integer.valueOf(2), counts.get(7200));
+    assertEquals(Integer.valueOf(1), counts.get(7201));
+    assertEquals(2, counts.size());
+  }
+
+  @Test
+  public void scaleUpAfterConsecutiveSamplesThenCoolDown() {
+    GateScaler scaler = new GateScaler(3, 5, GateScaler.Metric.CONNECTIONS, 500, 200, 3, 60000);
+    assertEquals(GateScaler.Action.NONE, scaler.evaluate(3, 1600, 0));
+    assertEquals(GateScaler.Action.NONE, scaler.evaluate(3, 1600, 10000));
+    assertEquals(GateScaler.Action.SCALE_UP, scaler.evaluate(3, 1600, 20000));
+    // 冷却期间不再调整
+    assertEquals(GateScaler.Action.NONE, scaler.evaluate(4, 2400, 30000));
+    assertEquals(GateScaler.Action.NONE, scaler.evaluate(4, 2400, 80000));
+    assertEquals(GateScaler.Action.NONE, scaler.evaluate(4, 2400, 90000));
+    assertEquals(GateScaler.Action.SCALE_UP, scaler.evaluate(4, 2400, 100000));
+    // 达到上限
+    for (int i = 0; i < 5; i++) {
+      assertEquals(GateScaler.Action.NONE, scaler.evaluate(5, 5000, 200000 + i * 10000));
+    }
+  }
+
+  @Test
+  public void scaleDownOnlyWhenRemainingGatesStayBelowUpperLimit() {
+    GateScaler scaler = new GateScaler(1, 5, GateScaler.Metric.CONNECTIONS, 300, 250, 2, 0);
+    // 平均 250，但去掉一个网关后平均 333，超过上限，不缩容
+    assertEquals(GateScaler.Action.NONE, scaler.evaluate(4, 1000, 0));
+    assertEquals(GateScaler.Action.NONE, scaler.evaluate(4, 1000, 10000));
+    assertEquals(GateScaler.Action.NONE, scaler.evaluate(4, 800, 20000));
+    assertEquals(GateScaler.Action.SCALE_DOWN, scaler.evaluate(4, 800, 30000));
+    // 达到下限
+    assertEquals(GateScaler.Action.NONE, scaler.evaluate(1, 0, 40000));
+    assertEquals(GateScaler.Action.NONE, scaler.evaluate(1, 0, 50000));
+    // 低于下限时立即扩容
+    assertEquals(GateScaler.Action.SCALE_UP, scaler.evaluate(0, 0, 60000));
+  }
+}
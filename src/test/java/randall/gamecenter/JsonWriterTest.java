@@ -0,0 +1,37 @@
+package randall.gamecenter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author mrzhqiang
+ */
+public class JsonWriterTest {
+
+  @Test
+  public void writeNestedValues() {
+    String json = new JsonWriter().beginObject()
+        .name("name").value("M2Server")
+        .name("ports").value(new int[]{5000, 5001})
+        .name("alive").value(true)
+        .name("code").value((String) null)
+        .name("items").beginArray().beginObject().name("a").value(1).endObject().value(2.5)
+        .endArray()
+        .endObject()
+        .toString();
+    assertEquals("{\"name\":\"M2Server\",\"ports\":[5000,5001],\"alive\":true,\"code\":null,"
+        + "\"items\":[{\"a\":1},2.5]}", json);
+  }
+
+  @Test
+  public void escapeStrings() {
+    assertEquals("[\"a\\\"b\\\\c\\n\\u0001中\"]",
+        new JsonWriter().beginArray().value("a\"b\\c\n\u0001中").endArray().toString());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void rejectUnclosedScope() {
+    new JsonWriter().beginObject().toString();
+  }
+}
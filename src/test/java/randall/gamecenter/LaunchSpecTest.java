@@ -0,0 +1,41 @@
+package randall.gamecenter;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+/**
+ * @author mrzhqiang
+ */
+public class LaunchSpecTest {
+
+  @Test
+  public void redirectStderrAndUseWorkingDirectory() throws Exception {
+    assumeFalse(System.getProperty("os.name").toLowerCase().startsWith("windows"));
+    Path directory = Files.createTempDirectory("launch");
+    Path errorFile = directory.resolve("Logs").resolve("sh.err.log");
+    // 标准错误输出远大于管道缓冲区，不处理就会阻塞
+    LaunchSpec spec = new LaunchSpec("sh", "-c",
+        "head -c 1048576 /dev/zero >&2; pwd; echo $LAUNCH_TEST")
+        .directory(directory)
+        .environment("LAUNCH_TEST", "ok")
+        .errorOutput(LaunchSpec.ErrorOutput.FILE, errorFile);
+    LaunchSpec.Launched launched = spec.start();
+    assertTrue(launched.spawnTime >= 0);
+    Process process = launched.process;
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+      assertEquals(directory.toRealPath().toString(), reader.readLine());
+      assertEquals("ok", reader.readLine());
+    }
+    assertTrue(process.waitFor(10, TimeUnit.SECONDS));
+    assertEquals(1048576, Files.size(errorFile));
+  }
+}
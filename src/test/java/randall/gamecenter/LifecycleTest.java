@@ -0,0 +1,96 @@
+package randall.gamecenter;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mrzhqiang
+ */
+public class LifecycleTest {
+
+  @Test
+  public void compareAndSet() {
+    Lifecycle lifecycle = new Lifecycle("test");
+    assertEquals(Lifecycle.State.STOPPED, lifecycle.state());
+    assertFalse(lifecycle.compareAndSet(Lifecycle.State.RUNNING, Lifecycle.State.STOPPED));
+    assertTrue(lifecycle.compareAndSet(Lifecycle.State.STOPPED, Lifecycle.State.STARTING));
+    assertTrue(lifecycle.compareAndSet(Lifecycle.State.STARTING, Lifecycle.State.RUNNING));
+    assertEquals(Lifecycle.State.RUNNING, lifecycle.state());
+    assertEquals(2, lifecycle.snapshot().version);
+  }
+
+  @Test
+  public void rejectIllegalTransition() {
+    Lifecycle lifecycle = new Lifecycle("test");
+    assertFalse(lifecycle.moveTo(Lifecycle.State.STOPPING));
+    assertEquals(Lifecycle.State.STOPPED, lifecycle.state());
+
+    assertTrue(lifecycle.moveTo(Lifecycle.State.RUNNING));
+    assertTrue(lifecycle.moveTo(Lifecycle.State.STOPPING));
+    assertFalse(lifecycle.moveTo(Lifecycle.State.STARTING));
+    assertEquals(Lifecycle.State.STOPPING, lifecycle.state());
+    assertTrue(lifecycle.moveTo(Lifecycle.State.STOPPED));
+  }
+
+  @Test
+  public void notifyListenersOnTransitionOnly() {
+    Lifecycle lifecycle = new Lifecycle("test");
+    List<String> transitions = new CopyOnWriteArrayList<>();
+    lifecycle.addListener((source, from, to) -> transitions.add(from + "->" + to));
+    lifecycle.addListener((source, from, to) -> {
+      throw new IllegalStateException("ignored");
+    });
+    lifecycle.moveTo(Lifecycle.State.STARTING);
+    lifecycle.moveTo(Lifecycle.State.STARTING);
+    lifecycle.compareAndSet(Lifecycle.State.STOPPED, Lifecycle.State.RUNNING);
+    lifecycle.moveTo(Lifecycle.State.RUNNING);
+    assertEquals(2, transitions.size());
+    assertEquals("stopped->starting", transitions.get(0));
+    assertEquals("starting->running", transitions.get(1));
+  }
+
+  @Test
+  public void onlyOneThreadWinsCompareAndSet() throws Exception {
+    int threads = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      for (int round = 0; round < 100; round++) {
+        Lifecycle lifecycle = new Lifecycle("test");
+        lifecycle.moveTo(Lifecycle.State.STARTING);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicInteger winners = new AtomicInteger();
+        for (int i = 0; i < threads; i++) {
+          executor.execute(() -> {
+            try {
+              start.await();
+              if (lifecycle.compareAndSet(Lifecycle.State.STARTING, Lifecycle.State.RUNNING)) {
+                winners.incrementAndGet();
+              }
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            } finally {
+              done.countDown();
+            }
+          });
+        }
+        start.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, winners.get());
+        assertEquals(2, lifecycle.snapshot().version);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
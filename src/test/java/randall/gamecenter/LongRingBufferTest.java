@@ -0,0 +1,34 @@
+package randall.gamecenter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mrzhqiang
+ */
+public class LongRingBufferTest {
+
+  @Test
+  public void overwriteOldestWhenFull() {
+    LongRingBuffer buffer = new LongRingBuffer(3);
+    assertEquals(-1, buffer.latest(-1));
+    buffer.add(1);
+    buffer.add(2);
+    assertFalse(buffer.isFull());
+    buffer.add(3);
+    buffer.add(4);
+    assertTrue(buffer.isFull());
+    assertEquals(3, buffer.size());
+    assertEquals(2, buffer.get(0));
+    assertEquals(4, buffer.get(2));
+    assertEquals(4, buffer.latest(-1));
+    assertEquals(3, buffer.average());
+
+    buffer.clear();
+    assertEquals(0, buffer.size());
+    assertEquals(0, buffer.average());
+  }
+}
@@ -0,0 +1,81 @@
+package randall.gamecenter;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mrzhqiang
+ */
+public class MaintenanceSchedulerTest {
+  private Supervisor supervisor;
+  private Path state;
+
+  @Before
+  public void setUp() throws Exception {
+    supervisor = new Supervisor();
+    state = Files.createTempDirectory("schedule").resolve("GameCenter.schedule");
+  }
+
+  @After
+  public void tearDown() {
+    supervisor.shutdown();
+  }
+
+  @Test
+  public void runWhenDue() throws Exception {
+    // 让时钟停在整分钟之前 200 毫秒，每分钟执行的计划很快到期
+    long now = System.currentTimeMillis();
+    long offset = 60000 - now % 60000 - 200;
+    Clock clock = Clock.offset(Clock.systemUTC(), Duration.ofMillis(offset));
+    CountDownLatch ran = new CountDownLatch(1);
+    try (MaintenanceScheduler scheduler = new MaintenanceScheduler(supervisor, clock, state)) {
+      MaintenanceScheduler.Entry entry = scheduler.add("Minutely",
+          CronExpression.parse("* * * * *"), ZoneOffset.UTC,
+          MaintenanceScheduler.MissedRunPolicy.SKIP, ran::countDown);
+      assertTrue(ran.await(5, TimeUnit.SECONDS));
+      assertEquals(1, entry.runCount());
+      assertTrue(entry.nextTime() > entry.lastRun());
+    }
+    assertTrue(new String(Files.readAllBytes(state), StandardCharsets.UTF_8)
+        .startsWith("Minutely\t"));
+  }
+
+  @Test
+  public void missedRunPolicies() throws Exception {
+    long threeDaysAgo = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(3);
+    Files.write(state, ("Skip\t" + threeDaysAgo + "\nOnce\t" + threeDaysAgo + "\n")
+        .getBytes(StandardCharsets.UTF_8));
+    AtomicInteger skipped = new AtomicInteger();
+    CountDownLatch once = new CountDownLatch(1);
+    AtomicInteger onceCount = new AtomicInteger();
+    try (MaintenanceScheduler scheduler =
+             new MaintenanceScheduler(supervisor, Clock.systemUTC(), state)) {
+      MaintenanceScheduler.Entry skip = scheduler.add("Skip", CronExpression.parse("@daily"),
+          ZoneOffset.UTC, MaintenanceScheduler.MissedRunPolicy.SKIP, skipped::incrementAndGet);
+      scheduler.add("Once", CronExpression.parse("@daily"), ZoneOffset.UTC,
+          MaintenanceScheduler.MissedRunPolicy.RUN_ONCE, () -> {
+            onceCount.incrementAndGet();
+            once.countDown();
+          });
+      assertTrue(skip.nextTime() > System.currentTimeMillis());
+      assertTrue(once.await(5, TimeUnit.SECONDS));
+      // 错过三次也只补执行一次
+      Thread.sleep(200);
+      assertEquals(1, onceCount.get());
+      assertEquals(0, skipped.get());
+    }
+  }
+}
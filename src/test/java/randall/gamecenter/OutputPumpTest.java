@@ -0,0 +1,134 @@
+package randall.gamecenter;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+/**
+ * @author mrzhqiang
+ */
+public class OutputPumpTest {
+  private final List<String> lines = new CopyOnWriteArrayList<>();
+  private OutputPump pump;
+
+  @Before
+  public void setUp() {
+    assumeFalse(Processes.isWindows());
+    pump = new OutputPump("test-output-", 1);
+  }
+
+  @After
+  public void tearDown() {
+    if (pump != null) {
+      pump.close();
+    }
+  }
+
+  @Test
+  public void splitLinesAndFlushLastLineOnExit() throws Exception {
+    CountDownLatch closed = new CountDownLatch(1);
+    AtomicInteger closes = new AtomicInteger();
+    Process process = new ProcessBuilder("sh", "-c", "printf 'first\\r\\n\\nsecond\\rthird'")
+        .start();
+    OutputPump.Handle handle = pump.register(process, process.getInputStream(), lines::add,
+        () -> {
+          closes.incrementAndGet();
+          closed.countDown();
+        });
+    assertTrue(closed.await(10, TimeUnit.SECONDS));
+    assertTrue(handle.isClosed());
+    assertEquals("[first, , second, third]", lines.toString());
+    TimeUnit.MILLISECONDS.sleep(OutputPump.MAX_IDLE * 2);
+    assertEquals(1, closes.get());
+
+    OutputPump.Stats stats = pump.stats();
+    assertEquals(1, stats.threads);
+    assertEquals(0, stats.streams);
+    assertEquals(4, stats.lines);
+    // 流关闭后只剩线程自己的读取缓冲区
+    assertEquals(OutputPump.CHUNK_SIZE, stats.bufferBytes);
+  }
+
+  @Test
+  public void idleThreadWaitsForRegistration() throws Exception {
+    TimeUnit.MILLISECONDS.sleep(OutputPump.MAX_IDLE * 10);
+    // 没有输出流时不轮询
+    assertEquals(0, pump.stats().polls);
+
+    CountDownLatch closed = new CountDownLatch(1);
+    Process process = new ProcessBuilder("sh", "-c", "echo ready").start();
+    pump.register(process, process.getInputStream(), lines::add, closed::countDown);
+    assertTrue(closed.await(10, TimeUnit.SECONDS));
+    assertEquals("[ready]", lines.toString());
+    TimeUnit.MILLISECONDS.sleep(OutputPump.MAX_IDLE * 2);
+    long polls = pump.stats().polls;
+    assertTrue(polls > 0);
+    // 输出流关闭后重新等待
+    TimeUnit.MILLISECONDS.sleep(OutputPump.MAX_IDLE * 10);
+    assertEquals(polls, pump.stats().polls);
+  }
+
+  @Test
+  public void oneThreadDrainsManyProcesses() throws Exception {
+    int count = 8;
+    CountDownLatch closed = new CountDownLatch(count);
+    for (int i = 0; i < count; i++) {
+      Process process = new ProcessBuilder("sh", "-c", "seq 1 20000").start();
+      pump.register(process, process.getInputStream(), lines::add, closed::countDown);
+    }
+    // 输出远大于管道缓冲区，不及时读取子进程就会阻塞
+    assertTrue(closed.await(30, TimeUnit.SECONDS));
+    assertEquals(count * 20000, lines.size());
+    assertEquals(count * 20000, pump.stats().lines);
+  }
+
+  @Test
+  public void truncateLongLine() throws Exception {
+    CountDownLatch closed = new CountDownLatch(1);
+    Process process = new ProcessBuilder("sh", "-c", "head -c 70000 /dev/zero | tr '\\0' x")
+        .start();
+    pump.register(process, process.getInputStream(), lines::add, closed::countDown);
+    assertTrue(closed.await(10, TimeUnit.SECONDS));
+    assertEquals(2, lines.size());
+    assertEquals(OutputPump.MAX_LINE, lines.get(0).length());
+    assertEquals(70000 - OutputPump.MAX_LINE, lines.get(1).length());
+    assertEquals(1, pump.stats().truncated);
+  }
+
+  @Test
+  public void cancelClosesStreamWithoutCallback() throws Exception {
+    AtomicInteger closes = new AtomicInteger();
+    Process process = new ProcessBuilder("sh", "-c", "echo ready; sleep 30").start();
+    try {
+      OutputPump.Handle handle = pump.register(process, process.getInputStream(), lines::add,
+          closes::incrementAndGet);
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      while (lines.isEmpty()) {
+        assertTrue(System.nanoTime() < deadline);
+        TimeUnit.MILLISECONDS.sleep(10);
+      }
+      assertEquals(1, pump.stats().streams);
+      handle.cancel();
+      while (!handle.isClosed()) {
+        assertTrue(System.nanoTime() < deadline);
+        TimeUnit.MILLISECONDS.sleep(10);
+      }
+      TimeUnit.MILLISECONDS.sleep(OutputPump.MAX_IDLE * 2);
+      assertEquals(0, pump.stats().streams);
+      assertEquals(0, closes.get());
+      assertFalse(lines.size() > 1);
+    } finally {
+      process.destroyForcibly();
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package randall.gamecenter;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author mrzhqiang
+ */
+public class PidJournalTest {
+
+  @Test
+  public void writeAndReadEntries() throws Exception {
+    Path path = Files.createTempDirectory("journal").resolve("GameCenter.pids");
+    PidJournal journal = new PidJournal(path);
+    assertTrue(journal.read().isEmpty());
+
+    UUID code = UUID.randomUUID();
+    journal.write(Arrays.asList(
+        new PidJournal.Entry("M2Server", 1234, 5678, code, new int[]{5000}),
+        new PidJournal.Entry("LogServer", 1235, 5679, null, new int[0])));
+    Files.write(path, "broken line\n".getBytes(StandardCharsets.UTF_8),
+        StandardOpenOption.APPEND);
+
+    List<PidJournal.Entry> entries = new PidJournal(path).read();
+    assertEquals(2, entries.size());
+    assertEquals("M2Server", entries.get(0).id);
+    assertEquals(1234, entries.get(0).pid);
+    assertEquals(5678, entries.get(0).startTime);
+    assertEquals(code, entries.get(0).processCode);
+    assertArrayEquals(new int[]{5000}, entries.get(0).ports);
+    assertNull(entries.get(1).processCode);
+    assertArrayEquals(new int[0], entries.get(1).ports);
+  }
+
+  @Test
+  public void reattachRunningProcess() throws Exception {
+    assumeTrue(Files.isDirectory(Paths.get("/proc/self")));
+    Process child = new ProcessBuilder("sleep", "30").start();
+    try {
+      long pid = ProcessSampler.pid(child);
+      long startTime = AttachedProcess.startTime(pid);
+      assertTrue(startTime > 0);
+      // 进程号被复用时启动时间不同
+      assertNull(AttachedProcess.attach(pid, startTime + 1));
+
+      AttachedProcess attached = AttachedProcess.attach(pid, startTime);
+      assertEquals(pid, attached.pid());
+      assertTrue(attached.isAlive());
+      assertFalse(attached.waitFor(10, TimeUnit.MILLISECONDS));
+      attached.destroy();
+      assertTrue(child.waitFor(10, TimeUnit.SECONDS));
+      assertTrue(attached.waitFor(10, TimeUnit.SECONDS));
+    } finally {
+      child.destroyForcibly();
+    }
+  }
+}
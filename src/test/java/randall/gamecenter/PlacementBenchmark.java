@@ -0,0 +1,138 @@
+package randall.gamecenter;
+
+import com.google.common.collect.Lists;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 进程放置策略的延迟基准。
+ * <p>
+ * 用一个桩进程模拟游戏引擎服务器的定时心跳，测量每次唤醒相对于计划时刻的延迟；
+ * 同时启动若干个占满 CPU 的桩进程模拟网关负载。分别在不做放置，以及“引擎独占 0 号核心、
+ * 负载进程降低优先级并分散到其余核心”两种情况下运行，对比 p50、p99 和最大延迟。
+ * <p>
+ * 不属于单元测试，需要手动运行，参数为心跳次数：
+ * <pre>
+ * java -cp target/classes:target/test-classes:... randall.gamecenter.PlacementBenchmark 2000
+ * </pre>
+ *
+ * @author mrzhqiang
+ */
+public final class PlacementBenchmark {
+  /** 心跳间隔，单位：毫秒。 */
+  private static final long TICK_PERIOD = 10;
+
+  public static void main(String[] args) throws Exception {
+    int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int cpus = Runtime.getRuntime().availableProcessors();
+    int burners = Math.max(2, cpus);
+
+    Placement tick = Placement.NONE;
+    int[] rest = new int[0];
+    if (cpus > 1) {
+      tick = new Placement(new int[]{0}, false, 0, Placement.IoClass.NONE, 0);
+      rest = Placement.parseCpus("1-" + (cpus - 1));
+    }
+    // 普通用户无法提高优先级，但总是可以降低负载进程的优先级
+    Placement burner = new Placement(rest, true, 19, Placement.IoClass.IDLE, 0);
+
+    System.out.printf("CPU: %d, 负载进程: %d, 心跳: %d x %d ms%n", cpus, burners, ticks,
+        TICK_PERIOD);
+    System.out.println("不做放置      " + run(ticks, burners, Placement.NONE, Placement.NONE));
+    System.out.println("引擎独占核心  " + run(ticks, burners, tick, burner));
+  }
+
+  private static String run(int ticks, int burners, Placement tick, Placement burner)
+      throws IOException, InterruptedException {
+    List<Process> processes = Lists.newArrayList();
+    try {
+      for (int i = 0; i < burners; i++) {
+        processes.add(java(Burner.class).placement(burner.forInstance(i)).start().process);
+      }
+      Process process = java(TickStub.class, ticks, TICK_PERIOD).placement(tick).start().process;
+      processes.add(process);
+      try (BufferedReader reader =
+          new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+        return reader.readLine();
+      }
+    } finally {
+      for (Process process : processes) {
+        process.destroyForcibly();
+        process.waitFor(5, TimeUnit.SECONDS);
+      }
+    }
+  }
+
+  private static LaunchSpec java(Class<?> main, Object... arguments) {
+    String java = System.getProperty("java.home") + File.separator + "bin" + File.separator
+        + "java";
+    Object[] command = new Object[arguments.length + 3];
+    command[0] = "-cp";
+    command[1] = System.getProperty("java.class.path");
+    command[2] = main.getName();
+    System.arraycopy(arguments, 0, command, 3, arguments.length);
+    return new LaunchSpec(java, command).errorOutput(LaunchSpec.ErrorOutput.DISCARD, null);
+  }
+
+  /**
+   * 模拟心跳，结束后输出延迟的百分位数，单位：微秒。
+   */
+  public static final class TickStub {
+    public static void main(String[] args) {
+      int ticks = Integer.parseInt(args[0]);
+      long period = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(args[1]));
+      // 前 10% 的心跳用于预热
+      int warmup = ticks / 10;
+      long[] lateness = new long[ticks];
+      long next = System.nanoTime() + period;
+      for (int i = 0; i < ticks + warmup; i++) {
+        long now;
+        while ((now = System.nanoTime()) < next) {
+          LockSupport.parkNanos(next - now);
+        }
+        if (i >= warmup) {
+          lateness[i - warmup] = now - next;
+        }
+        next += period;
+      }
+      Arrays.sort(lateness);
+      System.out.printf("p50 %6d μs  p99 %6d μs  max %6d μs%n",
+          TimeUnit.NANOSECONDS.toMicros(lateness[ticks / 2]),
+          TimeUnit.NANOSECONDS.toMicros(lateness[ticks * 99 / 100]),
+          TimeUnit.NANOSECONDS.toMicros(lateness[ticks - 1]));
+    }
+  }
+
+  /**
+   * 占满一个 CPU，父进程退出导致标准输入关闭后自行退出。
+   */
+  public static final class Burner {
+    private static volatile long sink;
+
+    public static void main(String[] args) {
+      Thread watcher = new Thread(() -> {
+        try {
+          while (System.in.read() >= 0) {
+            // 等待标准输入关闭
+          }
+        } catch (IOException ignore) {
+          // 同样视为父进程已经退出
+        }
+        System.exit(0);
+      });
+      watcher.setDaemon(true);
+      watcher.start();
+      long value = 1;
+      while (true) {
+        value = value * 31 + 7;
+        sink = value;
+      }
+    }
+  }
+}
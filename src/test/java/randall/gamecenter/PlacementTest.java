@@ -0,0 +1,56 @@
+package randall.gamecenter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author mrzhqiang
+ */
+public class PlacementTest {
+
+  @Test
+  public void spreadInstancesAcrossCpus() {
+    assertArrayEquals(new int[]{0, 1, 4, 6, 7}, Placement.parseCpus(" 6-7, 0-1,4,1"));
+    assertArrayEquals(new int[0], Placement.parseCpus(""));
+
+    Placement gates = new Placement(Placement.parseCpus("2-4"), true, 0,
+        Placement.IoClass.NONE, 0);
+    assertArrayEquals(new int[]{2}, gates.forInstance(0).cpus());
+    assertArrayEquals(new int[]{4}, gates.forInstance(2).cpus());
+    assertArrayEquals(new int[]{2}, gates.forInstance(3).cpus());
+
+    Placement m2 = new Placement(new int[]{0, 1}, false, -5, Placement.IoClass.BEST_EFFORT, 0);
+    assertSame(m2, m2.forInstance(5));
+    assertEquals(Arrays.asList("M2Server.exe"), Placement.NONE.wrap(Arrays.asList("M2Server.exe")));
+  }
+
+  @Test
+  public void launchWithNiceLevel() throws Exception {
+    assumeFalse(Processes.isWindows());
+    assumeTrue(new File("/proc/self/stat").exists());
+    Placement placement = new Placement(new int[]{0}, false, 5, Placement.IoClass.IDLE, 0);
+    LaunchSpec spec = new LaunchSpec("sh", "-c", "cat /proc/self/stat")
+        .placement(placement);
+    Process process = spec.start().process;
+    String stat;
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+      stat = reader.readLine();
+    }
+    assertTrue(process.waitFor(10, TimeUnit.SECONDS));
+    // 第 19 项是 nice，进程名之后从第 3 项开始
+    String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+    assertEquals("5", fields[16]);
+  }
+}
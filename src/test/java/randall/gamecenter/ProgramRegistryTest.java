@@ -0,0 +1,39 @@
+package randall.gamecenter;
+
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mrzhqiang
+ */
+public class ProgramRegistryTest {
+
+  @Test
+  public void registerMultipleInstances() {
+    ProgramRegistry registry = new ProgramRegistry();
+    List<Share.Program> gates = registry.register(ProgramRole.RUN_GATE, 32);
+    Share.Program db = registry.register(ProgramRole.DB_SERVER);
+
+    assertEquals(33, registry.size());
+    List<ProgramDescriptor> all = registry.all();
+    assertSame(db, all.get(0).program);
+    assertEquals("DBServer", all.get(0).id);
+    assertEquals("RunGate32", all.get(32).id);
+    assertEquals("游戏网关[32]", all.get(32).name);
+    assertSame(gates.get(31), registry.get(ProgramRole.RUN_GATE, 31).program);
+    assertEquals(31, registry.find(gates.get(31)).index);
+  }
+
+  @Test
+  public void dependenciesPrecedeDependents() {
+    for (ProgramRole role : ProgramRole.values()) {
+      for (ProgramRole dependency : role.dependencies()) {
+        assertTrue(role + " -> " + dependency, dependency.ordinal() < role.ordinal());
+      }
+    }
+  }
+}
@@ -0,0 +1,39 @@
+package randall.gamecenter;
+
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mrzhqiang
+ */
+public class ReadinessProbeTest {
+  private final ReadinessProbe probe = new ReadinessProbe();
+
+  @After
+  public void tearDown() {
+    probe.close();
+  }
+
+  @Test
+  public void listeningPortIsReady() throws Exception {
+    try (ServerSocket first = new ServerSocket(0);
+         ServerSocket second = new ServerSocket(0)) {
+      int[] ports = {first.getLocalPort(), second.getLocalPort()};
+      assertTrue(probe.probeAll(Share.PRIMARY_IP_ADDRESS, ports, 1000).get(2, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void closedPortIsNotReady() throws Exception {
+    int port;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    assertFalse(probe.probe(Share.PRIMARY_IP_ADDRESS, port, 500).get(2, TimeUnit.SECONDS));
+  }
+}
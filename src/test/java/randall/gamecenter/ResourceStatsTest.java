@@ -0,0 +1,45 @@
+package randall.gamecenter;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mrzhqiang
+ */
+public class ResourceStatsTest {
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  @Test
+  public void detectMemoryGrowthAndCpuSaturation() {
+    ResourceStats stats = new ResourceStats(4);
+    for (int i = 0; i < 5; i++) {
+      // 每秒消耗 950 毫秒 CPU 时间，内存每次增长 10%
+      stats.record(null, new ProcessSampler.Sample(i * SECOND, i * 950, 1000 + i * 100, 8, 16));
+    }
+    assertEquals(950, stats.cpu.latest(-1));
+    assertTrue(stats.isCpuSaturated(900));
+    assertTrue(stats.isMemoryGrowing(100));
+    assertFalse(stats.isMemoryGrowing(500));
+  }
+
+  @Test
+  public void clearResetsHistoryAndWarnings() {
+    ResourceStats stats = new ResourceStats(4);
+    stats.record(null, new ProcessSampler.Sample(0, 0, 1000, 8, 16));
+    stats.record(null, new ProcessSampler.Sample(SECOND, 100, 2000, 8, 16));
+    stats.memoryWarned = true;
+    stats.clear();
+    assertEquals(0, stats.rss.size());
+    assertEquals(-1, stats.cpu.latest(-1));
+    assertFalse(stats.memoryWarned);
+
+    // 清空后第一次采样只作为计算 CPU 使用率的起点
+    stats.record(null, new ProcessSampler.Sample(2 * SECOND, 200, 2000, 8, 16));
+    assertEquals(0, stats.cpu.size());
+    assertEquals(1, stats.rss.size());
+  }
+}
@@ -0,0 +1,56 @@
+package randall.gamecenter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mrzhqiang
+ */
+public class RestartPolicyTest {
+
+  @Test
+  public void backoffGrowsWithinJitter() {
+    RestartPolicy policy = new RestartPolicy(1000, 60000, 10, 600000, 60000);
+    long now = 0;
+    long expected = 1000;
+    for (int i = 0; i < 5; i++) {
+      long delay = policy.onFailure(now, 1);
+      assertTrue(delay >= expected * 0.8 && delay <= expected * 1.2);
+      assertFalse(policy.canRestart(now));
+      now += delay;
+      assertTrue(policy.canRestart(now));
+      policy.onLaunched(now);
+      expected *= 2;
+    }
+  }
+
+  @Test
+  public void parkAfterTooManyFailures() {
+    RestartPolicy policy = new RestartPolicy(0, 0, 3, 10000, 60000);
+    assertEquals(0, policy.onFailure(0, 1));
+    policy.onLaunched(0);
+    assertEquals(0, policy.onFailure(100, 1));
+    policy.onLaunched(100);
+    assertEquals(-1, policy.onFailure(200, 255));
+    assertTrue(policy.isParked());
+    assertFalse(policy.canRestart(Long.MAX_VALUE));
+    assertEquals(255, policy.lastExitCode());
+
+    policy.reset();
+    assertFalse(policy.isParked());
+  }
+
+  @Test
+  public void failuresOutsideWindowAreForgotten() {
+    RestartPolicy policy = new RestartPolicy(0, 0, 3, 1000, 60000);
+    policy.onFailure(0, 1);
+    policy.onLaunched(0);
+    policy.onFailure(500, 1);
+    policy.onLaunched(500);
+    assertEquals(0, policy.onFailure(5000, 1));
+    assertFalse(policy.isParked());
+  }
+}
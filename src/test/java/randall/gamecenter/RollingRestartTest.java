@@ -0,0 +1,128 @@
+package randall.gamecenter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mrzhqiang
+ */
+public class RollingRestartTest {
+  private Supervisor supervisor;
+  private ReadinessProbe probe;
+
+  @Before
+  public void setUp() {
+    supervisor = new Supervisor();
+    probe = new ReadinessProbe();
+  }
+
+  @After
+  public void tearDown() {
+    probe.close();
+    supervisor.shutdown();
+  }
+
+  @Test
+  public void restartInBatchesKeepingCapacity() throws Exception {
+    ProgramRegistry registry = new ProgramRegistry();
+    List<Share.Program> gates = registry.register(ProgramRole.RUN_GATE, 4);
+    for (Share.Program gate : gates) {
+      running(gate);
+    }
+    AtomicInteger minRunning = new AtomicInteger(gates.size());
+    RollingRestart restart = new RollingRestart(supervisor, probe, 100, 10, 5000);
+    List<RollingRestart.Result> results = restart.restart(registry.all(), 2, 2,
+        descriptor -> {
+          int count = 0;
+          for (Share.Program gate : gates) {
+            if (gate.state() == Lifecycle.State.RUNNING) {
+              count++;
+            }
+          }
+          minRunning.accumulateAndGet(count, Math::min);
+          running(descriptor.program);
+          return true;
+        }, result -> {
+        }).get(10, TimeUnit.SECONDS);
+
+    assertEquals(4, results.size());
+    for (RollingRestart.Result result : results) {
+      assertEquals(RollingRestart.Outcome.RESTARTED, result.outcome);
+      assertEquals(false, result.descriptor.program.maintenance);
+    }
+    assertTrue(minRunning.get() >= 2);
+  }
+
+  @Test
+  public void skipWhenNotEnoughAvailable() throws Exception {
+    ProgramRegistry registry = new ProgramRegistry();
+    running(registry.register(ProgramRole.SEL_GATE));
+    RollingRestart restart = new RollingRestart(supervisor, probe, 100, 10, 5000);
+    List<RollingRestart.Result> results = restart.restart(registry.all(), 1, 1,
+        descriptor -> {
+          throw new AssertionError("should not launch");
+        }, result -> {
+        }).get(10, TimeUnit.SECONDS);
+    assertEquals(RollingRestart.Outcome.SKIPPED, results.get(0).outcome);
+  }
+
+  private static void running(Share.Program program) {
+    program.getStart = true;
+    program.quitTimeout = 10;
+    program.process = new FakeProcess();
+    program.processCode = UUID.randomUUID();
+    program.lifecycle.moveTo(Lifecycle.State.RUNNING);
+  }
+
+  /**
+   * 不响应退出指令，调用 destroy 后才退出。
+   */
+  private static final class FakeProcess extends Process {
+    private final CountDownLatch exited = new CountDownLatch(1);
+
+    @Override public OutputStream getOutputStream() {
+      return new ByteArrayOutputStream();
+    }
+
+    @Override public InputStream getInputStream() {
+      return new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override public InputStream getErrorStream() {
+      return new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override public int waitFor() throws InterruptedException {
+      exited.await();
+      return 1;
+    }
+
+    @Override public int exitValue() {
+      if (exited.getCount() > 0) {
+        throw new IllegalThreadStateException();
+      }
+      return 1;
+    }
+
+    @Override public void destroy() {
+      exited.countDown();
+    }
+
+    @Override public boolean isAlive() {
+      return exited.getCount() > 0;
+    }
+  }
+}
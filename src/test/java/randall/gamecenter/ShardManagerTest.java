@@ -0,0 +1,179 @@
+package randall.gamecenter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author mrzhqiang
+ */
+public class ShardManagerTest {
+  private ShardManager manager;
+  private ControlServer server;
+
+  @Before
+  public void setUp() throws Exception {
+    Path directory = Files.createTempDirectory("shards");
+    writeShard(directory.resolve("world1"), "");
+    writeShard(directory.resolve("world2"), ports(10000));
+    manager = ShardManager.load(writeList(directory), message -> {
+    });
+    manager.open();
+    server = new ControlServer(manager, Share.PRIMARY_IP_ADDRESS, 0, 2, "");
+  }
+
+  @After
+  public void tearDown() {
+    server.close();
+    manager.close();
+  }
+
+  @Test
+  public void shardsShareSchedulerButKeepOwnPrograms() {
+    List<ShardManager.Shard> shards = manager.shards();
+    assertEquals(2, shards.size());
+    ShardManager.Shard world1 = shards.get(0);
+    ShardManager.Shard world2 = shards.get(1);
+    assertEquals("World1", world1.name);
+    assertTrue(world1.share.isShard());
+    assertTrue(world1.share.gameDirectory.endsWith("world1"));
+    assertSame(world1.share.supervisor, world2.share.supervisor);
+    assertSame(world1.share.readinessProbe, world2.share.readinessProbe);
+    assertFalse(world1.share.m2Server == world2.share.m2Server);
+
+    // 同名的维护计划以分区名称区分，各自只看到自己的计划
+    assertSame(world1.engine.scheduler(), world2.engine.scheduler());
+    assertEquals(2, manager.scheduler().entries().size());
+    assertEquals(1, world1.engine.schedules().size());
+    assertEquals("World1/Nightly", world1.engine.schedules().get(0).id);
+    assertEquals("World2/Nightly", world2.engine.schedules().get(0).id);
+  }
+
+  @Test
+  public void controlServerRoutesByShard() throws Exception {
+    HttpURLConnection connection = open("GET", "/shards");
+    assertEquals(200, connection.getResponseCode());
+    String body = read(connection);
+    assertTrue(body, body.startsWith("{\"shards\":[{\"name\":\"World1\""));
+    assertTrue(body, body.contains("\"name\":\"World2\""));
+
+    connection = open("GET", "/shards/World2/status");
+    assertEquals(200, connection.getResponseCode());
+    assertTrue(read(connection).contains("\"id\":\"M2Server\""));
+    assertEquals(404, open("GET", "/status").getResponseCode());
+    assertEquals(404, open("GET", "/shards/World3/status").getResponseCode());
+    assertEquals(405, open("POST", "/shards").getResponseCode());
+
+    connection = open("POST", "/shards/backup/start");
+    assertEquals(200, connection.getResponseCode());
+    assertEquals("{\"ok\":true,\"shards\":[\"World1\",\"World2\"]}", read(connection));
+    for (ShardManager.Shard shard : manager.shards()) {
+      assertTrue(shard.engine.isBackupRunning());
+    }
+    assertEquals(200, open("POST", "/shards/World1/backup/stop").getResponseCode());
+    assertFalse(manager.shard("World1").engine.isBackupRunning());
+    assertTrue(manager.shard("World2").engine.isBackupRunning());
+  }
+
+  @Test
+  public void rejectPortCollisions() throws Exception {
+    Path directory = Files.createTempDirectory("collide");
+    writeShard(directory.resolve("world1"), "");
+    // 第二个分区只有一个网关的端口和第一个分区相同，停用的程序不算冲突
+    writeShard(directory.resolve("world2"), ports(10000)
+        .replace("GatePort2 = 17201", "GatePort2 = 7201")
+        .replace("[LoginGate]\nGatePort = 17000",
+            "[LoginGate]\nGetStart = false\nGatePort = 7000"));
+    try {
+      ShardManager.load(writeList(directory), message -> {
+      });
+      fail("should reject port collisions");
+    } catch (IllegalArgumentException e) {
+      assertEquals("分区端口冲突：World2/RunGate2 与 World1/RunGate2 都使用端口 7201",
+          e.getMessage());
+    }
+
+    // 默认配置的两个分区，所有端口都冲突
+    writeShard(directory.resolve("world2"), "");
+    try {
+      ShardManager.load(writeList(directory), message -> {
+      });
+      fail("should reject port collisions");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains(
+          "World2/M2Server 与 World1/M2Server 都使用端口 5000"));
+      assertTrue(e.getMessage(), e.getMessage().contains(
+          "World2/LoginGate1 与 World1/LoginGate1 都使用端口 7000"));
+    }
+  }
+
+  private static Path writeList(Path directory) throws IOException {
+    Path list = directory.resolve("Shards.ini");
+    Files.write(list, ("[Shards]\nWorld1 = world1/Config.ini\nWorld2 = world2/Config.ini\n")
+        .getBytes(StandardCharsets.UTF_8));
+    return list;
+  }
+
+  /**
+   * 所有默认端口加上偏移量之后的配置。
+   */
+  private static String ports(int offset) {
+    return "[DBServer]\nGatePort = " + (5100 + offset) + "\nServerPort = " + (6000 + offset) + "\n"
+        + "[LoginSrv]\nGatePort = " + (5500 + offset) + "\nServerPort = " + (5600 + offset)
+        + "\nMonPort = " + (3000 + offset) + "\n"
+        + "[M2Server]\nGatePort = " + (5000 + offset) + "\nMsgSrvPort = " + (4900 + offset) + "\n"
+        + "[LogServer]\nPort = " + (10000 + offset) + "\n"
+        + "[RunGate]\nGatePort1 = " + (7200 + offset) + "\nGatePort2 = " + (7201 + offset)
+        + "\nGatePort3 = " + (7202 + offset) + "\n"
+        + "[SelGate]\nGatePort1 = " + (7100 + offset) + "\n"
+        + "[LoginGate]\nGatePort = " + (7000 + offset) + "\n";
+  }
+
+  private static void writeShard(Path directory, String extra) throws IOException {
+    Files.createDirectories(directory);
+    String config = "[GameConfig]\nGameDirectory = " + directory + "\n"
+        + "[Schedule]\nNightly = 0 4 * * * | backup\n" + extra;
+    Files.write(directory.resolve(Share.SERVER_CONFIG_FILE),
+        config.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private HttpURLConnection open(String method, String path) throws IOException {
+    InetSocketAddress address = server.address();
+    URL url = new URL("http", address.getHostString(), address.getPort(), path);
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setRequestMethod(method);
+    if ("POST".equals(method)) {
+      connection.setDoOutput(true);
+      connection.getOutputStream().close();
+    }
+    return connection;
+  }
+
+  private static String read(HttpURLConnection connection) throws IOException {
+    try (InputStream input = connection.getInputStream()) {
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int count;
+      while ((count = input.read(buffer)) >= 0) {
+        output.write(buffer, 0, count);
+      }
+      return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+}
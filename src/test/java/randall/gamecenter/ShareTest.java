@@ -0,0 +1,53 @@
+package randall.gamecenter;
+
+import com.google.common.collect.Lists;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author mrzhqiang
+ */
+public class ShareTest {
+  private final List<Share> shares = Lists.newArrayList();
+
+  @After
+  public void tearDown() {
+    for (Share share : shares) {
+      share.supervisor.shutdown();
+      share.readinessProbe.close();
+    }
+  }
+
+  @Test
+  public void stopTimeoutsPerRole() throws Exception {
+    Path directory = Files.createTempDirectory("share");
+    Path config = directory.resolve(Share.SERVER_CONFIG_FILE);
+    Files.write(config, ("[GameConfig]\nGameDirectory = " + directory + "/\n"
+        + "StopTimeout = 5000\n[DBServer]\nStopTimeout = 45000\n")
+        .getBytes(StandardCharsets.UTF_8));
+    Share share = new Share(config);
+    shares.add(share);
+    share.loadConfig();
+    share.applyConfig();
+    assertEquals(45000, share.dbServer.quitTimeout);
+    // 没有单独配置的角色沿用原来的默认值
+    assertEquals(Share.DEFAULT_M2_SERVER_STOP_TIMEOUT, share.m2Server.quitTimeout);
+    assertEquals(5000, share.loginServer.quitTimeout);
+
+    share.stopTimeouts.put(ProgramRole.M2_SERVER, 90000L);
+    share.saveConfig();
+    Share reloaded = new Share(config);
+    shares.add(reloaded);
+    reloaded.loadConfig();
+    reloaded.applyConfig();
+    assertEquals(45000, reloaded.dbServer.quitTimeout);
+    assertEquals(90000, reloaded.m2Server.quitTimeout);
+    assertEquals(5000, reloaded.stopTimeout(ProgramRole.RUN_GATE));
+  }
+}
@@ -0,0 +1,247 @@
+package randall.gamecenter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author mrzhqiang
+ */
+public class ShutdownEngineTest {
+  private static final long TIMEOUT = 20;
+
+  private final Supervisor supervisor = new Supervisor();
+  /** 按先后记录收到退出指令的程序。 */
+  private final List<String> quits = new CopyOnWriteArrayList<>();
+
+  @After
+  public void tearDown() {
+    supervisor.shutdown();
+  }
+
+  @Test
+  public void stopTiersInOrder() throws Exception {
+    Share.Program gate1 = running("RunGate1", ShutdownEngine.Stage.QUIT);
+    Share.Program gate2 = running("RunGate2", ShutdownEngine.Stage.QUIT);
+    Share.Program m2 = running("M2Server", ShutdownEngine.Stage.QUIT);
+    Share.Program db = running("DBServer", ShutdownEngine.Stage.QUIT);
+    List<ShutdownEngine.Tier> tiers = Arrays.asList(
+        new ShutdownEngine.Tier("网关", 0).add("RunGate1", gate1).add("RunGate2", gate2),
+        new ShutdownEngine.Tier("游戏引擎", 100).add("M2Server", m2),
+        new ShutdownEngine.Tier("数据库", 0).add("DBServer", db));
+
+    long startTick = System.nanoTime();
+    List<ShutdownEngine.Result> results = new ShutdownEngine(supervisor)
+        .shutdown(tiers, result -> {
+        }).get(10, TimeUnit.SECONDS);
+
+    assertTrue(System.nanoTime() - startTick >= TimeUnit.MILLISECONDS.toNanos(100));
+    assertEquals(4, results.size());
+    assertEquals(Arrays.asList("M2Server", "DBServer"), quits.subList(2, 4));
+    for (ShutdownEngine.Result result : results) {
+      assertEquals(ShutdownEngine.Stage.QUIT, result.stage);
+      assertEquals(Lifecycle.State.STOPPED, result.target.program.state());
+    }
+  }
+
+  @Test
+  public void escalateWhenQuitIsIgnored() throws Exception {
+    Share.Program destroyed = running("RunGate1", ShutdownEngine.Stage.DESTROY);
+    Share.Program killed = running("RunGate2", ShutdownEngine.Stage.FORCE);
+    ShutdownEngine.Tier tier = new ShutdownEngine.Tier("网关", 0)
+        .require("RunGate1", destroyed, TIMEOUT)
+        .require("RunGate2", killed, TIMEOUT);
+
+    List<ShutdownEngine.Result> results = new ShutdownEngine(supervisor)
+        .shutdown(Collections.singletonList(tier), result -> {
+        }).get(10, TimeUnit.SECONDS);
+
+    assertEquals(Arrays.asList("RunGate1", "RunGate2"), quits);
+    assertEquals(ShutdownEngine.Stage.DESTROY, stageOf(results, "RunGate1"));
+    assertEquals(ShutdownEngine.Stage.FORCE, stageOf(results, "RunGate2"));
+    assertEquals(Lifecycle.State.STOPPED, killed.state());
+  }
+
+  @Test
+  public void failWhenProcessCannotBeKilled() throws Exception {
+    Share.Program stuck = running("M2Server", ShutdownEngine.Stage.FAILED);
+    Share.Program db = running("DBServer", ShutdownEngine.Stage.QUIT);
+    List<ShutdownEngine.Tier> tiers = Arrays.asList(
+        new ShutdownEngine.Tier("游戏引擎", 0).require("M2Server", stuck, TIMEOUT),
+        new ShutdownEngine.Tier("数据库", 0).add("DBServer", db));
+
+    List<ShutdownEngine.Result> results = new ShutdownEngine(supervisor)
+        .shutdown(tiers, result -> {
+        }).get(10, TimeUnit.SECONDS);
+
+    assertEquals(ShutdownEngine.Stage.FAILED, stageOf(results, "M2Server"));
+    assertEquals(Lifecycle.State.ERROR, stuck.state());
+    // 后续层级照常停止
+    assertEquals(ShutdownEngine.Stage.QUIT, stageOf(results, "DBServer"));
+  }
+
+  @Test
+  public void cancelCompletesPendingPrograms() throws Exception {
+    Share.Program m2 = running("M2Server", ShutdownEngine.Stage.FAILED);
+    m2.quitTimeout = TimeUnit.MINUTES.toMillis(1);
+    Share.Program db = running("DBServer", ShutdownEngine.Stage.QUIT);
+    List<ShutdownEngine.Tier> tiers = Arrays.asList(
+        new ShutdownEngine.Tier("游戏引擎", 0).add("M2Server", m2),
+        new ShutdownEngine.Tier("数据库", 0).add("DBServer", db));
+    List<ShutdownEngine.Result> stopped = new CopyOnWriteArrayList<>();
+    ShutdownEngine engine = new ShutdownEngine(supervisor);
+    CompletableFuture<List<ShutdownEngine.Result>> future = engine.shutdown(tiers, stopped::add);
+    assertEquals(Collections.singletonList("M2Server"), quits);
+
+    engine.cancel();
+    try {
+      future.get(10, TimeUnit.SECONDS);
+      fail("should be cancelled");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof CancellationException);
+    }
+    assertEquals(1, stopped.size());
+    assertEquals(ShutdownEngine.Stage.FAILED, stopped.get(0).stage);
+    // 取消后不再停止后续层级
+    assertEquals(Collections.singletonList("M2Server"), quits);
+    assertEquals(Lifecycle.State.RUNNING, db.state());
+  }
+
+  @Test
+  public void requireDisabledProgram() throws Exception {
+    Share.Program disabled = new Share.Program();
+    disabled.getStart = false;
+    ShutdownEngine.Tier skipped = new ShutdownEngine.Tier("网关", 0).add("RunGate1", disabled);
+    assertTrue(skipped.isEmpty());
+
+    Share.Program running = running("RunGate2", ShutdownEngine.Stage.QUIT);
+    running.getStart = false;
+    ShutdownEngine.Tier tier = new ShutdownEngine.Tier("网关", 0)
+        .add("RunGate2", running)
+        .require("RunGate1", disabled);
+    List<ShutdownEngine.Result> results = new ShutdownEngine(supervisor)
+        .shutdown(Collections.singletonList(tier), result -> {
+        }).get(10, TimeUnit.SECONDS);
+    assertEquals(ShutdownEngine.Stage.QUIT, stageOf(results, "RunGate2"));
+    assertEquals(ShutdownEngine.Stage.NOT_RUNNING, stageOf(results, "RunGate1"));
+  }
+
+  @Test
+  public void timeoutCoversEveryStage() {
+    Share.Program gate = running("RunGate1", ShutdownEngine.Stage.QUIT);
+    Share.Program m2 = running("M2Server", ShutdownEngine.Stage.QUIT);
+    m2.quitTimeout = Share.DEFAULT_M2_SERVER_STOP_TIMEOUT;
+    Share.Program db = running("DBServer", ShutdownEngine.Stage.QUIT);
+    db.quitTimeout = Share.DEFAULT_DB_SERVER_STOP_TIMEOUT;
+    List<ShutdownEngine.Tier> tiers = Arrays.asList(
+        new ShutdownEngine.Tier("网关", 0).add("RunGate1", gate),
+        new ShutdownEngine.Tier("空", 1000),
+        new ShutdownEngine.Tier("游戏引擎", 5000).add("M2Server", m2),
+        new ShutdownEngine.Tier("数据库", 0).add("DBServer", db));
+    long destroy = 2 * ShutdownEngine.DEFAULT_DESTROY_TIMEOUT;
+    assertEquals(TIMEOUT + destroy + 5000 + Share.DEFAULT_M2_SERVER_STOP_TIMEOUT + destroy
+        + Share.DEFAULT_DB_SERVER_STOP_TIMEOUT + destroy, ShutdownEngine.timeout(tiers));
+  }
+
+  private static ShutdownEngine.Stage stageOf(List<ShutdownEngine.Result> results, String name) {
+    for (ShutdownEngine.Result result : results) {
+      if (result.target.name.equals(name)) {
+        return result.stage;
+      }
+    }
+    throw new AssertionError("no result: " + name);
+  }
+
+  private Share.Program running(String name, ShutdownEngine.Stage exitAt) {
+    Share.Program program = new Share.Program();
+    program.getStart = true;
+    program.quitTimeout = TIMEOUT;
+    program.process = new FakeProcess(name, exitAt);
+    program.lifecycle.moveTo(Lifecycle.State.RUNNING);
+    return program;
+  }
+
+  /**
+   * 在指定的阶段退出，{@link ShutdownEngine.Stage#FAILED} 表示始终不退出。
+   */
+  private final class FakeProcess extends Process {
+    private final String name;
+    private final ShutdownEngine.Stage exitAt;
+    private final CountDownLatch exited = new CountDownLatch(1);
+    private final OutputStream input = new ByteArrayOutputStream() {
+      @Override public void flush() {
+        String text = new String(toByteArray(), StandardCharsets.UTF_8);
+        if (text.contains(Share.QUIT_CODE)) {
+          reset();
+          quits.add(name);
+          exitAt(ShutdownEngine.Stage.QUIT);
+        }
+      }
+    };
+
+    FakeProcess(String name, ShutdownEngine.Stage exitAt) {
+      this.name = name;
+      this.exitAt = exitAt;
+    }
+
+    private void exitAt(ShutdownEngine.Stage stage) {
+      if (stage == exitAt) {
+        exited.countDown();
+      }
+    }
+
+    @Override public OutputStream getOutputStream() {
+      return input;
+    }
+
+    @Override public InputStream getInputStream() {
+      return new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override public InputStream getErrorStream() {
+      return new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override public int waitFor() throws InterruptedException {
+      exited.await();
+      return 0;
+    }
+
+    @Override public int exitValue() {
+      if (exited.getCount() > 0) {
+        throw new IllegalThreadStateException();
+      }
+      return 0;
+    }
+
+    @Override public void destroy() {
+      exitAt(ShutdownEngine.Stage.DESTROY);
+    }
+
+    @Override public Process destroyForcibly() {
+      exitAt(ShutdownEngine.Stage.FORCE);
+      return this;
+    }
+
+    @Override public boolean isAlive() {
+      return exited.getCount() > 0;
+    }
+  }
+}
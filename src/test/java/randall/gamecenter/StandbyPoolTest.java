@@ -0,0 +1,109 @@
+package randall.gamecenter;
+
+import com.google.common.collect.Sets;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mrzhqiang
+ */
+public class StandbyPoolTest {
+
+  @Test
+  public void launchOneAtATimeOnFreePorts() {
+    StandbyPool pool = new StandbyPool(2, 7300, 8);
+    ProgramDescriptor first = pool.nextToLaunch(Sets.newHashSet(7300));
+    assertArrayEquals(new int[]{7301}, first.program.ports);
+
+    first.program.process = new AliveProcess();
+    first.program.lifecycle.moveTo(Lifecycle.State.STARTING);
+    // 第一个备用网关还没有读取配置
+    assertNull(pool.nextToLaunch(Sets.newHashSet()));
+
+    first.program.processCode = UUID.randomUUID();
+    ProgramDescriptor second = pool.nextToLaunch(Sets.newHashSet(7300));
+    assertArrayEquals(new int[]{7302}, second.program.ports);
+  }
+
+  @Test
+  public void promoteTransfersReadyProcess() throws Exception {
+    StandbyPool pool = new StandbyPool(1, 7300, 8);
+    Share.Program gate = new Share.Program();
+    assertFalse(pool.promote(gate, exited -> {
+    }));
+
+    ProgramDescriptor slot = pool.nextToLaunch(Sets.newHashSet());
+    AliveProcess process = new AliveProcess();
+    slot.program.process = process;
+    slot.program.lifecycle.moveTo(Lifecycle.State.RUNNING);
+    assertEquals(1, pool.readyCount());
+
+    CompletableFuture<Process> exit = new CompletableFuture<>();
+    assertTrue(pool.promote(gate, exit::complete));
+    assertSame(process, gate.process);
+    assertEquals(Lifecycle.State.RUNNING, gate.state());
+    assertArrayEquals(new int[]{7300}, gate.ports);
+    assertNull(slot.program.process);
+    assertEquals(Lifecycle.State.STOPPED, slot.program.state());
+    assertEquals(0, pool.readyCount());
+
+    // 接管的进程退出后，游戏网关同样改为停止状态
+    process.exit();
+    assertSame(process, exit.get(5, TimeUnit.SECONDS));
+    assertEquals(Lifecycle.State.STOPPED, gate.state());
+    assertNull(gate.process);
+  }
+
+  private static final class AliveProcess extends Process {
+    private final CountDownLatch exited = new CountDownLatch(1);
+
+    void exit() {
+      exited.countDown();
+    }
+
+    @Override public OutputStream getOutputStream() {
+      return new ByteArrayOutputStream();
+    }
+
+    @Override public InputStream getInputStream() {
+      return new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override public InputStream getErrorStream() {
+      return new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override public int waitFor() throws InterruptedException {
+      exited.await();
+      return 0;
+    }
+
+    @Override public int exitValue() {
+      if (isAlive()) {
+        throw new IllegalThreadStateException();
+      }
+      return 0;
+    }
+
+    @Override public void destroy() {
+    }
+
+    @Override public boolean isAlive() {
+      return exited.getCount() > 0;
+    }
+  }
+}
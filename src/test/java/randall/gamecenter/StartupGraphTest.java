@@ -0,0 +1,168 @@
+package randall.gamecenter;
+
+import com.google.common.collect.Lists;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mrzhqiang
+ */
+public class StartupGraphTest {
+  private final List<String> launched = Lists.newArrayList();
+
+  private Share.Program program() {
+    Share.Program program = new Share.Program();
+    program.getStart = true;
+    return program;
+  }
+
+  private Runnable launcher(String name, Share.Program program) {
+    return () -> {
+      launched.add(name);
+      program.lifecycle.moveTo(Lifecycle.State.STARTING);
+    };
+  }
+
+  @Test
+  public void launchIndependentNodesTogether() {
+    Share.Program db = program();
+    Share.Program log = program();
+    Share.Program m2 = program();
+    Share.Program gate1 = program();
+    Share.Program gate2 = program();
+    StartupGraph graph = new StartupGraph();
+    graph.add("DBServer", db, launcher("DBServer", db));
+    graph.add("LogServer", log, launcher("LogServer", log));
+    graph.add("M2Server", m2, launcher("M2Server", m2), "DBServer", "LogServer");
+    graph.add("RunGate1", gate1, launcher("RunGate1", gate1), "M2Server");
+    graph.add("RunGate2", gate2, launcher("RunGate2", gate2), "M2Server");
+
+    assertFalse(graph.advance());
+    assertEquals(Lists.newArrayList("DBServer", "LogServer"), launched);
+
+    db.lifecycle.moveTo(Lifecycle.State.RUNNING);
+    assertFalse(graph.advance());
+    assertEquals(2, launched.size());
+
+    log.lifecycle.moveTo(Lifecycle.State.RUNNING);
+    assertFalse(graph.advance());
+    assertEquals("M2Server", launched.get(2));
+
+    m2.lifecycle.moveTo(Lifecycle.State.RUNNING);
+    assertFalse(graph.advance());
+    assertEquals(Lists.newArrayList("RunGate1", "RunGate2"), launched.subList(3, 5));
+
+    gate1.lifecycle.moveTo(Lifecycle.State.RUNNING);
+    gate2.lifecycle.moveTo(Lifecycle.State.RUNNING);
+    assertTrue(graph.advance());
+    assertFalse(graph.advance());
+
+    List<StartupGraph.Node> path = graph.criticalPath();
+    assertEquals("M2Server", path.get(path.size() - 2).name);
+  }
+
+  @Test
+  public void exclusiveNodesWaitForHandshake() {
+    Share.Program m2 = program();
+    Share.Program gate1 = program();
+    Share.Program gate2 = program();
+    StartupGraph graph = new StartupGraph();
+    m2.lifecycle.moveTo(Lifecycle.State.RUNNING);
+    graph.add("M2Server", m2, launcher("M2Server", m2));
+    graph.add("RunGate1", gate1, launcher("RunGate1", gate1), "M2Server").exclusive("RunGate");
+    graph.add("RunGate2", gate2, launcher("RunGate2", gate2), "M2Server").exclusive("RunGate");
+
+    graph.advance();
+    assertEquals(Lists.newArrayList("RunGate1"), launched);
+
+    gate1.processCode = java.util.UUID.randomUUID();
+    graph.advance();
+    assertEquals(Lists.newArrayList("RunGate1", "RunGate2"), launched);
+  }
+
+  @Test
+  public void disabledProgramDoesNotBlock() {
+    Share.Program db = program();
+    Share.Program login = program();
+    db.getStart = false;
+    StartupGraph graph = new StartupGraph();
+    graph.add("DBServer", db, launcher("DBServer", db));
+    graph.add("LoginSrv", login, launcher("LoginSrv", login), "DBServer");
+
+    graph.advance();
+    assertEquals(Lists.newArrayList("LoginSrv"), launched);
+  }
+
+  @Test
+  public void crashingProgramBacksOffAndParks() {
+    Share.Program db = program();
+    Share.Program login = program();
+    long[] now = {TimeUnit.DAYS.toMillis(1)};
+    StartupGraph graph = new StartupGraph(() -> now[0]);
+    // 每次启动后立即退出
+    graph.add("DBServer", db, () -> {
+      launched.add("DBServer");
+      db.lifecycle.moveTo(Lifecycle.State.STARTING);
+      db.lastExitCode = 3;
+      db.lifecycle.moveTo(Lifecycle.State.STOPPED);
+    });
+    graph.add("LoginSrv", login, launcher("LoginSrv", login), "DBServer");
+
+    assertFalse(graph.advance());
+    assertEquals(1, launched.size());
+    // 退避时间未到，不会重新启动
+    assertFalse(graph.advance());
+    assertFalse(graph.advance());
+    assertEquals(1, launched.size());
+
+    boolean finished = false;
+    for (int i = 0; i < RestartPolicy.DEFAULT_FAILURE_LIMIT * 2 && !finished; i++) {
+      now[0] += TimeUnit.SECONDS.toMillis(20);
+      finished = graph.advance();
+    }
+    assertTrue(db.restartPolicy.isParked());
+    assertEquals(Lifecycle.State.ERROR, db.state());
+    // 依赖出错的节点不再启动，同样熔断暂停，启动流程照常结束
+    assertTrue(finished);
+    assertEquals(RestartPolicy.DEFAULT_FAILURE_LIMIT, launched.size());
+    assertEquals(Lists.newArrayList(db, login),
+        Lists.transform(graph.failures(), node -> node.program));
+    assertEquals(Lifecycle.State.ERROR, login.state());
+    assertTrue(login.restartPolicy.isParked());
+    assertTrue(graph.report().contains("DBServer(退出码 3)"));
+    assertTrue(graph.report().contains("LoginSrv(依赖 DBServer 失败)"));
+  }
+
+  @Test
+  public void parkedDependencyBlocksDependents() {
+    Share.Program db = program();
+    Share.Program log = program();
+    Share.Program m2 = program();
+    Share.Program gate = program();
+    db.lifecycle.moveTo(Lifecycle.State.ERROR);
+    db.restartPolicy.park();
+    StartupGraph graph = new StartupGraph();
+    graph.add("DBServer", db, launcher("DBServer", db));
+    graph.add("LogServer", log, launcher("LogServer", log));
+    graph.add("M2Server", m2, launcher("M2Server", m2), "DBServer", "LogServer");
+    graph.add("RunGate1", gate, launcher("RunGate1", gate), "M2Server");
+
+    assertFalse(graph.advance());
+    assertEquals(Lists.newArrayList("LogServer"), launched);
+    // 依赖失败的节点连同它的后续节点一起跳过
+    assertEquals("DBServer", graph.get("M2Server").blocker().name);
+    assertEquals("M2Server", graph.get("RunGate1").blocker().name);
+    assertEquals(Lifecycle.State.ERROR, gate.state());
+
+    log.lifecycle.moveTo(Lifecycle.State.RUNNING);
+    assertTrue(graph.advance());
+    assertEquals(Lists.newArrayList("LogServer"), launched);
+    assertEquals(Lists.newArrayList(m2, gate),
+        Lists.transform(graph.failures(), node -> node.program));
+  }
+}
@@ -0,0 +1,212 @@
+package randall.gamecenter;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 模拟服务端程序的桩进程。
+ * <p>
+ * 按照真实程序的约定在标准输出上握手：启动后立即输出一行“程序代码:进程编号”，初始化完成后再输出一次，
+ * 从标准输入读取指令，收到 {@link Share#QUIT_CODE} 后退出。用来在没有 Windows 服务端程序的环境中
+ * 测试监管流程，选项可以写在命令行上，也可以通过环境变量 STUB_OPTIONS 传入：
+ * <pre>
+ * --start-delay 毫秒  两次握手之间的间隔，模拟慢启动
+ * --quit-delay 毫秒   收到退出指令后延迟退出，模拟保存数据
+ * --heartbeat 毫秒    定时输出一行日志，0 表示不输出
+ * --storm 行数        每秒输出的日志行数，模拟日志风暴
+ * --crash-after 毫秒  就绪后经过指定时间以退出码 1 退出
+ * --hang-after 毫秒   就绪后经过指定时间卡死：不再输出，也不响应标准输入
+ * </pre>
+ * 运行期间还可以从标准输入发送 :CRASH [退出码]、:HANG 和 :STORM 行数，其他内容原样回复一行，
+ * 相当于卡死检测的心跳。标准输入关闭时（控制器已经退出）总是立即退出，避免留下孤儿进程。
+ *
+ * @author mrzhqiang
+ */
+public final class StubGameServer {
+  public static final String OPTIONS_ENVIRONMENT = "STUB_OPTIONS";
+  public static final String CRASH_CODE = ":CRASH";
+  public static final String HANG_CODE = ":HANG";
+  public static final String STORM_CODE = ":STORM";
+
+  /** 日志风暴每批输出的间隔，单位：毫秒。 */
+  private static final long STORM_PERIOD = 10;
+
+  private final String processCode;
+  private final PrintStream out;
+  private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread thread = new Thread(r, "stub-timer");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private long startDelay;
+  private long quitDelay;
+  private long heartbeat;
+  private long crashAfter = -1;
+  private long hangAfter = -1;
+  private volatile int storm;
+  private volatile boolean hung;
+  private long sequence;
+
+  private StubGameServer(int code, PrintStream out) {
+    this.processCode = code + ":" + UUID.randomUUID();
+    this.out = out;
+  }
+
+  public static void main(String[] args) throws Exception {
+    StubGameServer server = new StubGameServer(Integer.parseInt(args[0]), System.out);
+    List<String> options = Lists.newArrayList(Splitter.on(' ').trimResults().omitEmptyStrings()
+        .split(Strings.nullToEmpty(System.getenv(OPTIONS_ENVIRONMENT))));
+    for (int i = 1; i < args.length; i++) {
+      options.add(args[i]);
+    }
+    server.parse(options);
+    server.run();
+  }
+
+  /**
+   * 为已经加载配置的游戏目录中的每一个程序生成启动脚本，脚本以程序文件命名，
+   * 在当前的类路径中启动桩进程，因此可以直接交给控制器启动。只支持类 Unix 系统。
+   *
+   * @param jvmOptions 桩进程的虚拟机参数，例如限制堆大小。
+   */
+  public static void install(Share share, String... jvmOptions) throws IOException {
+    String java = System.getProperty("java.home") + File.separator + "bin" + File.separator
+        + "java";
+    StringBuilder command = new StringBuilder("exec '").append(java).append('\'');
+    for (String option : jvmOptions) {
+      command.append(' ').append(option);
+    }
+    command.append(" -cp '").append(System.getProperty("java.class.path")).append("' ")
+        .append(StubGameServer.class.getName());
+    share.applyConfig();
+    for (ProgramDescriptor descriptor : share.registry.all()) {
+      Share.Program program = descriptor.program;
+      Path directory = Paths.get(program.directory);
+      Files.createDirectories(directory);
+      Path script = directory.resolve(program.programFile);
+      String content = "#!/bin/sh\n" + command + " " + descriptor.role.processCode + " \"$@\"\n";
+      Files.write(script, content.getBytes(StandardCharsets.UTF_8));
+      if (!script.toFile().setExecutable(true)) {
+        throw new IOException("无法设置执行权限：" + script);
+      }
+    }
+  }
+
+  private void parse(List<String> options) {
+    for (int i = 0; i + 1 < options.size(); i++) {
+      String name = options.get(i);
+      if (!name.startsWith("--")) {
+        // 控制器传入的窗口位置
+        continue;
+      }
+      long value = Long.parseLong(options.get(++i));
+      switch (name) {
+        case "--start-delay":
+          startDelay = value;
+          break;
+        case "--quit-delay":
+          quitDelay = value;
+          break;
+        case "--heartbeat":
+          heartbeat = value;
+          break;
+        case "--storm":
+          storm = (int) value;
+          break;
+        case "--crash-after":
+          crashAfter = value;
+          break;
+        case "--hang-after":
+          hangAfter = value;
+          break;
+        default:
+          throw new IllegalArgumentException("未知的选项：" + name);
+      }
+    }
+  }
+
+  private void run() throws InterruptedException {
+    print(processCode);
+    Thread reader = new Thread(this::readCommands, "stub-stdin");
+    reader.start();
+    TimeUnit.MILLISECONDS.sleep(startDelay);
+    print(processCode);
+    if (heartbeat > 0) {
+      timer.scheduleAtFixedRate(() -> print("heartbeat " + sequence++), heartbeat, heartbeat,
+          TimeUnit.MILLISECONDS);
+    }
+    timer.scheduleAtFixedRate(this::storm, STORM_PERIOD, STORM_PERIOD, TimeUnit.MILLISECONDS);
+    if (crashAfter >= 0) {
+      timer.schedule(() -> crash(1), crashAfter, TimeUnit.MILLISECONDS);
+    }
+    if (hangAfter >= 0) {
+      timer.schedule(() -> {
+        hung = true;
+      }, hangAfter, TimeUnit.MILLISECONDS);
+    }
+    reader.join();
+  }
+
+  private void readCommands() {
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (hung) {
+          continue;
+        }
+        String command = line.trim();
+        if (Share.QUIT_CODE.equals(command)) {
+          TimeUnit.MILLISECONDS.sleep(quitDelay);
+          System.exit(0);
+        } else if (command.startsWith(CRASH_CODE)) {
+          String code = command.substring(CRASH_CODE.length()).trim();
+          crash(code.isEmpty() ? 1 : Integer.parseInt(code));
+        } else if (HANG_CODE.equals(command)) {
+          hung = true;
+        } else if (command.startsWith(STORM_CODE)) {
+          storm = Integer.parseInt(command.substring(STORM_CODE.length()).trim());
+        } else {
+          print("echo " + line);
+        }
+      }
+    } catch (IOException | InterruptedException ignore) {
+      // 同样视为控制器已经退出
+    }
+    System.exit(0);
+  }
+
+  private void storm() {
+    int lines = (int) (storm * STORM_PERIOD / 1000);
+    for (int i = 0; i < lines; i++) {
+      print("storm " + sequence++ + " 模拟大量输出的日志内容");
+    }
+  }
+
+  private void crash(int exitCode) {
+    out.flush();
+    Runtime.getRuntime().halt(exitCode);
+  }
+
+  private void print(String line) {
+    if (!hung) {
+      out.println(line);
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package randall.gamecenter;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+/**
+ * @author mrzhqiang
+ */
+public class StubGameServerTest {
+  private Share share;
+  private GameEngine engine;
+
+  @Before
+  public void setUp() throws Exception {
+    assumeFalse(Processes.isWindows());
+    Path directory = Files.createTempDirectory("stub");
+    Path config = directory.resolve(Share.SERVER_CONFIG_FILE);
+    Files.write(config, ("[GameConfig]\nGameDirectory = " + directory + "/\n"
+        + "[SelGate]\nHangTimeout = 1500\nHeartbeat = ping\n")
+        .getBytes(StandardCharsets.UTF_8));
+    share = new Share(config);
+    share.loadConfig();
+    StubGameServer.install(share, "-Xmx32m", "-XX:TieredStopAtLevel=1");
+    engine = new GameEngine(share, message -> {
+    });
+    engine.generateGameConfig();
+  }
+
+  @After
+  public void tearDown() {
+    if (engine != null) {
+      engine.close();
+    }
+  }
+
+  @Test
+  public void superviseStubs() throws Exception {
+    assertTrue(engine.start(0));
+    awaitTrue(() -> engine.state() == Lifecycle.State.RUNNING, 60);
+    for (Share.Program program : share.programs()) {
+      if (program.getStart) {
+        assertEquals(program.programFile, Lifecycle.State.RUNNING, program.state());
+      }
+    }
+
+    // 同一角色的两个实例同时被强制结束，由退出事件触发重启，各自完成握手
+    Share.Program gate1 = share.registry.byRole(ProgramRole.RUN_GATE).get(0).program;
+    Share.Program gate2 = share.registry.byRole(ProgramRole.RUN_GATE).get(1).program;
+    Process killed = gate1.process;
+    killed.destroyForcibly();
+    gate2.process.destroyForcibly();
+    awaitTrue(() -> gate1.restartCount == 1 && gate1.state() == Lifecycle.State.RUNNING
+        && gate2.restartCount == 1 && gate2.state() == Lifecycle.State.RUNNING, 30);
+    assertNotSame(killed, gate1.process);
+    assertTrue(gate1.restartTime >= gate1.detectTime);
+
+    // 卡死的角色网关不再回复心跳，由卡死检测结束后重启
+    Share.Program selGate = share.registry.byRole(ProgramRole.SEL_GATE).get(0).program;
+    assertEquals(0, selGate.restartCount);
+    Process hung = selGate.process;
+    selGate.sendMessage(StubGameServer.HANG_CODE);
+    awaitTrue(() -> selGate.restartCount == 1 && selGate.state() == Lifecycle.State.RUNNING,
+        30);
+    assertNotSame(hung, selGate.process);
+
+    // 所有桩进程都响应退出指令，不需要强制结束
+    List<ShutdownEngine.Result> results = engine.stop().get(60, TimeUnit.SECONDS);
+    assertTrue(results.size() > 0);
+    for (ShutdownEngine.Result result : results) {
+      assertEquals(ShutdownEngine.Stage.QUIT, result.stage);
+    }
+  }
+
+  private static void awaitTrue(Condition condition, int seconds) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+    while (!condition.test()) {
+      assertTrue(System.nanoTime() < deadline);
+      TimeUnit.MILLISECONDS.sleep(20);
+    }
+  }
+
+  private interface Condition {
+    boolean test();
+  }
+}
@@ -0,0 +1,354 @@
+package randall.gamecenter;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 监管流程的浸泡测试。
+ * <p>
+ * 用 {@link StubGameServer} 代替真实的服务端程序，在若干个分区中同时运行几百个桩进程，全部就绪后先空闲
+ * 一段时间，再按固定间隔随机注入故障：强制结束进程、程序自行崩溃和卡死，其中一个游戏网关持续输出大量日志。
+ * 结束后报告每类故障的检测延迟、重启延迟和恢复到运行状态的延迟，空闲和注入故障期间控制器的 CPU 占用，
+ * 以及监管调度器的任务延迟。检测延迟从注入故障到监管器记录失败，卡死包含卡死检测的静默时间；
+ * 重启延迟是引擎记录的从进程退出到新进程创建完成，包含重启策略第一次失败的退避时间；
+ * 恢复延迟从注入故障到程序重新握手进入运行状态。
+ * <p>
+ * 不属于单元测试，需要手动运行，只支持类 Unix 系统，参数为分区数、每个分区的游戏网关数、
+ * 注入故障的秒数和注入间隔（毫秒）：
+ * <pre>
+ * java -cp target/classes:target/test-classes:... randall.gamecenter.SupervisorSoak 8 32 300 200
+ * </pre>
+ *
+ * @author mrzhqiang
+ */
+public final class SupervisorSoak {
+  /** 桩进程的虚拟机参数，尽量减少几百个进程的内存占用。 */
+  private static final String[] STUB_JVM_OPTIONS = {
+      "-Xmx16m", "-Xss256k", "-XX:+UseSerialGC", "-XX:TieredStopAtLevel=1",
+  };
+  /** 桩进程两次握手之间的随机间隔上限，单位：毫秒。 */
+  private static final int MAX_START_DELAY = 500;
+  /** 每个分区第一个游戏网关每秒输出的日志行数。 */
+  private static final int STORM_LINES = 2000;
+  /** 卡死检测的静默时间，单位：毫秒。 */
+  private static final long HANG_TIMEOUT = 3000;
+  private static final long IDLE_SECONDS = 10;
+  /** 单次故障等待恢复的最长时间，超过时视为没有恢复。 */
+  private static final long RECOVER_TIMEOUT = TimeUnit.MINUTES.toNanos(1);
+  private static final long POLL_PERIOD = 5;
+
+  private final Random random = new Random();
+  private final List<Target> targets = Lists.newArrayList();
+  private final List<Injection> pending = Lists.newLinkedList();
+  private final Map<Kind, Stats> stats = Maps.newEnumMap(Kind.class);
+  private final AtomicLong messages = new AtomicLong();
+  private int lost;
+
+  public static void main(String[] args) throws Exception {
+    int shards = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+    int gates = args.length > 1 ? Integer.parseInt(args[1]) : 24;
+    long seconds = args.length > 2 ? Long.parseLong(args[2]) : 60;
+    long interval = args.length > 3 ? Long.parseLong(args[3]) : 200;
+    new SupervisorSoak().run(shards, gates, seconds, interval);
+  }
+
+  private void run(int shards, int gates, long seconds, long interval) throws Exception {
+    Path directory = Files.createTempDirectory("soak");
+    Map<String, Path> configs = Maps.newLinkedHashMap();
+    for (int i = 1; i <= shards; i++) {
+      Path shard = Files.createDirectories(directory.resolve("world" + i));
+      Path config = shard.resolve(Share.SERVER_CONFIG_FILE);
+      Files.write(config, ("[GameConfig]\nGameDirectory = " + shard + "/\n")
+          .getBytes(StandardCharsets.UTF_8));
+      configs.put("World" + i, config);
+    }
+    ShardManager manager = new ShardManager(configs, null, message -> messages.incrementAndGet());
+    try {
+      for (ShardManager.Shard shard : manager.shards()) {
+        prepare(shard, gates);
+      }
+      manager.open();
+      System.out.printf("分区: %d, 桩进程: %d, 故障注入: %d s x %d ms%n", shards, targets.size(),
+          seconds, interval);
+
+      long begin = System.nanoTime();
+      manager.startAll();
+      for (ShardManager.Shard shard : manager.shards()) {
+        await(() -> shard.engine.state() == Lifecycle.State.RUNNING, TimeUnit.MINUTES.toNanos(5));
+      }
+      System.out.printf("启动全部分区: %d ms%n",
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+
+      ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+      threads.resetPeakThreadCount();
+      Cpu cpu = new Cpu();
+      TimeUnit.SECONDS.sleep(IDLE_SECONDS);
+      System.out.println("空闲 CPU      " + cpu.report());
+
+      cpu = new Cpu();
+      long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+      long next = System.nanoTime();
+      while (System.nanoTime() < end) {
+        if (System.nanoTime() >= next) {
+          inject();
+          next += TimeUnit.MILLISECONDS.toNanos(interval);
+        }
+        poll();
+        TimeUnit.MILLISECONDS.sleep(POLL_PERIOD);
+      }
+      String chaos = cpu.report();
+      await(() -> {
+        poll();
+        return pending.isEmpty();
+      }, RECOVER_TIMEOUT);
+      System.out.println("故障注入 CPU  " + chaos);
+      System.out.printf("控制器线程: %d，峰值 %d，引擎消息: %d%n", threads.getThreadCount(),
+          threads.getPeakThreadCount(), messages.get());
+      System.out.println(Processes.outputPump().stats());
+      for (Map.Entry<Kind, Stats> entry : stats.entrySet()) {
+        System.out.println(entry.getKey().displayName + entry.getValue().report());
+      }
+      int parked = 0;
+      for (Target target : targets) {
+        parked += target.descriptor.program.restartPolicy.isParked() ? 1 : 0;
+      }
+      System.out.printf("没有恢复: %d，熔断暂停: %d%n", lost, parked);
+      System.out.println(manager.shards().get(0).share.supervisor.report());
+
+      begin = System.nanoTime();
+      manager.stopAll().get(5, TimeUnit.MINUTES);
+      System.out.printf("停止全部分区: %d ms%n",
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+    } finally {
+      manager.close();
+      for (Target target : targets) {
+        Process process = target.descriptor.program.process;
+        if (process != null) {
+          process.destroyForcibly();
+        }
+      }
+    }
+  }
+
+  private void prepare(ShardManager.Shard shard, int gates) throws Exception {
+    Share share = shard.share;
+    for (int i = 0; i < Share.MAX_RUN_GATE_COUNT; i++) {
+      share.config.runGate.getStart[i] = i < gates;
+    }
+    for (ProgramRole role : ProgramRole.values()) {
+      share.watchdogRules.put(role,
+          new Watchdog.Rule(HANG_TIMEOUT, "ping", Watchdog.Action.RESTART));
+    }
+    StubGameServer.install(share, STUB_JVM_OPTIONS);
+    shard.engine.generateGameConfig();
+    boolean storm = true;
+    for (ProgramDescriptor descriptor : share.registry.all()) {
+      Share.Program program = descriptor.program;
+      if (!program.getStart) {
+        continue;
+      }
+      String options = "--start-delay " + random.nextInt(MAX_START_DELAY);
+      if (storm && descriptor.role == ProgramRole.RUN_GATE) {
+        options += " --storm " + STORM_LINES;
+        storm = false;
+      }
+      program.environment.put(StubGameServer.OPTIONS_ENVIRONMENT, options);
+      targets.add(new Target(descriptor));
+    }
+  }
+
+  /**
+   * 选择最久没有注入过故障、并且正在运行的程序注入一次故障，尽量避免触发熔断。
+   */
+  private void inject() {
+    Collections.shuffle(targets, random);
+    Target chosen = null;
+    for (Target target : targets) {
+      Share.Program program = target.descriptor.program;
+      Process process = program.process;
+      if (target.busy || process == null || !process.isAlive()
+          || program.state() != Lifecycle.State.RUNNING || program.restartPolicy.isPending()) {
+        continue;
+      }
+      if (chosen == null || target.injected < chosen.injected) {
+        chosen = target;
+      }
+    }
+    if (chosen == null) {
+      return;
+    }
+    int roll = random.nextInt(10);
+    Kind kind = roll < 8 ? Kind.KILL : roll < 9 ? Kind.CRASH : Kind.HANG;
+    Share.Program program = chosen.descriptor.program;
+    Injection injection = new Injection(chosen, kind, program.restartCount);
+    chosen.busy = true;
+    chosen.injected = injection.tick;
+    switch (kind) {
+      case KILL:
+        program.process.destroyForcibly();
+        break;
+      case CRASH:
+        program.sendMessage(StubGameServer.CRASH_CODE);
+        break;
+      case HANG:
+        program.sendMessage(StubGameServer.HANG_CODE);
+        break;
+    }
+    pending.add(injection);
+  }
+
+  private void poll() {
+    long now = System.nanoTime();
+    Iterator<Injection> iterator = pending.iterator();
+    while (iterator.hasNext()) {
+      Injection injection = iterator.next();
+      Share.Program program = injection.target.descriptor.program;
+      if (injection.detected == 0 && program.restartPolicy.isPending()) {
+        injection.detected = now;
+      }
+      if (injection.restarted == 0 && program.restartCount > injection.restartCount) {
+        injection.restarted = now;
+        injection.restartTime = program.restartTime;
+        if (injection.detected == 0) {
+          injection.detected = now;
+        }
+      }
+      boolean done = injection.restarted > 0 && program.state() == Lifecycle.State.RUNNING;
+      if (done) {
+        stats.computeIfAbsent(injection.kind, kind -> new Stats()).add(injection, now);
+        // 每次都按第一次失败处理，避免退避越来越长直至熔断；进程存活时运行检测不会访问重启策略
+        program.restartPolicy.reset();
+      } else if (now - injection.tick > RECOVER_TIMEOUT) {
+        lost++;
+      } else {
+        continue;
+      }
+      injection.target.busy = false;
+      iterator.remove();
+    }
+  }
+
+  private static void await(Condition condition, long timeout) throws InterruptedException {
+    long deadline = System.nanoTime() + timeout;
+    while (!condition.test()) {
+      if (System.nanoTime() > deadline) {
+        throw new IllegalStateException("等待超时");
+      }
+      TimeUnit.MILLISECONDS.sleep(POLL_PERIOD);
+    }
+  }
+
+  private interface Condition {
+    boolean test();
+  }
+
+  private enum Kind {
+    KILL("强制结束  "),
+    CRASH("自行崩溃  "),
+    HANG("卡死      "),
+    ;
+
+    final String displayName;
+
+    Kind(String displayName) {
+      this.displayName = displayName;
+    }
+  }
+
+  private static final class Target {
+    final ProgramDescriptor descriptor;
+    boolean busy;
+    long injected;
+
+    Target(ProgramDescriptor descriptor) {
+      this.descriptor = descriptor;
+    }
+  }
+
+  private static final class Injection {
+    final Target target;
+    final Kind kind;
+    final int restartCount;
+    final long tick = System.nanoTime();
+    /** 监管器记录失败、开始等待重启的时刻。 */
+    long detected;
+    long restarted;
+    long restartTime;
+
+    Injection(Target target, Kind kind, int restartCount) {
+      this.target = target;
+      this.kind = kind;
+      this.restartCount = restartCount;
+    }
+  }
+
+  /**
+   * 一类故障的延迟统计，单位：毫秒。
+   */
+  private static final class Stats {
+    final List<Long> detect = Lists.newArrayList();
+    final List<Long> restart = Lists.newArrayList();
+    final List<Long> recover = Lists.newArrayList();
+
+    void add(Injection injection, long now) {
+      detect.add(TimeUnit.NANOSECONDS.toMillis(injection.detected - injection.tick));
+      restart.add(injection.restartTime);
+      recover.add(TimeUnit.NANOSECONDS.toMillis(now - injection.tick));
+    }
+
+    String report() {
+      return String.format("%4d 次  检测 %s  重启 %s  恢复 %s", detect.size(),
+          percentiles(detect), percentiles(restart), percentiles(recover));
+    }
+
+    private static String percentiles(List<Long> values) {
+      List<Long> sorted = Lists.newArrayList(values);
+      Collections.sort(sorted);
+      int size = sorted.size();
+      return String.format("p50 %5d p99 %5d max %5d ms", sorted.get(size / 2),
+          sorted.get(size * 99 / 100), sorted.get(size - 1));
+    }
+  }
+
+  /**
+   * 控制器进程的 CPU 占用，以单个核心的百分比表示。
+   */
+  private static final class Cpu {
+    private final long wall = System.nanoTime();
+    private final long cpu = processCpuTime();
+
+    String report() {
+      long elapsed = System.nanoTime() - wall;
+      long used = processCpuTime() - cpu;
+      return String.format("%5.1f%%（%d ms / %d ms）", used * 100.0 / elapsed,
+          TimeUnit.NANOSECONDS.toMillis(used), TimeUnit.NANOSECONDS.toMillis(elapsed));
+    }
+
+    private static long processCpuTime() {
+      java.lang.management.OperatingSystemMXBean bean =
+          ManagementFactory.getOperatingSystemMXBean();
+      if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+        return ((com.sun.management.OperatingSystemMXBean) bean).getProcessCpuTime();
+      }
+      // 退而求其次，累计所有存活线程的 CPU 时间
+      ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+      long total = 0;
+      for (long id : threads.getAllThreadIds()) {
+        total += Math.max(0, threads.getThreadCpuTime(id));
+      }
+      return total;
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package randall.gamecenter;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mrzhqiang
+ */
+public class SupervisorTest {
+  private final Supervisor supervisor = new Supervisor();
+
+  @After
+  public void tearDown() {
+    supervisor.shutdown();
+  }
+
+  @Test
+  public void cancelTaskWithoutStoppingScheduler() throws Exception {
+    AtomicInteger count = new AtomicInteger();
+    Supervisor.Task task = supervisor.schedule("count", count::incrementAndGet, 0, 10);
+    Thread.sleep(100);
+    task.cancel();
+    int value = count.get();
+    assertTrue(value > 0);
+    assertEquals(0, supervisor.queueSize());
+
+    Thread.sleep(50);
+    assertEquals(value, count.get());
+
+    CountDownLatch latch = new CountDownLatch(1);
+    supervisor.execute("again", latch::countDown);
+    assertTrue(latch.await(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void exceptionDoesNotStopPeriodicTask() throws Exception {
+    CountDownLatch latch = new CountDownLatch(3);
+    supervisor.schedule("fail", () -> {
+      latch.countDown();
+      throw new IllegalStateException("test");
+    }, 0, 10);
+    assertTrue(latch.await(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void errorDoesNotStopPeriodicTask() throws Exception {
+    CountDownLatch latch = new CountDownLatch(4);
+    Supervisor.Task task = supervisor.schedule("error", () -> {
+      latch.countDown();
+      throw new NoClassDefFoundError("test");
+    }, 0, 10);
+    // 第四次执行开始时，前三次的错误一定已经记录
+    assertTrue(latch.await(1, TimeUnit.SECONDS));
+    assertFalse(task.isCancelled());
+    assertTrue(task.failureCount() >= 3);
+  }
+}
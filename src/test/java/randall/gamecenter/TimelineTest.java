@@ -0,0 +1,81 @@
+package randall.gamecenter;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mrzhqiang
+ */
+public class TimelineTest {
+  private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  @Test
+  public void exportJsonAndCsv() {
+    Timeline timeline = new Timeline(Timeline.Kind.START, 1000, 0);
+    timeline.record("DBServer", Timeline.Phase.SPAWNED, 2 * MS);
+    timeline.record("M2Server", Timeline.Phase.SPAWNED, 3 * MS);
+    timeline.record("DBServer", Timeline.Phase.READY, 5 * MS + 1500);
+    timeline.finish(8 * MS);
+    timeline.record("M2Server", Timeline.Phase.READY, 9 * MS);
+
+    assertEquals(8, timeline.totalMillis());
+    assertEquals("{\"kind\":\"start\",\"startTime\":1000,\"totalMillis\":8,\"programs\":["
+        + "{\"id\":\"DBServer\",\"phases\":[{\"phase\":\"spawned\",\"millis\":2.0},"
+        + "{\"phase\":\"ready\",\"millis\":5.002}]},"
+        + "{\"id\":\"M2Server\",\"phases\":[{\"phase\":\"spawned\",\"millis\":3.0}]}]}",
+        timeline.toJson());
+    assertEquals("program,phase,millis\n"
+        + "DBServer,spawned,2.0\n"
+        + "M2Server,spawned,3.0\n"
+        + "DBServer,ready,5.002\n", timeline.toCsv());
+  }
+
+  @Test
+  public void waitIsExcludedFromTotal() {
+    Timeline timeline = new Timeline(Timeline.Kind.START, 1000, 0);
+    timeline.record("DBServer", Timeline.Phase.SPAWNED, 2 * MS);
+    timeline.record("LoginGate", Timeline.Phase.WAIT, 3 * MS);
+    timeline.exclude(60000 * MS);
+    timeline.record("LoginGate", Timeline.Phase.SPAWNED, 60004 * MS);
+    timeline.finish(60010 * MS);
+    timeline.exclude(MS);
+
+    assertEquals(10, timeline.totalMillis());
+    assertEquals(60000, timeline.waitMillis());
+    assertTrue(timeline.toJson().startsWith(
+        "{\"kind\":\"start\",\"startTime\":1000,\"totalMillis\":10,\"waitMillis\":60000,"));
+    assertTrue(timeline.toCsv().contains("LoginGate,wait,3.0\n"));
+  }
+
+  @Test
+  public void baselineIsMedianOfRecentRuns() throws Exception {
+    Path directory = Files.createTempDirectory("timeline");
+    TimelineHistory history = new TimelineHistory(directory);
+    assertEquals(-1, history.baseline(Timeline.Kind.START, 3));
+
+    long[] totals = {100, 9000, 300, 200, 400};
+    for (int i = 0; i < totals.length; i++) {
+      Timeline timeline = new Timeline(Timeline.Kind.START, i * 1000L, 0);
+      timeline.finish(totals[i] * MS);
+      assertTrue(Files.exists(history.save(timeline)));
+    }
+    Timeline stop = new Timeline(Timeline.Kind.STOP, 0, 0);
+    stop.finish(50 * MS);
+    history.save(stop);
+    Files.write(directory.resolve(TimelineHistory.HISTORY_FILE),
+        "broken line\n".getBytes(StandardCharsets.UTF_8),
+        StandardOpenOption.APPEND);
+
+    // 最近三次启动：300、200、400
+    assertEquals(300, history.baseline(Timeline.Kind.START, 3));
+    assertEquals(350, history.baseline(Timeline.Kind.START, 4));
+    assertEquals(50, history.baseline(Timeline.Kind.STOP, 3));
+  }
+}
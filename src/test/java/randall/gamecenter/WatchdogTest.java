@@ -0,0 +1,102 @@
+package randall.gamecenter;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author mrzhqiang
+ */
+public class WatchdogTest {
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  @Test
+  public void heartbeatThenHungOnceUntilOutputResumes() throws Exception {
+    assumeTrue(Files.isDirectory(Paths.get("/proc/self")));
+    Path directory = Files.createTempDirectory("hang");
+    Watchdog watchdog = new Watchdog(directory);
+    Watchdog.Rule rule = new Watchdog.Rule(3000, ":PING", Watchdog.Action.RESTART);
+    Share.Program program = new Share.Program();
+    Process child = new ProcessBuilder("sleep", "30").start();
+    try {
+      program.process = child;
+      program.lifecycle.moveTo(Lifecycle.State.RUNNING);
+      long start = program.lifecycle.snapshot().since;
+      assertEquals(Watchdog.Verdict.OK, watchdog.check(program, null, start + 10 * SECOND));
+      assertEquals(Watchdog.Verdict.OK, watchdog.check(program, rule, start));
+      // 静默超过三分之一时发送心跳，间隔内不重复发送
+      assertEquals(Watchdog.Verdict.HEARTBEAT, watchdog.check(program, rule, start + SECOND));
+      assertEquals(Watchdog.Verdict.OK, watchdog.check(program, rule, start + SECOND + 1));
+      assertEquals(Watchdog.Verdict.HEARTBEAT, watchdog.check(program, rule, start + 2 * SECOND));
+      // 判定卡死只返回一次
+      assertEquals(Watchdog.Verdict.HUNG, watchdog.check(program, rule, start + 3 * SECOND));
+      assertEquals(Watchdog.Verdict.OK, watchdog.check(program, rule, start + 4 * SECOND));
+
+      program.output.add("still alive");
+      long output = program.output.lastTick();
+      assertEquals(Watchdog.Verdict.OK, watchdog.check(program, rule, output));
+      assertEquals(Watchdog.Verdict.HUNG, watchdog.check(program, rule, output + 3 * SECOND));
+
+      ProgramDescriptor descriptor =
+          new ProgramDescriptor(ProgramRole.M2_SERVER, 0, program, "M2Server", "游戏引擎服务器");
+      Path path = watchdog.capture(descriptor, 3000);
+      String text = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+      assertTrue(path.getFileName().toString().startsWith("M2Server-"));
+      assertTrue(text.contains("静默时长：3000 ms"));
+      assertTrue(text.contains("still alive"));
+      assertTrue(text.contains("/proc/status"));
+    } finally {
+      child.destroyForcibly();
+    }
+  }
+
+  @Test
+  public void silenceBeforeWatchingIsNotHung() throws Exception {
+    assumeFalse(Processes.isWindows());
+    Watchdog watchdog = new Watchdog(Files.createTempDirectory("hang"));
+    Watchdog.Rule rule = new Watchdog.Rule(3000, ":PING", Watchdog.Action.RESTART);
+    Share.Program program = new Share.Program();
+    Process child = new ProcessBuilder("sleep", "30").start();
+    try {
+      program.process = child;
+      program.lifecycle.moveTo(Lifecycle.State.RUNNING);
+      // 游戏全部启动之前已经静默了很久，第一次检测先发送心跳
+      long start = program.lifecycle.snapshot().since + 10 * SECOND;
+      assertEquals(Watchdog.Verdict.HEARTBEAT, watchdog.check(program, rule, start));
+      assertEquals(Watchdog.Verdict.HEARTBEAT, watchdog.check(program, rule, start + SECOND));
+      assertEquals(Watchdog.Verdict.HUNG, watchdog.check(program, rule, start + 3 * SECOND));
+
+      // 重新开始检测之后同样重新计算
+      watchdog.reset();
+      long restart = start + 10 * SECOND;
+      assertEquals(Watchdog.Verdict.HEARTBEAT, watchdog.check(program, rule, restart));
+      assertEquals(Watchdog.Verdict.HUNG, watchdog.check(program, rule, restart + 3 * SECOND));
+    } finally {
+      child.destroyForcibly();
+    }
+  }
+
+  @Test
+  public void silenceStartsAtLatestOfOutputAndRunning() {
+    Share.Program program = new Share.Program();
+    program.lifecycle.moveTo(Lifecycle.State.RUNNING);
+    long since = program.lifecycle.snapshot().since;
+    assertFalse(program.output.hasOutput());
+    assertEquals(SECOND, Watchdog.silentNanos(program, since + SECOND));
+
+    // 进入运行状态之前的输出不算
+    program.output.add("booting", since - SECOND);
+    assertEquals(SECOND, Watchdog.silentNanos(program, since + SECOND));
+    program.output.add("ready", since + SECOND);
+    assertEquals(SECOND, Watchdog.silentNanos(program, since + 2 * SECOND));
+  }
+}